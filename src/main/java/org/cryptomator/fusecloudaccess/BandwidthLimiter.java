@@ -0,0 +1,150 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the bandwidth of data transfers using a token bucket, which allows bursts of up to one second worth of data.
+ * <p>
+ * Transfers can either {@link #acquire(int) wait} until their data is covered by the limit or just
+ * {@link #consume(int) consume} bandwidth without waiting. The latter is meant for latency-sensitive transfers. Since
+ * the bandwidth they consumed is accounted for, other transfers are slowed down accordingly.
+ * <p>
+ * The limit can be changed at any time.
+ */
+public class BandwidthLimiter {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final Ticker ticker;
+	private final LongAdder transferredBytes = new LongAdder();
+	private final LongAdder throttledNanos = new LongAdder();
+	private long bytesPerSecond; // guarded by this
+	private double availableBytes; // guarded by this, negative if transfers are waiting
+	private long lastRefill; // guarded by this
+
+	/**
+	 * @param bytesPerSecond The initial limit or <code>0</code> for unlimited bandwidth
+	 */
+	public BandwidthLimiter(long bytesPerSecond) {
+		this(bytesPerSecond, Ticker.systemTicker());
+	}
+
+	// visible for testing
+	BandwidthLimiter(long bytesPerSecond, Ticker ticker) {
+		this.ticker = ticker;
+		this.lastRefill = ticker.read();
+		setBytesPerSecond(bytesPerSecond);
+		this.availableBytes = bytesPerSecond; // start with a full bucket
+	}
+
+	/**
+	 * @return The current limit or <code>0</code> if unlimited
+	 */
+	public synchronized long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Changes the limit. Takes effect for all subsequent transfers.
+	 *
+	 * @param bytesPerSecond The new limit or <code>0</code> for unlimited bandwidth
+	 */
+	public synchronized void setBytesPerSecond(long bytesPerSecond) {
+		Preconditions.checkArgument(bytesPerSecond >= 0, "bytesPerSecond must not be negative");
+		refill();
+		this.bytesPerSecond = bytesPerSecond;
+		this.availableBytes = Math.min(availableBytes, bytesPerSecond); // no burst beyond the new limit
+	}
+
+	/**
+	 * @return Total number of bytes transferred since creation of this limiter
+	 */
+	public long getTransferredBytes() {
+		return transferredBytes.sum();
+	}
+
+	/**
+	 * @return Total time transfers have been delayed by this limiter
+	 */
+	public Duration getThrottledTime() {
+		return Duration.ofNanos(throttledNanos.sum());
+	}
+
+	/**
+	 * Waits until the given number of bytes may be transferred without exceeding the limit.
+	 *
+	 * @param bytes Number of bytes to transfer
+	 * @throws InterruptedIOException If interrupted while waiting
+	 */
+	public void acquire(int bytes) throws InterruptedIOException {
+		long waitNanos = reserve(bytes);
+		if (waitNanos > 0) {
+			throttledNanos.add(waitNanos);
+			try {
+				sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttling transfer");
+			}
+		}
+	}
+
+	/**
+	 * Accounts for the given number of bytes without waiting, delaying subsequent {@link #acquire(int) acquisitions}.
+	 *
+	 * @param bytes Number of bytes transferred
+	 */
+	public void consume(int bytes) {
+		reserve(bytes);
+	}
+
+	/**
+	 * Withdraws the given number of bytes from the bucket.
+	 *
+	 * @return Nanoseconds until the bucket will no longer be overdrawn, i.e. the time the transfer needs to wait
+	 */
+	private synchronized long reserve(int bytes) {
+		Preconditions.checkArgument(bytes >= 0);
+		transferredBytes.add(bytes);
+		if (bytesPerSecond == 0) {
+			return 0;
+		}
+		refill();
+		availableBytes -= bytes;
+		if (availableBytes >= 0) {
+			return 0;
+		} else {
+			return (long) Math.ceil(-availableBytes * NANOS_PER_SECOND / bytesPerSecond);
+		}
+	}
+
+	private void refill() {
+		assert Thread.holdsLock(this);
+		long now = ticker.read();
+		long elapsed = now - lastRefill;
+		lastRefill = now;
+		availableBytes = Math.min(bytesPerSecond, availableBytes + (double) elapsed * bytesPerSecond / NANOS_PER_SECOND);
+	}
+
+	// visible for testing
+	void sleep(long nanos) throws InterruptedException {
+		TimeUnit.NANOSECONDS.sleep(nanos);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this) //
+				.add("bytesPerSecond", getBytesPerSecond()) //
+				.add("transferredBytes", getTransferredBytes()) //
+				.add("throttledTime", getThrottledTime()) //
+				.toString();
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.cryptomator.fusecloudaccess;
+
+import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Ensures that a cache dir is used by a single file system at a time. When mounting, the {@link WriteBackJournal journal}
+ * and the {@link NamespaceReplayer namespace queue} found in the cache dir are resumed and unreferenced cache files get
+ * deleted, so a second file system using the same dir would destroy or take over the files of the first one.
+ * <p>
+ * File systems of other processes are excluded by a {@link FileLock} on {@value #LOCK_FILE}, which is released by the
+ * OS if the process dies. As file locks are held on behalf of the whole JVM, file systems within the same JVM are
+ * excluded by a registry of locked dirs.
+ */
+@FileSystemScoped
+class CacheDirLock implements Closeable {
+
+	static final String LOCK_FILE = ".lock";
+	private static final Set<Path> LOCKED_DIRS = ConcurrentHashMap.newKeySet();
+
+	private final Path cacheDir;
+	private Path lockedDir; // guarded by this
+	private FileChannel channel; // guarded by this
+
+	@Inject
+	CacheDirLock(CloudAccessFSConfig config) {
+		this(config.getCacheDir());
+	}
+
+	CacheDirLock(Path cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Locks the cache dir. Must be invoked before reading or modifying any of its contents. No-op if already locked.
+	 *
+	 * @throws IOException If the cache dir is used by another file system or the lock file can not be created
+	 */
+	public synchronized void acquire() throws IOException {
+		if (channel != null) {
+			return;
+		}
+		var dir = cacheDir.toRealPath();
+		if (!LOCKED_DIRS.add(dir)) {
+			throw new IOException("Cache dir " + dir + " is used by another file system.");
+		}
+		try {
+			var ch = FileChannel.open(dir.resolve(LOCK_FILE), CREATE, WRITE);
+			if (tryLock(ch) == null) {
+				ch.close();
+				throw new IOException("Cache dir " + dir + " is used by another process.");
+			}
+			channel = ch;
+			lockedDir = dir;
+		} catch (IOException e) {
+			LOCKED_DIRS.remove(dir);
+			throw e;
+		}
+	}
+
+	private static FileLock tryLock(FileChannel ch) throws IOException {
+		try {
+			return ch.tryLock();
+		} catch (OverlappingFileLockException e) { // not registered in LOCKED_DIRS, e.g. locked via a different path
+			return null;
+		}
+	}
+
+	/**
+	 * Unlocks the cache dir. No-op if not locked.
+	 *
+	 * @throws IOException If closing the lock file fails
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close(); // releases the file lock
+		} finally {
+			LOCKED_DIRS.remove(lockedDir);
+			channel = null;
+			lockedDir = null;
+		}
+	}
+
+}
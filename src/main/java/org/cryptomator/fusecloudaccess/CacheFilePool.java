@@ -0,0 +1,149 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Keeps a number of empty, already opened cache files, so opening a file doesn't need to create one. The pool is
+ * replenished in the background whenever a file is taken from it.
+ * <p>
+ * Pooled files are named like any other cache file, so if they are left over after a crash, they are deleted as
+ * {@link WriteBackJournal#load() unreferenced cache files}.
+ */
+@FileSystemScoped
+class CacheFilePool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CacheFilePool.class);
+
+	private final Path cacheDir;
+	private final int poolSize;
+	private final Executor executor;
+	private final Queue<CacheFile> pooled = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledCount = new AtomicInteger();
+	private final AtomicBoolean replenishing = new AtomicBoolean();
+	private volatile boolean closed;
+
+	@Inject
+	CacheFilePool(CloudAccessFSConfig config, ScheduledExecutorService scheduler) {
+		this(config.getCacheDir(), config.getCacheFilePoolSize(), scheduler);
+	}
+
+	/**
+	 * @param cacheDir Directory in which to create cache files
+	 * @param poolSize Number of empty cache files to keep. <code>0</code> disables pooling.
+	 * @param executor Executor used to replenish the pool
+	 */
+	CacheFilePool(Path cacheDir, int poolSize, Executor executor) {
+		Preconditions.checkArgument(poolSize >= 0, "poolSize must not be negative");
+		this.cacheDir = cacheDir;
+		this.poolSize = poolSize;
+		this.executor = executor;
+	}
+
+	/**
+	 * Takes an empty cache file from the pool. If the pool is empty, a new file is created.
+	 *
+	 * @return An empty cache file, owned by the caller
+	 * @throws IOException If the pool is empty and creating a new file fails
+	 */
+	public CacheFile acquire() throws IOException {
+		var file = pooled.poll();
+		if (file != null) {
+			pooledCount.decrementAndGet();
+		}
+		replenish();
+		return file != null ? file : CacheFile.create(cacheDir);
+	}
+
+	/**
+	 * Fills the pool up to its configured size in the background. Must not be invoked before stale cache files of a
+	 * previous session have been deleted.
+	 */
+	public void replenish() {
+		if (poolSize > 0 && !closed && replenishing.compareAndSet(false, true)) {
+			executor.execute(this::fill);
+		}
+	}
+
+	private void fill() {
+		try {
+			while (!closed && pooledCount.get() < poolSize) {
+				pooled.offer(CacheFile.create(cacheDir));
+				pooledCount.incrementAndGet();
+			}
+		} catch (IOException e) {
+			LOG.warn("Failed to pre-create cache file", e);
+		} finally {
+			replenishing.set(false);
+		}
+		if (closed) {
+			discardPooled();
+		}
+	}
+
+	/**
+	 * Deletes all pooled files. Files that have already been {@link #acquire() acquired} are not affected.
+	 */
+	public void close() {
+		closed = true;
+		discardPooled();
+	}
+
+	private void discardPooled() {
+		CacheFile file;
+		while ((file = pooled.poll()) != null) {
+			pooledCount.decrementAndGet();
+			file.discard();
+		}
+	}
+
+	// visible for testing
+	int getPooledCount() {
+		return pooledCount.get();
+	}
+
+	/**
+	 * A newly created, empty cache file along with its open channel.
+	 */
+	static class CacheFile {
+
+		final Path path;
+		final AsynchronousFileChannel channel;
+
+		private CacheFile(Path path, AsynchronousFileChannel channel) {
+			this.path = path;
+			this.channel = channel;
+		}
+
+		static CacheFile create(Path cacheDir) throws IOException {
+			var path = cacheDir.resolve(UUID.randomUUID().toString());
+			return new CacheFile(path, AsynchronousFileChannel.open(path, READ, WRITE, CREATE_NEW, SPARSE));
+		}
+
+		void discard() {
+			try {
+				channel.close();
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				LOG.warn("Failed to delete cache file " + path, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.io.Closeables;
+import org.cryptomator.cloudaccess.api.CloudItemList;
+import org.cryptomator.cloudaccess.api.CloudItemMetadata;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.ProgressListener;
+import org.cryptomator.cloudaccess.api.Quota;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Decorates a {@link CloudProvider}, {@link RequestScope#track(CompletionStage) tracking} each request in the current
+ * thread's {@link RequestScope}, so it can be cancelled when the FUSE operation that started it exceeds its deadline.
+ */
+class CancellableCloudProvider implements CloudProvider {
+
+	private final CloudProvider delegate;
+
+	CancellableCloudProvider(CloudProvider delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public CompletionStage<CloudItemMetadata> itemMetadata(CloudPath node) {
+		return RequestScope.track(delegate.itemMetadata(node));
+	}
+
+	@Override
+	public CompletionStage<Quota> quota(CloudPath folder) {
+		return RequestScope.track(delegate.quota(folder));
+	}
+
+	@Override
+	public CompletionStage<Boolean> exists(CloudPath node) {
+		return RequestScope.track(delegate.exists(node));
+	}
+
+	@Override
+	public CompletionStage<CloudItemList> list(CloudPath folder, Optional<String> pageToken) {
+		return RequestScope.track(delegate.list(folder, pageToken));
+	}
+
+	@Override
+	public CompletionStage<CloudItemList> listExhaustively(CloudPath folder) {
+		return RequestScope.track(delegate.listExhaustively(folder));
+	}
+
+	@Override
+	public CompletionStage<InputStream> read(CloudPath file, ProgressListener progressListener) {
+		return RequestScope.track(closeIfCancelled(delegate.read(file, progressListener)));
+	}
+
+	@Override
+	public CompletionStage<InputStream> read(CloudPath file, long offset, long count, ProgressListener progressListener) {
+		return RequestScope.track(closeIfCancelled(delegate.read(file, offset, count, progressListener)));
+	}
+
+	/**
+	 * The stream of a cancelled read would never reach anyone who could close it. Therefore, the delegate's request
+	 * itself is never cancelled. Instead, its stream is closed if it arrives after the returned request has been
+	 * cancelled.
+	 */
+	// visible for testing
+	static CompletionStage<InputStream> closeIfCancelled(CompletionStage<InputStream> request) {
+		var result = new CompletableFuture<InputStream>();
+		request.whenComplete((in, e) -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+			} else if (!result.complete(in)) {
+				Closeables.closeQuietly(in);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public CompletionStage<Void> write(CloudPath file, boolean replace, InputStream data, long size, Optional<Instant> lastModified, ProgressListener progressListener) {
+		return RequestScope.track(delegate.write(file, replace, data, size, lastModified, progressListener));
+	}
+
+	@Override
+	public CompletionStage<CloudPath> createFolder(CloudPath folder) {
+		return RequestScope.track(delegate.createFolder(folder));
+	}
+
+	@Override
+	public CompletionStage<CloudPath> createFolderIfNonExisting(CloudPath folder) {
+		return RequestScope.track(delegate.createFolderIfNonExisting(folder));
+	}
+
+	@Override
+	public CompletionStage<Void> deleteFile(CloudPath file) {
+		return RequestScope.track(delegate.deleteFile(file));
+	}
+
+	@Override
+	public CompletionStage<Void> deleteFolder(CloudPath folder) {
+		return RequestScope.track(delegate.deleteFolder(folder));
+	}
+
+	@Override
+	public CompletionStage<CloudPath> move(CloudPath source, CloudPath target, boolean replace) {
+		return RequestScope.track(delegate.move(source, target, replace));
+	}
+
+	@Override
+	public boolean cachingCapability() {
+		return delegate.cachingCapability();
+	}
+
+	@Override
+	public CompletionStage<Void> pollRemoteChanges() {
+		return delegate.pollRemoteChanges();
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.cryptomator.fusecloudaccess;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import jnr.constants.platform.OpenFlags;
 import jnr.ffi.Pointer;
 import org.cryptomator.cloudaccess.api.CloudItemMetadata;
@@ -38,6 +39,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -55,26 +57,55 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 	private final OpenFileUploader openFileUploader;
 	private final OpenFileFactory openFileFactory;
 	private final OpenDirFactory openDirFactory;
+	private final NamespaceReplayer namespaceReplayer;
+	private final NamespaceOverlay namespaceOverlay;
 	private final LockManager lockManager;
+	private final TransferLimits transferLimits;
+	private final CacheDirLock cacheDirLock;
 
 	@Inject
-	CloudAccessFS(CloudProvider provider, CloudAccessFSConfig config, ScheduledExecutorService scheduler, OpenFileUploader openFileUploader, OpenFileFactory openFileFactory, OpenDirFactory openDirFactory, LockManager lockManager) {
+	CloudAccessFS(CloudProvider provider, CloudAccessFSConfig config, ScheduledExecutorService scheduler, OpenFileUploader openFileUploader, OpenFileFactory openFileFactory, OpenDirFactory openDirFactory, NamespaceReplayer namespaceReplayer, NamespaceOverlay namespaceOverlay, LockManager lockManager, TransferLimits transferLimits, CacheDirLock cacheDirLock) {
 		this.provider = provider;
 		this.config = config;
 		this.scheduler = scheduler;
 		this.openFileUploader = openFileUploader;
 		this.openFileFactory = openFileFactory;
 		this.openDirFactory = openDirFactory;
+		this.namespaceReplayer = namespaceReplayer;
+		this.namespaceOverlay = namespaceOverlay;
 		this.lockManager = lockManager;
+		this.transferLimits = transferLimits;
+		this.cacheDirLock = cacheDirLock;
 	}
 
 	public static CloudAccessFS createNewFileSystem(CloudProvider provider) {
 		return DaggerCloudAccessFSComponent.builder() //
-				.cloudProvider(provider) //
+				.cloudProvider(new CancellableCloudProvider(provider)) //
 				.build() //
 				.filesystem();
 	}
 
+	/**
+	 * @return The bandwidth limits of this file system, which can be adjusted at runtime
+	 */
+	public TransferLimits getTransferLimits() {
+		return transferLimits;
+	}
+
+	/**
+	 * @return Statistics about deferred uploads of this file system
+	 */
+	public UploadDebouncer getUploadDebouncer() {
+		return openFileFactory.getUploadDebouncer();
+	}
+
+	/**
+	 * @return Statistics about namespace changes replayed in the background
+	 */
+	public NamespaceReplayer getNamespaceReplayer() {
+		return namespaceReplayer;
+	}
+
 	/**
 	 * Method for async execution.
 	 * <p>
@@ -84,28 +115,85 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 	 * @return an integer representing one of the FUSE {@link ErrorCodes}
 	 */
 	int awaitCompletion(CompletionStage<Integer> returnCode) {
+		return awaitCompletion(returnCode, null, 0);
+	}
+
+	/**
+	 * Waits for an operation to complete within the given deadline. If the deadline passes or the waiting thread gets
+	 * interrupted, the operation and all cloud requests of the given scope are cancelled.
+	 * <p>
+	 * Only visible for testing.
+	 *
+	 * @param returnCode    an integer {@link CompletionStage} to execute
+	 * @param scope         the scope in which the operation has been started, or <code>null</code> if nothing needs to be cancelled
+	 * @param timeoutMillis the deadline relative to now, <code>0</code> to wait indefinitely
+	 * @return an integer representing one of the FUSE {@link ErrorCodes}
+	 */
+	int awaitCompletion(CompletionStage<Integer> returnCode, RequestScope scope, long timeoutMillis) {
+		var future = returnCode.toCompletableFuture();
+		return awaitCompletion(future, future, scope, timeoutMillis);
+	}
+
+	/**
+	 * Waits for an operation to complete within the given deadline. If the deadline passes or the waiting thread gets
+	 * interrupted, the operation and all cloud requests of the given scope are cancelled.
+	 * <p>
+	 * If the operation can't be cancelled any longer, because it already started to access the FUSE buffer (see
+	 * {@link CommittableFuture}), it is awaited without deadline instead, as the buffer must not be accessed after
+	 * returning. This only involves local I/O.
+	 *
+	 * @param returnCode    the result of the operation
+	 * @param operation     the operation to cancel, which <code>returnCode</code> depends on
+	 * @param scope         the scope in which the operation has been started, or <code>null</code> if nothing needs to be cancelled
+	 * @param timeoutMillis the deadline relative to now, <code>0</code> to wait indefinitely
+	 * @return an integer representing one of the FUSE {@link ErrorCodes}
+	 */
+	private int awaitCompletion(CompletableFuture<Integer> returnCode, Future<?> operation, RequestScope scope, long timeoutMillis) {
 		try {
-			return returnCode.toCompletableFuture().get();
+			return timeoutMillis > 0 ? returnCode.get(timeoutMillis, TimeUnit.MILLISECONDS) : returnCode.get();
 		} catch (InterruptedException e) {
 			LOG.warn("async call interrupted");
 			Thread.currentThread().interrupt();
-			return -ErrorCodes.EINTR();
+			return cancel(returnCode, operation, scope, -ErrorCodes.EINTR());
+		} catch (TimeoutException e) {
+			LOG.warn("async call exceeded deadline of {} ms", timeoutMillis);
+			return cancel(returnCode, operation, scope, -ErrorCodes.ETIMEDOUT());
 		} catch (ExecutionException e) {
 			LOG.error("encountered unhandled exception", e.getCause());
 			return -ErrorCodes.EIO();
 		}
 	}
 
+	private int cancel(CompletableFuture<Integer> returnCode, Future<?> operation, RequestScope scope, int errorCode) {
+		if (!operation.cancel(true) && operation != returnCode) {
+			LOG.debug("Operation can no longer be cancelled, awaiting its completion.");
+			try {
+				return Uninterruptibles.getUninterruptibly(returnCode);
+			} catch (ExecutionException e) {
+				LOG.error("encountered unhandled exception", e.getCause());
+				return -ErrorCodes.EIO();
+			}
+		}
+		returnCode.cancel(true);
+		if (scope != null) {
+			int cancelled = scope.cancel();
+			LOG.debug("Cancelled {} pending cloud requests", cancelled);
+		}
+		return errorCode;
+	}
+
 	@Override
 	public void mount(Path mountPoint, boolean blocking, boolean debug, String[] fuseOpts) {
 		//upload dir on server
-		var returnCode = awaitCompletion( //
-				provider.createFolderIfNonExisting(config.getUploadDir()) //
-						.thenApply(ignored -> 0) //
-						.exceptionally(e -> -ErrorCodes.EIO()));
-		if (returnCode != 0) {
-			LOG.error("Mounting denied: Unable to create tmp upload directory.");
-			throw new IllegalStateException("Unable to create remote temporary upload dir.");
+		if (config.getUploadMode() != UploadMode.DIRECT) {
+			var returnCode = awaitCompletion( //
+					provider.createFolderIfNonExisting(config.getUploadDir()) //
+							.thenApply(ignored -> 0) //
+							.exceptionally(e -> -ErrorCodes.EIO()));
+			if (returnCode != 0) {
+				LOG.error("Mounting denied: Unable to create tmp upload directory.");
+				throw new IllegalStateException("Unable to create remote temporary upload dir.");
+			}
 		}
 
 		//local cache dir
@@ -123,6 +211,42 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 			LOG.error("Mounting denied: Local lost+found directory does not exist.");
 			throw new IllegalStateException("Lost+Found dir does not exists.");
 		}
+
+		//exclusive use of the cache dir, as its contents are resumed or deleted
+		try {
+			cacheDirLock.acquire();
+		} catch (IOException e) {
+			LOG.error("Mounting denied: Local cache directory is used by another file system.");
+			throw new IllegalStateException("Unable to lock local cache dir.", e);
+		}
+		try {
+			resumeAndMount(mountPoint, blocking, debug, fuseOpts);
+		} catch (RuntimeException e) {
+			releaseCacheDir();
+			throw e;
+		}
+	}
+
+	private void resumeAndMount(Path mountPoint, boolean blocking, boolean debug, String[] fuseOpts) {
+		//namespace changes and uploads pending since last session
+		try {
+			var resumedOps = namespaceReplayer.resume();
+			if (resumedOps > 0) {
+				LOG.info("Resumed {} pending namespace changes.", resumedOps);
+			}
+		} catch (IOException e) {
+			LOG.error("Mounting denied: Unable to read namespace change queue.");
+			throw new IllegalStateException("Unable to read namespace change queue.", e);
+		}
+		try {
+			var resumed = openFileFactory.resumePendingUploads();
+			if (resumed > 0) {
+				LOG.info("Resumed {} pending uploads.", resumed);
+			}
+		} catch (IOException e) {
+			LOG.error("Mounting denied: Unable to read write-back journal.");
+			throw new IllegalStateException("Unable to read write-back journal.", e);
+		}
 		super.mount(mountPoint, blocking, debug, fuseOpts);
 	}
 
@@ -131,8 +255,9 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 		long total = config.getTotalQuota();
 		long avail = config.getAvailableQuota();
 
+		var quotaRequest = provider.quota(CloudPath.of("/")).toCompletableFuture();
 		try {
-			var quota = provider.quota(CloudPath.of("/")).toCompletableFuture().join();
+			var quota = config.getMetadataTimeoutMillis() > 0 ? quotaRequest.get(config.getMetadataTimeoutMillis(), TimeUnit.MILLISECONDS) : quotaRequest.get();
 			avail = quota.getAvailableBytes();
 			if (quota.getTotalBytes().isPresent()) {
 				total = quota.getTotalBytes().get();
@@ -143,6 +268,18 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 			}
 		} catch (QuotaNotAvailableException e) {
 			LOG.trace("Quota is not available, falling back to default");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof QuotaNotAvailableException) {
+				LOG.trace("Quota is not available, falling back to default");
+			} else {
+				LOG.warn("Failed to get quota, falling back to default", e.getCause());
+			}
+		} catch (TimeoutException e) {
+			LOG.warn("statfs() exceeded deadline, falling back to default quota");
+			quotaRequest.cancel(true);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -ErrorCodes.EINTR();
 		}
 
 		long tBlocks = total / BLOCKSIZE;
@@ -159,10 +296,23 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int getattr(String path, FileStat stat) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forReading(); //
+		try (RequestScope scope = RequestScope.open()) {
+			long stamp = lockManager.tryOptimisticRead(path);
+			if (stamp != 0) { // no writer active on this path or its ancestors, try without locking
+				var returnCode = awaitCompletion(getattrInternal(CloudPath.of(path), stat), scope, config.getMetadataTimeoutMillis());
+				if (lockManager.validate(path, stamp)) {
+					LOG.trace("getattr {} (modified: {}.{}, size: {}) [{}] (optimistic)", path, stat.st_mtim.tv_sec, stat.st_mtim.tv_nsec, stat.st_size, returnCode);
+					return returnCode;
+				}
+			}
+		} catch (Exception e) {
+			LOG.debug("optimistic getattr() failed, retrying with locks", e);
+		}
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forReading(); //
 			 DataLock dataLock = pathLock.lockDataForReading()) {
 			var getattrCode = getattrInternal(CloudPath.of(path), stat);
-			var returnCode = awaitCompletion(getattrCode);
+			var returnCode = awaitCompletion(getattrCode, scope, config.getMetadataTimeoutMillis());
 			LOG.trace("getattr {} (modified: {}.{}, size: {}) [{}]", path, stat.st_mtim.tv_sec, stat.st_mtim.tv_nsec, stat.st_size, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -192,6 +342,7 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	/**
 	 * Reads metadata. Prefers locally cached metadata and fetches metadata from the cloud as a fallback.
+	 * Namespace changes not yet replayed to the cloud are taken into account.
 	 *
 	 * @param path
 	 * @return
@@ -200,15 +351,29 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 		return openFileFactory //
 				.getCachedMetadata(path) //
 				.<CompletionStage<CloudItemMetadata>>map(CompletableFuture::completedFuture) //
-				.orElse(provider.itemMetadata(path));
+				.orElseGet(() -> getMetadataFromOverlayOrCloud(path));
+	}
+
+	private CompletionStage<CloudItemMetadata> getMetadataFromOverlayOrCloud(CloudPath path) {
+		var resolution = namespaceOverlay.resolve(path);
+		if (resolution.localFolder) {
+			return CompletableFuture.completedFuture(new CloudItemMetadata(path.getFileName().toString(), path, CloudItemType.FOLDER));
+		} else if (!resolution.isRemote()) {
+			return CompletableFuture.failedFuture(new NotFoundException(path.toString()));
+		} else if (resolution.remotePath.equals(path)) {
+			return provider.itemMetadata(path);
+		} else { // moved, but not yet replayed
+			return provider.itemMetadata(resolution.remotePath).thenApply(m -> new CloudItemMetadata(path.getFileName().toString(), path, m.getItemType(), m.getLastModifiedDate(), m.getSize()));
+		}
 	}
 
 	@Override
 	public int opendir(String path, FuseFileInfo fi) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forReading(); //
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forReading(); //
 			 DataLock dataLock = pathLock.lockDataForReading()) {
 			var opendirCode = opendirInternal(CloudPath.of(path), fi);
-			var returnCode = awaitCompletion(opendirCode);
+			var returnCode = awaitCompletion(opendirCode, scope, config.getMetadataTimeoutMillis());
 			LOG.trace("opendir {} (handle: {}) [{}]", path, fi.fh.get(), returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -243,10 +408,11 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int readdir(String path, Pointer buf, FuseFillDir filler, long offset, FuseFileInfo fi) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forReading(); //
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forReading(); //
 			 DataLock dataLock = pathLock.lockDataForReading()) {
 			var readdirCode = readdirInternal(CloudPath.of(path), buf, filler, offset, fi);
-			var returnCode = awaitCompletion(readdirCode);
+			var returnCode = awaitCompletion(readdirCode, scope, config.getMetadataTimeoutMillis());
 			LOG.trace("readdir {} (handle: {}, offset: {}) [{}]", path, fi.fh.get(), offset, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -296,10 +462,11 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int open(String path, FuseFileInfo fi) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forReading(); //
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forReading(); //
 			 DataLock dataLock = pathLock.lockDataForReading()) {
 			var openCode = openInternal(CloudPath.of(path), fi);
-			var returnCode = awaitCompletion(openCode);
+			var returnCode = awaitCompletion(openCode, scope, config.getMetadataTimeoutMillis());
 			LOG.trace("open {} (handle: {}) [{}]", path, fi.fh.get(), returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -355,12 +522,14 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int rename(String oldpath, String newpath) {
-		try (PathLock oldPathLock = lockManager.createPathLock(oldpath).forWriting(); //
-			 DataLock oldDataLock = oldPathLock.lockDataForWriting(); //
-			 PathLock newPathLock = lockManager.createPathLock(newpath).forWriting(); //
-			 DataLock newDataLock = newPathLock.lockDataForWriting()) {
+		var paths = LockManager.inLockOrder(oldpath, newpath);
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock firstPathLock = lockManager.createPathLock(paths.get(0)).forWriting(); //
+			 DataLock firstDataLock = firstPathLock.lockDataForWriting(); //
+			 PathLock secondPathLock = lockManager.createPathLock(paths.get(1)).forWriting(); //
+			 DataLock secondDataLock = secondPathLock.lockDataForWriting()) {
 			var renameCode = renameInternal(CloudPath.of(oldpath), CloudPath.of(newpath));
-			var returnCode = awaitCompletion(renameCode);
+			var returnCode = awaitCompletion(renameCode, scope, config.getNamespaceTimeoutMillis());
 			LOG.trace("rename {} to {} [{}]", oldpath, newpath, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -370,7 +539,13 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 	}
 
 	private CompletionStage<Integer> renameInternal(CloudPath oldPath, CloudPath newPath) {
+		var createdLocally = openFileFactory.isCreatedLocally(oldPath);
 		openFileFactory.move(oldPath, newPath);
+		if (createdLocally) {
+			return CompletableFuture.completedFuture(0); // not yet known to the cloud, will be uploaded to newPath
+		} else if (namespaceReplayer.isEnabled()) {
+			return enqueue(NamespaceOperation.Type.MOVE, oldPath, newPath);
+		}
 		return provider.move(oldPath, newPath, true) //
 				.thenApply(ignored -> 0) //
 				.exceptionally(e -> {
@@ -390,10 +565,11 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int mkdir(String path, long mode) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forWriting(); //
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forWriting(); //
 			 DataLock dataLock = pathLock.lockDataForWriting()) {
 			var mkdirCode = mkdirInternal(CloudPath.of(path), mode);
-			var returnCode = awaitCompletion(mkdirCode);
+			var returnCode = awaitCompletion(mkdirCode, scope, config.getNamespaceTimeoutMillis());
 			LOG.trace("mkdir {} (mode: {}) [{}]", path, mode, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -403,6 +579,9 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 	}
 
 	private CompletionStage<Integer> mkdirInternal(CloudPath path, long mode) {
+		if (namespaceReplayer.isEnabled()) {
+			return enqueue(NamespaceOperation.Type.MKDIR, path, null);
+		}
 		return provider.createFolder(path) //
 				.thenApply(p -> 0) //
 				.exceptionally(e -> {
@@ -420,10 +599,11 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int create(String path, long mode, FuseFileInfo fi) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forWriting(); //
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forWriting(); //
 			 DataLock dataLock = pathLock.lockDataForWriting()) {
 			var createCode = createInternal(CloudPath.of(path), mode, fi);
-			var returnCode = awaitCompletion(createCode);
+			var returnCode = awaitCompletion(createCode, scope, config.getNamespaceTimeoutMillis());
 			LOG.trace("create {} (handle: {}, mode: {}) [{}]", path, fi.fh.get(), mode, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -434,6 +614,13 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	private CompletionStage<Integer> createInternal(CloudPath path, long mode, FuseFileInfo fi) {
 		var modifiedDate = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+		if (config.isDeferredCreate()) {
+			return createInternalDeferred(path, fi, modifiedDate);
+		} else if (namespaceReplayer.isEnabled() && !path.equals(namespaceOverlay.resolve(path).remotePath)) {
+			// the cloud doesn't reflect this location yet, e.g. its parent has just been created or the path has
+			// just been deleted, so the file can only be created locally and gets uploaded after replaying these changes:
+			return createInternalDeferred(path, fi, modifiedDate);
+		}
 		return provider.write(path, false, InputStream.nullInputStream(), 0l, Optional.of(modifiedDate), ProgressListener.NO_PROGRESS_AWARE) //
 				.handle((nullReturn, exception) -> {
 					if (exception == null) {
@@ -460,6 +647,21 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 				});
 	}
 
+	/**
+	 * Creates the file locally only. It gets written to the cloud during its first upload.
+	 * <p>
+	 * The kernel invokes create() only after a lookup failed with ENOENT, so the file is assumed not to exist.
+	 */
+	private CompletionStage<Integer> createInternalDeferred(CloudPath path, FuseFileInfo fi, Instant modifiedDate) {
+		try {
+			var handle = openFileFactory.create(path, BitMaskEnumUtil.bitMaskToSet(OpenFlags.class, fi.flags.longValue()), modifiedDate);
+			fi.fh.set(handle);
+			return CompletableFuture.completedFuture(0);
+		} catch (IOException e) {
+			return CompletableFuture.completedFuture(-ErrorCodes.EIO());
+		}
+	}
+
 	private CompletionStage<Integer> createInternalNonExisting(CloudPath path, long mode, FuseFileInfo fi, Instant modifiedDate) {
 		try {
 			var size = 0;
@@ -486,6 +688,19 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 				});
 	}
 
+	/**
+	 * Applies a namespace change locally and replays it to the cloud in the background.
+	 */
+	private CompletionStage<Integer> enqueue(NamespaceOperation.Type type, CloudPath path, CloudPath target) {
+		try {
+			namespaceReplayer.enqueue(type, path, target);
+			return CompletableFuture.completedFuture(0);
+		} catch (IOException e) {
+			LOG.error("Failed to record namespace change.", e);
+			return CompletableFuture.completedFuture(-ErrorCodes.EIO());
+		}
+	}
+
 	//This must be implemented, otherwise certain applications (e.g. TextEdit.app) fail to save text files.
 	@Override
 	public int chmod(String path, long mode) {
@@ -495,10 +710,11 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int rmdir(String path) {
-		try (PathLock pathLock = lockManager.createPathLock(path.toString()).forWriting(); //
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path.toString()).forWriting(); //
 			 DataLock dataLock = pathLock.lockDataForWriting()) {
 			var rmdirCode = rmdirInternal(CloudPath.of(path));
-			var returnCode = awaitCompletion(rmdirCode);
+			var returnCode = awaitCompletion(rmdirCode, scope, config.getNamespaceTimeoutMillis());
 			LOG.trace("rmdir {} [{}]", path, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -509,6 +725,9 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	CompletionStage<Integer> rmdirInternal(CloudPath path) {
 		openFileFactory.deleteDescendants(path);
+		if (namespaceReplayer.isEnabled()) {
+			return enqueue(NamespaceOperation.Type.DELETE_FOLDER, path, null);
+		}
 		return provider.deleteFolder(path) //
 				.thenApply(ignored -> 0) //
 				.exceptionally(e -> {
@@ -526,10 +745,11 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int unlink(String path) {
-		try (PathLock pathLock = lockManager.createPathLock(path.toString()).forWriting(); //
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path.toString()).forWriting(); //
 			 DataLock dataLock = pathLock.lockDataForWriting()) {
 			var unlinkCode = unlinkInternal(CloudPath.of(path));
-			var returnCode = awaitCompletion(unlinkCode);
+			var returnCode = awaitCompletion(unlinkCode, scope, config.getNamespaceTimeoutMillis());
 			LOG.trace("unlink {} [{}]", path, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -540,7 +760,13 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	// visible for testing
 	CompletionStage<Integer> unlinkInternal(CloudPath path) {
+		var createdLocally = openFileFactory.isCreatedLocally(path);
 		openFileFactory.delete(path);
+		if (createdLocally) {
+			return CompletableFuture.completedFuture(0); // not yet known to the cloud
+		} else if (namespaceReplayer.isEnabled()) {
+			return enqueue(NamespaceOperation.Type.DELETE_FILE, path, null);
+		}
 		return provider.deleteFile(path) //
 				.thenApply(ignored -> 0) //
 				.exceptionally(e -> {
@@ -558,10 +784,10 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 
 	@Override
 	public int read(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forReading(); //
-			 DataLock dataLock = pathLock.lockDataForReading()) {
-			var readCode = readInternal(fi.fh.get(), buf, size, offset);
-			var returnCode = awaitCompletion(readCode);
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forReading(); //
+			 DataLock dataLock = pathLock.lockDataForReading(offset, size)) {
+			var returnCode = readInternal(fi.fh.get(), buf, size, offset, scope);
 			LOG.trace("read {} (handle: {}, size: {}, offset: {}) [{}]", path, fi.fh.get(), size, offset, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -570,13 +796,16 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 		}
 	}
 
-	private CompletionStage<Integer> readInternal(long fileHandle, Pointer buf, long size, long offset) {
+	private int readInternal(long fileHandle, Pointer buf, long size, long offset, RequestScope scope) {
 		var openFile = openFileFactory.get(fileHandle);
 		if (openFile.isEmpty()) {
-			return CompletableFuture.completedFuture(-ErrorCodes.EBADF());
+			return -ErrorCodes.EBADF();
 		}
-		return openFile.get().read(buf, offset, size).exceptionally(e -> {
-			if (e instanceof NotFoundException) {
+		var read = openFile.get().read(buf, offset, size);
+		var readCode = read.exceptionally(e -> {
+			if (read.isCancelled()) {
+				return -ErrorCodes.ETIMEDOUT(); // actual error code is determined by awaitCompletion()
+			} else if (e instanceof NotFoundException) {
 				return -ErrorCodes.ENOENT();
 			} else if (e instanceof CloudTimeoutException) {
 				LOG.warn("read() timed out");
@@ -586,14 +815,15 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 				return -ErrorCodes.EIO();
 			}
 		});
+		return awaitCompletion(readCode, read, scope, config.getReadTimeoutMillis());
 	}
 
 	@Override
 	public int write(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
-		try (PathLock pathLock = lockManager.createPathLock(path).forReading(); //
-			 DataLock dataLock = pathLock.lockDataForWriting()) {
-			var writeCode = writeInternal(fi.fh.get(), buf, size, offset);
-			var returnCode = awaitCompletion(writeCode);
+		try (RequestScope scope = RequestScope.open(); //
+			 PathLock pathLock = lockManager.createPathLock(path).forReading(); //
+			 DataLock dataLock = pathLock.lockDataForWriting(offset, size)) { // truncate() still locks the whole file
+			var returnCode = writeInternal(fi.fh.get(), buf, size, offset, scope);
 			LOG.trace("write {} (handle: {}, size: {}, offset: {}) [{}]", path, fi.fh.get(), size, offset, returnCode);
 			return returnCode;
 		} catch (Exception e) {
@@ -602,15 +832,20 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 		}
 	}
 
-	private CompletableFuture<Integer> writeInternal(long fileHandle, Pointer buf, long size, long offset) {
+	private int writeInternal(long fileHandle, Pointer buf, long size, long offset, RequestScope scope) {
 		var openFile = openFileFactory.get(fileHandle);
 		if (openFile.isEmpty()) {
-			return CompletableFuture.completedFuture(-ErrorCodes.EBADF());
+			return -ErrorCodes.EBADF();
 		}
-		return openFile.get().write(buf, offset, size).exceptionally(e -> {
+		var write = openFile.get().write(buf, offset, size);
+		var writeCode = write.exceptionally(e -> {
+			if (write.isCancelled()) {
+				return -ErrorCodes.ETIMEDOUT(); // actual error code is determined by awaitCompletion()
+			}
 			LOG.error("write() failed", e);
 			return -ErrorCodes.EIO();
 		});
+		return awaitCompletion(writeCode, write, scope, config.getWriteTimeoutMillis());
 	}
 
 	@Override
@@ -651,13 +886,31 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 			return -ErrorCodes.EBADF();
 		}
 		handle.get().truncate(size);
+		openFileUploader.startWriteThrough(handle.get());
 		return 0;
 	}
 
+	private void releaseCacheDir() {
+		try {
+			cacheDirLock.close();
+		} catch (IOException e) {
+			LOG.warn("Failed to unlock local cache directory.", e);
+		}
+	}
+
 	@Override
 	public void destroy(Pointer initResult) {
 		LOG.debug("Waiting for pending uploads...");
+		openFileFactory.startDeferredUploads();
 		try {
+			while (!namespaceReplayer.awaitReplayed(config.getPendingUploadTimeoutSeconds(), TimeUnit.SECONDS)) {
+				if (namespaceReplayer.isRetrying()) {
+					LOG.warn("Replaying namespace changes keeps failing. {} changes will be resumed when mounting again.", namespaceReplayer.getPendingOperations());
+					break;
+				}
+				LOG.debug("Still replaying {} namespace changes...", namespaceReplayer.getPendingOperations());
+			}
+			namespaceReplayer.shutdown();
 			while (true) {
 				try {
 					openFileUploader.awaitPendingUploads(config.getPendingUploadTimeoutSeconds(), TimeUnit.SECONDS);
@@ -666,7 +919,9 @@ public class CloudAccessFS extends FuseStubFS implements FuseFS {
 					LOG.debug("Still uploading...");
 				}
 			}
+			openFileFactory.closeAll();
 			scheduler.shutdown();
+			releaseCacheDir();
 			LOG.debug("All done.");
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
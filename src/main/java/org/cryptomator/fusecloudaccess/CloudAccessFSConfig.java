@@ -12,7 +12,37 @@ public class CloudAccessFSConfig {
 	private static final long DEFAULT_TOTAL_QUOTA = 1_000_000_000; // 1 GB
 	private static final long DEFAULT_AVAILABLE_QUOTA = 500_000_000; // 500 MB
 	private static final int DEFAULT_IDLE_FILE_TIMEOUT = 20;
+	private static final int DEFAULT_UPLOAD_CONCURRENCY = 4;
+	private static final int DEFAULT_UPLOAD_SNAPSHOT_CONCURRENCY = 2;
+	private static final int DEFAULT_UPLOAD_COMMIT_CONCURRENCY = 4;
+	private static final int DEFAULT_UPLOAD_STAGE_QUEUE_CAPACITY = 16;
+	private static final String DEFAULT_UPLOAD_ORDER = UploadOrder.FIFO.name();
+	private static final String DEFAULT_UPLOAD_MODE = UploadMode.TEMP_AND_MOVE.name();
+	private static final long DEFAULT_UPLOAD_QUIET_PERIOD = 2000; // 2s
+	private static final long DEFAULT_UPLOAD_MAX_DELAY = 30_000; // 30s
+	private static final String DEFAULT_UPLOAD_QUIET_PERIOD_ADAPTIVE = "true";
+	private static final long DEFAULT_WRITE_THROUGH_THRESHOLD = 0; // disabled
+	private static final int DEFAULT_WRITE_THROUGH_CONCURRENCY = 2;
+	private static final String DEFAULT_DEFERRED_CREATE = "false";
+	private static final String DEFAULT_WRITE_BEHIND_NAMESPACE = "false";
+	private static final long DEFAULT_METADATA_TIMEOUT = 0; // no deadline
+	private static final long DEFAULT_READ_TIMEOUT = 0; // no deadline
+	private static final long DEFAULT_WRITE_TIMEOUT = 0; // no deadline
+	private static final long DEFAULT_NAMESPACE_TIMEOUT = 0; // no deadline
+	private static final String DEFAULT_VIRTUAL_THREADS = "false";
+	private static final int DEFAULT_HYDRATION_CONCURRENCY = 16;
+	private static final int DEFAULT_UPLOAD_RETRY_ATTEMPTS = 5;
+	private static final long DEFAULT_UPLOAD_RETRY_INITIAL_BACKOFF = 1000; // 1s
+	private static final long DEFAULT_UPLOAD_RETRY_MAX_BACKOFF = 60_000; // 1min
+	private static final long DEFAULT_UPLOAD_NAMESPACE_WAIT = 60_000; // 1min
+	private static final long DEFAULT_UPLOAD_BANDWIDTH = 0; // unlimited
+	private static final long DEFAULT_DOWNLOAD_BANDWIDTH = 0; // unlimited
 	public static final int DEFAULT_READAHEAD_SIZE = 1024 * 1024 * 4; // 4 MiB
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = 1024 * 1024; // 1 MiB
+	private static final long DEFAULT_HYDRATED_DIGEST_MAX_SIZE = 1024 * 1024 * 16; // 16 MiB
+	private static final int DEFAULT_IN_MEMORY_SNAPSHOT_THRESHOLD = 64 * 1024; // 64 KiB
+	private static final int DEFAULT_IN_MEMORY_SNAPSHOT_POOL_SIZE = 64;
+	private static final int DEFAULT_CACHE_FILE_POOL_SIZE = 0; // disabled
 	private static final String DEFAULT_CACHE_DIR = System.getProperty("java.io.tmpdir") + "/fcaCache";
 	private static final String DEFAULT_LOST_AND_FOUND_DIR = "lostAndFound";
 	private static final String DEFAULT_UPLOAD_DIR = "/58a230a40ae05cee64dfc0680d920e1e";
@@ -22,6 +52,36 @@ public class CloudAccessFSConfig {
 	private final long availableQuota;
 	private final int idleFileTimeoutSeconds;
 	private final int readAheadBytes;
+	private final int writeBufferBytes;
+	private final long hydratedDigestMaxBytes;
+	private final int inMemorySnapshotThresholdBytes;
+	private final int inMemorySnapshotPoolSize;
+	private final int cacheFilePoolSize;
+	private final int uploadConcurrency;
+	private final int uploadSnapshotConcurrency;
+	private final int uploadCommitConcurrency;
+	private final int uploadStageQueueCapacity;
+	private final UploadOrder uploadOrder;
+	private final UploadMode uploadMode;
+	private final long uploadQuietPeriodMillis;
+	private final long uploadMaxDelayMillis;
+	private final boolean uploadQuietPeriodAdaptive;
+	private final long writeThroughThresholdBytes;
+	private final int writeThroughConcurrency;
+	private final boolean deferredCreate;
+	private final boolean writeBehindNamespace;
+	private final long metadataTimeoutMillis;
+	private final long readTimeoutMillis;
+	private final long writeTimeoutMillis;
+	private final long namespaceTimeoutMillis;
+	private final boolean virtualThreads;
+	private final int hydrationConcurrency;
+	private final int uploadRetryAttempts;
+	private final long uploadRetryInitialBackoffMillis;
+	private final long uploadRetryMaxBackoffMillis;
+	private final long uploadNamespaceWaitMillis;
+	private final long uploadBytesPerSecond;
+	private final long downloadBytesPerSecond;
 	private final String cacheDir;
 	private final String lostAndFoundDir;
 	private final String uploadDir;
@@ -31,6 +91,36 @@ public class CloudAccessFSConfig {
 		this.pendingUploadTimeoutSeconds = Integer.getInteger("org.cryptomator.fusecloudaccess.pendingUploadsTimeoutSeconds", DEFAULT_PENDING_UPLOAD_TIMEOUT);
 		this.idleFileTimeoutSeconds = Integer.getInteger("org.cryptomator.fusecloudaccess.idleFileTimeoutSeconds", DEFAULT_IDLE_FILE_TIMEOUT);
 		this.readAheadBytes = Integer.getInteger("org.cryptomator.fusecloudaccess.readAheadBytes", DEFAULT_READAHEAD_SIZE);
+		this.writeBufferBytes = Integer.getInteger("org.cryptomator.fusecloudaccess.writeBufferBytes", DEFAULT_WRITE_BUFFER_SIZE);
+		this.hydratedDigestMaxBytes = Long.getLong("org.cryptomator.fusecloudaccess.hydratedDigestMaxBytes", DEFAULT_HYDRATED_DIGEST_MAX_SIZE);
+		this.inMemorySnapshotThresholdBytes = Integer.getInteger("org.cryptomator.fusecloudaccess.inMemorySnapshotThresholdBytes", DEFAULT_IN_MEMORY_SNAPSHOT_THRESHOLD);
+		this.inMemorySnapshotPoolSize = Integer.getInteger("org.cryptomator.fusecloudaccess.inMemorySnapshotPoolSize", DEFAULT_IN_MEMORY_SNAPSHOT_POOL_SIZE);
+		this.cacheFilePoolSize = Integer.getInteger("org.cryptomator.fusecloudaccess.cacheFilePoolSize", DEFAULT_CACHE_FILE_POOL_SIZE);
+		this.uploadConcurrency = Integer.getInteger("org.cryptomator.fusecloudaccess.uploadConcurrency", DEFAULT_UPLOAD_CONCURRENCY);
+		this.uploadSnapshotConcurrency = Integer.getInteger("org.cryptomator.fusecloudaccess.uploadSnapshotConcurrency", DEFAULT_UPLOAD_SNAPSHOT_CONCURRENCY);
+		this.uploadCommitConcurrency = Integer.getInteger("org.cryptomator.fusecloudaccess.uploadCommitConcurrency", DEFAULT_UPLOAD_COMMIT_CONCURRENCY);
+		this.uploadStageQueueCapacity = Integer.getInteger("org.cryptomator.fusecloudaccess.uploadStageQueueCapacity", DEFAULT_UPLOAD_STAGE_QUEUE_CAPACITY);
+		this.uploadOrder = UploadOrder.valueOf(System.getProperty("org.cryptomator.fusecloudaccess.uploadOrder", DEFAULT_UPLOAD_ORDER));
+		this.uploadMode = UploadMode.valueOf(System.getProperty("org.cryptomator.fusecloudaccess.uploadMode", DEFAULT_UPLOAD_MODE));
+		this.uploadQuietPeriodMillis = Long.getLong("org.cryptomator.fusecloudaccess.uploadQuietPeriodMillis", DEFAULT_UPLOAD_QUIET_PERIOD);
+		this.uploadMaxDelayMillis = Long.getLong("org.cryptomator.fusecloudaccess.uploadMaxDelayMillis", DEFAULT_UPLOAD_MAX_DELAY);
+		this.uploadQuietPeriodAdaptive = Boolean.parseBoolean(System.getProperty("org.cryptomator.fusecloudaccess.uploadQuietPeriodAdaptive", DEFAULT_UPLOAD_QUIET_PERIOD_ADAPTIVE));
+		this.writeThroughThresholdBytes = Long.getLong("org.cryptomator.fusecloudaccess.writeThroughThresholdBytes", DEFAULT_WRITE_THROUGH_THRESHOLD);
+		this.writeThroughConcurrency = Integer.getInteger("org.cryptomator.fusecloudaccess.writeThroughConcurrency", DEFAULT_WRITE_THROUGH_CONCURRENCY);
+		this.deferredCreate = Boolean.parseBoolean(System.getProperty("org.cryptomator.fusecloudaccess.deferredCreate", DEFAULT_DEFERRED_CREATE));
+		this.writeBehindNamespace = Boolean.parseBoolean(System.getProperty("org.cryptomator.fusecloudaccess.writeBehindNamespace", DEFAULT_WRITE_BEHIND_NAMESPACE));
+		this.metadataTimeoutMillis = Long.getLong("org.cryptomator.fusecloudaccess.metadataTimeoutMillis", DEFAULT_METADATA_TIMEOUT);
+		this.readTimeoutMillis = Long.getLong("org.cryptomator.fusecloudaccess.readTimeoutMillis", DEFAULT_READ_TIMEOUT);
+		this.writeTimeoutMillis = Long.getLong("org.cryptomator.fusecloudaccess.writeTimeoutMillis", DEFAULT_WRITE_TIMEOUT);
+		this.namespaceTimeoutMillis = Long.getLong("org.cryptomator.fusecloudaccess.namespaceTimeoutMillis", DEFAULT_NAMESPACE_TIMEOUT);
+		this.virtualThreads = Boolean.parseBoolean(System.getProperty("org.cryptomator.fusecloudaccess.virtualThreads", DEFAULT_VIRTUAL_THREADS));
+		this.hydrationConcurrency = Integer.getInteger("org.cryptomator.fusecloudaccess.hydrationConcurrency", DEFAULT_HYDRATION_CONCURRENCY);
+		this.uploadRetryAttempts = Integer.getInteger("org.cryptomator.fusecloudaccess.uploadRetryAttempts", DEFAULT_UPLOAD_RETRY_ATTEMPTS);
+		this.uploadRetryInitialBackoffMillis = Long.getLong("org.cryptomator.fusecloudaccess.uploadRetryInitialBackoffMillis", DEFAULT_UPLOAD_RETRY_INITIAL_BACKOFF);
+		this.uploadRetryMaxBackoffMillis = Long.getLong("org.cryptomator.fusecloudaccess.uploadRetryMaxBackoffMillis", DEFAULT_UPLOAD_RETRY_MAX_BACKOFF);
+		this.uploadNamespaceWaitMillis = Long.getLong("org.cryptomator.fusecloudaccess.uploadNamespaceWaitMillis", DEFAULT_UPLOAD_NAMESPACE_WAIT);
+		this.uploadBytesPerSecond = Long.getLong("org.cryptomator.fusecloudaccess.uploadBytesPerSecond", DEFAULT_UPLOAD_BANDWIDTH);
+		this.downloadBytesPerSecond = Long.getLong("org.cryptomator.fusecloudaccess.downloadBytesPerSecond", DEFAULT_DOWNLOAD_BANDWIDTH);
 		this.totalQuota = Long.getLong("org.cryptomator.fusecloudaccess.totalQuota", DEFAULT_TOTAL_QUOTA);
 		this.availableQuota = Long.getLong("org.cryptomator.fusecloudaccess.availableQuota", DEFAULT_AVAILABLE_QUOTA);
 		this.cacheDir = System.getProperty("org.cryptomator.fusecloudaccess.cacheDir", DEFAULT_CACHE_DIR);
@@ -50,6 +140,221 @@ public class CloudAccessFSConfig {
 		return readAheadBytes;
 	}
 
+	/**
+	 * @return Maximum size of the per-file buffer used to combine small sequential writes. <code>0</code> disables write combining.
+	 */
+	public int getWriteBufferBytes() {
+		return writeBufferBytes;
+	}
+
+	/**
+	 * @return Maximum size of files hashed after being loaded completely, so unchanged contents don't get uploaded again. <code>0</code> disables hashing of loaded files.
+	 * @see OpenFile#getRemoteDigest()
+	 */
+	public long getHydratedDigestMaxBytes() {
+		return hydratedDigestMaxBytes;
+	}
+
+	/**
+	 * @return Maximum size of files whose snapshot is held in memory during upload. <code>0</code> disables in-memory snapshots.
+	 * @see SnapshotBufferPool
+	 */
+	public int getInMemorySnapshotThresholdBytes() {
+		return inMemorySnapshotThresholdBytes;
+	}
+
+	/**
+	 * @return Maximum number of unused in-memory snapshot buffers kept for reuse.
+	 */
+	public int getInMemorySnapshotPoolSize() {
+		return inMemorySnapshotPoolSize;
+	}
+
+	/**
+	 * @return Number of empty cache files created in advance, so opening a file doesn't need to create one. <code>0</code> disables pre-creation.
+	 * @see CacheFilePool
+	 */
+	public int getCacheFilePoolSize() {
+		return cacheFilePoolSize;
+	}
+
+	/**
+	 * @return Maximum number of files transferred to the cloud in parallel. Further uploads are queued.
+	 */
+	public int getUploadConcurrency() {
+		return uploadConcurrency;
+	}
+
+	/**
+	 * @return Maximum number of snapshots taken in parallel in preparation of an upload.
+	 */
+	public int getUploadSnapshotConcurrency() {
+		return uploadSnapshotConcurrency;
+	}
+
+	/**
+	 * @return Maximum number of uploaded files moved to their final location in parallel.
+	 */
+	public int getUploadCommitConcurrency() {
+		return uploadCommitConcurrency;
+	}
+
+	/**
+	 * @return Maximum number of uploads waiting for the transfer or commit stage, before the previous stage waits.
+	 */
+	public int getUploadStageQueueCapacity() {
+		return uploadStageQueueCapacity;
+	}
+
+	/**
+	 * @return Order in which queued uploads are started.
+	 */
+	public UploadOrder getUploadOrder() {
+		return uploadOrder;
+	}
+
+	/**
+	 * @return Whether files are uploaded via the {@link #getUploadDir() upload dir} or directly to their final location.
+	 */
+	public UploadMode getUploadMode() {
+		return uploadMode;
+	}
+
+	/**
+	 * @return Time a modified file must stay closed before its upload starts. <code>0</code> starts uploads immediately.
+	 * @see UploadDebouncer
+	 */
+	public long getUploadQuietPeriodMillis() {
+		return uploadQuietPeriodMillis;
+	}
+
+	/**
+	 * @return Maximum time an upload is deferred by repeatedly reopening the file during its quiet period.
+	 */
+	public long getUploadMaxDelayMillis() {
+		return uploadMaxDelayMillis;
+	}
+
+	/**
+	 * @return Whether the quiet period of files that get reopened frequently is extended (up to the {@link #getUploadMaxDelayMillis() max delay}).
+	 */
+	public boolean isUploadQuietPeriodAdaptive() {
+		return uploadQuietPeriodAdaptive;
+	}
+
+	/**
+	 * @return Minimum size of files uploaded while they are being written. <code>0</code> disables write-through uploads.
+	 * @see OpenFile#startWriteThrough()
+	 */
+	public long getWriteThroughThresholdBytes() {
+		return writeThroughThresholdBytes;
+	}
+
+	/**
+	 * @return Maximum number of write-through uploads running in parallel.
+	 */
+	public int getWriteThroughConcurrency() {
+		return writeThroughConcurrency;
+	}
+
+	/**
+	 * @return Whether newly created files are written to the cloud not before their first upload, instead of creating an empty file right away.
+	 * @see OpenFileFactory#create
+	 */
+	public boolean isDeferredCreate() {
+		return deferredCreate;
+	}
+
+	/**
+	 * @return Whether mkdir, rmdir, unlink and rename return as soon as they have been applied locally, while the cloud is updated in the background.
+	 * @see NamespaceReplayer
+	 */
+	public boolean isWriteBehindNamespace() {
+		return writeBehindNamespace;
+	}
+
+	/**
+	 * @return Deadline of getattr, open, opendir, readdir and statfs, after which they fail with ETIMEDOUT. <code>0</code> disables the deadline.
+	 * @see RequestScope
+	 */
+	public long getMetadataTimeoutMillis() {
+		return metadataTimeoutMillis;
+	}
+
+	/**
+	 * @return Deadline of read, after which it fails with ETIMEDOUT, unless it already started to copy data into the FUSE buffer. <code>0</code> disables the deadline.
+	 */
+	public long getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * @return Deadline of write, after which it fails with ETIMEDOUT, unless it already started to copy data from the FUSE buffer. <code>0</code> disables the deadline.
+	 */
+	public long getWriteTimeoutMillis() {
+		return writeTimeoutMillis;
+	}
+
+	/**
+	 * @return Deadline of create, mkdir, rename, rmdir and unlink, after which they fail with ETIMEDOUT. <code>0</code> disables the deadline.
+	 */
+	public long getNamespaceTimeoutMillis() {
+		return namespaceTimeoutMillis;
+	}
+
+	/**
+	 * @return Whether to run stages blocking on the cloud (uploads and hydration) on virtual threads. Requires Java 21 at runtime, otherwise platform threads are used.
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @return Maximum number of platform threads reading data fetched from the cloud. Not applicable to {@link #isVirtualThreads() virtual threads}.
+	 */
+	public int getHydrationConcurrency() {
+		return hydrationConcurrency;
+	}
+
+	/**
+	 * @return Maximum number of attempts to upload a file before moving it to lost+found. <code>1</code> disables retries.
+	 */
+	public int getUploadRetryAttempts() {
+		return uploadRetryAttempts;
+	}
+
+	public long getUploadRetryInitialBackoffMillis() {
+		return uploadRetryInitialBackoffMillis;
+	}
+
+	public long getUploadRetryMaxBackoffMillis() {
+		return uploadRetryMaxBackoffMillis;
+	}
+
+	/**
+	 * @return Maximum time an upload attempt waits for pending namespace changes affecting its destination, e.g. creating its parent. The attempt fails and is retried afterwards.
+	 * @see NamespaceReplayer#awaitReplayed(CloudPath, long, java.util.concurrent.TimeUnit)
+	 */
+	public long getUploadNamespaceWaitMillis() {
+		return uploadNamespaceWaitMillis;
+	}
+
+	/**
+	 * @return Initial upload bandwidth limit of this file system. <code>0</code> means unlimited.
+	 * @see TransferLimits
+	 */
+	public long getUploadBytesPerSecond() {
+		return uploadBytesPerSecond;
+	}
+
+	/**
+	 * @return Initial download bandwidth limit of this file system. <code>0</code> means unlimited.
+	 * @see TransferLimits
+	 */
+	public long getDownloadBytesPerSecond() {
+		return downloadBytesPerSecond;
+	}
+
 	public long getTotalQuota() {
 		return totalQuota;
 	}
@@ -58,6 +363,9 @@ public class CloudAccessFSConfig {
 		return availableQuota;
 	}
 
+	/**
+	 * @return Directory containing cached file contents and the journals of pending uploads and namespace changes. Used exclusively by one file system at a time, so mounting fails if another file system uses the same dir.
+	 */
 	public Path getCacheDir() {
 		return Path.of(cacheDir);
 	}
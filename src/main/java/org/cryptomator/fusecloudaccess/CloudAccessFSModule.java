@@ -4,11 +4,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import dagger.Module;
 import dagger.Provides;
 import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
 
 import javax.inject.Named;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -28,15 +29,50 @@ class CloudAccessFSModule {
 
 	@Provides
 	@FileSystemScoped
-	static ExecutorService provideExecutorService() {
-		return Executors.newCachedThreadPool();
+	static UploadScheduler provideUploadScheduler(CloudAccessFSConfig config) {
+		return new UploadScheduler(config.getUploadSnapshotConcurrency(), config.getUploadOrder());
+	}
+
+	@Provides
+	@FileSystemScoped
+	@Named("transferStage")
+	static UploadStage provideTransferStage(CloudAccessFSConfig config) {
+		return new UploadStage(ThreadFactories.create("upload-transfer", config.isVirtualThreads()), config.getUploadConcurrency(), config.getUploadStageQueueCapacity());
+	}
+
+	@Provides
+	@FileSystemScoped
+	@Named("commitStage")
+	static UploadStage provideCommitStage(CloudAccessFSConfig config) {
+		return new UploadStage(ThreadFactories.create("upload-commit", config.isVirtualThreads()), config.getUploadCommitConcurrency(), config.getUploadStageQueueCapacity());
+	}
+
+	@Provides
+	@FileSystemScoped
+	@Named("writeThroughStage")
+	static UploadStage provideWriteThroughStage(CloudAccessFSConfig config) {
+		return new UploadStage(ThreadFactories.create("upload-write-through", config.isVirtualThreads()), config.getWriteThroughConcurrency(), 0);
+	}
+
+	@Provides
+	@FileSystemScoped
+	@Named("hydrationExecutor")
+	static Executor provideHydrationExecutor(CloudAccessFSConfig config) {
+		return ThreadFactories.newBlockingExecutor("hydration", config.isVirtualThreads(), config.getHydrationConcurrency());
+	}
+
+	@Provides
+	@FileSystemScoped
+	@Named("fileContents")
+	static CloudProvider provideFileContentsProvider(CloudProvider provider, NamespaceOverlay overlay) {
+		return new NamespaceResolvingCloudProvider(provider, overlay);
 	}
 
 	@Provides
 	@FileSystemScoped
 	@Named("openFiles")
-	static ConcurrentMap<CloudPath, OpenFile> provideOpenFilesMap() {
-		return new ConcurrentHashMap<>();
+	static PathIndexedMap<OpenFile> provideOpenFilesMap() {
+		return new PathIndexedMap<>();
 	}
 
 	@Provides
@@ -0,0 +1,62 @@
+package org.cryptomator.fusecloudaccess;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A future of an operation that can be cancelled only until it {@link #commit() commits} to its side effects, such as
+ * accessing a FUSE buffer, which must not happen after the FUSE operation has returned. Once committed,
+ * {@link #cancel(boolean) cancellation} fails and callers need to await the result.
+ *
+ * @param <T> The result type
+ */
+class CommittableFuture<T> extends CompletableFuture<T> {
+
+	private boolean committed; // guarded by this
+
+	/**
+	 * Marks the operation as committed, unless it has been cancelled already.
+	 *
+	 * @return <code>true</code> if the operation may proceed, <code>false</code> if it has been cancelled
+	 */
+	public synchronized boolean commit() {
+		if (isCancelled()) {
+			return false;
+		}
+		committed = true;
+		return true;
+	}
+
+	/**
+	 * Cancels the operation, unless it has been committed already.
+	 *
+	 * @param mayInterruptIfRunning ignored, see {@link CompletableFuture#cancel(boolean)}
+	 * @return <code>true</code> if the operation is now cancelled
+	 */
+	@Override
+	public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+		return !committed && super.cancel(mayInterruptIfRunning);
+	}
+
+	/**
+	 * Completes this future with the outcome of the given stage, unless it has been cancelled.
+	 *
+	 * @param result The stage performing the operation
+	 * @return this
+	 */
+	public CommittableFuture<T> completeWith(CompletableFuture<? extends T> result) {
+		result.whenComplete((value, e) -> {
+			if (e != null) {
+				completeExceptionally(e);
+			} else {
+				complete(value);
+			}
+		});
+		return this;
+	}
+
+	@Override
+	public <U> CompletableFuture<U> newIncompleteFuture() {
+		return new CompletableFuture<>(); // dependent stages are ordinary futures
+	}
+
+}
@@ -1,6 +1,7 @@
 package org.cryptomator.fusecloudaccess;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
 import jnr.ffi.Pointer;
 
 import java.io.Closeable;
@@ -11,6 +12,7 @@ import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 class CompletableAsynchronousFileChannel implements Closeable {
 
@@ -103,12 +105,27 @@ class CompletableAsynchronousFileChannel implements Closeable {
 	 * @return The total number of bytes transferred, which is <code>count</code> unless reaching EOF.
 	 */
 	public CompletableFuture<Long> transferFrom(InputStream src, long position, long count) {
+		return transferFrom(src, position, count, MoreExecutors.directExecutor());
+	}
+
+	/**
+	 * Transfers up to <code>count</code> bytes from <code>in</code> to this file channel starting at <code>position</code>.
+	 * Blocking reads from <code>in</code> following the first one are run by <code>readExecutor</code> instead of the
+	 * thread completing the previous write.
+	 *
+	 * @param src          The source to read from
+	 * @param position     The position in the file channel
+	 * @param count        The number of bytes to transfer
+	 * @param readExecutor Executor for reading from <code>src</code>
+	 * @return The total number of bytes transferred, which is <code>count</code> unless reaching EOF.
+	 */
+	public CompletableFuture<Long> transferFrom(InputStream src, long position, long count, Executor readExecutor) {
 		Preconditions.checkArgument(position >= 0);
 		Preconditions.checkArgument(count > 0);
-		return transferFrom(src, position, count, 0l);
+		return transferFrom(src, position, count, 0l, readExecutor);
 	}
 
-	private CompletableFuture<Long> transferFrom(InputStream src, long position, long remaining, long totalTransferred) {
+	private CompletableFuture<Long> transferFrom(InputStream src, long position, long remaining, long totalTransferred, Executor readExecutor) {
 		assert position >= 0;
 		assert remaining > 0;
 		assert totalTransferred >= 0;
@@ -118,7 +135,7 @@ class CompletableAsynchronousFileChannel implements Closeable {
 			if (bytes.length == 0) { // EOF
 				return CompletableFuture.completedFuture(totalTransferred);
 			}
-			return this.writeAll(ByteBuffer.wrap(bytes), position).thenCompose(written -> {
+			return this.writeAll(ByteBuffer.wrap(bytes), position).thenComposeAsync(written -> {
 				assert bytes.length == written;
 				if (written == remaining // DONE, transferred requested number of bytes
 						|| bytes.length < n) { // EOF
@@ -126,9 +143,9 @@ class CompletableAsynchronousFileChannel implements Closeable {
 				} else { // CONTINUE, further bytes to be transferred
 					assert written < remaining;
 					assert written == n;
-					return this.transferFrom(src, position + written, remaining - written, totalTransferred + written);
+					return this.transferFrom(src, position + written, remaining - written, totalTransferred + written, readExecutor);
 				}
-			});
+			}, readExecutor);
 		} catch (IOException e) {
 			return CompletableFuture.failedFuture(e);
 		}
@@ -0,0 +1,68 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * The size and hash of a file's contents, used to detect whether local contents differ from the remote version.
+ */
+final class ContentDigest {
+
+	static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+	private final long size;
+	private final HashCode hash;
+
+	ContentDigest(long size, HashCode hash) {
+		this.size = size;
+		this.hash = hash;
+	}
+
+	/**
+	 * Reads the given stream until EOF and computes its digest.
+	 *
+	 * @param in The stream, which is not closed by this method
+	 * @return The digest of all bytes read
+	 * @throws IOException If reading fails
+	 */
+	public static ContentDigest of(InputStream in) throws IOException {
+		var hashing = new HashingInputStream(HASH_FUNCTION, in);
+		long size = ByteStreams.exhaust(hashing);
+		return new ContentDigest(size, hashing.hash());
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof ContentDigest) {
+			var other = (ContentDigest) obj;
+			return this.size == other.size && this.hash.equals(other.hash);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(size, hash);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this) //
+				.add("size", size) //
+				.add("hash", hash) //
+				.toString();
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps FUSE file handles to open files or directories.
+ * <p>
+ * Values are stored in a growable array of slots. A handle consists of the slot index (lower 32 bits) and the slot's
+ * generation (upper 32 bits), which is incremented whenever the slot is freed. Freed slots are reused, so the table
+ * doesn't grow beyond the maximum number of simultaneously open handles, while stale handles of a reused slot don't
+ * resolve to the new value.
+ * <p>
+ * {@link #get(long) Lookups} are lock-free and don't allocate. {@link #add(Object) Adding} and
+ * {@link #remove(long) removing} values is synchronized.
+ *
+ * @param <T> The type of values
+ */
+class HandleTable<T> {
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final long SLOT_MASK = 0xFFFFFFFFL;
+
+	private volatile AtomicReferenceArray<Entry<T>> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+	private int[] generations = new int[INITIAL_CAPACITY]; // guarded by this, number of times each slot has been freed
+	private int[] freeSlots = new int[INITIAL_CAPACITY]; // guarded by this, stack of free slot indices
+	private int freeCount; // guarded by this
+	private int usedSlots; // guarded by this, number of slots that have ever been used
+
+	/**
+	 * @param value The value to store
+	 * @return A new handle, which is never zero
+	 */
+	public synchronized long add(T value) {
+		Preconditions.checkNotNull(value);
+		int slot;
+		if (freeCount > 0) {
+			slot = freeSlots[--freeCount];
+		} else {
+			if (usedSlots == slots.length()) {
+				grow();
+			}
+			slot = usedSlots++;
+		}
+		long handle = toHandle(slot, generations[slot]);
+		slots.set(slot, new Entry<>(handle, value));
+		return handle;
+	}
+
+	/**
+	 * @param handle A handle returned by {@link #add(Object)}
+	 * @return The value of the handle or <code>null</code> if the handle is unknown or has already been removed
+	 */
+	public T get(long handle) {
+		var slots = this.slots;
+		long slot = handle & SLOT_MASK;
+		if (slot >= slots.length()) {
+			return null;
+		}
+		var entry = slots.get((int) slot);
+		return entry != null && entry.handle == handle ? entry.value : null;
+	}
+
+	/**
+	 * @param handle A handle returned by {@link #add(Object)}
+	 * @return The removed value or <code>null</code> if the handle is unknown or has already been removed
+	 */
+	public synchronized T remove(long handle) {
+		long slot = handle & SLOT_MASK;
+		if (slot >= slots.length()) {
+			return null;
+		}
+		int i = (int) slot;
+		var entry = slots.get(i);
+		if (entry == null || entry.handle != handle) {
+			return null;
+		}
+		slots.set(i, null);
+		generations[i] = (generations[i] + 1) % Integer.MAX_VALUE; // keep handles positive
+		freeSlots[freeCount++] = i;
+		return entry.value;
+	}
+
+	// visible for testing
+	synchronized int capacity() {
+		return slots.length();
+	}
+
+	private void grow() {
+		int newCapacity = slots.length() * 2;
+		var newSlots = new AtomicReferenceArray<Entry<T>>(newCapacity);
+		for (int i = 0; i < slots.length(); i++) {
+			newSlots.set(i, slots.get(i));
+		}
+		generations = Arrays.copyOf(generations, newCapacity);
+		freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+		slots = newSlots;
+	}
+
+	private static long toHandle(int slot, int generation) {
+		return ((long) (generation + 1) << 32) | slot; // generation is offset by one, so handles are never zero
+	}
+
+	private static class Entry<T> {
+
+		final long handle;
+		final T value;
+
+		Entry(long handle, T value) {
+			this.handle = handle;
+			this.value = value;
+		}
+	}
+
+}
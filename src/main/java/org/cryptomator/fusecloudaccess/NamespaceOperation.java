@@ -0,0 +1,48 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import org.cryptomator.cloudaccess.api.CloudPath;
+
+/**
+ * A change of the namespace, which has been applied locally and is waiting to be {@link NamespaceReplayer replayed}
+ * to the cloud.
+ */
+final class NamespaceOperation {
+
+	enum Type {
+		MKDIR, DELETE_FILE, DELETE_FOLDER, MOVE
+	}
+
+	final long seq;
+	final Type type;
+	final CloudPath path;
+	final CloudPath target; // only used by MOVE
+
+	private NamespaceOperation(long seq, Type type, CloudPath path, CloudPath target) {
+		Preconditions.checkArgument(type == Type.MOVE ^ target == null, "target required for MOVE only");
+		this.seq = seq;
+		this.type = type;
+		this.path = path;
+		this.target = target;
+	}
+
+	static NamespaceOperation of(long seq, Type type, CloudPath path) {
+		return new NamespaceOperation(seq, type, path, null);
+	}
+
+	static NamespaceOperation of(long seq, Type type, CloudPath path, CloudPath target) {
+		return new NamespaceOperation(seq, type, path, target);
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this) //
+				.add("seq", seq) //
+				.add("type", type) //
+				.add("path", path) //
+				.add("target", target) //
+				.omitNullValues() //
+				.toString();
+	}
+}
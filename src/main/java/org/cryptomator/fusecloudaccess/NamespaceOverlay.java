@@ -0,0 +1,220 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.MoreObjects;
+import org.cryptomator.cloudaccess.api.CloudPath;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Local view of {@link NamespaceOperation namespace changes} that have not yet been replayed to the cloud.
+ * <p>
+ * Each overlaid path maps to an entry, which either marks it as a new folder, as deleted (whiteout) or redirects it to
+ * a different remote path (after a move). The entry of the nearest overlaid ancestor determines how a path
+ * {@link #resolve(CloudPath) resolves}: Descendants of deleted paths and of new folders don't exist, descendants of
+ * redirected paths are looked up relative to the redirect target.
+ * <p>
+ * Each entry is owned by the last operation affecting it. As operations are replayed in order, all entries owned by a
+ * replayed operation are removed, since the cloud now reflects the same state.
+ */
+@FileSystemScoped
+class NamespaceOverlay {
+
+	private enum EntryType {
+		FOLDER, WHITEOUT, REDIRECT
+	}
+
+	private final Map<CloudPath, Entry> entries = new HashMap<>(); // guarded by this
+
+	@Inject
+	NamespaceOverlay() {
+	}
+
+	/**
+	 * Applies the given operation to the local view.
+	 *
+	 * @param op An operation which has just been enqueued for replay
+	 */
+	public synchronized void apply(NamespaceOperation op) {
+		switch (op.type) {
+			case MKDIR:
+				entries.put(op.path, new Entry(EntryType.FOLDER, null, op.seq));
+				break;
+			case DELETE_FILE:
+			case DELETE_FOLDER:
+				removeDescendants(op.path);
+				entries.put(op.path, new Entry(EntryType.WHITEOUT, null, op.seq));
+				break;
+			case MOVE:
+				var source = resolve(op.path);
+				entries.remove(op.target);
+				removeDescendants(op.target); // replaced by moved item
+				for (var path : List.copyOf(entries.keySet())) {
+					if (path.startsWith(op.path)) {
+						var entry = entries.remove(path);
+						entries.put(op.target.resolve(op.path.relativize(path)), new Entry(entry.type, entry.remotePath, op.seq));
+					}
+				}
+				if (!entries.containsKey(op.target) && source.isRemote()) {
+					entries.put(op.target, new Entry(EntryType.REDIRECT, source.remotePath, op.seq));
+				}
+				entries.put(op.path, new Entry(EntryType.WHITEOUT, null, op.seq));
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported operation " + op.type);
+		}
+	}
+
+	/**
+	 * Removes all entries that are up-to-date with the cloud after replaying the given operation.
+	 *
+	 * @param op An operation that has successfully been replayed
+	 */
+	public synchronized void replayed(NamespaceOperation op) {
+		if (op.type == NamespaceOperation.Type.MOVE) {
+			// redirects of later operations must now point to the new location:
+			entries.replaceAll((path, entry) -> {
+				if (entry.type == EntryType.REDIRECT && entry.remotePath.startsWith(op.path)) {
+					return new Entry(EntryType.REDIRECT, op.target.resolve(op.path.relativize(entry.remotePath)), entry.owner);
+				} else {
+					return entry;
+				}
+			});
+		}
+		discard(op);
+	}
+
+	/**
+	 * Removes all entries owned by the given operation or any previous one, without adjusting any other entries.
+	 * Used if an operation could not be replayed, so the cloud's state takes precedence.
+	 *
+	 * @param op An operation that won't be replayed
+	 */
+	public synchronized void discard(NamespaceOperation op) {
+		entries.values().removeIf(entry -> entry.owner <= op.seq);
+	}
+
+	/**
+	 * Determines where to find the item at the given path.
+	 *
+	 * @param path A path as seen by the file system's user
+	 * @return How to look up the item
+	 */
+	public synchronized Resolution resolve(CloudPath path) {
+		if (entries.isEmpty()) {
+			return Resolution.remote(path);
+		}
+		for (var ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+			var entry = entries.get(ancestor);
+			if (entry == null) {
+				continue;
+			}
+			switch (entry.type) {
+				case WHITEOUT:
+					return Resolution.ABSENT;
+				case FOLDER:
+					return ancestor.equals(path) ? Resolution.LOCAL_FOLDER : Resolution.ABSENT; // new folders only contain overlaid children
+				case REDIRECT:
+					return Resolution.remote(entry.remotePath.resolve(ancestor.relativize(path)));
+				default:
+					throw new IllegalStateException("Unsupported entry " + entry.type);
+			}
+		}
+		return Resolution.remote(path);
+	}
+
+	/**
+	 * Determines how to list the given directory.
+	 *
+	 * @param dir A directory as seen by the file system's user
+	 * @return Where to list remote children and which children to hide or add
+	 */
+	public synchronized Listing list(CloudPath dir) {
+		var resolution = resolve(dir);
+		var hidden = new HashSet<String>();
+		var added = new ArrayList<String>();
+		for (var entry : entries.entrySet()) {
+			var path = entry.getKey();
+			if (dir.equals(path.getParent())) {
+				var name = path.getFileName().toString();
+				hidden.add(name);
+				if (entry.getValue().type != EntryType.WHITEOUT) {
+					added.add(name);
+				}
+			}
+		}
+		return new Listing(Optional.ofNullable(resolution.remotePath), hidden, added);
+	}
+
+	private void removeDescendants(CloudPath parent) {
+		entries.keySet().removeIf(path -> !path.equals(parent) && path.startsWith(parent));
+	}
+
+	// visible for testing
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private static class Entry {
+
+		final EntryType type;
+		final CloudPath remotePath; // only used by REDIRECT
+		final long owner; // seq of the last operation affecting this entry
+
+		Entry(EntryType type, CloudPath remotePath, long owner) {
+			this.type = type;
+			this.remotePath = remotePath;
+			this.owner = owner;
+		}
+	}
+
+	static class Resolution {
+
+		static final Resolution ABSENT = new Resolution(null, false);
+		static final Resolution LOCAL_FOLDER = new Resolution(null, true);
+
+		final CloudPath remotePath; // null unless the item is to be looked up in the cloud
+		final boolean localFolder;
+
+		private Resolution(CloudPath remotePath, boolean localFolder) {
+			this.remotePath = remotePath;
+			this.localFolder = localFolder;
+		}
+
+		static Resolution remote(CloudPath remotePath) {
+			return new Resolution(remotePath, false);
+		}
+
+		boolean isRemote() {
+			return remotePath != null;
+		}
+
+		@Override
+		public String toString() {
+			return MoreObjects.toStringHelper(this) //
+					.add("remotePath", remotePath) //
+					.add("localFolder", localFolder) //
+					.toString();
+		}
+	}
+
+	static class Listing {
+
+		final Optional<CloudPath> remoteDir;
+		final Set<String> hiddenChildren;
+		final List<String> addedChildren;
+
+		Listing(Optional<CloudPath> remoteDir, Set<String> hiddenChildren, List<String> addedChildren) {
+			this.remoteDir = remoteDir;
+			this.hiddenChildren = hiddenChildren;
+			this.addedChildren = addedChildren;
+		}
+	}
+
+}
@@ -0,0 +1,433 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.exceptions.AlreadyExistsException;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
+import org.cryptomator.fusecloudaccess.locks.DataLock;
+import org.cryptomator.fusecloudaccess.locks.LockManager;
+import org.cryptomator.fusecloudaccess.locks.PathLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Replays namespace changes (mkdir, rmdir, unlink and rename) to the cloud in the background.
+ * <p>
+ * If {@link CloudAccessFSConfig#isWriteBehindNamespace() enabled}, these operations return as soon as they are
+ * {@link #enqueue(NamespaceOperation.Type, CloudPath, CloudPath) enqueued}: Each operation is recorded in the
+ * {@value #QUEUE_DIR} directory inside of the cache dir and applied to the {@link NamespaceOverlay overlay}, which
+ * makes it visible to subsequent lookups. A single thread then replays all operations in order, so each operation
+ * sees the remote state it depends on. Records are removed once replayed and remaining records are
+ * {@link #resume() resumed} when mounting.
+ * <p>
+ * If an operation conflicts with the remote state (e.g. its source no longer exists), it is skipped and the cloud's
+ * state takes precedence. Any other failure is retried with exponential backoff until the operation succeeds. Since
+ * later operations might depend on it, they wait in the meantime. Conflicts and failures are logged and counted.
+ * <p>
+ * Uploads can {@link #awaitReplayed(CloudPath, long, TimeUnit) wait} for the operations affecting their destination,
+ * e.g. creating its parent, without waiting for unrelated operations.
+ */
+@FileSystemScoped
+public class NamespaceReplayer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NamespaceReplayer.class);
+	static final String QUEUE_DIR = "namespace";
+	private static final String RECORD_SUFFIX = ".op";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final String KEY_TYPE = "type";
+	private static final String KEY_PATH = "path";
+	private static final String KEY_TARGET = "target";
+
+	private final CloudProvider provider;
+	private final LockManager lockManager;
+	private final RetryPolicy retryPolicy;
+	private final NamespaceOverlay overlay;
+	private final boolean enabled;
+	private final Path queueDir;
+	private final ExecutorService executor;
+	private final LongAdder replayed = new LongAdder();
+	private final LongAdder conflicts = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final Map<CloudPath, Long> lastAffecting = new HashMap<>(); // seq of the last pending operation affecting a path, guarded by this
+	private long lastEnqueued; // guarded by this
+	private long lastCompleted; // guarded by this
+	private long pending; // guarded by this
+	private volatile boolean retrying;
+
+	@Inject
+	NamespaceReplayer(CloudProvider provider, CloudAccessFSConfig config, LockManager lockManager, RetryPolicy retryPolicy, NamespaceOverlay overlay) {
+		this.provider = provider;
+		this.lockManager = lockManager;
+		this.retryPolicy = retryPolicy;
+		this.overlay = overlay;
+		this.enabled = config.isWriteBehindNamespace();
+		this.queueDir = config.getCacheDir().resolve(QUEUE_DIR);
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("namespace-replay-%d").build());
+	}
+
+	/**
+	 * @return Whether namespace changes are to be {@link #enqueue(NamespaceOperation.Type, CloudPath, CloudPath) enqueued} instead of being applied synchronously
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Records the given operation, applies it to the local overlay and schedules its replay. Must be invoked while holding
+	 * path locks for all affected paths.
+	 *
+	 * @param type   The kind of operation
+	 * @param path   The affected path (or source path of a move)
+	 * @param target The target path of a move, <code>null</code> otherwise
+	 * @throws IOException If the operation could not be recorded
+	 */
+	public synchronized void enqueue(NamespaceOperation.Type type, CloudPath path, CloudPath target) throws IOException {
+		var op = NamespaceOperation.of(lastEnqueued + 1, type, path, target);
+		write(op);
+		lastEnqueued = op.seq;
+		pending++;
+		track(op);
+		overlay.apply(op);
+		executor.execute(() -> replay(op));
+		LOG.trace("Enqueued {}", op);
+	}
+
+	/**
+	 * Schedules the replay of all operations left over from a previous session. Must be invoked before any operation
+	 * is enqueued.
+	 *
+	 * @return The number of resumed operations
+	 * @throws IOException If the queue directory can not be read
+	 */
+	public synchronized int resume() throws IOException {
+		var ops = load();
+		if (!ops.isEmpty()) {
+			lastCompleted = ops.get(0).seq - 1;
+		}
+		for (var op : ops) {
+			lastEnqueued = op.seq;
+			pending++;
+			track(op);
+			overlay.apply(op);
+			executor.execute(() -> replay(op));
+		}
+		return ops.size();
+	}
+
+	/**
+	 * Blocks until all operations enqueued so far have been replayed (or skipped) or the timeout elapses.
+	 *
+	 * @return <code>true</code> if all operations have been replayed
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized boolean awaitReplayed(long timeout, TimeUnit unit) throws InterruptedException {
+		return awaitCompleted(lastEnqueued, timeout, unit);
+	}
+
+	/**
+	 * Blocks until all operations enqueued so far, which affect the given path or any of its ancestors, have been
+	 * replayed (or skipped) or the timeout elapses. As operations are replayed in order, this includes all operations
+	 * enqueued before them.
+	 *
+	 * @param path The path about to be written to in the cloud
+	 * @return <code>true</code> if all operations affecting the path have been replayed
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized boolean awaitReplayed(CloudPath path, long timeout, TimeUnit unit) throws InterruptedException {
+		long awaited = 0;
+		for (var ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+			awaited = Math.max(awaited, lastAffecting.getOrDefault(ancestor, 0L));
+		}
+		return awaitCompleted(awaited, timeout, unit);
+	}
+
+	private boolean awaitCompleted(long awaited, long timeout, TimeUnit unit) throws InterruptedException {
+		assert Thread.holdsLock(this);
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (lastCompleted < awaited) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops replaying. Operations not replayed yet remain recorded and will be resumed during the next session.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return Number of operations not yet replayed, including operations which failed and are retried
+	 */
+	public synchronized long getPendingOperations() {
+		return pending;
+	}
+
+	/**
+	 * @return Number of successfully replayed operations
+	 */
+	public long getReplayedOperations() {
+		return replayed.sum();
+	}
+
+	/**
+	 * @return Number of operations skipped because they conflicted with the remote state
+	 */
+	public long getConflicts() {
+		return conflicts.sum();
+	}
+
+	/**
+	 * @return Number of failed attempts to replay an operation for any other reason than a conflict. The affected
+	 * operations remain pending and are retried.
+	 */
+	public long getFailedOperations() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return Whether replaying the next operation failed and is retried after a backoff, which blocks all subsequent operations
+	 */
+	public boolean isRetrying() {
+		return retrying;
+	}
+
+	// visible for testing
+	void replay(NamespaceOperation op) {
+		try {
+			for (int round = 1; !tryReplay(op); round++) {
+				var backoff = retryPolicy.backoff(round);
+				LOG.warn("Replay of {} failed, retrying in {} ms.", op, backoff.toMillis());
+				retrying = true;
+				retryPolicy.sleep(backoff);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Replay of {} interrupted. Will be resumed when mounting again.", op);
+			return; // keep record
+		} finally {
+			retrying = false;
+		}
+		delete(op);
+		completed(op);
+	}
+
+	/**
+	 * @return <code>true</code> if the operation has been replayed or skipped due to a conflict, <code>false</code> if it needs to be retried
+	 */
+	private boolean tryReplay(NamespaceOperation op) throws InterruptedException {
+		try {
+			retryPolicy.execute("Replaying " + op, () -> {
+				// lock affected paths, so the overlay gets updated atomically with the cloud:
+				var paths = op.target == null ? List.of(op.path.toString()) : LockManager.inLockOrder(op.path.toString(), op.target.toString());
+				try (PathLock firstPathLock = lockManager.createPathLock(paths.get(0)).forWriting(); //
+					 DataLock firstDataLock = firstPathLock.lockDataForWriting(); //
+					 PathLock secondPathLock = paths.size() < 2 ? null : lockManager.createPathLock(paths.get(1)).forWriting(); //
+					 DataLock secondDataLock = secondPathLock == null ? null : secondPathLock.lockDataForWriting()) {
+					execute(op);
+					overlay.replayed(op);
+				}
+				return null;
+			});
+			replayed.increment();
+			LOG.trace("Replayed {}", op);
+			return true;
+		} catch (ExecutionException e) {
+			if (isConflict(e.getCause())) {
+				conflicts.increment();
+				LOG.warn("Skipping {}, which conflicts with the cloud's state: {}", op, e.getCause().toString());
+				overlay.discard(op);
+				return true;
+			} else {
+				failures.increment();
+				LOG.error("Failed to replay " + op + ".", e.getCause());
+				return false; // keep it, subsequent operations might depend on it
+			}
+		}
+	}
+
+	private void execute(NamespaceOperation op) throws ExecutionException, InterruptedException {
+		try {
+			switch (op.type) {
+				case MKDIR:
+					provider.createFolder(op.path).toCompletableFuture().get();
+					break;
+				case DELETE_FILE:
+					provider.deleteFile(op.path).toCompletableFuture().get();
+					break;
+				case DELETE_FOLDER:
+					provider.deleteFolder(op.path).toCompletableFuture().get();
+					break;
+				case MOVE:
+					provider.move(op.path, op.target, true).toCompletableFuture().get();
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported operation " + op.type);
+			}
+		} catch (ExecutionException e) {
+			if (!isAlreadyApplied(op, e.getCause())) {
+				throw e;
+			}
+			LOG.debug("{} has already been applied.", op);
+		}
+	}
+
+	/**
+	 * Operations may be replayed again after a crash, so they are idempotent if the cloud already reflects their effect.
+	 */
+	private boolean isAlreadyApplied(NamespaceOperation op, Throwable e) throws InterruptedException, ExecutionException {
+		switch (op.type) {
+			case MKDIR:
+				return e instanceof AlreadyExistsException;
+			case DELETE_FILE:
+			case DELETE_FOLDER:
+				return e instanceof NotFoundException;
+			case MOVE:
+				return e instanceof NotFoundException && exists(op.target);
+			default:
+				return false;
+		}
+	}
+
+	private boolean exists(CloudPath path) throws InterruptedException, ExecutionException {
+		try {
+			provider.itemMetadata(path).toCompletableFuture().get();
+			return true;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NotFoundException) {
+				return false;
+			}
+			throw e; // state unknown, try again later
+		}
+	}
+
+	private static boolean isConflict(Throwable e) {
+		return RetryPolicy.classify(e) == RetryPolicy.Failure.PERMANENT;
+	}
+
+	private synchronized void track(NamespaceOperation op) {
+		lastAffecting.put(op.path, op.seq);
+		if (op.target != null) {
+			lastAffecting.put(op.target, op.seq);
+		}
+	}
+
+	private synchronized void completed(NamespaceOperation op) {
+		lastCompleted = op.seq;
+		pending--;
+		lastAffecting.remove(op.path, op.seq); // unless affected by a later operation
+		if (op.target != null) {
+			lastAffecting.remove(op.target, op.seq);
+		}
+		notifyAll();
+	}
+
+	private Path recordFile(long seq) {
+		return queueDir.resolve(String.format("%020d%s", seq, RECORD_SUFFIX));
+	}
+
+	private void write(NamespaceOperation op) throws IOException {
+		Files.createDirectories(queueDir);
+		var properties = new Properties();
+		properties.setProperty(KEY_TYPE, op.type.name());
+		properties.setProperty(KEY_PATH, op.path.toString());
+		if (op.target != null) {
+			properties.setProperty(KEY_TARGET, op.target.toString());
+		}
+		var content = new ByteArrayOutputStream();
+		properties.store(content, null); // escapes characters beyond ISO-8859-1
+
+		var recordFile = recordFile(op.seq);
+		var tmpFile = queueDir.resolve(recordFile.getFileName() + TMP_SUFFIX);
+		try (var ch = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			var buf = ByteBuffer.wrap(content.toByteArray());
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+			ch.force(true);
+		}
+		Files.move(tmpFile, recordFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		WriteBackJournal.syncDirectory(queueDir);
+	}
+
+	private void delete(NamespaceOperation op) {
+		try {
+			Files.deleteIfExists(recordFile(op.seq));
+		} catch (IOException e) {
+			LOG.warn("Failed to remove record of " + op, e);
+		}
+	}
+
+	// visible for testing
+	List<NamespaceOperation> load() throws IOException {
+		Files.createDirectories(queueDir);
+		var ops = new ArrayList<NamespaceOperation>();
+		try (var recordFiles = Files.newDirectoryStream(queueDir)) {
+			for (var recordFile : recordFiles) {
+				var fileName = recordFile.getFileName().toString();
+				if (!fileName.endsWith(RECORD_SUFFIX)) { // incomplete record
+					Files.deleteIfExists(recordFile);
+					continue;
+				}
+				try {
+					ops.add(read(recordFile));
+				} catch (IOException | IllegalArgumentException e) {
+					LOG.error("Skipping invalid namespace record " + recordFile, e);
+				}
+			}
+		}
+		ops.sort(Comparator.comparingLong(op -> op.seq));
+		return ops;
+	}
+
+	private NamespaceOperation read(Path recordFile) throws IOException {
+		var fileName = recordFile.getFileName().toString();
+		var seq = Long.parseLong(fileName.substring(0, fileName.length() - RECORD_SUFFIX.length()));
+		var properties = new Properties();
+		try (InputStream in = Files.newInputStream(recordFile)) {
+			properties.load(in); // unescapes characters beyond ISO-8859-1
+		}
+		var type = NamespaceOperation.Type.valueOf(required(properties, KEY_TYPE));
+		var path = CloudPath.of(required(properties, KEY_PATH));
+		var target = properties.getProperty(KEY_TARGET);
+		return NamespaceOperation.of(seq, type, path, target == null ? null : CloudPath.of(target));
+	}
+
+	private static String required(Properties properties, String key) {
+		var value = properties.getProperty(key);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing " + key);
+		}
+		return value;
+	}
+
+}
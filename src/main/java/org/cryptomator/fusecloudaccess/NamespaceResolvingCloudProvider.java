@@ -0,0 +1,116 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudItemList;
+import org.cryptomator.cloudaccess.api.CloudItemMetadata;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.ProgressListener;
+import org.cryptomator.cloudaccess.api.Quota;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Decorates a {@link CloudProvider}, reading file contents from where the {@link NamespaceOverlay} locates them. Until
+ * a move has been replayed, the contents of the moved file are still found at its old location in the cloud.
+ * <p>
+ * Only reads are redirected. All other requests are passed through unchanged.
+ */
+class NamespaceResolvingCloudProvider implements CloudProvider {
+
+	private final CloudProvider delegate;
+	private final NamespaceOverlay overlay;
+
+	NamespaceResolvingCloudProvider(CloudProvider delegate, NamespaceOverlay overlay) {
+		this.delegate = delegate;
+		this.overlay = overlay;
+	}
+
+	@Override
+	public CompletionStage<CloudItemMetadata> itemMetadata(CloudPath node) {
+		return delegate.itemMetadata(node);
+	}
+
+	@Override
+	public CompletionStage<Quota> quota(CloudPath folder) {
+		return delegate.quota(folder);
+	}
+
+	@Override
+	public CompletionStage<Boolean> exists(CloudPath node) {
+		return delegate.exists(node);
+	}
+
+	@Override
+	public CompletionStage<CloudItemList> list(CloudPath folder, Optional<String> pageToken) {
+		return delegate.list(folder, pageToken);
+	}
+
+	@Override
+	public CompletionStage<CloudItemList> listExhaustively(CloudPath folder) {
+		return delegate.listExhaustively(folder);
+	}
+
+	@Override
+	public CompletionStage<InputStream> read(CloudPath file, ProgressListener progressListener) {
+		var resolution = overlay.resolve(file);
+		if (!resolution.isRemote()) {
+			return CompletableFuture.failedFuture(new NotFoundException(file.toString()));
+		}
+		return delegate.read(resolution.remotePath, progressListener);
+	}
+
+	@Override
+	public CompletionStage<InputStream> read(CloudPath file, long offset, long count, ProgressListener progressListener) {
+		var resolution = overlay.resolve(file);
+		if (!resolution.isRemote()) {
+			return CompletableFuture.failedFuture(new NotFoundException(file.toString()));
+		}
+		return delegate.read(resolution.remotePath, offset, count, progressListener);
+	}
+
+	@Override
+	public CompletionStage<Void> write(CloudPath file, boolean replace, InputStream data, long size, Optional<Instant> lastModified, ProgressListener progressListener) {
+		return delegate.write(file, replace, data, size, lastModified, progressListener);
+	}
+
+	@Override
+	public CompletionStage<CloudPath> createFolder(CloudPath folder) {
+		return delegate.createFolder(folder);
+	}
+
+	@Override
+	public CompletionStage<CloudPath> createFolderIfNonExisting(CloudPath folder) {
+		return delegate.createFolderIfNonExisting(folder);
+	}
+
+	@Override
+	public CompletionStage<Void> deleteFile(CloudPath file) {
+		return delegate.deleteFile(file);
+	}
+
+	@Override
+	public CompletionStage<Void> deleteFolder(CloudPath folder) {
+		return delegate.deleteFolder(folder);
+	}
+
+	@Override
+	public CompletionStage<CloudPath> move(CloudPath source, CloudPath target, boolean replace) {
+		return delegate.move(source, target, replace);
+	}
+
+	@Override
+	public boolean cachingCapability() {
+		return delegate.cachingCapability();
+	}
+
+	@Override
+	public CompletionStage<Void> pollRemoteChanges() {
+		return delegate.pollRemoteChanges();
+	}
+
+}
@@ -9,6 +9,8 @@ import org.cryptomator.cloudaccess.api.CloudProvider;
 import ru.serce.jnrfuse.FuseFillDir;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -18,32 +20,55 @@ import java.util.function.Predicate;
 class OpenDir {
 
 	private final CloudProvider provider;
-	private final CloudPath path;
+	private final Optional<CloudPath> remoteDir;
 	private Optional<String> pageToken;
 	private List<String> children;
+	private Collection<String> localChildren;
 	private Predicate<? super String> listingFilter;
 	private boolean reachedEof;
 
 	public OpenDir(CloudProvider provider, Predicate<String> listingFilter, CloudPath path) {
+		this(provider, listingFilter, Optional.of(path), List.of());
+	}
+
+	/**
+	 * @param remoteDir     Where to list remote children or an empty Optional, if the dir doesn't exist in the cloud yet
+	 * @param localChildren Names of children not yet known to the cloud, which are listed after all remote children
+	 */
+	public OpenDir(CloudProvider provider, Predicate<String> listingFilter, Optional<CloudPath> remoteDir, Collection<String> localChildren) {
 		this.provider = provider;
-		this.path = path;
+		this.remoteDir = remoteDir;
 		this.pageToken = Optional.empty();
 		this.children = new ArrayList<>();
 		this.children.add(".");
 		this.children.add("..");
 		this.listingFilter = listingFilter;
+		this.localChildren = localChildren;
+		if (remoteDir.isEmpty()) {
+			reachedEof();
+		}
 	}
 
 
 	private CompletionStage<Void> loadNext() {
 		Preconditions.checkState(!reachedEof);
-		return provider.list(path, pageToken).thenAccept(itemList -> {
+		return provider.list(remoteDir.get(), pageToken).thenAccept(itemList -> {
 			itemList.getItems().stream().map(CloudItemMetadata::getName).filter(listingFilter).forEachOrdered(children::add);
 			pageToken = itemList.getNextPageToken();
-			reachedEof = itemList.getNextPageToken().isEmpty();
+			if (itemList.getNextPageToken().isEmpty()) {
+				reachedEof();
+			}
 		});
 	}
 
+	private void reachedEof() {
+		reachedEof = true;
+		if (!localChildren.isEmpty()) {
+			var listed = new HashSet<>(children); // a file might have been uploaded meanwhile
+			localChildren.stream().filter(listingFilter).filter(listed::add).forEachOrdered(children::add);
+		}
+	}
+
 	// https://www.cs.hmc.edu/~geoff/classes/hmc.cs135.201001/homework/fuse/fuse_doc.html#readdir-details
 	public CompletionStage<Integer> list(Pointer buf, FuseFillDir filler, int offset) {
 		// fill with loaded children:
@@ -68,7 +93,7 @@ class OpenDir {
 	@Override
 	public String toString() {
 		return MoreObjects.toStringHelper(OpenDir.class) //
-				.add("path", path) //
+				.add("remoteDir", remoteDir) //
 				.toString();
 	}
 }
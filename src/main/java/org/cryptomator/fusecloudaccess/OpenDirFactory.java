@@ -6,10 +6,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 @FileSystemScoped
@@ -18,15 +16,18 @@ class OpenDirFactory {
 	private static final Logger LOG = LoggerFactory.getLogger(OpenDirFactory.class);
 	private static final CloudPath ROOT_DIR = CloudPath.of("/");
 
-	private final ConcurrentMap<Long, OpenDir> openDirs = new ConcurrentHashMap<>();
-	private final AtomicLong fileHandleGen = new AtomicLong();
+	private final HandleTable<OpenDir> openDirs = new HandleTable<>();
 	private final CloudProvider provider;
 	private final CloudPath uploadDir;
+	private final OpenFileFactory openFileFactory;
+	private final NamespaceOverlay namespaceOverlay;
 
 	@Inject
-	public OpenDirFactory(CloudProvider provider, CloudAccessFSConfig config) {
+	public OpenDirFactory(CloudProvider provider, CloudAccessFSConfig config, OpenFileFactory openFileFactory, NamespaceOverlay namespaceOverlay) {
 		this.provider = provider;
 		this.uploadDir = config.getUploadDir();
+		this.openFileFactory = openFileFactory;
+		this.namespaceOverlay = namespaceOverlay;
 	}
 
 	/**
@@ -34,14 +35,17 @@ class OpenDirFactory {
 	 * @return file handle used to identify and close open files.
 	 */
 	public long open(CloudPath path) {
-		long fileHandle = fileHandleGen.getAndIncrement();
 		String uploadDirName = Optional.ofNullable(uploadDir.getFileName()).map(CloudPath::toString).orElse(null);
 		Predicate<String> listingFilter = ROOT_DIR.equals(path)
 				? childName -> !childName.equals(uploadDirName) // exclude uploadDir from child list
 				: childName -> true; // include all children
-		OpenDir dir = new OpenDir(provider, listingFilter, path);
+		var listing = namespaceOverlay.list(path); // changes not yet replayed to the cloud
+		var localChildren = new ArrayList<>(listing.addedChildren);
+		localChildren.addAll(openFileFactory.getLocallyCreatedChildren(path));
+		Predicate<String> overlayFilter = childName -> !listing.hiddenChildren.contains(childName);
+		OpenDir dir = new OpenDir(provider, listingFilter.and(overlayFilter), listing.remoteDir, localChildren);
 
-		openDirs.put(fileHandle, dir);
+		long fileHandle = openDirs.add(dir);
 		LOG.trace("Opening dir {} {}", fileHandle, dir);
 		return fileHandle;
 	}
@@ -4,9 +4,9 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableRangeSet;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeMap;
-import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeMap;
 import com.google.common.collect.TreeRangeSet;
+import com.google.common.hash.Funnels;
 import jnr.ffi.Pointer;
 import org.cryptomator.cloudaccess.api.CloudPath;
 import org.cryptomator.cloudaccess.api.CloudProvider;
@@ -22,18 +22,28 @@ import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.nio.file.StandardOpenOption.*;
@@ -42,43 +52,82 @@ class OpenFile implements Closeable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(OpenFile.class);
 
+	private final Path cacheFile;
 	private final CompletableAsynchronousFileChannel fc;
 	private final CloudProvider provider;
-	private final RangeSet<Long> populatedRanges;
-	private final RangeMap<Long, CompletionStage<Void>> activeRequests;
+	private final TransferLimits transferLimits;
+	private final PopulationIndex populatedRanges;
+	private final RangeMap<Long, CompletionStage<Void>> activeRequests; // guarded by this
+	private final List<Range<Long>> pendingWrites = new ArrayList<>(); // local writes in progress, guarded by this
+	private final Map<Range<Long>, CompletableFuture<Void>> activeTransfers = new HashMap<>(); // hydrated ranges being written to the cache file, guarded by this
+	private final Map<CompletionStage<Void>, Hydration> hydrations = new HashMap<>(); // values of activeRequests, guarded by this
 	private final AtomicInteger openFileHandleCount;
 	private final AtomicReference<OpenFile.State> state;
+	private final AtomicLong modCount = new AtomicLong(); // incremented before any local modification
 	private final int readAheadBytes;
+	private final int writeBufferBytes;
+	private final long digestMaxBytes;
+	private final Executor hydrationExecutor;
 	private volatile CloudPath path;
-	private Instant lastModified;
+	private volatile Instant lastModified;
+	private volatile ByteBuffer writeBuffer; // modified only while holding this
+	private long writeBufferPosition; // guarded by this
+	private volatile long bufferedSize; // end of buffered or currently flushed data
+	private volatile CompletableFuture<Void> pendingFlush = CompletableFuture.completedFuture(null); // modified only while holding this
+	private final AtomicReference<OpenFileSnapshot> snapshot = new AtomicReference<>();
+	private volatile ContentDigest remoteDigest; // digest of the remote version, null if unknown
+	private final AtomicBoolean hydratedDigestStarted = new AtomicBoolean();
+	private volatile long preallocatedAt = -1; // modCount after growing an empty file, -1 if not applicable
+	private volatile WriteThroughStream writeThrough; // modified only while holding this
+	private volatile boolean createdLocally; // true until the first upload of a file created by this file system
 
 	public enum State {UNMODIFIED, NEEDS_UPLOAD, UPLOADING, NEEDS_REUPLOAD}
 
 	// visible for testing
-	OpenFile(CloudPath path, CompletableAsynchronousFileChannel fc, CloudProvider provider, RangeSet<Long> populatedRanges, RangeMap<Long, CompletionStage<Void>> activeRequests, Instant initialLastModified, int readAheadBytes) {
+	OpenFile(CloudPath path, Path cacheFile, CompletableAsynchronousFileChannel fc, CloudProvider provider, TransferLimits transferLimits, PopulationIndex populatedRanges, RangeMap<Long, CompletionStage<Void>> activeRequests, Instant initialLastModified, int readAheadBytes, int writeBufferBytes, long digestMaxBytes, Executor hydrationExecutor) {
 		this.path = path;
+		this.cacheFile = cacheFile;
 		this.fc = fc;
 		this.provider = provider;
+		this.transferLimits = transferLimits;
 		this.populatedRanges = populatedRanges;
 		this.activeRequests = activeRequests;
 		this.openFileHandleCount = new AtomicInteger();
 		this.state = new AtomicReference<>(State.UNMODIFIED);
 		this.lastModified = initialLastModified;
 		this.readAheadBytes = readAheadBytes;
+		this.writeBufferBytes = writeBufferBytes;
+		this.digestMaxBytes = digestMaxBytes;
+		this.hydrationExecutor = hydrationExecutor;
 	}
 
 	/**
 	 * Creates a cached representation of a file. File contents are loaded on demand from the provided cloud provider.
 	 *
 	 * @param path        The path of this file in the cloud
-	 * @param tmpFilePath Where to store the volatile cache
+	 * @param tmpFilePath Where to store the cache, which is deleted when closing this file
 	 * @param provider    The cloud provider used to load and persist file contents
+	 * @param transferLimits Bandwidth limits applied when loading file contents
 	 * @param initialSize Must be 0 for newly created files. (Use {@link #truncate(long)} if you want to grow it)
+	 * @param readAheadBytes Minimum number of bytes to request from the provider when loading missing content
+	 * @param writeBufferBytes Size of the buffer used to combine small sequential writes (<code>0</code> to disable)
+	 * @param digestMaxBytes Maximum size of files whose {@link #getRemoteDigest() remote digest} is computed after loading them completely (<code>0</code> to disable)
+	 * @param hydrationExecutor Executor for blocking reads from the cloud while loading file contents
 	 * @return The created file
 	 * @throws IOException I/O errors during creation of the cache file located at <code>tmpFilePath</code>
 	 */
-	public static OpenFile create(CloudPath path, Path tmpFilePath, CloudProvider provider, long initialSize, int readAheadBytes) throws IOException {
-		var fc = AsynchronousFileChannel.open(tmpFilePath, READ, WRITE, CREATE_NEW, SPARSE, DELETE_ON_CLOSE);
+	public static OpenFile create(CloudPath path, Path tmpFilePath, CloudProvider provider, TransferLimits transferLimits, long initialSize, int readAheadBytes, int writeBufferBytes, long digestMaxBytes, Executor hydrationExecutor) throws IOException {
+		var fc = AsynchronousFileChannel.open(tmpFilePath, READ, WRITE, CREATE_NEW, SPARSE);
+		return create(path, tmpFilePath, fc, provider, transferLimits, initialSize, readAheadBytes, writeBufferBytes, digestMaxBytes, hydrationExecutor);
+	}
+
+	/**
+	 * Creates a cached representation of a file, using an empty cache file that has already been opened, e.g. by a
+	 * {@link CacheFilePool}.
+	 *
+	 * @see #create(CloudPath, Path, CloudProvider, TransferLimits, long, int, int, long, Executor)
+	 */
+	public static OpenFile create(CloudPath path, Path tmpFilePath, AsynchronousFileChannel fc, CloudProvider provider, TransferLimits transferLimits, long initialSize, int readAheadBytes, int writeBufferBytes, long digestMaxBytes, Executor hydrationExecutor) throws IOException {
 		if (initialSize > 0) {
 			try {
 				fc.write(ByteBuffer.allocateDirect(1), initialSize - 1).get(); // grow file to initialSize
@@ -89,7 +138,36 @@ class OpenFile implements Closeable {
 				throw new IOException("Failed to create file", e);
 			}
 		}
-		return new OpenFile(path, new CompletableAsynchronousFileChannel(fc), provider, TreeRangeSet.create(), TreeRangeMap.create(), Instant.now(), readAheadBytes);
+		return new OpenFile(path, tmpFilePath, new CompletableAsynchronousFileChannel(fc), provider, transferLimits, new PopulationIndex(), TreeRangeMap.create(), Instant.now(), readAheadBytes, writeBufferBytes, digestMaxBytes, hydrationExecutor);
+	}
+
+	/**
+	 * Recreates a file from a cache file left over by a previous session, e.g. after a crash with pending uploads.
+	 * The restored file is {@link State#NEEDS_UPLOAD marked for upload}.
+	 *
+	 * @param path           The path of this file in the cloud
+	 * @param cacheFilePath  The existing cache file, which is deleted when closing this file
+	 * @param provider       The cloud provider used to load and persist file contents
+	 * @param transferLimits Bandwidth limits applied when loading file contents
+	 * @param lastModified   The last modified date at the time the upload had been scheduled
+	 * @param recordedSize   The size at the time the upload had been scheduled
+	 * @param missingRanges  The ranges not yet loaded into the cache file at the time the upload had been scheduled
+	 * @param readAheadBytes Minimum number of bytes to request from the provider when loading missing content
+	 * @param writeBufferBytes Size of the buffer used to combine small sequential writes (<code>0</code> to disable)
+	 * @param digestMaxBytes Maximum size of files whose {@link #getRemoteDigest() remote digest} is computed after loading them completely (<code>0</code> to disable)
+	 * @param hydrationExecutor Executor for blocking reads from the cloud while loading file contents
+	 * @return The restored file
+	 * @throws IOException I/O errors during opening the cache file located at <code>cacheFilePath</code>
+	 */
+	public static OpenFile restore(CloudPath path, Path cacheFilePath, CloudProvider provider, TransferLimits transferLimits, Instant lastModified, long recordedSize, List<Range<Long>> missingRanges, int readAheadBytes, int writeBufferBytes, long digestMaxBytes, Executor hydrationExecutor) throws IOException {
+		var fc = AsynchronousFileChannel.open(cacheFilePath, READ, WRITE);
+		var populatedRanges = new PopulationIndex();
+		var populated = TreeRangeSet.create(List.of(Range.closedOpen(0l, Math.max(recordedSize, fc.size()))));
+		populated.removeAll(missingRanges); // anything beyond recordedSize has been written locally
+		populated.asRanges().forEach(range -> populatedRanges.add(range.lowerEndpoint(), range.upperEndpoint()));
+		var file = new OpenFile(path, cacheFilePath, new CompletableAsynchronousFileChannel(fc), provider, transferLimits, populatedRanges, TreeRangeMap.create(), lastModified, readAheadBytes, writeBufferBytes, digestMaxBytes, hydrationExecutor);
+		file.markDirty();
+		return file;
 	}
 
 	public AtomicInteger getOpenFileHandleCount() {
@@ -112,11 +190,81 @@ class OpenFile implements Closeable {
 		return state.compareAndSet(State.NEEDS_REUPLOAD, State.UPLOADING);
 	}
 
+	/**
+	 * Marks a file whose upload failed as modified again, so it remains journaled and is uploaded once it gets closed
+	 * again or after remounting.
+	 *
+	 * @return <code>true</code> unless the file has been modified while uploading, in which case it is reuploaded anyway
+	 */
+	public boolean transitionToNeedsUpload() {
+		return state.compareAndSet(State.UPLOADING, State.NEEDS_UPLOAD);
+	}
+
 	public CloudPath getPath() {
 		return path;
 	}
 
+	/**
+	 * @return The location of the cache file or <code>null</code> if this file isn't backed by a file on disk
+	 */
+	public Path getCacheFile() {
+		return cacheFile;
+	}
+
+	/**
+	 * @return The digest of the file's contents in the cloud or <code>null</code> if unknown
+	 */
+	public ContentDigest getRemoteDigest() {
+		return remoteDigest;
+	}
+
+	/**
+	 * Updates the digest of the file's contents in the cloud, e.g. after uploading it.
+	 *
+	 * @param digest The digest of the file's contents in the cloud
+	 */
+	public void setRemoteDigest(ContentDigest digest) {
+		this.remoteDigest = digest;
+	}
+
+	/**
+	 * Marks this file as created locally without having been written to the cloud yet. The file is
+	 * {@link State#NEEDS_UPLOAD marked for upload}, even if no data gets written to it.
+	 */
+	public void markCreatedLocally() {
+		createdLocally = true;
+		markDirty();
+	}
+
+	/**
+	 * Marks this file as existing in the cloud, e.g. after uploading it.
+	 */
+	public void markCreatedRemotely() {
+		createdLocally = false;
+	}
+
+	/**
+	 * @return <code>true</code> if this file has been {@link #markCreatedLocally() created locally} and doesn't exist in the cloud yet
+	 */
+	public boolean isCreatedLocally() {
+		return createdLocally;
+	}
+
 	private void markDirty() {
+		modCount.incrementAndGet();
+		markNeedsUpload();
+	}
+
+	/**
+	 * Completes {@link #markDirty()} for writes, which increment {@link #modCount} before modifying the cache file
+	 * but only request an upload once the data has actually been written.
+	 */
+	private void markWritten() {
+		setLastModified(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+		markNeedsUpload();
+	}
+
+	private void markNeedsUpload() {
 		state.updateAndGet(currentState -> {
 			switch (currentState) {
 				case UNMODIFIED:
@@ -139,13 +287,14 @@ class OpenFile implements Closeable {
 	/**
 	 * Gets the total size of this file.
 	 * The size is set during creation of the file and only modified by {@link #truncate(long)} and {@link #write(Pointer, long, long)}.
+	 * Data still held in the write buffer is taken into account.
 	 *
 	 * @return The current size of the cached file.
 	 */
 	public long getSize() {
 		Preconditions.checkState(fc.isOpen(), "fc not open for " + path);
 		try {
-			return fc.size();
+			return Math.max(fc.size(), bufferedSize);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
@@ -160,17 +309,62 @@ class OpenFile implements Closeable {
 	}
 
 	@Override
-	public synchronized void close() {
+	public void close() {
+		LOG.trace("Closing {}", path);
+		abortWriteThrough("file closed");
 		try {
-			LOG.trace("Closing {}", path);
-			fc.close();
+			awaitFlush();
 		} catch (IOException e) {
-			LOG.error("Failed to close tmp file.", e);
+			LOG.error("Failed to flush write buffer of " + path, e);
+		}
+		synchronized (this) {
+			try {
+				fc.close();
+			} catch (IOException e) {
+				LOG.error("Failed to close tmp file.", e);
+			}
+			try {
+				if (cacheFile != null) {
+					Files.deleteIfExists(cacheFile);
+				}
+			} catch (IOException e) {
+				LOG.error("Failed to delete tmp file.", e);
+			}
 		}
 	}
 
+	/**
+	 * @return <code>true</code> unless this file has been {@link #close() closed}
+	 */
+	public boolean isOpen() {
+		return fc.isOpen();
+	}
+
+	/**
+	 * Writes buffered data to the cache file and makes sure it is synced to the storage device.
+	 *
+	 * @throws IOException If flushing or syncing failed, e.g. because the file has been closed
+	 */
+	public void force() throws IOException {
+		if (!fc.isOpen()) {
+			throw new ClosedChannelException();
+		}
+		awaitFlush();
+		fc.force(false);
+	}
+
+	/**
+	 * @return The ranges within this file which haven't been loaded into the cache file yet
+	 */
+	public List<Range<Long>> getMissingRanges() {
+		return populatedRanges.missingRanges(0, getSize());
+	}
+
 	/**
 	 * Reads up to {@code size} bytes beginning at {@code offset} into {@code buf}.
+	 * <p>
+	 * The returned future can be {@link CommittableFuture#cancel(boolean) cancelled} while waiting for content to be
+	 * loaded from the cloud. Once it starts filling {@code buf}, it can't be cancelled any longer.
 	 *
 	 * @param buf    Buffer
 	 * @param offset Position of first byte to read
@@ -178,17 +372,32 @@ class OpenFile implements Closeable {
 	 * @return A CompletionStage either containing the actual number of bytes read (can be less than {@code size} if reached EOF)
 	 * or failing with an {@link IOException}
 	 */
-	public CompletionStage<Integer> read(Pointer buf, long offset, long count) {
+	public CompletableFuture<Integer> read(Pointer buf, long offset, long count) {
 		Preconditions.checkState(fc.isOpen());
 		if (offset >= getSize()) {
 			// reads starting beyond EOF are no-op
 			return CompletableFuture.completedFuture(0);
 		}
-		return load(offset, count).thenCompose(ignored -> fc.readToPointer(buf, offset, count));
+		var result = new CommittableFuture<Integer>();
+		var read = flush() //
+				.thenCompose(ignored -> {
+					var loaded = load(offset, count).toCompletableFuture();
+					result.whenComplete((r, e) -> {
+						if (result.isCancelled()) {
+							loaded.cancel(true); // stop waiting for hydration
+						}
+					});
+					return loaded;
+				}) //
+				.thenCompose(ignored -> result.commit() ? fc.readToPointer(buf, offset, count) : CompletableFuture.<Integer>failedFuture(new CancellationException("read cancelled")));
+		return result.completeWith(read);
 	}
 
 	/**
 	 * Writes up to {@code size} bytes beginning at {@code offset} from {@code buf} to this file.
+	 * <p>
+	 * The returned future can be {@link CommittableFuture#cancel(boolean) cancelled} while waiting for preceding writes
+	 * or for data being loaded into the same range. Once it starts reading {@code buf}, it can't be cancelled any longer.
 	 *
 	 * @param buf    Buffer
 	 * @param offset Position of first byte to write
@@ -197,15 +406,143 @@ class OpenFile implements Closeable {
 	 */
 	public CompletableFuture<Integer> write(Pointer buf, long offset, long count) {
 		Preconditions.checkState(fc.isOpen());
-		markDirty();
-		setLastModified(Instant.now().truncatedTo(ChronoUnit.SECONDS));
-		markPopulatedIfGrowing(offset);
-		return fc.writeFromPointer(buf, offset, count).thenApply(written -> {
-			synchronized (this) {
-				populatedRanges.add(Range.closedOpen(offset, offset + written));
+		announceWrite(offset, count);
+		var result = new CommittableFuture<Integer>();
+		if (count > 0 && count <= writeBufferBytes) {
+			return result.completeWith(writeBuffered(buf, offset, (int) count, result)); // int-cast: count <= writeBufferBytes
+		} else {
+			return result.completeWith(flush().thenCompose(ignored -> writeThrough(buf, offset, count, result)));
+		}
+	}
+
+	private CompletableFuture<Integer> writeThrough(Pointer buf, long offset, long count, CommittableFuture<Integer> result) {
+		var range = Range.closedOpen(offset, offset + count);
+		return beginLocalWrite(range).thenCompose(ignored -> {
+			if (!result.commit()) {
+				return CompletableFuture.failedFuture(new CancellationException("write cancelled"));
 			}
+			modCount.incrementAndGet();
+			markPopulatedIfGrowing(offset);
+			return preserveSnapshot(offset, offset + count);
+		}).thenCompose(ignored -> fc.writeFromPointer(buf, offset, count)).thenApply(written -> {
+			populatedRanges.add(offset, offset + written);
+			reportWritten(offset, written);
+			markWritten();
 			return written;
-		});
+		}).whenComplete((written, failure) -> finishLocalWrite(range)).whenComplete(this::abortWriteThroughOnFailure);
+	}
+
+	/**
+	 * Copies the given bytes into the write buffer. Writes continuing exactly where the buffered data ends are
+	 * appended, any other write flushes the buffer and is written straight through. The buffer starts out as large as
+	 * the first write and grows as more data gets appended.
+	 * <p>
+	 * The buffer never crosses a multiple of {@link #writeBufferBytes}, so flushed chunks are aligned, unless the
+	 * sequence of writes starts at an unaligned position.
+	 *
+	 * @return A CompletionStage containing <code>count</code> as soon as the data is buffered and any flush caused by this write has finished
+	 */
+	private synchronized CompletableFuture<Integer> writeBuffered(Pointer buf, long offset, int count, CommittableFuture<Integer> result) {
+		assert count > 0 && count <= writeBufferBytes;
+		if (writeBuffer != null && writeBufferPosition + writeBuffer.position() != offset) { // not sequential
+			return flushInternal().thenCompose(ignored -> writeThrough(buf, offset, count, result));
+		}
+		var committed = result.commit();
+		assert committed : "result not yet exposed to anyone who could cancel it";
+		CompletableFuture<Void> flushed = null;
+		modCount.incrementAndGet();
+		markPopulatedIfGrowing(offset);
+		long position = offset;
+		int copied = 0;
+		while (copied < count) {
+			if (writeBuffer == null) {
+				writeBufferPosition = position;
+			}
+			long chunkEnd = (writeBufferPosition / writeBufferBytes + 1) * writeBufferBytes;
+			int n = (int) Math.min(count - copied, chunkEnd - position); // int-cast: n <= count
+			reserveWriteBuffer(n, (int) (chunkEnd - writeBufferPosition)); // int-cast: chunk size <= writeBufferBytes
+			buf.get(copied, writeBuffer.array(), writeBuffer.position(), n);
+			writeBuffer.position(writeBuffer.position() + n);
+			position += n;
+			copied += n;
+			bufferedSize = Math.max(bufferedSize, position);
+			if (position == chunkEnd) {
+				flushed = flush();
+			}
+		}
+		markWritten();
+		if (flushed == null) {
+			return CompletableFuture.completedFuture(count);
+		} else {
+			return flushed.thenApply(ignored -> count);
+		}
+	}
+
+	/**
+	 * Makes sure the write buffer has room for <code>n</code> more bytes, at least doubling its capacity if it needs
+	 * to grow, but never exceeding <code>maxCapacity</code>.
+	 */
+	private void reserveWriteBuffer(int n, int maxCapacity) {
+		assert Thread.holdsLock(this);
+		if (writeBuffer == null) {
+			writeBuffer = ByteBuffer.allocate(n);
+		} else if (writeBuffer.remaining() < n) {
+			int capacity = Math.min(maxCapacity, Math.max(writeBuffer.position() + n, 2 * writeBuffer.capacity()));
+			var grown = ByteBuffer.allocate(capacity);
+			grown.put(writeBuffer.flip());
+			writeBuffer = grown;
+		}
+	}
+
+	/**
+	 * Writes buffered data (if any) to the cache file.
+	 * <p>
+	 * Flushes are chained, therefore the returned CompletionStage completes only after all previously buffered data
+	 * has been written. A failed flush is reported to its waiters but doesn't fail subsequent flushes.
+	 *
+	 * @return A CompletionStage completed as soon as all buffered data is written to the cache file.
+	 */
+	// visible for testing
+	CompletableFuture<Void> flush() {
+		if (writeBuffer == null) { // fast path without locking
+			return pendingFlush;
+		}
+		synchronized (this) {
+			return flushInternal();
+		}
+	}
+
+	private CompletableFuture<Void> flushInternal() {
+		assert Thread.holdsLock(this);
+		if (writeBuffer != null) {
+			var chunk = writeBuffer.flip();
+			var position = writeBufferPosition;
+			var range = Range.closedOpen(position, position + chunk.remaining());
+			writeBuffer = null;
+			var hydrated = beginLocalWrite(range);
+			pendingFlush = pendingFlush.exceptionally(e -> null) //
+					.thenCompose(ignored -> hydrated) //
+					.thenCompose(ignored -> preserveSnapshot(position, position + chunk.remaining())) //
+					.thenCompose(ignored -> fc.writeAll(chunk, position)) //
+					.thenAccept(written -> {
+						populatedRanges.add(position, position + written);
+						reportWritten(position, written);
+					}) //
+					.whenComplete((result, failure) -> finishLocalWrite(range)) //
+					.whenComplete(this::abortWriteThroughOnFailure);
+		}
+		return pendingFlush;
+	}
+
+	private void awaitFlush() throws IOException {
+		try {
+			flush().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Flushing write buffer interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to flush write buffer", e.getCause());
+		}
 	}
 
 	/**
@@ -229,27 +566,27 @@ class OpenFile implements Closeable {
 				throw new IllegalArgumentException("offset beyond EOF");
 			}
 			var requiredLastByte = Math.min(size, offset + count); // reads not behind eof (lastByte is exclusive!)
-			var requiredRange = Range.closedOpen(offset, requiredLastByte);
+			if (populatedRanges.encloses(offset, requiredLastByte)) { // fast path without locking
+				return CompletableFuture.completedFuture(null);
+			}
 			synchronized (this) {
-				if (requiredRange.isEmpty() || populatedRanges.encloses(requiredRange)) {
-					return CompletableFuture.completedFuture(null);
-				} else {
-					var desiredCount = Math.max(count, readAheadBytes); // reads at least the readahead
-					var desiredLastByte = Math.min(size, offset + desiredCount); // reads not behind eof (lastByte is exclusive!)
-					var desiredRange = Range.closedOpen(offset, desiredLastByte);
-
-					var activeRanges = ImmutableRangeSet.copyOf(activeRequests.asMapOfRanges().keySet());
-					var missingRanges = ImmutableRangeSet.of(desiredRange).difference(populatedRanges).difference(activeRanges);
+				var desiredCount = Math.max(count, readAheadBytes); // reads at least the readahead
+				var desiredLastByte = Math.min(size, offset + desiredCount); // reads not behind eof (lastByte is exclusive!)
+				var desiredRange = Range.closedOpen(offset, desiredLastByte);
 
-					var relevantRequests = new HashSet<>(activeRequests.subRangeMap(desiredRange).asMapOfRanges().values());
+				var activeRanges = ImmutableRangeSet.copyOf(activeRequests.asMapOfRanges().keySet());
+				var missingRanges = ImmutableRangeSet.unionOf(populatedRanges.missingRanges(offset, desiredLastByte)).difference(activeRanges);
 
-					for (var range : missingRanges.asRanges()) {
-						var request = loadMissing(range);
-						relevantRequests.add(request);
-					}
+				var relevantRequests = new HashSet<>(activeRequests.subRangeMap(desiredRange).asMapOfRanges().values());
 
-					return CompletableFuture.allOf(relevantRequests.stream().map(CompletionStage::toCompletableFuture).toArray(CompletableFuture[]::new));
+				for (var range : missingRanges.asRanges()) {
+					var request = loadMissing(range);
+					relevantRequests.add(request);
 				}
+
+				var loaded = CompletableFuture.allOf(relevantRequests.stream().map(CompletionStage::toCompletableFuture).toArray(CompletableFuture[]::new));
+				addWaiter(relevantRequests, loaded);
+				return loaded;
 			}
 		} catch (IOException e) {
 			return CompletableFuture.failedFuture(e);
@@ -257,36 +594,116 @@ class OpenFile implements Closeable {
 	}
 
 	private CompletionStage<Void> loadMissing(Range<Long> requestedRange) {
-		assert !populatedRanges.intersects(requestedRange); // synchronized by caller
 		assert activeRequests.subRangeMap(requestedRange).asMapOfRanges().isEmpty(); // synchronized by caller
 		long offset = requestedRange.lowerEndpoint();
 		long size = requestedRange.upperEndpoint() - requestedRange.lowerEndpoint();
 
-		var read = provider.read(path, offset, size, ProgressListener.NO_PROGRESS_AWARE).thenCompose(in -> {
-			var mergeTask = mergeData(requestedRange, in);
+		// other readers may wait for this request, so it must not be cancelled along with the operation starting it.
+		// instead, it is cancelled when the last waiting reader gives up:
+		var request = RequestScope.untracked(() -> provider.read(path, offset, size, ProgressListener.NO_PROGRESS_AWARE)).toCompletableFuture();
+		// reading the stream blocks, so don't occupy the thread completing the provider's future:
+		var read = request.thenComposeAsync(in -> {
+			var mergeTask = mergeData(requestedRange, transferLimits.meterDownload(in));
 			return mergeTask.whenComplete((result, exception) -> closeQuietly(in));
-		});
+		}, hydrationExecutor);
 
 		activeRequests.put(requestedRange, read);
+		hydrations.put(read, new Hydration(requestedRange, request, read));
 
 		read.whenComplete((result, error) -> completedRequest(requestedRange, read));
+		read.thenRun(this::digestIfHydrated);
 
 		return read;
 	}
 
+	/**
+	 * Computes the {@link #getRemoteDigest() remote digest} as soon as the whole file has been loaded from the cloud,
+	 * unless already known or the file exceeds {@link #digestMaxBytes}. The digest is discarded if the file gets
+	 * modified before it is computed.
+	 * <p>
+	 * Loads completing concurrently may invoke this multiple times, but the file is read only once, unless computing
+	 * the digest failed.
+	 */
+	// visible for testing
+	void digestIfHydrated() {
+		long expectedModCount = modCount.get();
+		if (remoteDigest != null || state.get() != State.UNMODIFIED || !fc.isOpen()) {
+			return;
+		}
+		try {
+			long size = fc.size();
+			if (size == 0 || size > digestMaxBytes || !populatedRanges.encloses(0, size) || !hydratedDigestStarted.compareAndSet(false, true)) {
+				return;
+			}
+			var hasher = ContentDigest.HASH_FUNCTION.newHasher();
+			fc.transferTo(0, size, Channels.newChannel(Funnels.asOutputStream(hasher))).whenComplete((transferred, e) -> {
+				if (e != null) {
+					LOG.debug("Failed to compute digest of " + path, e);
+					hydratedDigestStarted.set(false);
+				} else if (transferred == size && modCount.get() == expectedModCount) {
+					remoteDigest = new ContentDigest(size, hasher.hash());
+					LOG.trace("Computed digest of {}: {}", path, remoteDigest);
+				} else {
+					hydratedDigestStarted.set(false); // modified concurrently, digest of the upload will be known instead
+				}
+			});
+		} catch (IOException e) {
+			LOG.debug("Failed to compute digest of " + path, e);
+			hydratedDigestStarted.set(false);
+		}
+	}
+
 	// visible for testing
 	synchronized void completedRequest(Range<Long> requestedRange, CompletionStage<Void> request) {
+		hydrations.remove(request);
 		var entry = activeRequests.getEntry(requestedRange.lowerEndpoint());
 		// only remove active request if it hasn't been replaced by a broader request
-		if (entry.getKey().equals(requestedRange) && entry.getValue().equals(request)) {
+		if (entry != null && entry.getKey().equals(requestedRange) && entry.getValue().equals(request)) {
 			activeRequests.remove(requestedRange);
 		}
 	}
 
+	/**
+	 * Counts <code>waiter</code> as a reader waiting for the given hydration requests, until it completes. If it gets
+	 * cancelled and no other reader waits for a request, the request is cancelled, too.
+	 */
+	private void addWaiter(Iterable<CompletionStage<Void>> requests, CompletableFuture<Void> waiter) {
+		assert Thread.holdsLock(this);
+		var waitedFor = new ArrayList<Hydration>();
+		for (var request : requests) {
+			var hydration = hydrations.get(request);
+			if (hydration != null) {
+				hydration.waiters++;
+				waitedFor.add(hydration);
+			}
+		}
+		waiter.whenComplete((result, e) -> removeWaiter(waitedFor, waiter.isCancelled()));
+	}
+
+	private void removeWaiter(List<Hydration> waitedFor, boolean gaveUp) {
+		var abandoned = new ArrayList<Hydration>();
+		synchronized (this) {
+			for (var hydration : waitedFor) {
+				if (--hydration.waiters == 0 && gaveUp) {
+					abandoned.add(hydration);
+					completedRequest(hydration.range, hydration.read); // subsequent readers start a new request
+				}
+			}
+		}
+		for (var hydration : abandoned) {
+			LOG.debug("Cancelling abandoned hydration of {} {}", path, hydration.range);
+			hydration.cancel();
+		}
+	}
+
 	/**
 	 * Writes data within the given <code>range</code> from <code>source</code> to
 	 * this file's FileChannel. Skips already populated ranges.
 	 * <p>
+	 * Since only the accessed byte range of this file is locked, the range may be written locally while merging. Therefore
+	 * missing ranges are determined anew before transferring each chunk, skipping ranges populated or written in the
+	 * meantime. Local writes in turn wait for chunks being transferred.
+	 * <p>
 	 * After merging, the file channel is fully populated within the given range,
 	 * unless hitting EOF on <code>source</code>.
 	 *
@@ -295,44 +712,103 @@ class OpenFile implements Closeable {
 	 * @return
 	 */
 	// visible for testing
-	synchronized CompletableFuture<Void> mergeData(Range<Long> range, InputStream source) {
-		var missingRanges = ImmutableRangeSet.of(range).difference(populatedRanges).asRanges().iterator();
-		return mergeDataInternal(missingRanges, source, range.lowerEndpoint());
+	CompletableFuture<Void> mergeData(Range<Long> range, InputStream source) {
+		return mergeDataInternal(source, range.lowerEndpoint(), range.upperEndpoint());
 	}
 
-	private CompletableFuture<Void> mergeDataInternal(Iterator<Range<Long>> missingRanges, InputStream source, final long sourceOffset) {
-		if (!missingRanges.hasNext()) {
-			return CompletableFuture.completedFuture(null);
-		}
-		var range = missingRanges.next();
-		Preconditions.checkArgument(sourceOffset <= range.lowerEndpoint());
-
-		// inputstream may contain regions that aren't "missing".
-		// therefore we need to "skip" till the begin of our range:
+	private CompletableFuture<Void> mergeDataInternal(InputStream source, final long sourceOffset, final long end) {
+		var transfer = new CompletableFuture<Void>();
+		Range<Long> range;
 		try {
 			long p = sourceOffset;
-			while (p < range.lowerEndpoint()) {
-				var skipped = source.skip(range.lowerEndpoint() - p);
-				if (skipped == 0) {
-					throw new EOFException("failed to skip to begin of desired range");
+			do {
+				range = nextMissingRange(p, end);
+				if (range == null) {
+					return CompletableFuture.completedFuture(null);
 				}
-				p += skipped;
-			}
-			assert p == range.lowerEndpoint();
+				// inputstream may contain regions that aren't "missing".
+				// therefore we need to "skip" till the begin of our range:
+				while (p < range.lowerEndpoint()) {
+					var skipped = source.skip(range.lowerEndpoint() - p);
+					if (skipped == 0) {
+						throw new EOFException("failed to skip to begin of desired range");
+					}
+					p += skipped;
+				}
+				assert p == range.lowerEndpoint();
+			} while (!beginTransfer(range, transfer)); // retry if written locally while skipping
 		} catch (IOException e) {
 			return CompletableFuture.failedFuture(e);
 		}
 
 		// now transfer contents from inputstream to our file. repeat process for next range, when finished
+		final var transferredRange = range;
 		long position = range.lowerEndpoint();
 		var count = range.upperEndpoint() - range.lowerEndpoint();
-		return fc.transferFrom(source, position, count).thenCompose(transferred -> {
-			synchronized (this) {
-				var populatedRange = Range.closedOpen(position, position + transferred);
-				populatedRanges.add(populatedRange);
+		return fc.transferFrom(source, position, count, hydrationExecutor).whenComplete((transferred, e) -> {
+			if (transferred != null) {
+				populatedRanges.add(position, position + transferred);
 			}
-			return mergeDataInternal(missingRanges, source, position + transferred);
-		});
+			finishTransfer(transferredRange, transfer);
+		}).thenComposeAsync(transferred -> {
+			if (transferred < count) { // reached EOF
+				return CompletableFuture.completedFuture(null);
+			}
+			return mergeDataInternal(source, position + transferred, end);
+		}, hydrationExecutor);
+	}
+
+	/**
+	 * @return The first range within <code>[begin, end)</code>, which is neither populated nor being written locally, or <code>null</code> if there is none
+	 */
+	private synchronized Range<Long> nextMissingRange(long begin, long end) {
+		var missingRanges = populatedRanges.missingRanges(begin, end);
+		if (pendingWrites.isEmpty()) {
+			return missingRanges.isEmpty() ? null : missingRanges.get(0);
+		}
+		var missing = TreeRangeSet.create(missingRanges);
+		pendingWrites.forEach(missing::remove);
+		var iterator = missing.asRanges().iterator();
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
+	/**
+	 * Registers a transfer of hydrated data, unless the range got populated or is being written locally.
+	 *
+	 * @return <code>true</code> if the transfer has been registered and may start
+	 */
+	private synchronized boolean beginTransfer(Range<Long> range, CompletableFuture<Void> transfer) {
+		if (!range.equals(nextMissingRange(range.lowerEndpoint(), range.upperEndpoint()))) {
+			return false;
+		}
+		activeTransfers.put(range, transfer);
+		return true;
+	}
+
+	private void finishTransfer(Range<Long> range, CompletableFuture<Void> transfer) {
+		synchronized (this) {
+			activeTransfers.remove(range);
+		}
+		transfer.complete(null); // resumes local writes waiting for this transfer
+	}
+
+	/**
+	 * Registers a local write, so hydration doesn't overwrite the range with data from the cloud.
+	 *
+	 * @param range The range to be written
+	 * @return A CompletionStage completed as soon as hydrated data being transferred into the range has been written
+	 */
+	private synchronized CompletableFuture<Void> beginLocalWrite(Range<Long> range) {
+		pendingWrites.add(range);
+		var overlappingTransfers = activeTransfers.entrySet().stream() //
+				.filter(entry -> entry.getKey().isConnected(range) && !entry.getKey().intersection(range).isEmpty()) //
+				.map(Map.Entry::getValue) //
+				.toArray(CompletableFuture[]::new);
+		return CompletableFuture.allOf(overlappingTransfers);
+	}
+
+	private synchronized void finishLocalWrite(Range<Long> range) {
+		pendingWrites.remove(range);
 	}
 
 	/**
@@ -343,16 +819,26 @@ class OpenFile implements Closeable {
 	 */
 	public void truncate(long size) throws IOException {
 		Preconditions.checkState(fc.isOpen());
+		awaitFlush();
+		bufferedSize = 0; // no buffered data left, size is now determined by fc only
 		if (size < fc.size()) {
+			abortWriteThrough("truncated");
+			preserveSnapshotNow(size, Long.MAX_VALUE);
 			fc.truncate(size);
 			markDirty();
 			setLastModified(Instant.now().truncatedTo(ChronoUnit.SECONDS));
 		} else if (size > fc.size()) {
 			assert size > 0;
+			boolean wasEmpty = fc.size() == 0;
+			abortWriteThrough("truncated");
 			markPopulatedIfGrowing(size);
+			preserveSnapshotNow(size - 1, size);
 			fc.write(ByteBuffer.allocateDirect(1), size - 1);
 			markDirty();
 			setLastModified(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+			if (wasEmpty) {
+				preallocatedAt = modCount.get(); // writers announcing the final size may be eligible for write-through
+			}
 		} else {
 			assert size == fc.size();
 			// no-op
@@ -368,34 +854,141 @@ class OpenFile implements Closeable {
 	private void markPopulatedIfGrowing(long newSize) {
 		long oldSize = getSize();
 		if (newSize > oldSize) {
-			synchronized (this) {
-				populatedRanges.add(Range.closedOpen(oldSize, newSize));
-			}
+			populatedRanges.add(oldSize, newSize);
+		}
+	}
+
+	/**
+	 * Starts reading this file behind its writer, if an empty file has been grown to its final size and not been
+	 * modified since, i.e. the writer announced the final size before writing. The stream fails as soon as the writer
+	 * doesn't write strictly sequentially, the file gets truncated or closed.
+	 *
+	 * @return A stream reading the file while it is being written or an empty Optional if not applicable
+	 */
+	public synchronized Optional<WriteThroughStream> startWriteThrough() {
+		Preconditions.checkState(fc.isOpen());
+		if ((writeThrough != null && !writeThrough.isAborted()) || writeBuffer != null || preallocatedAt != modCount.get()) {
+			return Optional.empty();
+		}
+		writeThrough = new WriteThroughStream(fc, getSize());
+		return Optional.of(writeThrough);
+	}
+
+	/**
+	 * Invoked when the writer is done. Flushes buffered data, so the {@link #startWriteThrough() write-through} can
+	 * catch up, or aborts it, if the file hasn't been written completely.
+	 */
+	public void finishWriteThrough() {
+		var stream = writeThrough;
+		if (stream != null) {
+			flush();
+			stream.finish();
+		}
+	}
+
+	private void announceWrite(long offset, long count) {
+		var stream = writeThrough;
+		if (stream != null && !stream.announce(offset, count)) {
+			LOG.debug("Write-through of {} aborted due to non-sequential write.", path);
+		}
+	}
+
+	private void reportWritten(long offset, long count) {
+		var stream = writeThrough;
+		if (stream != null) {
+			stream.written(offset, count);
+		}
+	}
+
+	private void abortWriteThroughOnFailure(Object result, Throwable failure) {
+		if (failure != null) {
+			abortWriteThrough("write failed");
+		}
+	}
+
+	private void abortWriteThrough(String reason) {
+		var stream = writeThrough;
+		if (stream != null) {
+			stream.abort(reason);
 		}
 	}
 
 	/**
-	 * Saves a copy of the data contained in this open file to the specified destination path and resets the dirty flag.
-	 * If there are any uncached ranges within this file, they'll get loaded before.
+	 * Takes a snapshot of the data contained in this open file, which stays unaffected by subsequent modifications.
+	 * Uncached ranges within this file are not loaded. Instead, they are fetched from the provider when reading the snapshot.
+	 * <p>
+	 * Only one snapshot can exist at a time. Once it is no longer needed, it must be {@link OpenFileSnapshot#close() closed}.
 	 *
-	 * @param destination A path of a non-existing file in an existing directory.
-	 * @return A CompletionStage completed as soon as all data is written.
+	 * @param overlay A path of a non-existing file in an existing directory, used to preserve data modified while the snapshot exists.
+	 * @return A CompletionStage containing the snapshot as soon as all buffered data is written to the cache file.
 	 */
-	public synchronized CompletionStage<Void> persistTo(Path destination) {
+	public synchronized CompletionStage<OpenFileSnapshot> snapshot(Path overlay) {
 		Preconditions.checkState(fc.isOpen());
+		Preconditions.checkState(snapshot.get() == null, "Snapshot of %s already exists", path);
 		long size = getSize();
-		return load(0, size).thenCompose(ignored -> {
-			WritableByteChannel dst;
-			try {
-				dst = Files.newByteChannel(destination, CREATE_NEW, WRITE);
-			} catch (IOException e) {
-				return CompletableFuture.failedFuture(e);
+		return flush().thenApply(ignored -> {
+			var missingRanges = ImmutableRangeSet.unionOf(populatedRanges.missingRanges(0, size));
+			var newSnapshot = new OpenFileSnapshot(fc, overlay, size, lastModified, missingRanges, provider, transferLimits, hydrationExecutor, this::getPath, this::releaseSnapshot);
+			if (!snapshot.compareAndSet(null, newSnapshot)) {
+				throw new IllegalStateException("Snapshot of " + path + " already exists");
 			}
-			var transferTask = fc.transferTo(0, size, dst).<Void>thenApply(transferred -> null);
-			return transferTask.whenComplete((result, exception) -> closeQuietly(dst));
+			return newSnapshot;
 		});
 	}
 
+	private void releaseSnapshot(OpenFileSnapshot released) {
+		snapshot.compareAndSet(released, null);
+	}
+
+	/**
+	 * Preserves the given range within the current snapshot (if any) before it gets modified.
+	 *
+	 * @param begin First byte to be modified (inclusive)
+	 * @param end   Last byte to be modified (exclusive)
+	 * @return A CompletionStage completed as soon as it is safe to modify the range
+	 */
+	private CompletableFuture<Void> preserveSnapshot(long begin, long end) {
+		try {
+			preserveSnapshotNow(begin, end);
+			return CompletableFuture.completedFuture(null);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private void preserveSnapshotNow(long begin, long end) throws IOException {
+		var currentSnapshot = snapshot.get();
+		if (currentSnapshot != null) {
+			currentSnapshot.preserve(begin, end);
+		}
+	}
+
+	/**
+	 * A request loading a range of this file from the cloud, which may be shared by multiple readers.
+	 */
+	private class Hydration {
+
+		final Range<Long> range;
+		final CompletableFuture<InputStream> request;
+		final CompletionStage<Void> read;
+		int waiters; // guarded by OpenFile.this
+
+		Hydration(Range<Long> range, CompletableFuture<InputStream> request, CompletionStage<Void> read) {
+			this.range = range;
+			this.request = request;
+			this.read = read;
+		}
+
+		/**
+		 * Cancels the request or, if the stream has already arrived, closes it, so a hanging transfer fails.
+		 */
+		void cancel() {
+			if (!request.cancel(true) && !request.isCompletedExceptionally()) {
+				closeQuietly(request.join());
+			}
+		}
+	}
+
 	private void closeQuietly(Closeable closeable) {
 		try {
 			closeable.close();
@@ -1,6 +1,7 @@
 package org.cryptomator.fusecloudaccess;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
 import jnr.constants.platform.OpenFlags;
 import org.cryptomator.cloudaccess.api.CloudItemMetadata;
 import org.cryptomator.cloudaccess.api.CloudItemType;
@@ -13,48 +14,64 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.file.Path;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 @FileSystemScoped
 class OpenFileFactory {
 
-	private static final AtomicLong FILE_HANDLE_GEN = new AtomicLong();
 	private static final Logger LOG = LoggerFactory.getLogger(OpenFileFactory.class);
+	private static final int IDLE_WHEEL_SIZE = 512;
+	private static final long IDLE_WHEEL_TICK_MILLIS = 1000;
 
 	/*
 	 * activeFiles.compute is the primary barrier for synchronized access when creating/closing/moving OpenFiles
 	 * OpenFile.close() as well as modifications to OpenFile.getOpenFileHandleCount() MUST be protected by this
 	 * means of synchronization.
+	 * Keys are indexed by path, so the files within a directory can be found without scanning the whole map.
 	 */
-	private final ConcurrentMap<CloudPath, OpenFile> openFiles;
-	private final Map<Long, OpenFile> fileHandles;
+	private final PathIndexedMap<OpenFile> openFiles;
+	private final HandleTable<OpenFile> fileHandles;
 	private final CloudProvider provider;
+	private final TransferLimits transferLimits;
 	private final OpenFileUploader uploader;
+	private final WriteBackJournal journal;
+	private final UploadDebouncer debouncer;
+	private final CacheFilePool cacheFilePool;
 	private final Path cacheDir;
-	private final ScheduledExecutorService scheduler;
+	private final TimingWheel<OpenFile> idleFiles;
+	private final Executor hydrationExecutor;
 	private final int keepIdleFileSeconds;
 	private final int readAheadBytes;
+	private final int writeBufferBytes;
+	private final long digestMaxBytes;
 
 	@Inject
-	OpenFileFactory(@Named("openFiles") ConcurrentMap<CloudPath, OpenFile> openFiles, CloudProvider provider, CloudAccessFSConfig config, OpenFileUploader uploader, ScheduledExecutorService scheduler) {
+	OpenFileFactory(@Named("openFiles") PathIndexedMap<OpenFile> openFiles, @Named("fileContents") CloudProvider provider, TransferLimits transferLimits, CloudAccessFSConfig config, OpenFileUploader uploader, WriteBackJournal journal, UploadDebouncer debouncer, CacheFilePool cacheFilePool, ScheduledExecutorService scheduler, @Named("hydrationExecutor") Executor hydrationExecutor) {
 		this.openFiles = openFiles;
-		this.fileHandles = new HashMap<>();
+		this.fileHandles = new HandleTable<>();
 		this.provider = provider;
+		this.transferLimits = transferLimits;
 		this.uploader = uploader;
+		this.journal = journal;
+		this.debouncer = debouncer;
+		this.cacheFilePool = cacheFilePool;
 		this.cacheDir = config.getCacheDir();
 		this.readAheadBytes = config.getReadAheadBytes();
-		this.scheduler = scheduler;
+		this.writeBufferBytes = config.getWriteBufferBytes();
+		this.digestMaxBytes = config.getHydratedDigestMaxBytes();
+		this.idleFiles = new TimingWheel<>(IDLE_WHEEL_SIZE, IDLE_WHEEL_TICK_MILLIS, TimeUnit.MILLISECONDS, Ticker.systemTicker(), this::closeFileIfIdle);
+		this.idleFiles.start(scheduler);
+		this.hydrationExecutor = hydrationExecutor;
 		this.keepIdleFileSeconds = config.getIdleFileTimeoutSeconds();
 	}
 
@@ -64,45 +81,106 @@ class OpenFileFactory {
 	 * @return file handle used to identify and close open files.
 	 */
 	public long open(CloudPath path, Set<OpenFlags> flags, long initialSize, Instant lastModified) throws IOException {
-		try {
-			var openFile = openFiles.compute(path, (p, file) -> {
+		return open(path, flags, initialSize, lastModified, false);
+	}
+
+	/**
+	 * Creates a new empty file without writing it to the cloud. The file is {@link OpenFile#markCreatedLocally() marked}
+	 * for upload and listed by {@link #getLocallyCreatedChildren(CloudPath)} until its first upload finishes.
+	 * <p>
+	 * If the file is already open, it is opened again instead.
+	 *
+	 * @param path         path of the file to create
+	 * @param flags        file open options
+	 * @param lastModified the creation date
+	 * @return file handle used to identify and close open files.
+	 */
+	public long create(CloudPath path, Set<OpenFlags> flags, Instant lastModified) throws IOException {
+		return open(path, flags, 0l, lastModified, true);
+	}
+
+	private long open(CloudPath path, Set<OpenFlags> flags, long initialSize, Instant lastModified, boolean createLocally) throws IOException {
+		var openFile = openFiles.computeIfPresent(path, (p, file) -> {
+			debouncer.cancel(file); // upload will be scheduled when closing the file again
+			idleFiles.cancel(file);
+			file.getOpenFileHandleCount().incrementAndGet();
+			file.setLastModified(lastModified);
+			return file;
+		});
+		if (openFile == null) {
+			// creating the cache file involves blocking I/O, so don't hold the map's lock while doing so:
+			var created = createOpenFile(path, initialSize);
+			if (createLocally) {
+				created.markCreatedLocally();
+			}
+			openFile = openFiles.compute(path, (p, file) -> {
 				if (file == null) {
-					file = createOpenFile(p, initialSize);
+					file = created;
+				} else {
+					debouncer.cancel(file); // opened concurrently, upload will be scheduled when closing the file again
+					idleFiles.cancel(file);
 				}
 				file.getOpenFileHandleCount().incrementAndGet();
 				file.setLastModified(lastModified);
 				return file;
 			});
-			if (flags.contains(OpenFlags.O_TRUNC)) {
-				openFile.truncate(0);
+			if (openFile != created) {
+				created.close(); // discard unused cache file
 			}
-			var handleId = FILE_HANDLE_GEN.incrementAndGet();
-			fileHandles.put(handleId, openFile);
-			return handleId;
-		} catch (UncheckedIOException e) {
-			throw new IOException(e);
 		}
+		if (flags.contains(OpenFlags.O_TRUNC)) {
+			openFile.truncate(0);
+		}
+		return fileHandles.add(openFile);
 	}
 
 	//visible for testing
-	OpenFile createOpenFile(CloudPath path, long initialSize) {
+	OpenFile createOpenFile(CloudPath path, long initialSize) throws IOException {
+		var cacheFile = cacheFilePool.acquire();
 		try {
-			var tmpFile = cacheDir.resolve(UUID.randomUUID().toString());
-			return OpenFile.create(path, tmpFile, provider, initialSize, readAheadBytes);
+			return OpenFile.create(path, cacheFile.path, cacheFile.channel, provider, transferLimits, initialSize, readAheadBytes, writeBufferBytes, digestMaxBytes, hydrationExecutor);
 		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+			cacheFile.discard();
+			throw e;
 		}
 	}
 
+	/**
+	 * Restores files whose upload didn't finish during a previous session from the {@link WriteBackJournal journal}
+	 * and schedules their upload. Must be invoked before any file is opened.
+	 *
+	 * @return The number of resumed uploads
+	 * @throws IOException If the journal can not be read
+	 */
+	public int resumePendingUploads() throws IOException {
+		int resumed = 0;
+		for (var record : journal.load()) {
+			try {
+				var file = OpenFile.restore(record.path, cacheDir.resolve(record.cacheFile), provider, transferLimits, record.lastModified, record.size, record.missingRanges, readAheadBytes, writeBufferBytes, digestMaxBytes, hydrationExecutor);
+				openFiles.compute(record.path, (p, previous) -> {
+					Preconditions.checkState(previous == null, "File already open: %s", p);
+					var transitioned = file.transitionToUploading();
+					assert transitioned;
+					uploader.scheduleUpload(file, this::scheduleClose);
+					return file;
+				});
+				LOG.info("Resuming upload of {}", record.path);
+				resumed++;
+			} catch (IOException e) {
+				LOG.error("Failed to resume upload of " + record.path, e);
+			}
+		}
+		cacheFilePool.replenish(); // stale cache files have been deleted by now
+		return resumed;
+	}
+
 	public Optional<OpenFile> get(long fileHandle) {
 		return Optional.ofNullable(fileHandles.get(fileHandle));
 	}
 
 	public void move(CloudPath oldPath, CloudPath newPath) {
-		for (CloudPath path : openFiles.keySet()) {
-			if (path.startsWith(oldPath)) {
-				moveSingleFile(path, newPath.resolve(oldPath.relativize(path)));
-			}
+		for (CloudPath path : openFiles.subtree(oldPath)) {
+			moveSingleFile(path, newPath.resolve(oldPath.relativize(path)));
 		}
 	}
 
@@ -121,11 +199,15 @@ class OpenFileFactory {
 		uploader.cancelUpload(newPath);
 		var activeFile = openFiles.remove(oldPath);
 		LOG.debug("Moving {} from {} -> {}", activeFile, oldPath, newPath);
+		var replacedFile = new AtomicReference<OpenFile>();
 		openFiles.compute(newPath, (p, previouslyActiveFile) -> {
 			assert previouslyActiveFile == null || previouslyActiveFile != activeFile; // if previousActiveFile is non-null, it must not be the same as activeFile!
 			if (previouslyActiveFile != null) {
 				LOG.debug("Closing {}. Replaced by move()", p);
+				debouncer.forget(previouslyActiveFile);
+				idleFiles.cancel(previouslyActiveFile);
 				previouslyActiveFile.close();
+				replacedFile.set(previouslyActiveFile);
 			}
 			if (activeFile != null) {
 				LOG.debug("Setting path of {} to {}", activeFile, p);
@@ -133,6 +215,17 @@ class OpenFileFactory {
 			}
 			return activeFile;
 		});
+		// journal I/O happens outside of the map's lock:
+		if (replacedFile.get() != null) {
+			journal.remove(replacedFile.get());
+		}
+		if (activeFile != null) {
+			try {
+				journal.relocate(activeFile);
+			} catch (IOException e) {
+				LOG.warn("Failed to update journal record of " + newPath, e);
+			}
+		}
 	}
 
 	/**
@@ -145,23 +238,31 @@ class OpenFileFactory {
 	 */
 	public void delete(CloudPath path) {
 		uploader.cancelUpload(path);
+		var deletedFile = new AtomicReference<OpenFile>();
 		openFiles.computeIfPresent(path, (p, file) -> {
 			LOG.debug("Closing deleted file {} {}", p, file);
+			debouncer.forget(file);
+			idleFiles.cancel(file);
 			file.close();
+			deletedFile.set(file);
 			return null; // removes entry from map
 		});
+		if (deletedFile.get() != null) {
+			journal.remove(deletedFile.get()); // after closing the file, so a concurrent journal.record() won't recreate the record
+		}
 	}
 
 	public void deleteDescendants(CloudPath parent) {
-		for (CloudPath path : openFiles.keySet()) {
-			if (path.startsWith(parent)) {
-				delete(path);
-			}
+		for (CloudPath path : openFiles.subtree(parent)) {
+			delete(path);
 		}
 	}
 
 	/**
 	 * Closes the fileHandle. If all handles for a given file are closed, the file contents are scheduled for persistence and the file will be marked for eventual eviction.
+	 * <p>
+	 * The upload of modified files may be {@link UploadDebouncer deferred}, so that reopening the file shortly after
+	 * closing it doesn't cause an additional upload.
 	 *
 	 * @param handleId file handle
 	 */
@@ -172,50 +273,145 @@ class OpenFileFactory {
 			return;
 		}
 		var path = file.getPath();
+		var pendingUpload = new AtomicReference<OpenFile>();
 		openFiles.computeIfPresent(path, (p, f) -> {
-			if (f.getOpenFileHandleCount().decrementAndGet() == 0 && f.transitionToUploading()) { // was this the last file handle?
-				uploader.scheduleUpload(f, this::scheduleClose);
+			if (f.getOpenFileHandleCount().decrementAndGet() == 0) { // was this the last file handle?
+				if (f.getState() == OpenFile.State.NEEDS_UPLOAD && debouncer.defer(f, () -> startDeferredUpload(f))) {
+					pendingUpload.set(f); // the file must survive a crash during its quiet period
+				} else if (f.transitionToUploading()) {
+					uploader.scheduleUpload(f, this::scheduleClose);
+					pendingUpload.set(f);
+				}
 			}
 			if (f.getState() == OpenFile.State.UNMODIFIED) {
 				scheduleClose(f);
 			}
 			return f; // DO NOT remove the mapping yet! this might be done in #scheduleClose
 		});
+		if (pendingUpload.get() != null) {
+			journal.recordLater(pendingUpload.get()); // syncing to disk must neither block the release nor happen within the map's lock
+		}
+	}
+
+	private void startDeferredUpload(OpenFile file) {
+		openFiles.computeIfPresent(file.getPath(), (p, f) -> {
+			if (f == file // file hasn't been replaced in the meantime
+					&& f.getOpenFileHandleCount().get() == 0 // file hasn't been reopened
+					&& f.transitionToUploading()) {
+				uploader.scheduleUpload(f, this::scheduleClose);
+			}
+			return f;
+		});
+	}
+
+	public UploadDebouncer getUploadDebouncer() {
+		return debouncer;
+	}
+
+	/**
+	 * Starts all uploads that are currently deferred. Used to flush pending changes before unmounting.
+	 */
+	public void startDeferredUploads() {
+		debouncer.flush();
 	}
 
 	private void scheduleClose(OpenFile file) {
-		scheduler.schedule(() -> closeFileIfIdle(file.getPath()), keepIdleFileSeconds, TimeUnit.SECONDS);
+		idleFiles.schedule(file, keepIdleFileSeconds, TimeUnit.SECONDS);
 	}
 
-	private void closeFileIfIdle(CloudPath path) {
-		openFiles.computeIfPresent(path, (p, activeFile) -> {
-			if (activeFile.getOpenFileHandleCount().get() > 0 // file has been reopened
+	private void closeFileIfIdle(OpenFile file) {
+		openFiles.computeIfPresent(file.getPath(), (p, activeFile) -> {
+			if (activeFile != file // file has been replaced
+					|| activeFile.getOpenFileHandleCount().get() > 0 // file has been reopened
 					|| activeFile.getState() != OpenFile.State.UNMODIFIED) { // file is scheduled for upload
 				return activeFile; // keep the mapping
 			} else {
-				LOG.trace("Closing idle file {}", path);
+				LOG.trace("Closing idle file {}", p);
+				debouncer.forget(activeFile);
 				activeFile.close();
 				return null; // remove mapping
 			}
 		});
 	}
 
+	// visible for testing
+	int getIdleFileCount() {
+		return idleFiles.size();
+	}
+
+	/**
+	 * Closes all unmodified files, discarding their cached contents. Modified files are kept, so their uploads can be
+	 * resumed from the {@link WriteBackJournal journal}. Pre-created cache files are deleted.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for journal records to be written
+	 */
+	public void closeAll() throws InterruptedException {
+		cacheFilePool.close();
+		for (CloudPath path : openFiles.keySet()) {
+			openFiles.computeIfPresent(path, (p, file) -> {
+				if (file.getState() != OpenFile.State.UNMODIFIED) {
+					LOG.warn("Upload of {} still pending.", p);
+					return file;
+				}
+				debouncer.forget(file);
+				idleFiles.cancel(file);
+				file.close();
+				return null;
+			});
+		}
+		journal.flush(); // records of files still pending must be complete before exiting
+	}
+
+	/**
+	 * @param path Path to a file
+	 * @return <code>true</code> if the file has been {@link #create(CloudPath, Set, Instant) created locally} and not been uploaded yet
+	 */
+	public boolean isCreatedLocally(CloudPath path) {
+		var file = openFiles.get(path);
+		return file != null && file.isCreatedLocally();
+	}
+
+	/**
+	 * Lists the names of files which have been {@link #create(CloudPath, Set, Instant) created locally} within the
+	 * given directory and which are therefore not yet known to the cloud.
+	 *
+	 * @param dir Path of a directory
+	 * @return Names of the locally created direct children of <code>dir</code>
+	 */
+	public List<String> getLocallyCreatedChildren(CloudPath dir) {
+		return openFiles.children(dir).stream() //
+				.filter(this::isCreatedLocally) //
+				.map(path -> path.getFileName().toString()) //
+				.collect(Collectors.toList());
+	}
+
 	/**
 	 * Returns metadata from cache. This is not threadsafe and the returned metadata might refer to an
-	 * file that got evicted just in this moment.
+	 * file that got evicted just in this moment. If the file gets evicted while reading its metadata, it is treated
+	 * as not cached.
 	 *
 	 * @param path
 	 * @return Optional metadata, which is present if cached
 	 */
 	public Optional<CloudItemMetadata> getCachedMetadata(CloudPath path) {
-		AtomicReference<CloudItemMetadata> result = new AtomicReference<>();
-		openFiles.computeIfPresent(path, (p, file) -> {
+		var file = openFiles.get(path); // unlike compute(), get() never blocks, as this may be called without any locks held
+		if (file == null) {
+			return Optional.empty();
+		}
+		try {
 			var lastModified = Optional.of(file.getLastModified());
 			var size = Optional.of(file.getSize());
-			result.set(new CloudItemMetadata(path.getFileName().toString(), path, CloudItemType.FILE, lastModified, size));
-			return file;
-		});
-		return Optional.ofNullable(result.get());
+			return Optional.of(new CloudItemMetadata(path.getFileName().toString(), path, CloudItemType.FILE, lastModified, size));
+		} catch (IllegalStateException e) { // channel already closed
+			LOG.trace("{} evicted while reading its metadata", path);
+			return Optional.empty();
+		} catch (UncheckedIOException e) {
+			if (e.getCause() instanceof ClosedChannelException) { // channel closed while reading
+				LOG.trace("{} evicted while reading its metadata", path);
+				return Optional.empty();
+			}
+			throw e;
+		}
 	}
 
 }
@@ -0,0 +1,525 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Range;
+import com.google.common.io.Closeables;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.ProgressListener;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An immutable view of the contents of an {@link OpenFile} at the time this snapshot has been taken.
+ * <p>
+ * Instead of copying the whole cache file, blocks are copied lazily: Before a region of the cache file gets modified,
+ * the {@link OpenFile} calls {@link #preserve(long, long)}, which saves the original content of all affected blocks to
+ * an overlay file. Reads are served from the overlay file for preserved blocks and from the cache file otherwise.
+ * Therefore the additional disk usage is proportional to the amount of data modified while the snapshot is in use.
+ * <p>
+ * Ranges that haven't been cached when taking the snapshot are not loaded into the cache file. Instead, the
+ * {@link #newInputStream() input stream} fetches them from the {@link CloudProvider} just in time, keeping a few
+ * chunks ahead of its current position in flight.
+ * <p>
+ * Snapshots of small files can be {@link #moveToMemory(SnapshotBufferPool) moved to memory}, so they no longer depend
+ * on the cache file and reading them is cheap.
+ */
+class OpenFileSnapshot implements Closeable {
+
+	static final int BLOCK_SIZE = 64 * 1024; // 64 KiB
+	static final int FETCH_CHUNK_SIZE = 4 * 1024 * 1024; // 4 MiB
+	static final int FETCH_AHEAD_CHUNKS = 4;
+
+	private final CompletableAsynchronousFileChannel fc;
+	private final Path overlayPath;
+	private final long size;
+	private final Instant lastModified;
+	private final ImmutableRangeSet<Long> missingRanges;
+	private final CloudProvider provider;
+	private final TransferLimits transferLimits;
+	private final Executor fetchExecutor;
+	private final Supplier<CloudPath> path;
+	private final Consumer<OpenFileSnapshot> onClose;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<Long, Long> preservedBlocks = new HashMap<>(); // block index -> position in overlay, guarded by lock
+	private FileChannel overlay; // lazily created, guarded by lock
+	private boolean closed; // guarded by lock
+	private byte[] memory; // contents if moved to memory, guarded by lock
+	private SnapshotBufferPool memoryPool; // guarded by lock
+	private volatile boolean inMemory;
+
+	/**
+	 * @param fc            The cache file
+	 * @param overlayPath   A path of a non-existing file in an existing directory, used to preserve modified blocks
+	 * @param size          The size of the file at the time of the snapshot
+	 * @param lastModified  The last modified date of the file at the time of the snapshot
+	 * @param missingRanges Ranges not populated within the cache file at the time of the snapshot
+	 * @param provider      The provider used to fetch missing ranges
+	 * @param transferLimits Bandwidth limits applied when fetching missing ranges
+	 * @param fetchExecutor Executor reading the fetched data, which blocks
+	 * @param path          Supplies the current location of the file in the cloud
+	 * @param onClose       Callback invoked when closing this snapshot
+	 */
+	OpenFileSnapshot(CompletableAsynchronousFileChannel fc, Path overlayPath, long size, Instant lastModified, ImmutableRangeSet<Long> missingRanges, CloudProvider provider, TransferLimits transferLimits, Executor fetchExecutor, Supplier<CloudPath> path, Consumer<OpenFileSnapshot> onClose) {
+		this.fc = fc;
+		this.overlayPath = overlayPath;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.missingRanges = missingRanges;
+		this.provider = provider;
+		this.transferLimits = transferLimits;
+		this.fetchExecutor = fetchExecutor;
+		this.path = path;
+		this.onClose = onClose;
+	}
+
+	/**
+	 * @return The size of the file at the time this snapshot has been taken.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The last modified date of the file at the time this snapshot has been taken.
+	 */
+	public Instant getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return Whether all of the snapshot's contents are available locally, i.e. reading it doesn't fetch data from the cloud.
+	 */
+	public boolean isFullyCached() {
+		return inMemory || missingRanges.isEmpty();
+	}
+
+	/**
+	 * Copies the whole snapshot (including missing ranges) into a buffer, so that subsequent reads neither access the
+	 * cache file nor the cloud and modifications of the cache file no longer need to be preserved. The buffer is
+	 * returned to the pool when closing this snapshot.
+	 *
+	 * @param pool The pool to acquire the buffer from, whose buffers must {@link SnapshotBufferPool#fits(long) fit} this snapshot
+	 * @throws IOException If reading the snapshot fails, in which case it remains unchanged
+	 */
+	public void moveToMemory(SnapshotBufferPool pool) throws IOException {
+		Preconditions.checkArgument(pool.fits(size), "Snapshot too large");
+		var buffer = pool.acquire();
+		try (var in = newInputStream()) {
+			int n = in.readNBytes(buffer, 0, (int) size); // int-cast: size fits into buffer
+			if (n < size) {
+				throw new EOFException("Unexpected end of snapshot");
+			}
+		} catch (IOException e) {
+			pool.release(buffer);
+			throw e;
+		}
+		lock.writeLock().lock();
+		try {
+			if (closed) {
+				pool.release(buffer);
+				return;
+			}
+			memory = buffer;
+			memoryPool = pool;
+			inMemory = true;
+			preservedBlocks.clear();
+			if (overlay != null) {
+				overlay.close();
+				overlay = null;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Saves the current contents of all blocks intersecting with the given range, unless already saved. Must be invoked
+	 * before modifying the cache file.
+	 *
+	 * @param begin First byte that is about to be modified (inclusive)
+	 * @param end   Last byte that is about to be modified (exclusive)
+	 * @throws IOException If reading from the cache file or writing to the overlay file fails
+	 */
+	public void preserve(long begin, long end) throws IOException {
+		Preconditions.checkArgument(begin >= 0);
+		long effectiveEnd = Math.min(end, size);
+		if (begin >= effectiveEnd) { // fast path: modification outside of this snapshot
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			if (closed || memory != null) {
+				return;
+			}
+			for (long block = begin / BLOCK_SIZE; block <= (effectiveEnd - 1) / BLOCK_SIZE; block++) {
+				var blockRange = Range.closedOpen(block * BLOCK_SIZE, Math.min((block + 1) * BLOCK_SIZE, size));
+				if (!preservedBlocks.containsKey(block) && !missingRanges.encloses(blockRange)) { // missing ranges are fetched from the provider anyway
+					preserveBlock(block);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void preserveBlock(long block) throws IOException {
+		long position = block * BLOCK_SIZE;
+		var buf = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE, size - position)); // int-cast: <= BLOCK_SIZE
+		readFromCacheFile(buf, position);
+		buf.flip();
+		if (overlay == null) {
+			overlay = FileChannel.open(overlayPath, CREATE_NEW, READ, WRITE, SPARSE, DELETE_ON_CLOSE);
+		}
+		long overlayPosition = overlay.size();
+		while (buf.hasRemaining()) {
+			overlay.write(buf, overlayPosition + buf.position());
+		}
+		preservedBlocks.put(block, overlayPosition);
+	}
+
+	/**
+	 * Reads up to <code>dst.remaining()</code> bytes starting at <code>position</code> from the cache file or the overlay
+	 * file. Never reads across block boundaries. The result is undefined for ranges contained in {@link #missingRanges}.
+	 *
+	 * @param dst      Buffer to read into
+	 * @param position Position within the snapshot
+	 * @return The number of bytes read or <code>-1</code> if <code>position</code> is at or beyond the end of the snapshot
+	 * @throws IOException If reading fails or the snapshot has been closed
+	 */
+	// visible for testing
+	int readCached(ByteBuffer dst, long position) throws IOException {
+		Preconditions.checkArgument(position >= 0);
+		if (position >= size) {
+			return -1;
+		}
+		long block = position / BLOCK_SIZE;
+		long blockEnd = Math.min((block + 1) * BLOCK_SIZE, size);
+		int n = (int) Math.min(dst.remaining(), blockEnd - position); // int-cast: n <= dst.remaining()
+		var view = dst.slice().limit(n);
+		lock.readLock().lock();
+		try {
+			if (closed) {
+				throw new ClosedChannelException();
+			}
+			Long overlayPosition = preservedBlocks.get(block);
+			if (memory != null) {
+				view.put(memory, (int) position, n); // int-cast: position < size, which fits into memory
+			} else if (overlayPosition == null) {
+				readFromCacheFile(view, position);
+			} else {
+				long positionInOverlay = overlayPosition + position - block * BLOCK_SIZE;
+				while (view.hasRemaining()) {
+					if (overlay.read(view, positionInOverlay + view.position()) == -1) {
+						throw new EOFException("Unexpected end of overlay file " + overlayPath);
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		dst.position(dst.position() + n);
+		return n;
+	}
+
+	private void readFromCacheFile(ByteBuffer dst, long position) throws IOException {
+		try {
+			long p = position;
+			while (dst.hasRemaining()) {
+				int read = fc.read(dst, p).get();
+				if (read == -1) { // EOF, treat remaining bytes as zeros
+					while (dst.hasRemaining()) {
+						dst.put((byte) 0);
+					}
+					break;
+				}
+				p += read;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Reading cache file interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to read cache file", e.getCause());
+		}
+	}
+
+	/**
+	 * Writes all locally available contents to the given channel at their respective positions. Unlike
+	 * {@link #newInputStream()}, this never fetches missing ranges from the cloud, which are left as holes instead.
+	 *
+	 * @param dst The channel to write to, e.g. a backup file
+	 * @return <code>true</code> if the whole snapshot has been written, <code>false</code> if ranges were missing
+	 * @throws IOException If reading the snapshot or writing to <code>dst</code> fails
+	 */
+	public boolean transferCachedTo(FileChannel dst) throws IOException {
+		boolean complete = isFullyCached();
+		var cachedRanges = complete ? ImmutableRangeSet.of(Range.closedOpen(0L, size)) : missingRanges.complement().subRangeSet(Range.closedOpen(0L, size));
+		var buf = ByteBuffer.allocate(BLOCK_SIZE);
+		for (var range : cachedRanges.asRanges()) {
+			long position = range.lowerEndpoint();
+			while (position < range.upperEndpoint()) {
+				buf.clear().limit((int) Math.min(BLOCK_SIZE, range.upperEndpoint() - position)); // int-cast: <= BLOCK_SIZE
+				readCached(buf, position);
+				buf.flip();
+				while (buf.hasRemaining()) {
+					position += dst.write(buf, position);
+				}
+			}
+		}
+		if (dst.size() < size) { // last range missing
+			dst.write(ByteBuffer.allocate(1), size - 1);
+		}
+		return complete;
+	}
+
+	/**
+	 * Creates a new input stream reading the snapshot from its first to its last byte. The stream must not be used
+	 * after this snapshot has been closed.
+	 *
+	 * @return A new input stream
+	 */
+	public InputStream newInputStream() {
+		return new SnapshotInputStream();
+	}
+
+	/**
+	 * Discards this snapshot including its overlay file. Subsequent modifications of the {@link OpenFile} will no longer
+	 * be preserved.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			preservedBlocks.clear();
+			if (memory != null) {
+				memoryPool.release(memory);
+				memory = null;
+			}
+			if (overlay != null) {
+				overlay.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		onClose.accept(this); // outside of lock, as the callback might acquire other locks
+	}
+
+	// visible for testing
+	int getPreservedBlockCount() {
+		lock.readLock().lock();
+		try {
+			return preservedBlocks.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this) //
+				.add("size", size) //
+				.add("overlay", overlayPath) //
+				.add("inMemory", inMemory) //
+				.toString();
+	}
+
+	private RemoteChunk fetch(Range<Long> range) {
+		long begin = range.lowerEndpoint();
+		int length = (int) (range.upperEndpoint() - begin); // int-cast: length <= FETCH_CHUNK_SIZE
+		// reading the stream blocks, so don't occupy the thread completing the provider's future:
+		var request = provider.read(path.get(), begin, length, ProgressListener.NO_PROGRESS_AWARE).toCompletableFuture();
+		var data = request.thenApplyAsync(in -> {
+			try (var throttled = transferLimits.throttleDownload(in)) {
+				var bytes = throttled.readNBytes(length);
+				if (bytes.length < length) {
+					throw new EOFException("Unexpected EOF while fetching " + range + " of " + path.get());
+				}
+				return bytes;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, fetchExecutor);
+		return new RemoteChunk(begin, range.upperEndpoint(), request, data);
+	}
+
+	private static Iterator<Range<Long>> splitIntoChunks(Range<Long> range) {
+		long begin = range.lowerEndpoint();
+		long end = range.upperEndpoint();
+		return new Iterator<>() {
+			private long pos = begin;
+
+			@Override
+			public boolean hasNext() {
+				return pos < end;
+			}
+
+			@Override
+			public Range<Long> next() {
+				var chunk = Range.closedOpen(pos, Math.min(pos + FETCH_CHUNK_SIZE, end));
+				pos = chunk.upperEndpoint();
+				return chunk;
+			}
+		};
+	}
+
+	private static class RemoteChunk {
+
+		private final long begin;
+		private final long end;
+		private final CompletableFuture<InputStream> request;
+		private final CompletableFuture<byte[]> data;
+
+		private RemoteChunk(long begin, long end, CompletableFuture<InputStream> request, CompletableFuture<byte[]> data) {
+			this.begin = begin;
+			this.end = end;
+			this.request = request;
+			this.data = data;
+		}
+
+		/**
+		 * Stops fetching this chunk. No-op if already completed.
+		 * <p>
+		 * Cancelling {@link #data} doesn't affect the provider's request and prevents the stream from being consumed
+		 * (and closed), so the stream is closed here once it arrives.
+		 */
+		private void cancel() {
+			if (data.cancel(true)) {
+				request.cancel(true);
+				request.thenAccept(Closeables::closeQuietly);
+			}
+		}
+
+		private byte[] await() throws IOException {
+			try {
+				return data.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Fetching missing range interrupted");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) e.getCause()).getCause();
+				} else {
+					throw new IOException("Failed to fetch missing range", e.getCause());
+				}
+			}
+		}
+
+	}
+
+	private class SnapshotInputStream extends InputStream {
+
+		private final Iterator<Range<Long>> chunksToFetch = Iterators.concat(Iterators.transform(missingRanges.asRanges().iterator(), OpenFileSnapshot::splitIntoChunks));
+		private final Deque<RemoteChunk> prefetched = new ArrayDeque<>();
+		private long position = 0;
+
+		@Override
+		public int read() throws IOException {
+			byte[] buf = new byte[1];
+			int read = read(buf, 0, 1);
+			return read == -1 ? -1 : Byte.toUnsignedInt(buf[0]);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			Preconditions.checkPositionIndexes(off, off + len, b.length);
+			if (len == 0) {
+				return 0;
+			}
+			var buf = ByteBuffer.wrap(b, off, len);
+			while (buf.hasRemaining() && position < size) {
+				int read;
+				if (!inMemory && missingRanges.contains(position)) {
+					read = readRemote(buf);
+				} else {
+					int n = (int) Math.min(buf.remaining(), endOfPopulatedRange() - position); // int-cast: n <= buf.remaining()
+					read = readCached(buf.slice().limit(n), position);
+					buf.position(buf.position() + read);
+				}
+				position += read;
+			}
+			int total = buf.position() - off;
+			return total == 0 ? -1 : total;
+		}
+
+		private long endOfPopulatedRange() {
+			if (inMemory) {
+				return size;
+			}
+			var populatedRange = missingRanges.complement().rangeContaining(position);
+			return populatedRange.hasUpperBound() ? Math.min(populatedRange.upperEndpoint(), size) : size;
+		}
+
+		private int readRemote(ByteBuffer dst) throws IOException {
+			while (!prefetched.isEmpty() && prefetched.peekFirst().end <= position) {
+				prefetched.removeFirst().cancel(); // consumed or skipped, no-op if already completed
+			}
+			fillPrefetchQueue();
+			var chunk = prefetched.peekFirst();
+			Preconditions.checkState(chunk != null && chunk.begin <= position, "No chunk fetched for position %s", position);
+			byte[] data = chunk.await();
+			int offsetInChunk = (int) (position - chunk.begin); // int-cast: position is within chunk
+			int n = (int) Math.min(dst.remaining(), chunk.end - position); // int-cast: n <= dst.remaining()
+			dst.put(data, offsetInChunk, n);
+			return n;
+		}
+
+		private void fillPrefetchQueue() {
+			while (prefetched.size() < FETCH_AHEAD_CHUNKS && chunksToFetch.hasNext()) {
+				var range = chunksToFetch.next();
+				if (range.upperEndpoint() > position) { // skip chunks behind the current position
+					prefetched.addLast(fetch(range));
+				}
+			}
+		}
+
+		@Override
+		public long skip(long n) {
+			long skipped = Math.max(0, Math.min(n, size - position));
+			position += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, size - position);
+		}
+
+		@Override
+		public void close() {
+			prefetched.forEach(RemoteChunk::cancel);
+			prefetched.clear();
+		}
+	}
+
+}
@@ -1,10 +1,14 @@
 package org.cryptomator.fusecloudaccess;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.io.Closeables;
+import com.google.common.io.CountingInputStream;
 import org.cryptomator.cloudaccess.api.CloudPath;
 import org.cryptomator.cloudaccess.api.CloudProvider;
 import org.cryptomator.cloudaccess.api.ProgressListener;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
 import org.cryptomator.fusecloudaccess.locks.LockManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,26 +17,48 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+import static java.nio.file.StandardOpenOption.*;
+
 /**
  * Prepares and schedules upload of (possibly) changed files to the cloud.
  * <p>
+ * Uploads pass through a pipeline of three stages, so different stages of different uploads overlap:
+ * <ol>
+ *     <li>The {@link UploadScheduler} decides which file to process next and takes a snapshot of it.</li>
+ *     <li>The transfer stage writes the snapshot to a temporary file in the cloud.</li>
+ *     <li>The commit stage moves the temporary file to its final location.</li>
+ * </ol>
+ * Snapshots of small files are {@link OpenFileSnapshot#moveToMemory(SnapshotBufferPool) moved to memory} right away.
+ * In {@link UploadMode#DIRECT direct mode}, the transfer stage writes fully cached snapshots to their final location
+ * instead and the commit stage is skipped.
+ * If the snapshot's contents are identical to the file's {@link OpenFile#getRemoteDigest() remote version}, the upload
+ * finishes right after taking the snapshot.
+ * Each stage has its own concurrency limit and a bounded queue. If a stage can't keep up, the previous stage waits.
+ * <p>
+ * Large files written sequentially after announcing their final size may be {@link #startWriteThrough(OpenFile) uploaded
+ * while they are being written}. A subsequent upload of such a file waits for the write-through to finish and is skipped
+ * if the file hasn't been modified otherwise.
+ * <p>
  * It should be ensured, that the files which are currently processed are not modified by other thread or processes.
  */
 @FileSystemScoped
@@ -42,22 +68,42 @@ class OpenFileUploader {
 
 	private final CloudProvider provider;
 	private final CloudAccessFSConfig config;
-	private final ExecutorService executorService;
+	private final UploadScheduler scheduler;
+	private final UploadStage transferStage;
+	private final UploadStage commitStage;
+	private final UploadStage writeThroughStage;
+	private final ConcurrentMap<OpenFile, Future<Void>> writeThroughs = new ConcurrentHashMap<>();
 	private final ConcurrentMap<CloudPath, Future<?>> tasks;
 	private final LockManager lockManager;
+	private final RetryPolicy retryPolicy;
+	private final TransferLimits transferLimits;
+	private final WriteBackJournal journal;
+	private final SnapshotBufferPool snapshotBuffers;
+	private final NamespaceReplayer namespaceReplayer;
 
 	@Inject
-	OpenFileUploader(CloudProvider provider, CloudAccessFSConfig config, ExecutorService executorService, @Named("uploadTasks") ConcurrentMap<CloudPath, Future<?>> tasks, LockManager lockManager) {
+	OpenFileUploader(CloudProvider provider, CloudAccessFSConfig config, UploadScheduler scheduler, @Named("transferStage") UploadStage transferStage, @Named("commitStage") UploadStage commitStage, @Named("writeThroughStage") UploadStage writeThroughStage, @Named("uploadTasks") ConcurrentMap<CloudPath, Future<?>> tasks, LockManager lockManager, RetryPolicy retryPolicy, TransferLimits transferLimits, WriteBackJournal journal, SnapshotBufferPool snapshotBuffers, NamespaceReplayer namespaceReplayer) {
 		this.provider = provider;
 		this.config = config;
-		this.executorService = executorService;
+		this.scheduler = scheduler;
+		this.transferStage = transferStage;
+		this.commitStage = commitStage;
+		this.writeThroughStage = writeThroughStage;
 		this.tasks = tasks;
 		this.lockManager = lockManager;
+		this.retryPolicy = retryPolicy;
+		this.transferLimits = transferLimits;
+		this.journal = journal;
+		this.snapshotBuffers = snapshotBuffers;
+		this.namespaceReplayer = namespaceReplayer;
 	}
 
 	/**
-	 * Schedules {@link OpenFile} to be uploaded to the set {@link CloudProvider} by first creating a temporary copy of
-	 * it and start the upload by reading from the copy.
+	 * Schedules {@link OpenFile} to be uploaded to the set {@link CloudProvider} by first taking a
+	 * {@link OpenFileSnapshot snapshot} of it and start the upload by reading from the snapshot.
+	 * <p>
+	 * Callers are responsible for recording the file in the {@link WriteBackJournal journal}, so the upload can be
+	 * resumed after a crash. As the journal syncs to disk, this should happen after releasing any locks.
 	 *
 	 * @param file       OpenFile object with reference to a real file
 	 * @param onFinished Callback invoked after successful upload
@@ -68,14 +114,113 @@ class OpenFileUploader {
 		Consumer<OpenFile> decoratedOnFinished = f -> {
 			tasks.remove(f.getPath());
 			if (f.transitionToUnmodified()) {
+				journal.remove(f);
 				onFinished.accept(f);
 			} else if (f.transitionToReuploading()) {
+				try {
+					journal.record(f); // update size and missing ranges of the existing record
+				} catch (IOException e) {
+					LOG.warn("Failed to journal pending upload of " + f.getPath() + ". Upload will not be resumed after a crash.", e);
+				}
 				scheduleUpload(file, onFinished);
 			}
 		};
-		var task = executorService.submit(new ScheduledUpload(file, decoratedOnFinished));
-		var previousTask = tasks.put(file.getPath(), task);
+		var upload = new ScheduledUpload(file, decoratedOnFinished);
+		var previousTask = tasks.put(file.getPath(), upload);
 		assert previousTask == null : "Must not schedule new upload before finishing previous one";
+		upload.start();
+	}
+
+	/**
+	 * Starts uploading the given file while it is being written, if it is large enough and its writer announced the
+	 * final size (see {@link OpenFile#startWriteThrough()}). No-op otherwise, e.g. if write-through uploads are disabled
+	 * or too many are running already.
+	 * <p>
+	 * The file is uploaded to a temporary location and moved to its final location once the writer is done. Any
+	 * failure, e.g. caused by the writer not writing sequentially, is ignored, as the file gets uploaded regularly anyway.
+	 *
+	 * @param file A file that has just been truncated
+	 */
+	public void startWriteThrough(OpenFile file) {
+		long threshold = config.getWriteThroughThresholdBytes();
+		if (threshold <= 0 || config.getUploadMode() == UploadMode.DIRECT || file.getSize() < threshold) {
+			return;
+		}
+		file.startWriteThrough().ifPresent(stream -> {
+			try {
+				var task = writeThroughStage.trySubmit(() -> writeThrough(file, stream), stream::close);
+				task.ifPresentOrElse(t -> writeThroughs.put(file, t), stream::close);
+			} catch (RejectedExecutionException e) {
+				stream.close();
+			}
+		});
+	}
+
+	private Void writeThrough(OpenFile file, WriteThroughStream source) throws InterruptedException {
+		CloudPath cloudTmpFile = config.getUploadDir().resolve(UUID.randomUUID() + ".tmp");
+		boolean moved = false;
+		try (source) {
+			LOG.debug("Uploading {} while it is being written.", file.getPath());
+			var hashing = new HashingInputStream(ContentDigest.HASH_FUNCTION, source);
+			var in = transferLimits.throttleUpload(hashing);
+			var uploadTask = provider.write(cloudTmpFile, true, in, source.getSize(), Optional.empty(), ProgressListener.NO_PROGRESS_AWARE);
+			uploadTask.whenComplete((result, exception) -> Closeables.closeQuietly(in)).toCompletableFuture().get();
+			var digest = new ContentDigest(source.getSize(), hashing.hash());
+			if (!source.awaitFinished()) {
+				LOG.debug("Write-through of {} aborted after uploading. Falling back to regular upload.", file.getPath());
+				return null;
+			}
+			awaitNamespaceChanges(file.getPath());
+			try (var lock = lockManager.createPathLock(file.getPath().toString()).forWriting()) {
+				provider.move(cloudTmpFile, file.getPath(), true).toCompletableFuture().get();
+				moved = true;
+				file.markCreatedRemotely();
+			}
+			file.setRemoteDigest(digest);
+			LOG.debug("Finished write-through of {}.", file.getPath());
+		} catch (ExecutionException e) {
+			LOG.debug("Write-through of " + file.getPath() + " failed. Falling back to regular upload.", e);
+		} finally {
+			writeThroughs.remove(file);
+			if (!moved) {
+				deleteTemporaryFile(cloudTmpFile);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a temporary file that is no longer needed. A failure is only logged, as the fallback upload doesn't
+	 * depend on it.
+	 */
+	private void deleteTemporaryFile(CloudPath cloudTmpFile) {
+		provider.deleteFile(cloudTmpFile).whenComplete((result, e) -> {
+			if (e != null && Throwables.getCausalChain(e).stream().noneMatch(NotFoundException.class::isInstance)) { // might not have been created at all
+				LOG.warn("Failed to delete temporary file " + cloudTmpFile + ".", e);
+			}
+		});
+	}
+
+	/**
+	 * Waits for pending namespace changes affecting the given destination, as its parent might not exist in the cloud
+	 * yet. Fails with a {@link RetryPolicy.Failure#TIMEOUT timeout} if they take too long, so the caller may retry.
+	 */
+	private void awaitNamespaceChanges(CloudPath destination) throws InterruptedException, ExecutionException {
+		if (!namespaceReplayer.awaitReplayed(destination, config.getUploadNamespaceWaitMillis(), TimeUnit.MILLISECONDS)) {
+			throw new ExecutionException(new TimeoutException("Namespace changes affecting " + destination + " still pending"));
+		}
+	}
+
+	private void awaitWriteThrough(OpenFile file) throws InterruptedException {
+		file.finishWriteThrough();
+		var writeThrough = writeThroughs.get(file);
+		if (writeThrough != null) {
+			try {
+				writeThrough.get();
+			} catch (ExecutionException | CancellationException e) {
+				LOG.debug("Write-through of {} didn't finish.", file.getPath());
+			}
+		}
 	}
 
 	/**
@@ -96,82 +241,355 @@ class OpenFileUploader {
 		}
 	}
 
+	/**
+	 * Moves a queued upload (if any) to the front of the queue, e.g. because someone is waiting for it to finish.
+	 *
+	 * @param path
+	 * @return <code>true</code> if a queued upload has been prioritized, <code>false</code> if there is none or it is already running
+	 */
+	public boolean prioritizeUpload(CloudPath path) {
+		return scheduler.prioritize(path);
+	}
+
+	/**
+	 * @return Paths of files waiting for their upload to start, in the order they will be started
+	 */
+	public List<CloudPath> getQueuedUploads() {
+		return scheduler.getQueuedUploads();
+	}
+
+	/**
+	 * Waits for all uploads to pass through the pipeline. No further uploads can be scheduled afterwards.
+	 *
+	 * @param timeout  Maximum time to wait
+	 * @param timeUnit Unit of <code>timeout</code>
+	 * @throws InterruptedException If interrupted while waiting
+	 * @throws TimeoutException     If uploads are still running after the timeout elapsed
+	 */
 	public void awaitPendingUploads(long timeout, TimeUnit timeUnit) throws InterruptedException, TimeoutException {
-		executorService.shutdown();
-		if (!executorService.awaitTermination(timeout, timeUnit)) {
+		long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+		writeThroughStage.shutdown();
+		// stages must be shut down in order, since each stage hands off to the next one:
+		scheduler.shutdown();
+		if (!scheduler.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+			throw new TimeoutException("Uploads still running.");
+		}
+		transferStage.shutdown();
+		if (!transferStage.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+			throw new TimeoutException("Uploads still running.");
+		}
+		commitStage.shutdown();
+		if (!commitStage.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+			throw new TimeoutException("Uploads still running.");
+		}
+		// remaining write-throughs belong to files that won't be uploaded, so their writers never finish:
+		writeThroughs.values().forEach(writeThrough -> writeThrough.cancel(true));
+		if (!writeThroughStage.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
 			throw new TimeoutException("Uploads still running.");
 		}
 	}
 
-	class ScheduledUpload implements Callable<Void> {
+	/**
+	 * The upload of a single file, passing through all stages of the pipeline.
+	 */
+	class ScheduledUpload implements Future<Void> {
 
 		private final OpenFile openFile;
 		private final Consumer<OpenFile> onFinished;
+		private final String tmpFileName = UUID.randomUUID() + ".tmp";
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+		private final AtomicReference<Future<?>> currentStage = new AtomicReference<>();
+		private volatile OpenFileSnapshot snapshot;
+		private volatile ContentDigest uploadedDigest;
 
 		public ScheduledUpload(OpenFile openFile, Consumer<OpenFile> onFinished) {
 			this.openFile = openFile;
 			this.onFinished = onFinished;
 		}
 
-		@Override
-		public Void call() throws IOException {
+		void start() {
+			var stage = scheduler.submitUpload(openFile, this::takeSnapshot);
+			currentStage.compareAndSet(null, stage); // unless already handed off to the next stage
+		}
+
+		// visible for testing
+		Void takeSnapshot() throws IOException {
 			assert openFile.getState() == OpenFile.State.UPLOADING;
-			String tmpFileName = UUID.randomUUID() + ".tmp";
-			Path localTmpFile = config.getCacheDir().resolve(tmpFileName);
-			CloudPath cloudTmpFile = config.getUploadDir().resolve(tmpFileName);
+			return runStage(() -> {
+				awaitWriteThrough(openFile);
+				Path localOverlayFile = config.getCacheDir().resolve(tmpFileName);
+				snapshot = openFile.snapshot(localOverlayFile).toCompletableFuture().get();
+				if (snapshotBuffers.fits(snapshot.getSize())) {
+					moveSnapshotToMemory();
+				}
+				if (matchesRemoteVersion(snapshot)) {
+					LOG.debug("Skipping upload of {}, contents unchanged.", openFile.getPath());
+					finish(null);
+				} else {
+					handOff(transferStage, this::transfer);
+				}
+			});
+		}
+
+		/**
+		 * Small files are held in memory during upload. This releases the cache file early and makes retries cheap.
+		 * If this fails, the upload proceeds with the file-based snapshot.
+		 */
+		private void moveSnapshotToMemory() {
+			try {
+				snapshot.moveToMemory(snapshotBuffers);
+			} catch (IOException e) {
+				LOG.debug("Failed to move snapshot of " + openFile.getPath() + " to memory", e);
+			}
+		}
+
+		/**
+		 * Compares the snapshot with the remote version. Only done if the snapshot is fully cached, as fetching missing
+		 * ranges would be more expensive than just uploading the file.
+		 */
+		private boolean matchesRemoteVersion(OpenFileSnapshot snapshot) {
+			var remoteDigest = openFile.getRemoteDigest();
+			if (remoteDigest == null || remoteDigest.getSize() != snapshot.getSize() || !snapshot.isFullyCached()) {
+				return false;
+			}
+			try (var in = snapshot.newInputStream()) {
+				return remoteDigest.equals(ContentDigest.of(in));
+			} catch (IOException e) {
+				LOG.debug("Failed to compute digest of " + openFile.getPath(), e);
+				return false;
+			}
+		}
+
+		// visible for testing
+		Void transfer() throws IOException {
+			// missing ranges are read from the remote file, which therefore must not be overwritten while streaming them:
+			if (config.getUploadMode() == UploadMode.DIRECT && snapshot.isFullyCached()) {
+				return transferDirect();
+			}
+			return runStage(() -> {
+				CloudPath cloudTmpFile = config.getUploadDir().resolve(tmpFileName);
+				final var source = snapshot;
+				retryPolicy.execute("Upload of " + openFile.getPath(), () -> write(cloudTmpFile, source));
+				handOff(commitStage, this::commit);
+			});
+		}
+
+		private Void transferDirect() throws IOException {
+			return runStage(() -> {
+				final var source = snapshot;
+				retryPolicy.execute("Upload of " + openFile.getPath(), () -> {
+					awaitNamespaceChanges(openFile.getPath());
+					// the destination must not be moved or deleted while writing to it, reading and writing the open file is fine:
+					try (var lock = lockManager.createPathLock(openFile.getPath().toString()).forReading()) {
+						LOG.debug("Uploading {} directly to its final location.", openFile.getPath());
+						write(openFile.getPath(), source);
+						openFile.markCreatedRemotely(); // while still holding the lock, so unlink() doesn't miss the remote file
+						return null;
+					}
+				});
+				updateRemoteDigest();
+				finish(null);
+			});
+		}
+
+		// visible for testing
+		Void commit() throws IOException {
+			return runStage(() -> {
+				CloudPath cloudTmpFile = config.getUploadDir().resolve(tmpFileName);
+				var timedOut = new AtomicBoolean();
+				retryPolicy.execute("Moving " + cloudTmpFile + " to " + openFile.getPath(), () -> {
+					awaitNamespaceChanges(openFile.getPath());
+					// since this is async code, we need a new path lock for this move, which is not held between attempts:
+					try (var lock = lockManager.createPathLock(openFile.getPath().toString()).forWriting()) {
+						if (timedOut.get() && isMoved(cloudTmpFile, openFile.getPath())) {
+							LOG.debug("Move of {} to {} succeeded despite timing out.", cloudTmpFile, openFile.getPath());
+						} else {
+							LOG.debug("Finishing upload of {} by moving from temporary file {} to real location.", openFile.getPath(), cloudTmpFile);
+							move(cloudTmpFile, openFile.getPath(), timedOut);
+						}
+						openFile.markCreatedRemotely(); // while still holding the lock, so unlink() doesn't miss the remote file
+						return null;
+					}
+				});
+				updateRemoteDigest();
+				finish(null);
+			});
+		}
+
+		private void move(CloudPath source, CloudPath destination, AtomicBoolean timedOut) throws InterruptedException, ExecutionException {
+			try {
+				provider.move(source, destination, true).toCompletableFuture().get();
+			} catch (ExecutionException e) {
+				if (RetryPolicy.classify(e.getCause()) == RetryPolicy.Failure.TIMEOUT) {
+					timedOut.set(true);
+				}
+				throw e;
+			}
+		}
+
+		/**
+		 * A move that timed out might have been successful nevertheless, in which case retrying it would fail, as the
+		 * source no longer exists.
+		 */
+		private boolean isMoved(CloudPath source, CloudPath destination) throws InterruptedException, ExecutionException {
+			return !exists(source) && exists(destination);
+		}
+
+		private boolean exists(CloudPath path) throws InterruptedException, ExecutionException {
+			try {
+				provider.itemMetadata(path).toCompletableFuture().get();
+				return true;
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof NotFoundException) {
+					return false;
+				}
+				throw e; // state unknown, try again later
+			}
+		}
+
+		/**
+		 * Writes the snapshot to the given location and computes its digest on the fly.
+		 */
+		private Void write(CloudPath destination, OpenFileSnapshot source) throws InterruptedException, ExecutionException {
+			var hashing = new HashingInputStream(ContentDigest.HASH_FUNCTION, source.newInputStream());
+			var counting = new CountingInputStream(hashing);
+			var in = transferLimits.throttleUpload(counting);
+			var uploadTask = provider.write(destination, true, in, source.getSize(), Optional.of(source.getLastModified()), ProgressListener.NO_PROGRESS_AWARE);
+			uploadTask.whenComplete((result, exception) -> Closeables.closeQuietly(in)).toCompletableFuture().get();
+			if (counting.getCount() == source.getSize()) { // digest is only valid if the provider consumed the whole stream
+				uploadedDigest = new ContentDigest(source.getSize(), hashing.hash());
+			} else {
+				uploadedDigest = null;
+			}
+			return null;
+		}
+
+		private void updateRemoteDigest() {
+			openFile.setRemoteDigest(uploadedDigest); // null if unknown
+		}
+
+		private void handOff(UploadStage nextStage, Callable<Void> task) throws InterruptedException, ExecutionException {
 			try {
-				openFile.persistTo(localTmpFile)
-						.thenCompose((ignored) -> {
-							assert Files.exists(localTmpFile);
-							try {
-								var size = openFile.getSize();
-								var lastModified = openFile.getLastModified();
-								var in = Files.newInputStream(localTmpFile);
-								var uploadTask = provider.write(cloudTmpFile, true, in, size, Optional.of(lastModified), ProgressListener.NO_PROGRESS_AWARE);
-								return uploadTask.whenComplete((result, exception) -> Closeables.closeQuietly(in));
-							} catch (IOException e) {
-								return CompletableFuture.failedFuture(e);
-							}
-						})
-						.toCompletableFuture().get();
-				// since this is async code, we need a new path lock for this move:
-				try (var lock = lockManager.createPathLock(openFile.getPath().toString()).forWriting()) {
-					LOG.debug("Finishing upload of {} by moving from temporary file {} to real location.", openFile.getPath(), cloudTmpFile);
-					provider.move(cloudTmpFile, openFile.getPath(), true).toCompletableFuture().get();
+				var stage = nextStage.submit(task, this::release);
+				currentStage.set(stage);
+				if (result.isCancelled()) { // cancelled during hand-off
+					stage.cancel(true);
 				}
+			} catch (RejectedExecutionException e) {
+				throw new ExecutionException("Upload pipeline shut down", e);
+			}
+		}
+
+		private Void runStage(Stage stage) throws IOException {
+			try {
+				stage.run();
 				return null;
 			} catch (CancellationException e) {    //OK
 				LOG.debug("Canceled upload for {}.", openFile.getPath());
+				finish(e);
 				return null;
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
-				throw new InterruptedIOException("Upload interrupted.");
+				var failure = new InterruptedIOException("Upload interrupted.");
+				finish(failure);
+				throw failure;
 			} catch (ExecutionException e) {
 				LOG.warn("Upload of " + openFile.getPath() + " failed. Attempting backup...", e);
-				backupFailedUploadFile(localTmpFile);
-				throw new IOException("Upload failed.", e);
-			} finally {
-				Files.deleteIfExists(localTmpFile);
-				onFinished.accept(openFile);
+				if (snapshot != null && !backupFailedUploadFile(snapshot) && openFile.transitionToNeedsUpload()) {
+					LOG.warn("Keeping {} for another upload attempt.", openFile.getPath());
+				}
+				var failure = new IOException("Upload failed.", e);
+				finish(failure);
+				throw failure;
+			}
+		}
+
+		private void finish(Throwable failure) {
+			release();
+			onFinished.accept(openFile);
+			if (failure == null) {
+				result.complete(null);
+			} else {
+				result.completeExceptionally(failure);
 			}
 		}
 
+		/**
+		 * Closes the snapshot (if any). Invoked when finishing and when cancelling a queued stage, which will never run.
+		 */
+		private void release() {
+			var s = snapshot;
+			if (s != null) {
+				try {
+					s.close();
+				} catch (IOException e) {
+					LOG.warn("Failed to close snapshot of " + openFile.getPath(), e);
+				}
+			}
+		}
+
+		/**
+		 * Copies the locally available contents of the snapshot to the lost+found dir. Missing ranges are not fetched,
+		 * as the upload most likely failed because the cloud is unreachable.
+		 *
+		 * @return <code>true</code> if the snapshot has been backed up completely
+		 */
 		//visible for testing
-		void backupFailedUploadFile(Path localTmpFile) {
+		boolean backupFailedUploadFile(OpenFileSnapshot snapshot) {
+			final var realCloudPath = openFile.getPath();
 			try {
-				if (Files.notExists(localTmpFile)) {
-					throw new NoSuchFileException("Unable to find persisted file " + localTmpFile.toString());
-				}
-				final var realCloudPath = openFile.getPath();
 				var targetDir = config.getLostAndFoundDir().resolve(realCloudPath.subpath(0, realCloudPath.getNameCount() - 1).toString());
 				Files.createDirectories(targetDir);
-				Files.move(localTmpFile, targetDir.resolve(realCloudPath.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
-				LOG.info("Backup of {} to {} successful.", realCloudPath, config.getLostAndFoundDir());
+				try (var out = FileChannel.open(targetDir.resolve(realCloudPath.getFileName().toString()), CREATE, WRITE, TRUNCATE_EXISTING)) {
+					if (snapshot.transferCachedTo(out)) {
+						LOG.info("Backup of {} to {} successful.", realCloudPath, config.getLostAndFoundDir());
+						return true;
+					} else {
+						LOG.warn("Backup of {} to {} incomplete, as parts of the file aren't cached.", realCloudPath, config.getLostAndFoundDir());
+						return false;
+					}
+				}
 			} catch (IOException e2) {
-				LOG.error("Backup of " + openFile.getPath() + " to " + config.getLostAndFoundDir() + " failed. DATA LOSS IMMINENT.", e2);
+				LOG.error("Backup of " + realCloudPath + " to " + config.getLostAndFoundDir() + " failed.", e2);
+				return false;
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = result.cancel(mayInterruptIfRunning);
+			var stage = currentStage.get();
+			if (stage != null) {
+				stage.cancel(mayInterruptIfRunning);
 			}
+			return cancelled;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return result.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return result.isDone();
 		}
 
+		@Override
+		public Void get() throws InterruptedException, ExecutionException {
+			return result.get();
+		}
+
+		@Override
+		public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return result.get(timeout, unit);
+		}
+
+	}
+
+	@FunctionalInterface
+	private interface Stage {
+		void run() throws ExecutionException, InterruptedException;
 	}
 
 }
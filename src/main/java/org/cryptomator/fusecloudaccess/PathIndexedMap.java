@@ -0,0 +1,178 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudPath;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A concurrent map from paths to values that additionally keeps its keys in a sorted index, so all entries within a
+ * subtree can be {@link #subtree(CloudPath) enumerated} in time proportional to the size of the subtree.
+ * <p>
+ * The underlying {@link ConcurrentHashMap} stays the primary barrier for synchronized access: the remapping functions
+ * passed to {@link #compute(CloudPath, BiFunction) compute(...)} and friends are still applied exactly once,
+ * atomically. The index is updated from within these functions, so it is consistent for each individual key. It may
+ * briefly contain keys being removed concurrently, which callers must tolerate (e.g. by using
+ * {@link #computeIfPresent(CloudPath, BiFunction) computeIfPresent(...)}).
+ * <p>
+ * Only operations that keep the index up to date are exposed, so the map can not be modified through its views.
+ *
+ * @param <V> The type of mapped values
+ */
+class PathIndexedMap<V> {
+
+	/**
+	 * Orders paths element by element, so that each path is directly followed by all of its descendants. Unlike
+	 * {@link CloudPath#compareTo(CloudPath)}, which compares the string representation, this keeps subtrees contiguous:
+	 * <code>/a!</code> sorts after <code>/a/z</code> instead of between <code>/a</code> and <code>/a/z</code>.
+	 */
+	// visible for testing
+	static final Comparator<CloudPath> PATH_ORDER = (p1, p2) -> {
+		if (p1.isAbsolute() != p2.isAbsolute()) {
+			return p1.isAbsolute() ? -1 : 1;
+		}
+		int n1 = p1.getNameCount();
+		int n2 = p2.getNameCount();
+		for (int i = 0; i < Math.min(n1, n2); i++) {
+			int result = p1.getName(i).toString().compareTo(p2.getName(i).toString());
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(n1, n2);
+	};
+
+	private final ConcurrentHashMap<CloudPath, V> map = new ConcurrentHashMap<>();
+	private final NavigableSet<CloudPath> index = new ConcurrentSkipListSet<>(PATH_ORDER);
+
+	public V get(CloudPath key) {
+		return map.get(key);
+	}
+
+	public boolean containsKey(CloudPath key) {
+		return map.containsKey(key);
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * @return An unmodifiable, weakly consistent view of the keys
+	 */
+	public Set<CloudPath> keySet() {
+		return Collections.unmodifiableSet(map.keySet());
+	}
+
+	/**
+	 * Collects the keys at or below the given path.
+	 *
+	 * @param parent Root of the subtree
+	 * @return A snapshot of the keys within the subtree, sorted by path
+	 */
+	public List<CloudPath> subtree(CloudPath parent) {
+		return index.tailSet(parent, true).stream() //
+				.takeWhile(path -> path.startsWith(parent)) //
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Collects the keys of direct children of the given path.
+	 *
+	 * @param parent Parent path
+	 * @return A snapshot of the keys whose parent is <code>parent</code>, sorted by path
+	 */
+	public List<CloudPath> children(CloudPath parent) {
+		return index.tailSet(parent, false).stream() //
+				.takeWhile(path -> path.startsWith(parent)) //
+				.filter(path -> parent.equals(path.getParent())) //
+				.collect(Collectors.toList());
+	}
+
+	private V indexed(CloudPath key, V value) {
+		if (value == null) {
+			index.remove(key);
+		} else {
+			index.add(key);
+		}
+		return value;
+	}
+
+	public V compute(CloudPath key, BiFunction<? super CloudPath, ? super V, ? extends V> remappingFunction) {
+		return map.compute(key, (k, v) -> indexed(k, remappingFunction.apply(k, v)));
+	}
+
+	public V computeIfPresent(CloudPath key, BiFunction<? super CloudPath, ? super V, ? extends V> remappingFunction) {
+		return map.computeIfPresent(key, (k, v) -> indexed(k, remappingFunction.apply(k, v)));
+	}
+
+	public V computeIfAbsent(CloudPath key, Function<? super CloudPath, ? extends V> mappingFunction) {
+		return map.computeIfAbsent(key, k -> indexed(k, mappingFunction.apply(k)));
+	}
+
+	public V merge(CloudPath key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		return map.compute(key, (k, v) -> indexed(k, v == null ? value : remappingFunction.apply(v, value)));
+	}
+
+	public V put(CloudPath key, V value) {
+		var previous = new Object() {
+			V value;
+		};
+		map.compute(key, (k, v) -> {
+			previous.value = v;
+			return indexed(k, value);
+		});
+		return previous.value;
+	}
+
+	public V putIfAbsent(CloudPath key, V value) {
+		var previous = new Object() {
+			V value;
+		};
+		map.compute(key, (k, v) -> {
+			previous.value = v;
+			return v != null ? v : indexed(k, value);
+		});
+		return previous.value;
+	}
+
+	public V remove(CloudPath key) {
+		var previous = new Object() {
+			V value;
+		};
+		map.computeIfPresent(key, (k, v) -> {
+			previous.value = v;
+			return indexed(k, null);
+		});
+		return previous.value;
+	}
+
+	public boolean remove(CloudPath key, V value) {
+		if (value == null) {
+			return false;
+		}
+		var removed = new Object() {
+			boolean value;
+		};
+		map.computeIfPresent(key, (k, v) -> {
+			removed.value = v.equals(value);
+			return removed.value ? indexed(k, null) : v;
+		});
+		return removed.value;
+	}
+
+	public void clear() {
+		for (var key : map.keySet()) {
+			remove(key);
+		}
+	}
+
+}
@@ -0,0 +1,353 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of which regions of a cache file contain valid data.
+ * <p>
+ * Fully populated blocks of {@value #BLOCK_SIZE} bytes are recorded in a sparse bitmap that can be queried and updated
+ * without locking. Segments of the bitmap are only allocated when needed and get replaced by a shared immutable
+ * instance as soon as they are completely populated, so that large, fully hydrated files only need a few bytes of heap.
+ * <p>
+ * Blocks that are only partially populated (e.g. by small writes or at EOF) are tracked with byte-precision
+ * separately, until they become fully populated.
+ */
+class PopulationIndex {
+
+	static final int BLOCK_SHIFT = 12;
+	static final int BLOCK_SIZE = 1 << BLOCK_SHIFT; // 4 KiB
+	private static final int WORD_SHIFT = 6;
+	private static final int SEGMENT_SHIFT = 6 + WORD_SHIFT;
+	private static final int SEGMENT_BLOCKS = 1 << SEGMENT_SHIFT; // 4096 blocks (16 MiB) per segment
+	private static final int SEGMENT_WORDS = SEGMENT_BLOCKS / Long.SIZE;
+	private static final Segment FULL_SEGMENT = new Segment(true);
+
+	private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<>();
+	private final ConcurrentNavigableMap<Long, PartialBlock> partialBlocks = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Marks <code>[begin, end)</code> as populated.
+	 *
+	 * @param begin First populated byte (inclusive)
+	 * @param end   Last populated byte (exclusive)
+	 */
+	public void add(long begin, long end) {
+		Preconditions.checkArgument(begin >= 0);
+		if (begin >= end) {
+			return;
+		}
+		long firstFullBlock = (begin + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+		long lastFullBlock = end >>> BLOCK_SHIFT; // exclusive
+		if (firstFullBlock >= lastFullBlock) { // range doesn't cover a single block completely
+			long block = begin >>> BLOCK_SHIFT;
+			addPartial(block, begin, Math.min(end, (block + 1) << BLOCK_SHIFT));
+			if (block != (end - 1) >>> BLOCK_SHIFT) {
+				addPartial(block + 1, (block + 1) << BLOCK_SHIFT, end);
+			}
+		} else {
+			if (begin < firstFullBlock << BLOCK_SHIFT) {
+				addPartial(firstFullBlock - 1, begin, firstFullBlock << BLOCK_SHIFT);
+			}
+			setBlocks(firstFullBlock, lastFullBlock);
+			if (end > lastFullBlock << BLOCK_SHIFT) {
+				addPartial(lastFullBlock, lastFullBlock << BLOCK_SHIFT, end);
+			}
+		}
+	}
+
+	/**
+	 * @param begin First byte (inclusive)
+	 * @param end   Last byte (exclusive)
+	 * @return <code>true</code> if every byte within <code>[begin, end)</code> is populated
+	 */
+	public boolean encloses(long begin, long end) {
+		Preconditions.checkArgument(begin >= 0);
+		if (begin >= end) {
+			return true;
+		}
+		long firstBlock = begin >>> BLOCK_SHIFT;
+		long lastBlock = ((end - 1) >>> BLOCK_SHIFT) + 1; // exclusive
+		long block = nextClearBlock(firstBlock, lastBlock);
+		while (block < lastBlock) {
+			long blockBegin = Math.max(begin, block << BLOCK_SHIFT);
+			long blockEnd = Math.min(end, (block + 1) << BLOCK_SHIFT);
+			var partial = partialBlocks.get(block);
+			boolean populated = partial != null && partial.encloses(blockBegin, blockEnd);
+			if (!populated && !isBlockSet(block)) { // re-check, as the block might have been completed concurrently
+				return false;
+			}
+			block = nextClearBlock(block + 1, lastBlock);
+		}
+		return true;
+	}
+
+	/**
+	 * Determines which regions within <code>[begin, end)</code> are not populated.
+	 *
+	 * @param begin First byte (inclusive)
+	 * @param end   Last byte (exclusive)
+	 * @return Ordered, non-adjacent and non-overlapping missing ranges
+	 */
+	public List<Range<Long>> missingRanges(long begin, long end) {
+		Preconditions.checkArgument(begin >= 0);
+		var result = new Gaps();
+		if (begin >= end) {
+			return result.ranges;
+		}
+		long firstBlock = begin >>> BLOCK_SHIFT;
+		long lastBlock = ((end - 1) >>> BLOCK_SHIFT) + 1; // exclusive
+		long clearBlock = nextClearBlock(firstBlock, lastBlock);
+		while (clearBlock < lastBlock) {
+			long setBlock = nextSetBlock(clearBlock, lastBlock);
+			long runBegin = Math.max(begin, clearBlock << BLOCK_SHIFT);
+			long runEnd = Math.min(end, setBlock << BLOCK_SHIFT);
+			long pos = runBegin;
+			for (var entry : partialBlocks.subMap(clearBlock, setBlock).entrySet()) {
+				long blockBegin = entry.getKey() << BLOCK_SHIFT;
+				result.add(pos, Math.max(pos, blockBegin));
+				pos = entry.getValue().addGaps(Math.max(pos, blockBegin), Math.min(runEnd, blockBegin + BLOCK_SIZE), result);
+			}
+			result.add(pos, runEnd);
+			clearBlock = nextClearBlock(setBlock, lastBlock);
+		}
+		return result.ranges;
+	}
+
+	private void addPartial(long block, long begin, long end) {
+		assert begin >>> BLOCK_SHIFT == block;
+		assert (end - 1) >>> BLOCK_SHIFT == block;
+		if (isBlockSet(block)) {
+			return;
+		}
+		var partial = partialBlocks.computeIfAbsent(block, b -> new PartialBlock());
+		synchronized (partial) {
+			long blockBegin = block << BLOCK_SHIFT;
+			if (partial.add((int) (begin - blockBegin), (int) (end - blockBegin))) {
+				setBlocks(block, block + 1);
+				partialBlocks.remove(block, partial); // remove only after setting the bit
+			}
+		}
+	}
+
+	private boolean isBlockSet(long block) {
+		var segment = segments.get(block >>> SEGMENT_SHIFT);
+		return segment != null && segment.isSet((int) (block & (SEGMENT_BLOCKS - 1)));
+	}
+
+	private void setBlocks(long begin, long end) {
+		long block = begin;
+		while (block < end) {
+			long segmentIdx = block >>> SEGMENT_SHIFT;
+			long segmentBegin = segmentIdx << SEGMENT_SHIFT;
+			long segmentEnd = Math.min(end, segmentBegin + SEGMENT_BLOCKS);
+			if (block == segmentBegin && segmentEnd == segmentBegin + SEGMENT_BLOCKS) {
+				segments.put(segmentIdx, FULL_SEGMENT);
+			} else {
+				var segment = segments.computeIfAbsent(segmentIdx, i -> new Segment(false));
+				if (segment.set((int) (block - segmentBegin), (int) (segmentEnd - segmentBegin))) {
+					segments.replace(segmentIdx, segment, FULL_SEGMENT);
+				}
+			}
+			block = segmentEnd;
+		}
+	}
+
+	private long nextClearBlock(long from, long to) {
+		long block = from;
+		while (block < to) {
+			long segmentIdx = block >>> SEGMENT_SHIFT;
+			long segmentBegin = segmentIdx << SEGMENT_SHIFT;
+			var segment = segments.get(segmentIdx);
+			if (segment == null) {
+				return block;
+			} else if (segment != FULL_SEGMENT) {
+				int idx = segment.nextClear((int) (block - segmentBegin));
+				if (idx < SEGMENT_BLOCKS) {
+					return Math.min(to, segmentBegin + idx);
+				}
+			}
+			block = segmentBegin + SEGMENT_BLOCKS;
+		}
+		return to;
+	}
+
+	private long nextSetBlock(long from, long to) {
+		long block = from;
+		while (block < to) {
+			long segmentIdx = block >>> SEGMENT_SHIFT;
+			long segmentBegin = segmentIdx << SEGMENT_SHIFT;
+			var segment = segments.get(segmentIdx);
+			if (segment == FULL_SEGMENT) {
+				return block;
+			} else if (segment != null) {
+				int idx = segment.nextSet((int) (block - segmentBegin));
+				if (idx < SEGMENT_BLOCKS) {
+					return Math.min(to, segmentBegin + idx);
+				}
+			}
+			block = segmentBegin + SEGMENT_BLOCKS;
+		}
+		return to;
+	}
+
+	/**
+	 * A lock-free bitmap of {@value #SEGMENT_BLOCKS} blocks.
+	 */
+	private static class Segment {
+
+		private final AtomicLongArray words;
+
+		Segment(boolean full) {
+			this.words = new AtomicLongArray(SEGMENT_WORDS);
+			if (full) {
+				for (int i = 0; i < SEGMENT_WORDS; i++) {
+					words.set(i, -1L);
+				}
+			}
+		}
+
+		boolean isSet(int idx) {
+			return (words.get(idx >>> WORD_SHIFT) & (1L << idx)) != 0;
+		}
+
+		/**
+		 * @return <code>true</code> if all bits in this segment are set afterwards
+		 */
+		boolean set(int begin, int end) {
+			for (int w = begin >>> WORD_SHIFT; w <= (end - 1) >>> WORD_SHIFT; w++) {
+				int from = Math.max(begin, w << WORD_SHIFT);
+				int to = Math.min(end, (w + 1) << WORD_SHIFT);
+				long mask = (to - from == Long.SIZE) ? -1L : ((1L << (to - from)) - 1) << from;
+				long current;
+				do {
+					current = words.get(w);
+				} while ((current & mask) != mask && !words.compareAndSet(w, current, current | mask));
+			}
+			for (int w = 0; w < SEGMENT_WORDS; w++) {
+				if (words.get(w) != -1L) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		int nextClear(int from) {
+			for (int w = from >>> WORD_SHIFT; w < SEGMENT_WORDS; w++) {
+				long clear = ~words.get(w);
+				if (w == from >>> WORD_SHIFT) {
+					clear &= -1L << from;
+				}
+				if (clear != 0) {
+					return (w << WORD_SHIFT) + Long.numberOfTrailingZeros(clear);
+				}
+			}
+			return SEGMENT_BLOCKS;
+		}
+
+		int nextSet(int from) {
+			for (int w = from >>> WORD_SHIFT; w < SEGMENT_WORDS; w++) {
+				long set = words.get(w);
+				if (w == from >>> WORD_SHIFT) {
+					set &= -1L << from;
+				}
+				if (set != 0) {
+					return (w << WORD_SHIFT) + Long.numberOfTrailingZeros(set);
+				}
+			}
+			return SEGMENT_BLOCKS;
+		}
+	}
+
+	/**
+	 * Byte-precise, sorted and non-adjacent ranges within a single block, stored as <code>[begin0, end0, begin1, end1, ...]</code>.
+	 * Guarded by its own monitor.
+	 */
+	private static class PartialBlock {
+
+		private int[] bounds = new int[0];
+
+		/**
+		 * @return <code>true</code> if the whole block is populated afterwards
+		 */
+		synchronized boolean add(int begin, int end) {
+			var merged = new int[bounds.length + 2];
+			int n = 0;
+			int i = 0;
+			while (i < bounds.length && bounds[i + 1] < begin) { // ranges before new range
+				merged[n++] = bounds[i++];
+				merged[n++] = bounds[i++];
+			}
+			int mergedBegin = begin;
+			int mergedEnd = end;
+			while (i < bounds.length && bounds[i] <= end) { // ranges overlapping or adjacent to new range
+				mergedBegin = Math.min(mergedBegin, bounds[i++]);
+				mergedEnd = Math.max(mergedEnd, bounds[i++]);
+			}
+			merged[n++] = mergedBegin;
+			merged[n++] = mergedEnd;
+			while (i < bounds.length) { // ranges after new range
+				merged[n++] = bounds[i++];
+			}
+			bounds = Arrays.copyOf(merged, n);
+			return n == 2 && bounds[0] == 0 && bounds[1] == BLOCK_SIZE;
+		}
+
+		synchronized boolean encloses(long begin, long end) {
+			int b = (int) (begin & (BLOCK_SIZE - 1));
+			int e = b + (int) (end - begin);
+			for (int i = 0; i < bounds.length; i += 2) {
+				if (bounds[i] <= b && e <= bounds[i + 1]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return <code>end</code>
+		 */
+		synchronized long addGaps(long begin, long end, Gaps gaps) {
+			long blockBegin = begin & ~(long) (BLOCK_SIZE - 1);
+			long pos = begin;
+			for (int i = 0; i < bounds.length && pos < end; i += 2) {
+				long populatedBegin = blockBegin + bounds[i];
+				long populatedEnd = blockBegin + bounds[i + 1];
+				if (populatedEnd <= pos) {
+					continue;
+				}
+				gaps.add(pos, Math.min(end, populatedBegin));
+				pos = Math.max(pos, populatedEnd);
+			}
+			gaps.add(pos, end);
+			return end;
+		}
+	}
+
+	private static class Gaps {
+
+		private final List<Range<Long>> ranges = new ArrayList<>();
+
+		void add(long begin, long end) {
+			if (begin >= end) {
+				return;
+			}
+			int last = ranges.size() - 1;
+			if (last >= 0 && ranges.get(last).upperEndpoint() == begin) {
+				ranges.set(last, Range.closedOpen(ranges.get(last).lowerEndpoint(), end));
+			} else {
+				ranges.add(Range.closedOpen(begin, end));
+			}
+		}
+	}
+
+}
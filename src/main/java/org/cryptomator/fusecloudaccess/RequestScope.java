@@ -0,0 +1,116 @@
+package org.cryptomator.fusecloudaccess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Collects the cloud requests started by a single FUSE operation, so they can be {@link #cancel() cancelled} if the
+ * operation exceeds its deadline or gets interrupted.
+ * <p>
+ * Requests are {@link #track(CompletionStage) tracked} by the {@link CancellableCloudProvider} if they are started on
+ * a thread with an open scope. Requests started later on a different thread, e.g. by a completion stage, are not
+ * tracked. Cancellation is best effort: Whether a cancelled request actually stops depends on the provider. Either way,
+ * stages depending on a cancelled request complete exceptionally.
+ * <p>
+ * Requests shared by multiple operations, such as the {@link OpenFile}'s hydration requests, are started
+ * {@link #untracked(Supplier) untracked}, so they aren't cancelled just because one of the waiting operations gives up.
+ * Instead, their owner cancels them once the last waiting operation has given up.
+ */
+class RequestScope implements AutoCloseable {
+
+	private static final ThreadLocal<RequestScope> CURRENT = new ThreadLocal<>();
+
+	private final RequestScope previous;
+	private final List<CompletableFuture<?>> requests = new ArrayList<>(); // guarded by this
+	private boolean cancelled; // guarded by this
+
+	private RequestScope(RequestScope previous) {
+		this.previous = previous;
+	}
+
+	/**
+	 * Opens a new scope for the current thread, which must be {@link #close() closed} by the same thread.
+	 *
+	 * @return The new scope
+	 */
+	public static RequestScope open() {
+		var scope = new RequestScope(CURRENT.get());
+		CURRENT.set(scope);
+		return scope;
+	}
+
+	/**
+	 * Adds the given request to the current thread's scope, if any.
+	 *
+	 * @param request A request which has just been started
+	 * @param <T>     The result type
+	 * @return <code>request</code>
+	 */
+	public static <T> CompletionStage<T> track(CompletionStage<T> request) {
+		var scope = CURRENT.get();
+		if (scope != null && request instanceof CompletableFuture) {
+			scope.add((CompletableFuture<?>) request);
+		}
+		return request;
+	}
+
+	/**
+	 * Starts a request that must not be cancelled along with the current thread's scope, e.g. because other operations
+	 * share its result.
+	 *
+	 * @param request Starts the request
+	 * @param <T>     The result type
+	 * @return The untracked request
+	 */
+	public static <T> CompletionStage<T> untracked(Supplier<CompletionStage<T>> request) {
+		var scope = CURRENT.get();
+		CURRENT.remove();
+		try {
+			return request.get();
+		} finally {
+			if (scope != null) {
+				CURRENT.set(scope);
+			}
+		}
+	}
+
+	private synchronized void add(CompletableFuture<?> request) {
+		if (cancelled) {
+			request.cancel(true);
+		} else {
+			requests.removeIf(CompletableFuture::isDone);
+			requests.add(request);
+		}
+	}
+
+	/**
+	 * Cancels all pending requests of this scope, as well as any requests added later on.
+	 *
+	 * @return The number of cancelled requests
+	 */
+	public synchronized int cancel() {
+		cancelled = true;
+		int count = 0;
+		for (var request : requests) {
+			if (request.cancel(true)) {
+				count++;
+			}
+		}
+		requests.clear();
+		return count;
+	}
+
+	@Override
+	public void close() {
+		assert CURRENT.get() == this : "scope closed by different thread or out of order";
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+
+}
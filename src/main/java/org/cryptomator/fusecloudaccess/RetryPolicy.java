@@ -0,0 +1,180 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import org.cryptomator.cloudaccess.api.exceptions.AlreadyExistsException;
+import org.cryptomator.cloudaccess.api.exceptions.CloudTimeoutException;
+import org.cryptomator.cloudaccess.api.exceptions.InsufficientStorageException;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
+import org.cryptomator.cloudaccess.api.exceptions.ParentFolderDoesNotExistException;
+import org.cryptomator.cloudaccess.api.exceptions.TypeMismatchException;
+import org.cryptomator.cloudaccess.api.exceptions.VaultVerificationFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Retries failed cloud operations using exponential backoff with full jitter.
+ * <p>
+ * Only {@link Failure#TIMEOUT timeouts} and {@link Failure#TRANSIENT transient} failures are retried. In addition
+ * to the number of attempts per operation, retries are limited by a budget shared by all operations: Each operation
+ * deposits a fraction of a retry, while each retry withdraws a whole one. This prevents retry storms if the cloud is
+ * unavailable for a longer time.
+ */
+@FileSystemScoped
+class RetryPolicy {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+	private static final int BUDGET_COST_PER_RETRY = 10; // budget is accounted in tenths of a retry
+	private static final int BUDGET_DEPOSIT_PER_OPERATION = 2; // each operation earns 0.2 retries
+	private static final int BUDGET_INITIAL_BALANCE = 10 * BUDGET_COST_PER_RETRY;
+	private static final int BUDGET_MAX_BALANCE = 100 * BUDGET_COST_PER_RETRY;
+
+	enum Failure {
+		/**
+		 * The operation timed out. It might or might not have been successful, so operations that fail when repeated
+		 * after succeeding, such as moves, need to check the cloud's state before retrying.
+		 */
+		TIMEOUT,
+
+		/**
+		 * The operation failed for an unknown reason, e.g. a network error or an unavailable service.
+		 */
+		TRANSIENT,
+
+		/**
+		 * The operation failed for a reason that won't go away by retrying it.
+		 */
+		PERMANENT
+	}
+
+	private final int maxAttempts;
+	private final Duration initialBackoff;
+	private final Duration maxBackoff;
+	private int budget = BUDGET_INITIAL_BALANCE; // guarded by this
+
+	@Inject
+	RetryPolicy(CloudAccessFSConfig config) {
+		this(config.getUploadRetryAttempts(), Duration.ofMillis(config.getUploadRetryInitialBackoffMillis()), Duration.ofMillis(config.getUploadRetryMaxBackoffMillis()));
+	}
+
+	/**
+	 * @param maxAttempts    Maximum number of attempts per operation (including the first one)
+	 * @param initialBackoff Upper bound of the delay before the first retry
+	 * @param maxBackoff     Upper bound of the delay before any retry
+	 */
+	RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+		Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+		Preconditions.checkArgument(!initialBackoff.isNegative() && initialBackoff.compareTo(maxBackoff) <= 0, "invalid backoff");
+		this.maxAttempts = maxAttempts;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Invokes the given operation until it succeeds, fails with a permanent error or no further retries are allowed.
+	 *
+	 * @param description Describes the operation for logging purposes
+	 * @param operation   The operation, which reports failures via {@link ExecutionException}
+	 * @param <T>         The operation's result type
+	 * @return The result of the first successful attempt
+	 * @throws ExecutionException   The failure of the last attempt
+	 * @throws InterruptedException If interrupted while waiting for the next attempt
+	 */
+	public <T> T execute(String description, Callable<T> operation) throws ExecutionException, InterruptedException {
+		deposit();
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return operation.call();
+			} catch (ExecutionException e) {
+				var failure = classify(e.getCause());
+				if (failure == Failure.PERMANENT) {
+					throw e;
+				} else if (attempt >= maxAttempts) {
+					LOG.warn("{} failed after {} attempts.", description, attempt);
+					throw e;
+				} else if (!withdraw()) {
+					LOG.warn("{} failed, retry budget exhausted.", description);
+					throw e;
+				}
+				var backoff = backoff(attempt);
+				LOG.info("{} failed ({}, attempt {}/{}). Retrying in {} ms.", description, failure, attempt, maxAttempts, backoff.toMillis(), e.getCause());
+				sleep(backoff);
+			} catch (InterruptedException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ExecutionException(e);
+			}
+		}
+	}
+
+	/**
+	 * @param attempt The number of the failed attempt, starting at 1
+	 * @return A random duration between zero and <code>min(maxBackoff, initialBackoff * 2^(attempt-1))</code>
+	 */
+	Duration backoff(int attempt) {
+		assert attempt > 0;
+		long cap = initialBackoff.toMillis() << Math.min(attempt - 1, 30);
+		if (cap < 0 || cap > maxBackoff.toMillis()) { // overflow or beyond max
+			cap = maxBackoff.toMillis();
+		}
+		return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+	}
+
+	void sleep(Duration duration) throws InterruptedException {
+		Thread.sleep(duration.toMillis());
+	}
+
+	/**
+	 * Determines the kind of failure by inspecting the whole causal chain of the given exception.
+	 *
+	 * @param e The reason of a failed attempt
+	 * @return The kind of failure
+	 */
+	static Failure classify(Throwable e) {
+		var chain = Throwables.getCausalChain(e);
+		if (chain.stream().anyMatch(RetryPolicy::isTimeout)) {
+			return Failure.TIMEOUT;
+		} else if (chain.stream().anyMatch(RetryPolicy::isPermanent)) {
+			return Failure.PERMANENT;
+		} else {
+			return Failure.TRANSIENT;
+		}
+	}
+
+	private static boolean isTimeout(Throwable e) {
+		return e instanceof CloudTimeoutException //
+				|| e instanceof TimeoutException //
+				|| e instanceof SocketTimeoutException;
+	}
+
+	private static boolean isPermanent(Throwable e) {
+		return e instanceof NotFoundException //
+				|| e instanceof AlreadyExistsException //
+				|| e instanceof TypeMismatchException //
+				|| e instanceof ParentFolderDoesNotExistException //
+				|| e instanceof InsufficientStorageException //
+				|| e instanceof VaultVerificationFailedException;
+	}
+
+	private synchronized void deposit() {
+		budget = Math.min(BUDGET_MAX_BALANCE, budget + BUDGET_DEPOSIT_PER_OPERATION);
+	}
+
+	private synchronized boolean withdraw() {
+		if (budget >= BUDGET_COST_PER_RETRY) {
+			budget -= BUDGET_COST_PER_RETRY;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+}
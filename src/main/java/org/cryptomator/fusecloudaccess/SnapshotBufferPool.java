@@ -0,0 +1,79 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+
+import javax.inject.Inject;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles buffers used to hold {@link OpenFileSnapshot#moveToMemory(SnapshotBufferPool) in-memory snapshots} of small
+ * files. All buffers have the same size, which is the maximum size of a file eligible for an in-memory snapshot.
+ */
+@FileSystemScoped
+class SnapshotBufferPool {
+
+	private final int bufferSize;
+	private final int maxPooledBuffers;
+	private final Queue<byte[]> pooled = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledCount = new AtomicInteger();
+
+	@Inject
+	SnapshotBufferPool(CloudAccessFSConfig config) {
+		this(config.getInMemorySnapshotThresholdBytes(), config.getInMemorySnapshotPoolSize());
+	}
+
+	/**
+	 * @param bufferSize       Size of each buffer. <code>0</code> disables in-memory snapshots.
+	 * @param maxPooledBuffers Maximum number of unused buffers kept for reuse
+	 */
+	SnapshotBufferPool(int bufferSize, int maxPooledBuffers) {
+		Preconditions.checkArgument(bufferSize >= 0, "bufferSize must not be negative");
+		Preconditions.checkArgument(maxPooledBuffers >= 0, "maxPooledBuffers must not be negative");
+		this.bufferSize = bufferSize;
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	/**
+	 * @param size Size of a file
+	 * @return Whether a snapshot of the given size fits into a buffer of this pool
+	 */
+	public boolean fits(long size) {
+		return bufferSize > 0 && size <= bufferSize;
+	}
+
+	/**
+	 * @return A pooled buffer or a new one, if none is available
+	 */
+	public byte[] acquire() {
+		Preconditions.checkState(bufferSize > 0, "In-memory snapshots disabled");
+		var buffer = pooled.poll();
+		if (buffer == null) {
+			return new byte[bufferSize];
+		} else {
+			pooledCount.decrementAndGet();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used afterwards.
+	 *
+	 * @param buffer A buffer previously {@link #acquire() acquired} from this pool
+	 */
+	public void release(byte[] buffer) {
+		Preconditions.checkArgument(buffer.length == bufferSize, "Buffer not from this pool");
+		if (pooledCount.incrementAndGet() <= maxPooledBuffers) {
+			pooled.offer(buffer);
+		} else {
+			pooledCount.decrementAndGet(); // leave it to the GC
+		}
+	}
+
+	// visible for testing
+	int getPooledCount() {
+		return pooledCount.get();
+	}
+
+}
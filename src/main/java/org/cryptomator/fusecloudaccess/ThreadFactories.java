@@ -0,0 +1,83 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates threads for stages that mostly block on I/O, optionally using virtual threads.
+ * <p>
+ * Virtual threads require Java 21. As this library is compiled for Java 17, they are looked up reflectively. If they
+ * are not available at runtime, platform threads are used instead.
+ */
+final class ThreadFactories {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ThreadFactories.class);
+	private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+	private ThreadFactories() {
+	}
+
+	/**
+	 * @param name    Name of the threads, suffixed by a sequence number
+	 * @param virtual Whether to create virtual threads, if supported by the runtime
+	 * @return A thread factory
+	 */
+	public static ThreadFactory create(String name, boolean virtual) {
+		if (virtual) {
+			var factory = virtualThreadFactory(name + "-");
+			if (factory.isPresent()) {
+				return factory.get();
+			}
+			LOG.warn("Virtual threads not supported by this runtime, using platform threads for {}", name);
+		}
+		return new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+	}
+
+	/**
+	 * Creates an executor for short-lived tasks that block on I/O. Virtual threads are started per task, while the number
+	 * of platform threads is limited, queueing further tasks. Callers are responsible for limiting the number of
+	 * concurrent tasks beyond that, if required.
+	 *
+	 * @param name               Name of the threads, suffixed by a sequence number
+	 * @param virtual            Whether to start a virtual thread per task, if supported by the runtime
+	 * @param maxPlatformThreads Maximum number of platform threads, if virtual threads are not used
+	 * @return An executor, which does not need to be shut down
+	 */
+	public static Executor newBlockingExecutor(String name, boolean virtual, int maxPlatformThreads) {
+		Preconditions.checkArgument(maxPlatformThreads > 0, "maxPlatformThreads must be positive");
+		if (virtual) {
+			var factory = virtualThreadFactory(name + "-");
+			if (factory.isPresent()) {
+				var threadFactory = factory.get();
+				return command -> threadFactory.newThread(command).start();
+			}
+			LOG.warn("Virtual threads not supported by this runtime, using platform threads for {}", name);
+		}
+		var threadFactory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build();
+		var executor = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true); // don't keep idle threads
+		return executor;
+	}
+
+	// visible for testing
+	static Optional<ThreadFactory> virtualThreadFactory(String namePrefix) {
+		try {
+			var builderClass = Class.forName("java.lang.Thread$Builder");
+			var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0l);
+			return Optional.of((ThreadFactory) builderClass.getMethod("factory").invoke(builder));
+		} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			return Optional.empty();
+		}
+	}
+
+}
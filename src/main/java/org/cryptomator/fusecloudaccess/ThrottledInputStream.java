@@ -0,0 +1,57 @@
+package org.cryptomator.fusecloudaccess;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Accounts for all bytes read from the underlying stream at the given {@link BandwidthLimiter limiters}.
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+	private static final int MAX_CHUNK_SIZE = 64 * 1024; // bounds the delay of a single read
+
+	private final List<BandwidthLimiter> limiters;
+	private final boolean wait;
+
+	/**
+	 * @param in       The underlying stream
+	 * @param limiters The limiters to account for the data read from <code>in</code>
+	 * @param wait     Whether to {@link BandwidthLimiter#acquire(int) wait} for each limiter or just {@link BandwidthLimiter#consume(int) consume} their bandwidth
+	 */
+	ThrottledInputStream(InputStream in, List<BandwidthLimiter> limiters, boolean wait) {
+		super(in);
+		this.limiters = limiters;
+		this.wait = wait;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b != -1) {
+			throttle(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, Math.min(len, MAX_CHUNK_SIZE));
+		if (n > 0) {
+			throttle(n);
+		}
+		return n;
+	}
+
+	private void throttle(int bytes) throws IOException {
+		for (var limiter : limiters) {
+			if (wait) {
+				limiter.acquire(bytes);
+			} else {
+				limiter.consume(bytes);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel, tracking a deadline per key. Scheduling, rescheduling and cancelling a deadline take constant
+ * time and don't create any tasks on the scheduler. Instead, the wheel is {@link #advance() advanced} periodically,
+ * handing all keys whose deadline has passed to the expiry handler in one batch.
+ * <p>
+ * Deadlines are rounded up to the next tick, so keys expire up to one tick late, but never early.
+ *
+ * @param <K> Type of the keys, compared by {@link Object#equals(Object) equality}
+ */
+class TimingWheel<K> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+
+	private final long tickNanos;
+	private final Node<K>[] buckets; // sentinels of circular lists, guarded by this
+	private final Map<K, Node<K>> nodes = new HashMap<>(); // guarded by this
+	private final Ticker ticker;
+	private final Consumer<? super K> onExpiry;
+	private final long startNanos;
+	private long currentTick; // last processed tick, guarded by this
+
+	/**
+	 * @param wheelSize    Number of buckets. Deadlines further away than <code>wheelSize</code> ticks are checked once per revolution.
+	 * @param tickDuration Resolution of deadlines
+	 * @param unit         Unit of <code>tickDuration</code>
+	 * @param ticker       Time source
+	 * @param onExpiry     Invoked with each key whose deadline has passed, without holding any lock of this wheel
+	 */
+	TimingWheel(int wheelSize, long tickDuration, TimeUnit unit, Ticker ticker, Consumer<? super K> onExpiry) {
+		Preconditions.checkArgument(wheelSize > 0, "wheelSize must be positive");
+		Preconditions.checkArgument(tickDuration > 0, "tickDuration must be positive");
+		this.tickNanos = unit.toNanos(tickDuration);
+		@SuppressWarnings("unchecked") var buckets = (Node<K>[]) new Node<?>[wheelSize];
+		this.buckets = buckets;
+		for (int i = 0; i < wheelSize; i++) {
+			buckets[i] = Node.sentinel();
+		}
+		this.ticker = ticker;
+		this.onExpiry = onExpiry;
+		this.startNanos = ticker.read();
+	}
+
+	/**
+	 * Advances this wheel once per tick, until the given scheduler is shut down.
+	 *
+	 * @param scheduler The scheduler running the expiry handler
+	 */
+	public void start(ScheduledExecutorService scheduler) {
+		scheduler.scheduleWithFixedDelay(this::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sets the deadline of the given key, replacing its previous deadline, if any.
+	 *
+	 * @param key   The key
+	 * @param delay Time from now until the key expires
+	 * @param unit  Unit of <code>delay</code>
+	 */
+	public synchronized void schedule(K key, long delay, TimeUnit unit) {
+		long deadlineNanos = ticker.read() - startNanos + unit.toNanos(delay);
+		long deadlineTick = Math.max(currentTick + 1, Math.floorDiv(deadlineNanos + tickNanos - 1, tickNanos));
+		var node = nodes.computeIfAbsent(key, Node::new);
+		node.unlink();
+		node.deadlineTick = deadlineTick;
+		node.linkBefore(buckets[(int) (deadlineTick % buckets.length)]);
+	}
+
+	/**
+	 * Removes the deadline of the given key.
+	 *
+	 * @param key The key
+	 * @return <code>true</code> if the key had a deadline, which has not yet passed
+	 */
+	public synchronized boolean cancel(K key) {
+		var node = nodes.remove(key);
+		if (node == null) {
+			return false;
+		}
+		node.unlink();
+		return true;
+	}
+
+	/**
+	 * Hands all keys whose deadline has passed to the expiry handler.
+	 *
+	 * @return The number of expired keys
+	 */
+	public int advance() {
+		var expired = new ArrayList<K>();
+		synchronized (this) {
+			long nowTick = Math.floorDiv(ticker.read() - startNanos, tickNanos);
+			long elapsedTicks = Math.min(nowTick - currentTick, buckets.length); // a full revolution visits each bucket
+			for (long i = 1; i <= elapsedTicks; i++) {
+				var sentinel = buckets[(int) ((currentTick + i) % buckets.length)];
+				for (var node = sentinel.next; node != sentinel; ) {
+					var next = node.next;
+					if (node.deadlineTick <= nowTick) {
+						node.unlink();
+						nodes.remove(node.key);
+						expired.add(node.key);
+					}
+					node = next;
+				}
+			}
+			currentTick = Math.max(currentTick, nowTick);
+		}
+		for (var key : expired) {
+			try {
+				onExpiry.accept(key);
+			} catch (RuntimeException e) {
+				LOG.error("Failed to handle expiry of " + key, e);
+			}
+		}
+		return expired.size();
+	}
+
+	/**
+	 * @return Number of keys with a pending deadline
+	 */
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	private static class Node<K> {
+
+		final K key;
+		long deadlineTick;
+		Node<K> prev = this;
+		Node<K> next = this;
+
+		Node(K key) {
+			this.key = key;
+		}
+
+		static <K> Node<K> sentinel() {
+			return new Node<>(null);
+		}
+
+		void linkBefore(Node<K> successor) {
+			prev = successor.prev;
+			next = successor;
+			prev.next = this;
+			successor.prev = this;
+		}
+
+		void unlink() {
+			prev.next = next;
+			next.prev = prev;
+			prev = this;
+			next = this;
+		}
+	}
+
+}
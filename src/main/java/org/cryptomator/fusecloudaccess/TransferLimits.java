@@ -0,0 +1,92 @@
+package org.cryptomator.fusecloudaccess;
+
+import javax.inject.Inject;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Bandwidth limits applied to data transferred from and to the cloud.
+ * <p>
+ * Each transfer is subject to both, the limits of its file system and the global limits shared by all file systems
+ * within the JVM. All limits are unlimited by default and can be changed at runtime.
+ * <p>
+ * Reads required to answer a file system request are never delayed. Instead, the bandwidth they use is accounted for,
+ * slowing down background transfers like uploads.
+ */
+@FileSystemScoped
+public class TransferLimits {
+
+	private static final BandwidthLimiter GLOBAL_UPLOAD = new BandwidthLimiter(Long.getLong("org.cryptomator.fusecloudaccess.globalUploadBytesPerSecond", 0));
+	private static final BandwidthLimiter GLOBAL_DOWNLOAD = new BandwidthLimiter(Long.getLong("org.cryptomator.fusecloudaccess.globalDownloadBytesPerSecond", 0));
+
+	private final BandwidthLimiter upload;
+	private final BandwidthLimiter download;
+	private final BandwidthLimiter globalUpload;
+	private final BandwidthLimiter globalDownload;
+
+	@Inject
+	TransferLimits(CloudAccessFSConfig config) {
+		this(new BandwidthLimiter(config.getUploadBytesPerSecond()), new BandwidthLimiter(config.getDownloadBytesPerSecond()), GLOBAL_UPLOAD, GLOBAL_DOWNLOAD);
+	}
+
+	// visible for testing
+	TransferLimits(BandwidthLimiter upload, BandwidthLimiter download, BandwidthLimiter globalUpload, BandwidthLimiter globalDownload) {
+		this.upload = upload;
+		this.download = download;
+		this.globalUpload = globalUpload;
+		this.globalDownload = globalDownload;
+	}
+
+	/**
+	 * @return Limits uploads of this file system
+	 */
+	public BandwidthLimiter getUploadLimiter() {
+		return upload;
+	}
+
+	/**
+	 * @return Limits downloads of this file system
+	 */
+	public BandwidthLimiter getDownloadLimiter() {
+		return download;
+	}
+
+	/**
+	 * @return Limits uploads of all file systems
+	 */
+	public static BandwidthLimiter getGlobalUploadLimiter() {
+		return GLOBAL_UPLOAD;
+	}
+
+	/**
+	 * @return Limits downloads of all file systems
+	 */
+	public static BandwidthLimiter getGlobalDownloadLimiter() {
+		return GLOBAL_DOWNLOAD;
+	}
+
+	/**
+	 * @param in Data to be uploaded
+	 * @return A stream delivering the data no faster than permitted by the upload limits
+	 */
+	InputStream throttleUpload(InputStream in) {
+		return new ThrottledInputStream(in, List.of(upload, globalUpload), true);
+	}
+
+	/**
+	 * @param in Data downloaded in the background, i.e. not required to answer a file system request
+	 * @return A stream delivering the data no faster than permitted by the download limits
+	 */
+	InputStream throttleDownload(InputStream in) {
+		return new ThrottledInputStream(in, List.of(download, globalDownload), true);
+	}
+
+	/**
+	 * @param in Data downloaded to answer a file system request
+	 * @return A stream delivering the data without delay, but accounting for it at the download limits
+	 */
+	InputStream meterDownload(InputStream in) {
+		return new ThrottledInputStream(in, List.of(download, globalDownload), false);
+	}
+
+}
@@ -0,0 +1,166 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delays uploads of modified files until they haven't been reopened for a quiet period, so that files repeatedly
+ * opened, modified and closed within a short time (e.g. by editors saving automatically) get uploaded only once.
+ * <p>
+ * If adaptive, the quiet period of a file doubles each time it gets reopened within its quiet period and halves
+ * each time the quiet period elapses. Regardless of the quiet period, an upload is never delayed beyond a maximum
+ * delay after it has been deferred for the first time.
+ */
+@FileSystemScoped
+public class UploadDebouncer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UploadDebouncer.class);
+
+	private final ScheduledExecutorService scheduler;
+	private final long quietPeriodMillis;
+	private final long maxDelayMillis;
+	private final boolean adaptive;
+	private final Ticker ticker;
+	private final Map<OpenFile, Deferral> deferrals = new HashMap<>(); // guarded by this
+	private final LongAdder deferredUploads = new LongAdder();
+	private final LongAdder avoidedUploads = new LongAdder();
+
+	@Inject
+	UploadDebouncer(ScheduledExecutorService scheduler, CloudAccessFSConfig config) {
+		this(scheduler, config.getUploadQuietPeriodMillis(), config.getUploadMaxDelayMillis(), config.isUploadQuietPeriodAdaptive(), Ticker.systemTicker());
+	}
+
+	// visible for testing
+	UploadDebouncer(ScheduledExecutorService scheduler, long quietPeriodMillis, long maxDelayMillis, boolean adaptive, Ticker ticker) {
+		this.scheduler = scheduler;
+		this.quietPeriodMillis = quietPeriodMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.adaptive = adaptive;
+		this.ticker = ticker;
+	}
+
+	/**
+	 * @return Number of uploads that have been deferred
+	 */
+	public long getDeferredUploads() {
+		return deferredUploads.sum();
+	}
+
+	/**
+	 * @return Number of deferred uploads that have been made obsolete by reopening the file during its quiet period
+	 */
+	public long getAvoidedUploads() {
+		return avoidedUploads.sum();
+	}
+
+	/**
+	 * Defers the upload of the given file, unless debouncing is disabled or the upload has already been deferred for
+	 * the maximum delay.
+	 *
+	 * @param file   A file that needs to be uploaded
+	 * @param upload Starts the upload. Invoked by the scheduler thread after the quiet period.
+	 * @return <code>true</code> if the upload has been deferred, <code>false</code> if it needs to be started immediately
+	 */
+	public synchronized boolean defer(OpenFile file, Runnable upload) {
+		if (quietPeriodMillis <= 0) {
+			return false;
+		}
+		var deferral = deferrals.computeIfAbsent(file, f -> new Deferral(quietPeriodMillis));
+		long now = ticker.read();
+		if (deferral.firstDeferred == 0) {
+			deferral.firstDeferred = now;
+		}
+		long remainingMillis = maxDelayMillis - TimeUnit.NANOSECONDS.toMillis(now - deferral.firstDeferred);
+		if (remainingMillis <= 0) {
+			LOG.debug("Upload of {} deferred for {} ms already, not deferring it any further.", file.getPath(), maxDelayMillis);
+			deferral.firstDeferred = 0;
+			return false;
+		}
+		long delay = Math.min(deferral.quietPeriodMillis, remainingMillis);
+		deferral.upload = upload;
+		deferral.pending = scheduler.schedule(() -> quietPeriodElapsed(deferral, upload), delay, TimeUnit.MILLISECONDS);
+		deferredUploads.increment();
+		LOG.trace("Deferred upload of {} by {} ms", file.getPath(), delay);
+		return true;
+	}
+
+	/**
+	 * Cancels a deferred upload (if any), e.g. because the file has been reopened.
+	 *
+	 * @param file The file
+	 */
+	public synchronized void cancel(OpenFile file) {
+		var deferral = deferrals.get(file);
+		if (deferral != null && deferral.pending != null && deferral.pending.cancel(false)) {
+			deferral.pending = null;
+			avoidedUploads.increment();
+			if (adaptive) {
+				deferral.quietPeriodMillis = Math.min(deferral.quietPeriodMillis * 2, maxDelayMillis);
+			}
+			LOG.trace("Cancelled deferred upload of {}", file.getPath());
+		}
+	}
+
+	/**
+	 * Discards any state of the given file. Must be invoked when closing the file.
+	 *
+	 * @param file The file
+	 */
+	public synchronized void forget(OpenFile file) {
+		var deferral = deferrals.remove(file);
+		if (deferral != null && deferral.pending != null) {
+			deferral.pending.cancel(false);
+		}
+	}
+
+	/**
+	 * Starts all deferred uploads immediately, e.g. before unmounting.
+	 */
+	public void flush() {
+		var uploads = new ArrayList<Runnable>();
+		synchronized (this) {
+			for (var deferral : deferrals.values()) {
+				if (deferral.pending != null && deferral.pending.cancel(false)) {
+					deferral.pending = null;
+					deferral.firstDeferred = 0;
+					uploads.add(deferral.upload);
+				}
+			}
+		}
+		uploads.forEach(Runnable::run);
+	}
+
+	private void quietPeriodElapsed(Deferral deferral, Runnable upload) {
+		synchronized (this) {
+			deferral.pending = null;
+			deferral.firstDeferred = 0;
+			if (adaptive) {
+				deferral.quietPeriodMillis = Math.max(deferral.quietPeriodMillis / 2, quietPeriodMillis);
+			}
+		}
+		upload.run();
+	}
+
+	private static class Deferral {
+
+		private long quietPeriodMillis;
+		private long firstDeferred; // ticker value when the upload has been deferred first, 0 if not deferred
+		private ScheduledFuture<?> pending;
+		private Runnable upload;
+
+		private Deferral(long quietPeriodMillis) {
+			this.quietPeriodMillis = quietPeriodMillis;
+		}
+	}
+
+}
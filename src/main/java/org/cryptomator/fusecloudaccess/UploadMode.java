@@ -0,0 +1,25 @@
+package org.cryptomator.fusecloudaccess;
+
+/**
+ * Determines how the contents of a file are stored in the cloud.
+ */
+public enum UploadMode {
+
+	/**
+	 * Files are written to the {@link CloudAccessFSConfig#getUploadDir() upload dir} first and then moved to their
+	 * final location. The file at its final location is replaced in a single step, even if the provider's writes are
+	 * not atomic. Requires two remote operations per upload.
+	 */
+	TEMP_AND_MOVE,
+
+	/**
+	 * Files are written directly to their final location, saving one remote operation per upload. Only suitable for
+	 * providers whose writes are atomic on their own, e.g. object stores, since a failed write may leave a partial file
+	 * behind otherwise. The file can't be moved or deleted during the upload.
+	 * <p>
+	 * Files that are not fully cached locally are still uploaded {@link #TEMP_AND_MOVE via the upload dir}, since their
+	 * missing contents are read from the very file that would be overwritten.
+	 */
+	DIRECT
+
+}
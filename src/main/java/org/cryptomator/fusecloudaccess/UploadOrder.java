@@ -0,0 +1,43 @@
+package org.cryptomator.fusecloudaccess;
+
+import java.util.Comparator;
+
+/**
+ * Determines which of the queued uploads gets started next by the {@link UploadScheduler}.
+ * Uploads explicitly {@link UploadScheduler#prioritize(org.cryptomator.cloudaccess.api.CloudPath) prioritized}
+ * always take precedence.
+ */
+public enum UploadOrder {
+
+	/**
+	 * Uploads are started in the order they have been scheduled.
+	 */
+	FIFO(Comparator.comparingLong(UploadScheduler.QueuedUpload::getSequence)),
+
+	/**
+	 * Small files are uploaded first, so that as many files as possible become available in the cloud quickly.
+	 */
+	SMALL_FILES_FIRST(Comparator.comparingLong(UploadScheduler.QueuedUpload::getSize).thenComparingLong(UploadScheduler.QueuedUpload::getSequence)),
+
+	/**
+	 * Files with the oldest last modified date are uploaded first, limiting the time data stays local only.
+	 */
+	OLDEST_MODIFIED_FIRST(Comparator.comparing(UploadScheduler.QueuedUpload::getLastModified).thenComparingLong(UploadScheduler.QueuedUpload::getSequence)),
+
+	/**
+	 * Uploads are interleaved round-robin between directories, so a directory containing many files doesn't delay
+	 * uploads in other directories.
+	 */
+	DIRECTORY_FAIR(Comparator.comparingInt(UploadScheduler.QueuedUpload::getRound).thenComparingLong(UploadScheduler.QueuedUpload::getSequence));
+
+	private final Comparator<UploadScheduler.QueuedUpload> comparator;
+
+	UploadOrder(Comparator<UploadScheduler.QueuedUpload> comparator) {
+		this.comparator = comparator;
+	}
+
+	Comparator<UploadScheduler.QueuedUpload> comparator() {
+		return comparator;
+	}
+
+}
@@ -0,0 +1,192 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Runs uploads on a bounded number of threads. Uploads exceeding this limit are queued and started in the configured
+ * {@link UploadOrder}, unless they have been {@link #prioritize(CloudPath) prioritized}.
+ */
+class UploadScheduler extends ThreadPoolExecutor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UploadScheduler.class);
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder().setNameFormat("upload-%d").build();
+	private static final long KEEP_ALIVE_SECONDS = 60;
+	private static final int INITIAL_QUEUE_CAPACITY = 11;
+
+	private final Comparator<QueuedUpload> comparator;
+	private final AtomicLong sequence = new AtomicLong();
+	private final ConcurrentMap<String, Integer> pendingPerDirectory = new ConcurrentHashMap<>();
+
+	/**
+	 * @param concurrency Maximum number of uploads running in parallel
+	 * @param order       Order in which queued uploads are started
+	 */
+	UploadScheduler(int concurrency, UploadOrder order) {
+		this(concurrency, withPrioritizedFirst(order.comparator()));
+	}
+
+	private UploadScheduler(int concurrency, Comparator<QueuedUpload> comparator) {
+		super(concurrency, concurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>(INITIAL_QUEUE_CAPACITY, (r1, r2) -> comparator.compare((QueuedUpload) r1, (QueuedUpload) r2)), THREAD_FACTORY);
+		this.comparator = comparator;
+		allowCoreThreadTimeOut(true);
+	}
+
+	private static Comparator<QueuedUpload> withPrioritizedFirst(Comparator<QueuedUpload> order) {
+		return Comparator.comparing((QueuedUpload upload) -> !upload.isPrioritized()).thenComparing(order);
+	}
+
+	/**
+	 * Submits an upload of the given file.
+	 *
+	 * @param file   The file to be uploaded, used to determine the upload's position in the queue
+	 * @param upload The actual upload task
+	 * @return A future representing the pending upload
+	 */
+	public Future<Void> submitUpload(OpenFile file, Callable<Void> upload) {
+		var task = new QueuedUpload(upload, file::getPath, file.getSize(), file.getLastModified());
+		execute(task);
+		return task;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		QueuedUpload task;
+		if (command instanceof QueuedUpload) {
+			task = (QueuedUpload) command;
+		} else { // any other task is treated like an upload of an empty file
+			task = new QueuedUpload(Executors.callable(command, null), () -> null, 0l, Instant.MIN);
+		}
+		try {
+			super.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.cancel(false); // make sure the task is done
+			throw e;
+		}
+	}
+
+	/**
+	 * Moves a queued upload of the given file to the front of the queue. No-op if there is no such upload or it is
+	 * already running.
+	 *
+	 * @param path The current path of the file
+	 * @return <code>true</code> if a queued upload has been prioritized
+	 */
+	public synchronized boolean prioritize(CloudPath path) {
+		var queued = getQueue().stream().map(QueuedUpload.class::cast).filter(task -> path.equals(task.getPath())).findAny();
+		if (queued.isPresent() && getQueue().remove(queued.get())) { // priority must not change while queued
+			queued.get().prioritized = true;
+			getQueue().add(queued.get());
+			LOG.debug("Prioritized upload of {}", path);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * @return The paths of all queued (i.e. not yet started) uploads in the order they will be started
+	 */
+	public List<CloudPath> getQueuedUploads() {
+		return getQueue().stream() //
+				.map(QueuedUpload.class::cast) //
+				.filter(task -> !task.isCancelled()) //
+				.sorted(comparator) //
+				.map(QueuedUpload::getPath) //
+				.collect(Collectors.toList());
+	}
+
+	private int enter(String directory) {
+		return pendingPerDirectory.merge(directory, 1, Integer::sum) - 1;
+	}
+
+	private void leave(String directory) {
+		pendingPerDirectory.computeIfPresent(directory, (dir, count) -> count > 1 ? count - 1 : null);
+	}
+
+	class QueuedUpload extends FutureTask<Void> {
+
+		private final Supplier<CloudPath> path;
+		private final long size;
+		private final Instant lastModified;
+		private final long sequence;
+		private final String directory;
+		private final int round;
+		private volatile boolean prioritized;
+
+		private QueuedUpload(Callable<Void> callable, Supplier<CloudPath> path, long size, Instant lastModified) {
+			super(callable);
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.sequence = UploadScheduler.this.sequence.getAndIncrement();
+			var initialPath = path.get();
+			this.directory = initialPath == null ? "" : String.valueOf(initialPath.getParent());
+			this.round = enter(directory);
+		}
+
+		@Override
+		protected void done() {
+			leave(directory);
+		}
+
+		CloudPath getPath() {
+			return path.get();
+		}
+
+		long getSize() {
+			return size;
+		}
+
+		Instant getLastModified() {
+			return lastModified;
+		}
+
+		long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return The number of unfinished uploads from the same directory at the time this upload has been submitted
+		 */
+		int getRound() {
+			return round;
+		}
+
+		boolean isPrioritized() {
+			return prioritized;
+		}
+
+		@Override
+		public String toString() {
+			return MoreObjects.toStringHelper(this) //
+					.add("path", getPath()) //
+					.add("size", size) //
+					.add("sequence", sequence) //
+					.add("prioritized", prioritized) //
+					.toString();
+		}
+	}
+
+}
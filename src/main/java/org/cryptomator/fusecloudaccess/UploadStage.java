@@ -0,0 +1,106 @@
+package org.cryptomator.fusecloudaccess;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stage of the upload pipeline, running a bounded number of tasks in parallel. If the stage is busy and its queue is
+ * full, {@link #submit(Callable, Runnable) submitting} further tasks blocks, slowing down the previous stage.
+ */
+class UploadStage {
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private final ThreadPoolExecutor executor;
+	private final Semaphore capacity;
+
+	/**
+	 * @param name          Name of the stage, used for naming its threads
+	 * @param concurrency   Maximum number of tasks running in parallel
+	 * @param queueCapacity Maximum number of tasks waiting to be started
+	 */
+	UploadStage(String name, int concurrency, int queueCapacity) {
+		this(ThreadFactories.create(name, false), concurrency, queueCapacity);
+	}
+
+	/**
+	 * @param threadFactory Factory of the stage's threads, which may be virtual, as the stage limits concurrency itself
+	 * @param concurrency   Maximum number of tasks running in parallel
+	 * @param queueCapacity Maximum number of tasks waiting to be started
+	 */
+	UploadStage(ThreadFactory threadFactory, int concurrency, int queueCapacity) {
+		this.executor = new ThreadPoolExecutor(concurrency, concurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		this.executor.allowCoreThreadTimeOut(true);
+		this.capacity = new Semaphore(concurrency + queueCapacity);
+	}
+
+	/**
+	 * Submits a task, waiting for the stage to accept it if necessary.
+	 *
+	 * @param task        The task
+	 * @param onCancelled Invoked if the task is cancelled, regardless of whether it has already been started
+	 * @return A future representing the pending task
+	 * @throws InterruptedException       If interrupted while waiting for the stage to accept the task
+	 * @throws RejectedExecutionException If the stage has been shut down
+	 */
+	public Future<Void> submit(Callable<Void> task, Runnable onCancelled) throws InterruptedException {
+		capacity.acquire();
+		return execute(task, onCancelled);
+	}
+
+	/**
+	 * Submits a task, unless the stage is busy and its queue is full.
+	 *
+	 * @param task        The task
+	 * @param onCancelled Invoked if the task is cancelled, regardless of whether it has already been started
+	 * @return A future representing the pending task or an empty Optional if the stage didn't accept the task
+	 * @throws RejectedExecutionException If the stage has been shut down
+	 */
+	public Optional<Future<Void>> trySubmit(Callable<Void> task, Runnable onCancelled) {
+		if (capacity.tryAcquire()) {
+			return Optional.of(execute(task, onCancelled));
+		} else {
+			return Optional.empty();
+		}
+	}
+
+	private Future<Void> execute(Callable<Void> task, Runnable onCancelled) {
+		var future = new FutureTask<>(task) {
+			@Override
+			protected void done() {
+				capacity.release();
+				if (isCancelled()) {
+					onCancelled.run();
+				}
+			}
+		};
+		try {
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			capacity.release();
+			throw e;
+		}
+		return future;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	public boolean isTerminated() {
+		return executor.isTerminated();
+	}
+
+}
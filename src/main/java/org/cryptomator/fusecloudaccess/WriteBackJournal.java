@@ -0,0 +1,327 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Keeps track of files that need to be uploaded on disk, so pending uploads survive a crash of the application.
+ * <p>
+ * For each file scheduled for upload, a small record is stored in the {@value #JOURNAL_DIR} directory inside of the
+ * cache dir. It contains the file's cloud path and where to find its contents. The record is written atomically after
+ * the cache file has been synced to disk and is removed once the file no longer needs to be uploaded. When mounting,
+ * all remaining records are {@link #load() loaded} to resume their uploads.
+ * <p>
+ * Syncing is slow, so records of files that have just been closed are {@link #recordLater(OpenFile) written} by a
+ * background thread. Multiple requests to record the same file coalesce into a single write.
+ */
+@FileSystemScoped
+class WriteBackJournal {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WriteBackJournal.class);
+	static final String JOURNAL_DIR = "journal";
+	private static final String RECORD_SUFFIX = ".pending";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final String KEY_PATH = "path";
+	private static final String KEY_CACHE_FILE = "cacheFile";
+	private static final String KEY_SIZE = "size";
+	private static final String KEY_LAST_MODIFIED = "lastModified";
+	private static final String KEY_MISSING_RANGES = "missingRanges";
+
+	private final Path cacheDir;
+	private final Path journalDir;
+	private final ExecutorService executor;
+	private final Set<OpenFile> queued = ConcurrentHashMap.newKeySet();
+
+	@Inject
+	WriteBackJournal(CloudAccessFSConfig config) {
+		this.cacheDir = config.getCacheDir();
+		this.journalDir = cacheDir.resolve(JOURNAL_DIR);
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("journal-%d").build());
+	}
+
+	/**
+	 * Like {@link #record(OpenFile)}, but returns immediately and writes the record in the background. Failures are
+	 * logged. No-op if the file is already waiting to be recorded.
+	 *
+	 * @param file A file that is scheduled for upload
+	 */
+	public void recordLater(OpenFile file) {
+		if (queued.add(file)) {
+			try {
+				executor.execute(() -> {
+					queued.remove(file); // before reading the file's state, so later changes get recorded again
+					tryRecord(file);
+				});
+			} catch (RejectedExecutionException e) { // flushed already
+				queued.remove(file);
+				tryRecord(file);
+			}
+		}
+	}
+
+	private void tryRecord(OpenFile file) {
+		try {
+			record(file);
+		} catch (IOException e) {
+			LOG.warn("Failed to journal pending upload of " + file.getPath() + ". Upload will not be resumed after a crash.", e);
+		}
+	}
+
+	/**
+	 * Writes all records requested via {@link #recordLater(OpenFile)} and stops the background thread. Subsequent
+	 * requests are recorded synchronously.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for records to be written
+	 */
+	public void flush() throws InterruptedException {
+		executor.shutdown();
+		while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+			LOG.debug("Still writing journal records...");
+		}
+	}
+
+	/**
+	 * Persists the given file and records it as pending upload. Overwrites any previous record of the same file.
+	 * <p>
+	 * This involves syncing files to disk, so it should not be invoked while holding locks. If the file is no longer
+	 * pending, because its upload finished or it has been closed in the meantime, no record is written. Therefore
+	 * callers must update the file's state or close it <em>before</em> {@link #remove(OpenFile) removing} its record.
+	 *
+	 * @param file A file that is scheduled for upload
+	 * @throws IOException If either the file or the record could not be written to disk
+	 */
+	public void record(OpenFile file) throws IOException {
+		if (file.getCacheFile() == null || !isPending(file)) {
+			return; // nothing to recover
+		}
+		file.force();
+		synchronized (this) {
+			if (!isPending(file)) {
+				return; // record would never be removed
+			}
+			var record = new Record(file.getPath(), file.getCacheFile().getFileName().toString(), file.getSize(), file.getLastModified(), file.getMissingRanges());
+			write(record);
+			LOG.trace("Recorded pending upload {}", record);
+		}
+	}
+
+	private static boolean isPending(OpenFile file) {
+		return file.isOpen() && file.getState() != OpenFile.State.UNMODIFIED;
+	}
+
+	/**
+	 * Updates the path of an existing record, e.g. after the file has been moved. No-op if there is no record of the given file.
+	 *
+	 * @param file A file that may or may not be recorded
+	 * @throws IOException If the record could not be written to disk
+	 */
+	public synchronized void relocate(OpenFile file) throws IOException {
+		if (file.getCacheFile() == null) {
+			return;
+		}
+		var recordFile = recordFile(file.getCacheFile().getFileName().toString());
+		if (Files.exists(recordFile)) {
+			var record = read(recordFile);
+			write(new Record(file.getPath(), record.cacheFile, record.size, record.lastModified, record.missingRanges));
+		}
+	}
+
+	/**
+	 * Removes the record of the given file. No-op if there is no such record.
+	 *
+	 * @param file A file that no longer needs to be uploaded
+	 */
+	public synchronized void remove(OpenFile file) {
+		if (file.getCacheFile() == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(recordFile(file.getCacheFile().getFileName().toString()));
+		} catch (IOException e) {
+			LOG.warn("Failed to remove journal record of " + file.getPath(), e);
+		}
+	}
+
+	/**
+	 * Reads all records left over from a previous session. Records referring to non-existing cache files are discarded,
+	 * cache files which are not referenced by any record are deleted, as are overlay files of upload snapshots.
+	 *
+	 * @return The pending uploads
+	 * @throws IOException If the journal directory can not be read
+	 */
+	public synchronized List<Record> load() throws IOException {
+		Files.createDirectories(journalDir);
+		var records = new ArrayList<Record>();
+		try (var recordFiles = Files.newDirectoryStream(journalDir)) {
+			for (var recordFile : recordFiles) {
+				var fileName = recordFile.getFileName().toString();
+				if (fileName.endsWith(TMP_SUFFIX)) { // incomplete record
+					Files.deleteIfExists(recordFile);
+					continue;
+				}
+				try {
+					var record = read(recordFile);
+					if (Files.isRegularFile(cacheDir.resolve(record.cacheFile))) {
+						records.add(record);
+					} else {
+						LOG.error("Cache file of pending upload {} missing.", record.path);
+						Files.delete(recordFile);
+					}
+				} catch (IOException | IllegalArgumentException | DateTimeParseException e) {
+					LOG.error("Skipping invalid journal record " + recordFile, e);
+				}
+			}
+		}
+		deleteUnreferencedCacheFiles(records.stream().map(r -> r.cacheFile).collect(Collectors.toSet()));
+		return records;
+	}
+
+	private void deleteUnreferencedCacheFiles(Set<String> referenced) throws IOException {
+		try (var cacheFiles = Files.newDirectoryStream(cacheDir, Files::isRegularFile)) {
+			for (var cacheFile : cacheFiles) {
+				var fileName = cacheFile.getFileName().toString();
+				if (!referenced.contains(fileName) && isCacheFileName(fileName)) {
+					LOG.debug("Deleting stale cache file {}", cacheFile);
+					Files.deleteIfExists(cacheFile);
+				}
+			}
+		}
+	}
+
+	private static boolean isCacheFileName(String fileName) {
+		// snapshot overlays are named like cache files, suffixed by .tmp:
+		var name = fileName.endsWith(TMP_SUFFIX) ? fileName.substring(0, fileName.length() - TMP_SUFFIX.length()) : fileName;
+		try {
+			return UUID.fromString(name).toString().equals(name);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private Path recordFile(String cacheFileName) {
+		return journalDir.resolve(cacheFileName + RECORD_SUFFIX);
+	}
+
+	private synchronized void write(Record record) throws IOException {
+		Files.createDirectories(journalDir);
+		var properties = new Properties();
+		properties.setProperty(KEY_PATH, record.path.toString());
+		properties.setProperty(KEY_CACHE_FILE, record.cacheFile);
+		properties.setProperty(KEY_SIZE, Long.toString(record.size));
+		properties.setProperty(KEY_LAST_MODIFIED, record.lastModified.toString());
+		properties.setProperty(KEY_MISSING_RANGES, record.missingRanges.stream().map(r -> r.lowerEndpoint() + "-" + r.upperEndpoint()).collect(Collectors.joining(",")));
+		var content = new ByteArrayOutputStream();
+		properties.store(content, null); // escapes characters beyond ISO-8859-1
+
+		var recordFile = recordFile(record.cacheFile);
+		var tmpFile = journalDir.resolve(record.cacheFile + TMP_SUFFIX);
+		try (var ch = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			var buf = ByteBuffer.wrap(content.toByteArray());
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+			ch.force(true);
+		}
+		Files.move(tmpFile, recordFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(journalDir);
+	}
+
+	/**
+	 * Syncs the given directory to disk, which is required for a file that has just been created or renamed in this
+	 * directory to survive a crash. Not supported on all platforms, e.g. Windows, where this is a no-op.
+	 *
+	 * @param dir A directory
+	 */
+	static void syncDirectory(Path dir) {
+		try (var ch = FileChannel.open(dir, READ)) {
+			ch.force(true);
+		} catch (IOException e) {
+			LOG.trace("Failed to sync directory {}: {}", dir, e.toString());
+		}
+	}
+
+	private Record read(Path recordFile) throws IOException {
+		var properties = new Properties();
+		try (InputStream in = Files.newInputStream(recordFile)) {
+			properties.load(in); // unescapes characters beyond ISO-8859-1
+		}
+		var path = CloudPath.of(required(properties, KEY_PATH));
+		var cacheFile = required(properties, KEY_CACHE_FILE);
+		var size = Long.parseLong(required(properties, KEY_SIZE));
+		var lastModified = Instant.parse(required(properties, KEY_LAST_MODIFIED));
+		var missingRanges = new ArrayList<Range<Long>>();
+		for (var range : Splitter.on(',').omitEmptyStrings().split(properties.getProperty(KEY_MISSING_RANGES, ""))) {
+			var endpoints = Splitter.on('-').limit(2).splitToList(range);
+			if (endpoints.size() != 2) {
+				throw new IllegalArgumentException("Invalid range " + range);
+			}
+			missingRanges.add(Range.closedOpen(Long.parseLong(endpoints.get(0)), Long.parseLong(endpoints.get(1))));
+		}
+		return new Record(path, cacheFile, size, lastModified, missingRanges);
+	}
+
+	private static String required(Properties properties, String key) {
+		var value = properties.getProperty(key);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing " + key);
+		}
+		return value;
+	}
+
+	static class Record {
+
+		final CloudPath path;
+		final String cacheFile;
+		final long size;
+		final Instant lastModified;
+		final List<Range<Long>> missingRanges;
+
+		Record(CloudPath path, String cacheFile, long size, Instant lastModified, List<Range<Long>> missingRanges) {
+			this.path = path;
+			this.cacheFile = cacheFile;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.missingRanges = List.copyOf(missingRanges);
+		}
+
+		@Override
+		public String toString() {
+			return MoreObjects.toStringHelper(this) //
+					.add("path", path) //
+					.add("cacheFile", cacheFile) //
+					.add("size", size) //
+					.toString();
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads a cache file behind a strictly sequential writer, so that a file can be uploaded while it is still being written.
+ * <p>
+ * The {@link OpenFile} {@link #announce(long, long) announces} each write before performing it and reports it as
+ * {@link #written(long, long) written} once it reached the cache file. Reads block until the requested bytes have been
+ * written. As soon as a write is not sequential, the stream is {@link #abort(String) aborted} and any further read fails.
+ */
+class WriteThroughStream extends InputStream {
+
+	private final CompletableAsynchronousFileChannel fc;
+	private final long size;
+	private final RangeSet<Long> written = TreeRangeSet.create(); // guarded by this
+	private long announced; // end of announced writes, guarded by this
+	private long available; // end of data written contiguously from the beginning, guarded by this
+	private String abortReason; // guarded by this
+	private boolean finished; // guarded by this
+	private long position;
+
+	/**
+	 * @param fc   The cache file
+	 * @param size The final size of the file, which must not be exceeded by the writer
+	 */
+	WriteThroughStream(CompletableAsynchronousFileChannel fc, long size) {
+		Preconditions.checkArgument(size > 0);
+		this.fc = fc;
+		this.size = size;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the given write continues the sequence of previous writes. If not, this stream gets aborted.
+	 *
+	 * @param offset Position of the write
+	 * @param count  Number of bytes to write
+	 * @return <code>true</code> if the write is sequential and this stream is still active
+	 */
+	public synchronized boolean announce(long offset, long count) {
+		if (abortReason != null) {
+			return false;
+		} else if (offset != announced || offset + count > size) {
+			abort("non-sequential write");
+			return false;
+		} else {
+			announced += count;
+			return true;
+		}
+	}
+
+	/**
+	 * Marks the given range as written to the cache file, allowing reads up to the end of contiguously written data.
+	 *
+	 * @param offset Position of the write
+	 * @param count  Number of bytes written
+	 */
+	public synchronized void written(long offset, long count) {
+		if (count <= 0) {
+			return;
+		}
+		written.add(Range.closedOpen(offset, offset + count));
+		var prefix = written.rangeContaining(0l);
+		if (prefix != null && prefix.upperEndpoint() > available) {
+			available = prefix.upperEndpoint();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Invoked when the writer is done. Aborts this stream, unless the whole file has been announced.
+	 */
+	public synchronized void finish() {
+		if (announced < size) {
+			abort("incomplete write");
+		} else {
+			finished = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until the writer is {@link #finish() done}, as the file may still be modified until then, even if all of
+	 * its bytes have been read already.
+	 *
+	 * @return <code>true</code> if the writer finished, <code>false</code> if this stream has been aborted
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized boolean awaitFinished() throws InterruptedException {
+		while (!finished && abortReason == null) {
+			wait();
+		}
+		return abortReason == null;
+	}
+
+	/**
+	 * Makes pending and subsequent reads fail.
+	 *
+	 * @param reason Why the write-through has been aborted
+	 */
+	public synchronized void abort(String reason) {
+		if (abortReason == null) {
+			abortReason = reason;
+			notifyAll();
+		}
+	}
+
+	public synchronized boolean isAborted() {
+		return abortReason != null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] buf = new byte[1];
+		int read = read(buf, 0, 1);
+		return read == -1 ? -1 : Byte.toUnsignedInt(buf[0]);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		Preconditions.checkPositionIndexes(off, off + len, b.length);
+		if (len == 0) {
+			return 0;
+		} else if (position >= size) {
+			return -1;
+		}
+		long end = awaitAvailable();
+		int n = (int) Math.min(len, end - position); // int-cast: n <= len
+		var buf = ByteBuffer.wrap(b, off, n);
+		try {
+			while (buf.hasRemaining()) {
+				int read = fc.read(buf, position + buf.position() - off).get();
+				if (read == -1) {
+					throw new EOFException("Unexpected end of cache file");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Reading cache file interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to read cache file", e.getCause());
+		}
+		position += n;
+		return n;
+	}
+
+	private synchronized long awaitAvailable() throws IOException {
+		try {
+			while (available <= position && abortReason == null) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Waiting for writer interrupted");
+		}
+		if (abortReason != null) {
+			throw new IOException("Write-through aborted: " + abortReason);
+		}
+		return available;
+	}
+
+	@Override
+	public void close() {
+		abort("stream closed");
+	}
+
+}
@@ -1,16 +1,21 @@
 package org.cryptomator.fusecloudaccess.locks;
 
-import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-
 abstract class DataLockImpl implements DataLock {
 
-	protected final List<String> pathComponents;
-	protected final ReadWriteLock lock; // keep reference to avoid lock being GC'ed out of the LockManager's cache
+	protected final LockNode node; // retained until closed, so the data lock stays in the LockManager's trie
+	protected final RangeLock lock;
+	protected final RangeLock.Range range;
 
-	protected DataLockImpl(List<String> pathComponents, ReadWriteLock lock) {
-		this.pathComponents = pathComponents;
+	protected DataLockImpl(LockNode node, RangeLock lock, RangeLock.Range range) {
+		this.node = node;
 		this.lock = lock;
+		this.range = range;
+	}
+
+	@Override
+	public void close() {
+		lock.unlock(range);
+		node.release();
 	}
 
 }
@@ -3,27 +3,26 @@ package org.cryptomator.fusecloudaccess.locks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-
 class DataRLockImpl extends DataLockImpl {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DataRLockImpl.class);
 
-	private DataRLockImpl(List<String> pathComponents, ReadWriteLock lock) {
-		super(pathComponents, lock);
+	private DataRLockImpl(LockNode node, RangeLock lock, RangeLock.Range range) {
+		super(node, lock, range);
 	}
 
-	static DataRLockImpl create(List<String> pathComponents, ReadWriteLock lock) {
-		lock.readLock().lock();
-		LOG.trace("Acquired read data lock for '{}'", pathComponents);
-		return new DataRLockImpl(pathComponents, lock);
+	static DataRLockImpl create(LockNode node, long offset, long length) {
+		var lock = node.dataLock();
+		var range = lock.lock(offset, length, false);
+		node.retain();
+		LOG.trace("Acquired read data lock for '{}' {}", node, range);
+		return new DataRLockImpl(node, lock, range);
 	}
 
 	@Override
 	public void close() {
-		LOG.trace("Released read data lock for '{}'", pathComponents);
-		lock.readLock().unlock();
+		LOG.trace("Released read data lock for '{}' {}", node, range);
+		super.close();
 	}
 
 }
@@ -3,27 +3,31 @@ package org.cryptomator.fusecloudaccess.locks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-
 class DataWLockImpl extends DataLockImpl {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DataWLockImpl.class);
 
-	private DataWLockImpl(List<String> pathComponents, ReadWriteLock lock) {
-		super(pathComponents, lock);
+	private final WriteTracker writeTracker;
+
+	private DataWLockImpl(LockNode node, RangeLock lock, RangeLock.Range range, WriteTracker writeTracker) {
+		super(node, lock, range);
+		this.writeTracker = writeTracker;
 	}
 
-	static DataWLockImpl create(List<String> pathComponents, ReadWriteLock lock) {
-		lock.writeLock().lock();
-		LOG.trace("Acquired write data lock for '{}'", pathComponents);
-		return new DataWLockImpl(pathComponents, lock);
+	static DataWLockImpl create(LockNode node, long offset, long length, WriteTracker writeTracker) {
+		writeTracker.writeStarted(node);
+		var lock = node.dataLock();
+		var range = lock.lock(offset, length, true);
+		node.retain();
+		LOG.trace("Acquired write data lock for '{}' {}", node, range);
+		return new DataWLockImpl(node, lock, range, writeTracker);
 	}
 
 	@Override
 	public void close() {
-		LOG.trace("Released write data lock for '{}'", pathComponents);
-		lock.writeLock().unlock();
+		LOG.trace("Released write data lock for '{}' {}", node, range);
+		super.close();
+		writeTracker.writeFinished(node);
 	}
 
 }
@@ -5,6 +5,7 @@ import com.google.common.base.Splitter;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 class FilePaths {
@@ -14,6 +15,22 @@ class FilePaths {
 	private static final Splitter PATH_SPLITTER = Splitter.on(PATH_SEP).omitEmptyStrings();
 	private static final Joiner PATH_JOINER = Joiner.on(PATH_SEP);
 
+	/**
+	 * Orders paths component by component, so that each path is directly followed by all of its descendants. Unlike
+	 * the natural order of strings, this keeps subtrees contiguous: <code>/a!</code> sorts after <code>/a/z</code>.
+	 */
+	static final Comparator<String> HIERARCHICAL_ORDER = (p1, p2) -> {
+		var c1 = toComponents(p1);
+		var c2 = toComponents(p2);
+		for (int i = 0; i < Math.min(c1.size(), c2.size()); i++) {
+			int result = c1.get(i).compareTo(c2.get(i));
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(c1.size(), c2.size());
+	};
+
 	public static List<String> toComponents(String pathRelativeToRoot) {
 		List<String> pathComponents = new ArrayList<>(PATH_SPLITTER.splitToList(pathRelativeToRoot));
 		pathComponents.add(0, ROOT);
@@ -1,19 +1,10 @@
 package org.cryptomator.fusecloudaccess.locks;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalNotification;
 import org.cryptomator.fusecloudaccess.FileSystemScoped;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import javax.inject.Singleton;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Provides a path-based locking mechanism as described by
@@ -38,53 +29,86 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *          // copy from /foo/bar/original to /foo/bar/copy
  *     }
  * </pre>
+ *
+ * <p>
+ * Usage Example 3:
+ * <pre>
+ *     try (PathLock pathLock = lockManager.createPathLock("/foo/bar/baz").forReading();
+ *          DataLock dataLock = pathLock.lockDataForWriting(offset, length)) { // only the written range is locked
+ *          // write to file
+ *     }
+ * </pre>
+ *
+ * <p>
+ * Threads locking multiple paths must lock them {@link #inLockOrder(String, String) in lock order}, otherwise two
+ * threads locking the same paths in reverse order (such as <code>mv a b</code> and <code>mv b a</code>) may deadlock.
+ *
+ * <p>
+ * Locks are kept in a trie of {@link LockNode reference-counted nodes}, which is walked once per lock. Nodes are
+ * reused by concurrent locks on overlapping paths and removed as soon as no lock refers to them anymore.
  */
 @FileSystemScoped
 public class LockManager {
 
-	private static final Logger LOG = LoggerFactory.getLogger(LockManager.class);
-
-	private final LoadingCache<List<String>, ReadWriteLock> pathLocks;
-	private final LoadingCache<List<String>, ReadWriteLock> dataLocks;
+	private final LockNode root = LockNode.createRoot();
+	private final WriteTracker writeTracker = new WriteTracker();
 
 	@Inject
 	public LockManager() {
-		CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().weakValues();
-		if (LOG.isDebugEnabled()) {
-			cacheBuilder.removalListener(this::onLockRemoval);
-		}
-		this.pathLocks = cacheBuilder.build(new LockLoader());
-		this.dataLocks = cacheBuilder.build(new LockLoader());
 	}
 
 	public PathLockBuilder createPathLock(String path) {
-		List<String> pathComponents = FilePaths.toComponents(path);
-		assert !pathComponents.isEmpty();
-		return createPathLock(pathComponents);
+		return new PathLockBuilderImpl(root, path, writeTracker);
 	}
 
-	private PathLockBuilder createPathLock(List<String> pathComponents) {
-		if (pathComponents.isEmpty()) {
-			return null;
-		}
-
-		List<String> parentPathComponents = FilePaths.parentPathComponents(pathComponents);
-		PathLockBuilder parentLockBuilder = createPathLock(parentPathComponents);
-		ReadWriteLock lock = pathLocks.getUnchecked(pathComponents);
-		return new PathLockBuilderImpl(pathComponents, Optional.ofNullable(parentLockBuilder), lock, dataLocks::getUnchecked);
+	/**
+	 * Sorts two paths in the order they need to be locked in: Ancestors are locked before their descendants and
+	 * siblings in a fixed order, so the path locks (including the read locks of their ancestors) are always acquired
+	 * in the same order by all threads.
+	 *
+	 * @param path1 A path
+	 * @param path2 Another path
+	 * @return Both paths in lock order
+	 */
+	public static List<String> inLockOrder(String path1, String path2) {
+		return FilePaths.HIERARCHICAL_ORDER.compare(path1, path2) <= 0 ? List.of(path1, path2) : List.of(path2, path1);
 	}
 
-	private void onLockRemoval(RemovalNotification<String, ReentrantReadWriteLock> notification) {
-		LOG.trace("Deleting ReadWriteLock for {}", notification.getKey());
+	/**
+	 * Starts an optimistic read, which allows read-only operations to skip acquiring any locks as long as no write lock
+	 * exists on the given path or any of its ancestors. The operation must not have any side effects and its result
+	 * must be discarded unless the stamp is {@link #validate(String, long) valid} afterwards. Otherwise, the operation
+	 * needs to be repeated under regular locks.
+	 * <p>
+	 * Usage Example:
+	 * <pre>
+	 *     long stamp = lockManager.tryOptimisticRead("/foo/bar");
+	 *     if (stamp != 0) {
+	 *         var result = readAttributes("/foo/bar");
+	 *         if (lockManager.validate("/foo/bar", stamp)) {
+	 *             return result;
+	 *         }
+	 *     }
+	 *     try (PathLock pathLock = lockManager.createPathLock("/foo/bar").forReading();
+	 *          DataLock dataLock = pathLock.lockDataForReading()) {
+	 *         return readAttributes("/foo/bar");
+	 *     }
+	 * </pre>
+	 *
+	 * @param path The path to be read
+	 * @return A stamp to validate the read, or zero if a write lock is currently held on the path or any of its ancestors
+	 */
+	public long tryOptimisticRead(String path) {
+		return writeTracker.tryOptimisticRead(path);
 	}
 
-	private static class LockLoader extends CacheLoader<List<String>, ReadWriteLock> {
-
-		@Override
-		public ReadWriteLock load(List<String> key) {
-			LOG.trace("Creating ReadWriteLock for {}", key);
-			return new ReentrantReadWriteLock();
-		}
+	/**
+	 * @param path  The path that has been read
+	 * @param stamp A stamp obtained from {@link #tryOptimisticRead(String)} for the same path
+	 * @return <code>true</code> if no path or data write lock has been acquired on the path or any of its ancestors since the stamp has been issued
+	 */
+	public boolean validate(String path, long stamp) {
+		return writeTracker.validate(path, stamp);
 	}
 
 	/*
@@ -93,10 +117,12 @@ public class LockManager {
 
 	// visible for testing
 	boolean isPathLocked(String path) {
-		ReadWriteLock lock = pathLocks.getIfPresent(FilePaths.toComponents(path));
-		if (lock == null) {
+		LockNode node = root.find(path);
+		if (node == null) {
 			return false;
-		} else if (lock.writeLock().tryLock()) {
+		}
+		ReadWriteLock lock = node.lock();
+		if (lock.writeLock().tryLock()) {
 			try {
 				return false; // if we're able to get an exclusive lock, this path is not locked.
 			} finally {
@@ -107,4 +133,15 @@ public class LockManager {
 		}
 	}
 
+	// visible for testing
+	boolean isDataLocked(String path) {
+		LockNode node = root.find(path);
+		return node != null && node.isDataLocked();
+	}
+
+	// visible for testing
+	int countNodes() {
+		return root.countDescendants();
+	}
+
 }
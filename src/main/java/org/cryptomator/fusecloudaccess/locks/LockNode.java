@@ -0,0 +1,185 @@
+package org.cryptomator.fusecloudaccess.locks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A node of the {@link LockManager}'s lock trie, holding the locks of a single path.
+ * <p>
+ * Nodes are created on demand and reference-counted: A path lock retains the locked node and all of its ancestors,
+ * a data lock additionally retains its node. When the last reference is released, the node is removed from its
+ * parent, so the trie only contains the paths that are currently in use.
+ */
+class LockNode {
+
+	static final int ROOT_HASH = 0;
+	private static final char PATH_SEP = '/';
+
+	private final LockNode parent;
+	private final String name;
+	private final int hash;
+	private final ConcurrentMap<String, LockNode> children = new ConcurrentHashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private RangeLock dataLock; // guarded by this
+	private int refCount; // only accessed within parent.children.compute(name, ...)
+
+	private LockNode(LockNode parent, String name) {
+		this.parent = parent;
+		this.name = name;
+		this.hash = parent == null ? ROOT_HASH : childHash(parent.hash, name, 0, name.length());
+	}
+
+	static LockNode createRoot() {
+		return new LockNode(null, "");
+	}
+
+	/**
+	 * Walks down from this node to the given path, read-locking every node on the way. Each visited node except this
+	 * one is retained. The node of the path itself is retained but not locked.
+	 *
+	 * @param path A path relative to this node
+	 * @return The node of the given path
+	 * @see #unlockAndRelease()
+	 */
+	LockNode retainPath(String path) {
+		LockNode node = this;
+		int len = path.length();
+		int begin = 0;
+		while (true) {
+			while (begin < len && path.charAt(begin) == PATH_SEP) {
+				begin++;
+			}
+			if (begin == len) {
+				return node;
+			}
+			int end = path.indexOf(PATH_SEP, begin);
+			if (end == -1) {
+				end = len;
+			}
+			node.lock.readLock().lock();
+			node = node.retainChild(path.substring(begin, end));
+			begin = end;
+		}
+	}
+
+	/**
+	 * Looks up the node of the given path without creating or retaining any nodes.
+	 *
+	 * @param path A path relative to this node
+	 * @return The node of the given path or <code>null</code> if it is not in use
+	 */
+	LockNode find(String path) {
+		var components = FilePaths.toComponents(path);
+		LockNode node = this;
+		for (var name : components.subList(1, components.size())) { // skip root
+			node = node.children.get(name);
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	private LockNode retainChild(String childName) {
+		return children.compute(childName, (n, child) -> {
+			if (child == null) {
+				child = new LockNode(this, n);
+			}
+			child.refCount++;
+			return child;
+		});
+	}
+
+	/**
+	 * Adds a reference to this node. Only valid while this node is already retained, e.g. by a path lock.
+	 */
+	void retain() {
+		if (parent != null) {
+			parent.children.compute(name, (n, node) -> {
+				assert node == this && node.refCount > 0;
+				node.refCount++;
+				return node;
+			});
+		}
+	}
+
+	/**
+	 * Removes a reference from this node and removes the node from the trie if it is no longer referenced.
+	 */
+	void release() {
+		if (parent != null) {
+			parent.children.computeIfPresent(name, (n, node) -> {
+				assert node == this;
+				return --node.refCount == 0 ? null : node;
+			});
+		}
+	}
+
+	/**
+	 * Reverts {@link #retainPath(String)} after the lock of this node itself has been unlocked: Releases this node and
+	 * unlocks and releases all of its ancestors.
+	 */
+	void unlockAndRelease() {
+		for (var node = this; node.parent != null; node = node.parent) {
+			node.release();
+			node.parent.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Computes the hash of a child path from the hash of its parent path, equal to the {@link #hash()} of the child's
+	 * node, without requiring the node to exist.
+	 *
+	 * @param parentHash The hash of the parent path
+	 * @param path       A string containing the child's name
+	 * @param begin      Index of the first character of the child's name within <code>path</code>
+	 * @param end        Index after the last character of the child's name within <code>path</code>
+	 * @return The hash of the child path
+	 */
+	static int childHash(int parentHash, String path, int begin, int end) {
+		int h = 0;
+		for (int i = begin; i < end; i++) {
+			h = 31 * h + path.charAt(i); // same as String.hashCode() of the name, without creating a substring
+		}
+		return 31 * parentHash + h;
+	}
+
+	/**
+	 * @return A hash of the full path of this node
+	 */
+	int hash() {
+		return hash;
+	}
+
+	ReadWriteLock lock() {
+		return lock;
+	}
+
+	synchronized RangeLock dataLock() {
+		if (dataLock == null) {
+			dataLock = new RangeLock();
+		}
+		return dataLock;
+	}
+
+	synchronized boolean isDataLocked() {
+		return dataLock != null && dataLock.isLocked();
+	}
+
+	// visible for testing
+	int countDescendants() {
+		int count = 0;
+		for (var child : children.values()) {
+			count += 1 + child.countDescendants();
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return parent == null ? String.valueOf(PATH_SEP) : parent.parent == null ? PATH_SEP + name : parent.toString() + PATH_SEP + name;
+	}
+
+}
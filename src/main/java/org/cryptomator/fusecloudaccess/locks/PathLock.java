@@ -2,10 +2,38 @@ package org.cryptomator.fusecloudaccess.locks;
 
 public interface PathLock extends AutoCloseable {
 
+	/**
+	 * Acquires a shared lock on the whole content of the locked path.
+	 *
+	 * @return The acquired data lock
+	 */
 	DataLock lockDataForReading();
 
+	/**
+	 * Acquires an exclusive lock on the whole content of the locked path.
+	 *
+	 * @return The acquired data lock
+	 */
 	DataLock lockDataForWriting();
 
+	/**
+	 * Acquires a shared lock on the content of the locked path within <code>[offset, offset + length)</code>.
+	 *
+	 * @param offset First byte to lock
+	 * @param length Number of bytes to lock
+	 * @return The acquired data lock
+	 */
+	DataLock lockDataForReading(long offset, long length);
+
+	/**
+	 * Acquires an exclusive lock on the content of the locked path within <code>[offset, offset + length)</code>.
+	 *
+	 * @param offset First byte to lock
+	 * @param length Number of bytes to lock
+	 * @return The acquired data lock
+	 */
+	DataLock lockDataForWriting(long offset, long length);
+
 	@Override
 	void close();
 
@@ -1,39 +1,38 @@
 package org.cryptomator.fusecloudaccess.locks;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.function.Function;
-
 abstract class PathLockImpl implements PathLock {
 
-	protected final List<String> pathComponents;
-	protected final Optional<PathLock> parent;
-	protected final ReadWriteLock lock; // keep reference to avoid lock being GC'ed out of the LockManager's cache
-	private final Function<List<String>, ReadWriteLock> dataLockSupplier;
+	protected final LockNode node; // retained until closed, along with all of its ancestors
+	protected final WriteTracker writeTracker;
 
-	protected PathLockImpl(List<String> pathComponents, Optional<PathLock> parent, ReadWriteLock lock, Function<List<String>, ReadWriteLock> dataLockSupplier) {
-		this.pathComponents = pathComponents;
-		this.parent = parent;
-		this.lock = lock;
-		this.dataLockSupplier = dataLockSupplier;
+	protected PathLockImpl(LockNode node, WriteTracker writeTracker) {
+		this.node = node;
+		this.writeTracker = writeTracker;
 	}
 
 	@Override
 	public void close() {
-		parent.ifPresent(PathLock::close);
+		node.unlockAndRelease();
 	}
 
 	@Override
 	public DataLock lockDataForReading() {
-		ReadWriteLock dataLock = dataLockSupplier.apply(pathComponents);
-		return DataRLockImpl.create(pathComponents, dataLock);
+		return lockDataForReading(0, Long.MAX_VALUE);
 	}
 
 	@Override
 	public DataLock lockDataForWriting() {
-		ReadWriteLock dataLock = dataLockSupplier.apply(pathComponents);
-		return DataWLockImpl.create(pathComponents, dataLock);
+		return lockDataForWriting(0, Long.MAX_VALUE);
+	}
+
+	@Override
+	public DataLock lockDataForReading(long offset, long length) {
+		return DataRLockImpl.create(node, offset, length);
+	}
+
+	@Override
+	public DataLock lockDataForWriting(long offset, long length) {
+		return DataWLockImpl.create(node, offset, length, writeTracker);
 	}
 
 }
@@ -0,0 +1,116 @@
+package org.cryptomator.fusecloudaccess.locks;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An interval lock table for the contents of a single file.
+ * <p>
+ * Shared and exclusive locks can be acquired for arbitrary byte ranges. Locks conflict if their ranges overlap and at
+ * least one of them is exclusive. Locks held by the same thread never conflict with each other, mimicking the
+ * reentrancy of a {@link java.util.concurrent.locks.ReentrantReadWriteLock}.
+ * <p>
+ * Waiting requests are granted in FIFO order as far as they conflict with each other, so a pending exclusive lock on
+ * the whole file can not be starved by a continuous stream of overlapping shared locks.
+ */
+class RangeLock {
+
+	private final List<Range> granted = new ArrayList<>(); // guarded by this
+	private final List<Range> waiting = new ArrayList<>(); // guarded by this
+
+	/**
+	 * Blocks until the requested range can be locked. Like {@link java.util.concurrent.locks.Lock#lock()}, this
+	 * method is not interruptible, but preserves the interrupt status.
+	 *
+	 * @param offset    First byte to lock
+	 * @param length    Number of bytes to lock, might exceed EOF
+	 * @param exclusive Whether to acquire an exclusive (write) lock rather than a shared (read) lock
+	 * @return The locked range, which needs to be passed to {@link #unlock(Range)}
+	 */
+	public Range lock(long offset, long length, boolean exclusive) {
+		Preconditions.checkArgument(offset >= 0);
+		Preconditions.checkArgument(length >= 0);
+		long end = length > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + length;
+		var range = new Range(offset, end, exclusive, Thread.currentThread());
+		boolean interrupted = false;
+		synchronized (this) {
+			waiting.add(range);
+			while (!isGrantable(range)) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			waiting.remove(range);
+			granted.add(range);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return range;
+	}
+
+	public synchronized void unlock(Range range) {
+		boolean removed = granted.remove(range);
+		assert removed : "range not locked: " + range;
+		if (!waiting.isEmpty()) {
+			notifyAll();
+		}
+	}
+
+	// visible for testing
+	synchronized boolean isLocked() {
+		return !granted.isEmpty();
+	}
+
+	private boolean isGrantable(Range range) {
+		for (var other : granted) {
+			if (range.conflictsWith(other)) {
+				return false;
+			}
+		}
+		for (var other : waiting) {
+			if (other == range) {
+				return true; // all remaining requests have been queued after this one
+			} else if (range.conflictsWith(other)) {
+				return false;
+			}
+		}
+		throw new IllegalStateException("range not queued: " + range);
+	}
+
+	static class Range {
+
+		private final long begin; // inclusive
+		private final long end; // exclusive
+		private final boolean exclusive;
+		private final Thread owner;
+
+		private Range(long begin, long end, boolean exclusive, Thread owner) {
+			this.begin = begin;
+			this.end = end;
+			this.exclusive = exclusive;
+			this.owner = owner;
+		}
+
+		private boolean conflictsWith(Range other) {
+			return owner != other.owner //
+					&& (exclusive || other.exclusive) //
+					&& begin < other.end && other.begin < end;
+		}
+
+		@Override
+		public String toString() {
+			return MoreObjects.toStringHelper(Range.class) //
+					.add("begin", begin) //
+					.add("end", end) //
+					.add("exclusive", exclusive) //
+					.toString();
+		}
+	}
+
+}
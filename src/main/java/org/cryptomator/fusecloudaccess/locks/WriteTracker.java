@@ -0,0 +1,100 @@
+package org.cryptomator.fusecloudaccess.locks;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts path and data write locks per path, so read-only operations can run without acquiring any lock and validate
+ * afterwards that no write lock affecting the read path has been acquired in the meantime.
+ * <p>
+ * Works like {@link java.util.concurrent.locks.StampedLock#tryOptimisticRead()}, except that writers don't exclude
+ * each other (they still do by means of their path and data locks). Paths are mapped to a fixed number of stripes
+ * by their {@link LockNode#hash() hash}, each holding a pair of counters on a cache line of its own. Writers increment
+ * the counters of their path only, readers check the stripes of the read path and all of its ancestors. Unrelated
+ * paths sharing a stripe cause spurious invalidations, but never missed ones.
+ */
+class WriteTracker {
+
+	private static final char PATH_SEP = '/';
+	private static final int STRIPES = 256; // must be a power of two
+	private static final int STRIDE = 16; // 128 bytes per stripe, avoids false sharing of adjacent stripes
+
+	private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIDE); // started at [i * STRIDE], finished at [i * STRIDE + 1]
+
+	/**
+	 * Must be invoked before acquiring a write lock.
+	 *
+	 * @param node The node to be write-locked
+	 */
+	void writeStarted(LockNode node) {
+		counters.incrementAndGet(index(node.hash()));
+	}
+
+	/**
+	 * Must be invoked after releasing a write lock.
+	 *
+	 * @param node The node that has been write-locked
+	 */
+	void writeFinished(LockNode node) {
+		counters.incrementAndGet(index(node.hash()) + 1);
+	}
+
+	/**
+	 * @param path The path to be read
+	 * @return A stamp for {@link #validate(String, long) validation}, or zero if a write lock is currently held on the
+	 * path or any of its ancestors
+	 */
+	long tryOptimisticRead(String path) {
+		return sumStarted(path, true) + 1;
+	}
+
+	/**
+	 * @param path  The path that has been read
+	 * @param stamp A stamp obtained from {@link #tryOptimisticRead(String)} for the same path
+	 * @return <code>true</code> if no write lock has been acquired on the path or any of its ancestors since obtaining the stamp
+	 */
+	boolean validate(String path, long stamp) {
+		VarHandle.acquireFence(); // don't reorder preceding reads after the check
+		return stamp != 0 && sumStarted(path, false) == stamp - 1; // counters only grow, so the sum is unchanged only if each of them is unchanged
+	}
+
+	/**
+	 * Sums up the started counters of the stripes of the given path and all of its ancestors.
+	 *
+	 * @param path      The path
+	 * @param checkIdle Whether to check that no writer is active on any of these stripes
+	 * @return The sum or <code>-1</code> if <code>checkIdle</code> is set and a writer is active
+	 */
+	private long sumStarted(String path, boolean checkIdle) {
+		long sum = 0;
+		int hash = LockNode.ROOT_HASH;
+		int len = path.length();
+		int begin = 0;
+		while (true) {
+			int i = index(hash);
+			long f = checkIdle ? counters.get(i + 1) : 0; // read before started, so started == finished implies no writer was active when reading started
+			long s = counters.get(i);
+			if (checkIdle && s != f) {
+				return -1;
+			}
+			sum += s;
+			while (begin < len && path.charAt(begin) == PATH_SEP) {
+				begin++;
+			}
+			if (begin == len) {
+				return sum;
+			}
+			int end = path.indexOf(PATH_SEP, begin);
+			if (end == -1) {
+				end = len;
+			}
+			hash = LockNode.childHash(hash, path, begin, end);
+			begin = end;
+		}
+	}
+
+	private static int index(int hash) {
+		return ((hash ^ (hash >>> 16)) & (STRIPES - 1)) * STRIDE;
+	}
+
+}
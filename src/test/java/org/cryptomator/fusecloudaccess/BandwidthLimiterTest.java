@@ -0,0 +1,100 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BandwidthLimiterTest {
+
+	private final AtomicLong nanos = new AtomicLong();
+	private final Ticker ticker = new Ticker() {
+		@Override
+		public long read() {
+			return nanos.get();
+		}
+	};
+	private BandwidthLimiter limiter;
+
+	@BeforeEach
+	public void setup() throws InterruptedException {
+		limiter = Mockito.spy(new BandwidthLimiter(1000, ticker));
+		Mockito.doAnswer(invocation -> nanos.addAndGet(invocation.getArgument(0))).when(limiter).sleep(Mockito.anyLong());
+	}
+
+	@Test
+	@DisplayName("bursts up to one second worth of data without waiting")
+	public void testBurst() throws InterruptedIOException, InterruptedException {
+		limiter.acquire(600);
+		limiter.acquire(400);
+
+		Mockito.verify(limiter, Mockito.never()).sleep(Mockito.anyLong());
+		Assertions.assertEquals(1000, limiter.getTransferredBytes());
+	}
+
+	@Test
+	@DisplayName("waits once bucket is empty")
+	public void testThrottle() throws InterruptedIOException, InterruptedException {
+		limiter.acquire(1000);
+		limiter.acquire(500);
+
+		Mockito.verify(limiter).sleep(TimeUnit.MILLISECONDS.toNanos(500));
+		Assertions.assertEquals(Duration.ofMillis(500), limiter.getThrottledTime());
+	}
+
+	@Test
+	@DisplayName("refills over time")
+	public void testRefill() throws InterruptedIOException, InterruptedException {
+		limiter.acquire(1000);
+		nanos.addAndGet(TimeUnit.SECONDS.toNanos(10)); // refills no more than the capacity
+
+		limiter.acquire(1000);
+		limiter.acquire(100);
+
+		Mockito.verify(limiter).sleep(TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	@DisplayName("consume(...) doesn't wait, but delays subsequent acquisitions")
+	public void testConsume() throws InterruptedIOException, InterruptedException {
+		limiter.consume(3000);
+
+		Mockito.verify(limiter, Mockito.never()).sleep(Mockito.anyLong());
+
+		limiter.acquire(0);
+
+		Mockito.verify(limiter).sleep(TimeUnit.SECONDS.toNanos(2));
+		Assertions.assertEquals(3000, limiter.getTransferredBytes());
+	}
+
+	@Test
+	@DisplayName("limit can be changed at runtime")
+	public void testSetBytesPerSecond() throws InterruptedIOException, InterruptedException {
+		limiter.acquire(1000);
+		limiter.setBytesPerSecond(0);
+
+		limiter.acquire(1_000_000);
+
+		Mockito.verify(limiter, Mockito.never()).sleep(Mockito.anyLong());
+
+		limiter.setBytesPerSecond(100);
+		limiter.acquire(100);
+
+		Mockito.verify(limiter).sleep(TimeUnit.SECONDS.toNanos(1));
+		Assertions.assertEquals(100, limiter.getBytesPerSecond());
+	}
+
+	@Test
+	@DisplayName("negative limits are rejected")
+	public void testNegativeLimit() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> limiter.setBytesPerSecond(-1));
+	}
+
+}
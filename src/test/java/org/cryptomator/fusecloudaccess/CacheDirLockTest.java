@@ -0,0 +1,50 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CacheDirLockTest {
+
+	@Test
+	@DisplayName("cache dir can't be locked by two file systems")
+	public void testExclusive(@TempDir Path tmpDir) throws IOException {
+		try (var first = new CacheDirLock(tmpDir); var second = new CacheDirLock(tmpDir.resolve("../" + tmpDir.getFileName()))) {
+			first.acquire();
+			first.acquire(); // no-op
+
+			Assertions.assertThrows(IOException.class, second::acquire);
+			Assertions.assertTrue(Files.exists(tmpDir.resolve(CacheDirLock.LOCK_FILE)));
+		}
+	}
+
+	@Test
+	@DisplayName("cache dir can be locked again after unlocking")
+	public void testRelock(@TempDir Path tmpDir) throws IOException {
+		var first = new CacheDirLock(tmpDir);
+		first.acquire();
+		first.close();
+
+		try (var second = new CacheDirLock(tmpDir)) {
+			Assertions.assertDoesNotThrow(second::acquire);
+		}
+	}
+
+	@Test
+	@DisplayName("different cache dirs can be locked independently")
+	public void testIndependent(@TempDir Path tmpDir) throws IOException {
+		var dir1 = Files.createDirectory(tmpDir.resolve("one"));
+		var dir2 = Files.createDirectory(tmpDir.resolve("two"));
+
+		try (var first = new CacheDirLock(dir1); var second = new CacheDirLock(dir2)) {
+			first.acquire();
+			Assertions.assertDoesNotThrow(second::acquire);
+		}
+	}
+
+}
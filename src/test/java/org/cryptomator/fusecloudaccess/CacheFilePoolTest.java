@@ -0,0 +1,78 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+public class CacheFilePoolTest {
+
+	private static long countFiles(Path dir) throws IOException {
+		try (var files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+
+	@Test
+	@DisplayName("pool of size 0 creates files on demand")
+	public void testDisabled(@TempDir Path tmpDir) throws IOException {
+		var executor = Mockito.mock(Executor.class);
+		var pool = new CacheFilePool(tmpDir, 0, executor);
+
+		var file = pool.acquire();
+
+		Assertions.assertTrue(Files.isRegularFile(file.path));
+		Assertions.assertEquals(0, file.channel.size());
+		Assertions.assertEquals(0, pool.getPooledCount());
+		Mockito.verifyNoInteractions(executor);
+		file.discard();
+	}
+
+	@Test
+	@DisplayName("replenish() pre-creates empty files")
+	public void testReplenish(@TempDir Path tmpDir) throws IOException {
+		var pool = new CacheFilePool(tmpDir, 3, Runnable::run);
+
+		pool.replenish();
+
+		Assertions.assertEquals(3, pool.getPooledCount());
+		Assertions.assertEquals(3, countFiles(tmpDir));
+	}
+
+	@Test
+	@DisplayName("acquire() takes a pooled file and replenishes the pool")
+	public void testAcquire(@TempDir Path tmpDir) throws IOException {
+		var pool = new CacheFilePool(tmpDir, 2, Runnable::run);
+		pool.replenish();
+
+		var file = pool.acquire();
+
+		Assertions.assertTrue(file.channel.isOpen());
+		Assertions.assertEquals(2, pool.getPooledCount());
+		Assertions.assertEquals(3, countFiles(tmpDir));
+		file.discard();
+	}
+
+	@Test
+	@DisplayName("close() deletes pooled files and stops replenishing")
+	public void testClose(@TempDir Path tmpDir) throws IOException {
+		var pool = new CacheFilePool(tmpDir, 2, Runnable::run);
+		pool.replenish();
+		var acquired = pool.acquire();
+
+		pool.close();
+		pool.replenish();
+
+		Assertions.assertEquals(0, pool.getPooledCount());
+		Assertions.assertEquals(1, countFiles(tmpDir));
+		Assertions.assertTrue(Files.exists(acquired.path));
+		acquired.discard();
+	}
+
+}
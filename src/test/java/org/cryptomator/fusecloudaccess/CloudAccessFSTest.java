@@ -52,6 +52,8 @@ public class CloudAccessFSTest {
 	private OpenFileUploader uploader;
 	private OpenFileFactory fileFactory;
 	private OpenDirFactory dirFactory;
+	private NamespaceReplayer namespaceReplayer;
+	private NamespaceOverlay namespaceOverlay;
 	private LockManager lockManager;
 	private PathLockBuilder pathLockBuilder;
 	private PathLock pathLock;
@@ -74,7 +76,9 @@ public class CloudAccessFSTest {
 		fileFactory = Mockito.mock(OpenFileFactory.class);
 		dirFactory = Mockito.mock(OpenDirFactory.class);
 		lockManager = Mockito.mock(LockManager.class);
-		cloudFs = new CloudAccessFS(provider, config, scheduler, uploader, fileFactory, dirFactory, lockManager);
+		namespaceReplayer = Mockito.mock(NamespaceReplayer.class);
+		namespaceOverlay = new NamespaceOverlay();
+		cloudFs = new CloudAccessFS(provider, config, scheduler, uploader, fileFactory, dirFactory, namespaceReplayer, namespaceOverlay, lockManager, Mockito.mock(TransferLimits.class), Mockito.mock(CacheDirLock.class));
 
 		pathLockBuilder = Mockito.mock(PathLockBuilder.class);
 		pathLock = Mockito.mock(PathLock.class);
@@ -84,6 +88,8 @@ public class CloudAccessFSTest {
 		Mockito.when(pathLockBuilder.forWriting()).thenReturn(pathLock);
 		Mockito.when(pathLock.lockDataForReading()).thenReturn(dataLock);
 		Mockito.when(pathLock.lockDataForWriting()).thenReturn(dataLock);
+		Mockito.when(pathLock.lockDataForReading(Mockito.anyLong(), Mockito.anyLong())).thenReturn(dataLock);
+		Mockito.when(pathLock.lockDataForWriting(Mockito.anyLong(), Mockito.anyLong())).thenReturn(dataLock);
 	}
 
 	@Nested
@@ -110,6 +116,22 @@ public class CloudAccessFSTest {
 			Assertions.assertEquals(-ErrorCodes.EINTR(), actualResult.get());
 		}
 
+		@DisplayName("test awaitCompletion() returns ETIMEDOUT and cancels requests after deadline")
+		@Test
+		public void testAwaitCompletionDeadline() {
+			var request = new CompletableFuture<Integer>();
+			var future = new CompletableFuture<Integer>();
+			int result;
+			try (var scope = RequestScope.open()) {
+				RequestScope.track(request);
+				result = cloudFs.awaitCompletion(future, scope, 10);
+			}
+
+			Assertions.assertEquals(-ErrorCodes.ETIMEDOUT(), result);
+			Assertions.assertTrue(request.isCancelled());
+			Assertions.assertTrue(future.isCancelled());
+		}
+
 		@DisplayName("test awaitCompletion() returns EIO on ExecutionException")
 		@Test
 		public void testAwaitCompletionExecutionException() {
@@ -152,6 +174,49 @@ public class CloudAccessFSTest {
 			Assertions.assertEquals(0, result);
 		}
 
+		@DisplayName("getattr() skips locking if optimistic read is valid")
+		@Test
+		public void testGetAttrOptimistic() {
+			Mockito.when(lockManager.tryOptimisticRead(PATH.toString())).thenReturn(42l);
+			Mockito.when(lockManager.validate(PATH.toString(), 42l)).thenReturn(true);
+			namespaceOverlay.apply(NamespaceOperation.of(1, NamespaceOperation.Type.DELETE_FILE, PATH));
+
+			var result = cloudFs.getattr(PATH.toString(), fileStat);
+
+			Assertions.assertEquals(-ErrorCodes.ENOENT(), result);
+			Mockito.verify(lockManager, Mockito.never()).createPathLock(Mockito.any());
+			Mockito.verify(provider, Mockito.never()).itemMetadata(Mockito.any());
+		}
+
+		@DisplayName("getattr() retries with locks if optimistic read is invalid")
+		@Test
+		public void testGetAttrOptimisticConflict() {
+			CloudItemMetadata itemMetadata = new CloudItemMetadata(PATH.getFileName().toString(), PATH, CloudItemType.FILE);
+			Mockito.when(lockManager.tryOptimisticRead(PATH.toString())).thenReturn(42l);
+			Mockito.when(lockManager.validate(PATH.toString(), 42l)).thenReturn(false);
+			Mockito.when(fileFactory.getCachedMetadata(PATH)).thenReturn(Optional.of(itemMetadata));
+
+			var result = cloudFs.getattr(PATH.toString(), fileStat);
+
+			Assertions.assertEquals(0, result);
+			Mockito.verify(fileFactory, Mockito.times(2)).getCachedMetadata(PATH);
+			Mockito.verify(pathLockBuilder).forReading();
+		}
+
+		@DisplayName("getattr() skips locking if metadata fetched from the cloud is still valid")
+		@Test
+		public void testGetAttrRemoteOptimistic() {
+			Mockito.when(lockManager.tryOptimisticRead(PATH.toString())).thenReturn(42l);
+			Mockito.when(lockManager.validate(PATH.toString(), 42l)).thenReturn(true);
+			Mockito.when(provider.itemMetadata(PATH)).thenReturn(CompletableFuture.failedFuture(new NotFoundException()));
+
+			var result = cloudFs.getattr(PATH.toString(), fileStat);
+
+			Assertions.assertEquals(-ErrorCodes.ENOENT(), result);
+			Mockito.verify(provider, Mockito.times(1)).itemMetadata(PATH);
+			Mockito.verify(lockManager, Mockito.never()).createPathLock(Mockito.any());
+		}
+
 		@DisplayName("getattr() returns ENOENT when resource is not found.")
 		@Test
 		public void testGetAttrReturnsENOENTIfNotFound() {
@@ -375,6 +440,22 @@ public class CloudAccessFSTest {
 			Assertions.assertEquals(42l, fi.fh.get());
 		}
 
+		@DisplayName("open() of a renamed file uses the metadata of its old location until the move is replayed")
+		@Test
+		public void testOpenAfterRename() throws IOException {
+			var oldPath = CloudPath.of("some/other/resource");
+			var itemMetadata = new CloudItemMetadata("resource", oldPath, CloudItemType.FILE, Optional.empty(), Optional.of(42l));
+			Mockito.when(fileFactory.open(Mockito.any(), Mockito.anySet(), Mockito.anyLong(), Mockito.any())).thenReturn(1337l);
+			Mockito.when(provider.itemMetadata(oldPath)).thenReturn(CompletableFuture.completedFuture(itemMetadata));
+			namespaceOverlay.apply(NamespaceOperation.of(1, NamespaceOperation.Type.MOVE, oldPath, PATH));
+
+			var result = cloudFs.open(PATH.toString(), fi);
+
+			Assertions.assertEquals(0, result);
+			Mockito.verify(fileFactory).open(Mockito.eq(PATH), Mockito.anySet(), Mockito.eq(42l), Mockito.any());
+			Mockito.verify(provider, Mockito.never()).itemMetadata(PATH);
+		}
+
 		@DisplayName("open() returns EISDIR if the path points to a directory")
 		@Test
 		public void testFolderItemTypeReturnsEISDIR() {
@@ -441,7 +522,7 @@ public class CloudAccessFSTest {
 		public void tearDown() {
 			Mockito.verify(lockManager).createPathLock(PATH.toString());
 			Mockito.verify(pathLockBuilder).forReading();
-			Mockito.verify(pathLock).lockDataForReading();
+			Mockito.verify(pathLock).lockDataForReading(1l, 2l);
 			Mockito.verify(pathLock).close();
 			Mockito.verify(dataLock).close();
 		}
@@ -510,7 +591,7 @@ public class CloudAccessFSTest {
 		public void tearDown() {
 			Mockito.verify(lockManager).createPathLock(PATH.toString());
 			Mockito.verify(pathLockBuilder).forReading();
-			Mockito.verify(pathLock).lockDataForWriting();
+			Mockito.verify(pathLock).lockDataForWriting(1l, 2l);
 			Mockito.verify(pathLock).close();
 			Mockito.verify(dataLock).close();
 		}
@@ -733,6 +814,53 @@ public class CloudAccessFSTest {
 			Assertions.assertEquals(1337l, fi.fh.longValue());
 		}
 
+		@DisplayName("create(...) in deferred mode opens file without writing to the cloud")
+		@Test
+		public void testDeferredCreate() throws IOException {
+			fi.fh.set(0);
+			Mockito.when(config.isDeferredCreate()).thenReturn(true);
+			Mockito.when(fileFactory.create(Mockito.any(), Mockito.anySet(), Mockito.any())).thenReturn(1337l);
+
+			var actualResult = cloudFs.create(PATH.toString(), mode, fi);
+
+			Assertions.assertEquals(0, actualResult);
+			Mockito.verify(fileFactory).create(Mockito.eq(PATH), Mockito.any(), Mockito.any());
+			Mockito.verifyNoInteractions(provider);
+			Assertions.assertEquals(1337l, fi.fh.longValue());
+		}
+
+		@DisplayName("create(...) in write-behind mode within a new folder creates the file locally")
+		@Test
+		public void testWriteBehindCreateInNewFolder() throws IOException {
+			fi.fh.set(0);
+			Mockito.when(namespaceReplayer.isEnabled()).thenReturn(true);
+			Mockito.when(fileFactory.create(Mockito.any(), Mockito.anySet(), Mockito.any())).thenReturn(1337l);
+			namespaceOverlay.apply(NamespaceOperation.of(1, NamespaceOperation.Type.MKDIR, PATH.getParent()));
+
+			var actualResult = cloudFs.create(PATH.toString(), mode, fi);
+
+			Assertions.assertEquals(0, actualResult);
+			Mockito.verify(fileFactory).create(Mockito.eq(PATH), Mockito.any(), Mockito.any());
+			Mockito.verifyNoInteractions(provider);
+			Assertions.assertEquals(1337l, fi.fh.longValue());
+		}
+
+		@DisplayName("create(...) in write-behind mode of a deleted file doesn't reopen the remote file")
+		@Test
+		public void testWriteBehindCreateAfterDelete() throws IOException {
+			fi.fh.set(0);
+			Mockito.when(namespaceReplayer.isEnabled()).thenReturn(true);
+			Mockito.when(fileFactory.create(Mockito.any(), Mockito.anySet(), Mockito.any())).thenReturn(1337l);
+			namespaceOverlay.apply(NamespaceOperation.of(1, NamespaceOperation.Type.DELETE_FILE, PATH));
+
+			var actualResult = cloudFs.create(PATH.toString(), mode, fi);
+
+			Assertions.assertEquals(0, actualResult);
+			Mockito.verify(fileFactory).create(Mockito.eq(PATH), Mockito.any(), Mockito.any());
+			Mockito.verify(fileFactory, Mockito.never()).open(Mockito.any(), Mockito.anySet(), Mockito.anyLong(), Mockito.any());
+			Mockito.verifyNoInteractions(provider);
+		}
+
 		@DisplayName("create(...) returns ENOENT on NotFoundException")
 		@Test
 		public void testNotFoundExceptionReturnsENOENT() {
@@ -791,6 +919,29 @@ public class CloudAccessFSTest {
 			Assertions.assertEquals(0, actualResult);
 		}
 
+		@DisplayName("unlink(...) of locally created file returns 0 without deleting it from the cloud")
+		@Test
+		public void testLocallyCreatedReturnsZero() {
+			Mockito.when(fileFactory.isCreatedLocally(PATH)).thenReturn(true);
+
+			var actualResult = cloudFs.unlink(PATH.toString());
+
+			Assertions.assertEquals(0, actualResult);
+			Mockito.verify(provider, Mockito.never()).deleteFile(Mockito.any());
+		}
+
+		@DisplayName("unlink(...) in write-behind mode returns 0 after enqueuing deletion")
+		@Test
+		public void testWriteBehindReturnsZero() throws IOException {
+			Mockito.when(namespaceReplayer.isEnabled()).thenReturn(true);
+
+			var actualResult = cloudFs.unlink(PATH.toString());
+
+			Assertions.assertEquals(0, actualResult);
+			Mockito.verify(namespaceReplayer).enqueue(NamespaceOperation.Type.DELETE_FILE, PATH, null);
+			Mockito.verify(provider, Mockito.never()).deleteFile(Mockito.any());
+		}
+
 		@DisplayName("unlink(...) returns ENOENT if path not found")
 		@Test
 		public void testNotFoundExceptionReturnsENOENT() {
@@ -0,0 +1,42 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+public class CommittableFutureTest {
+
+	@Test
+	@DisplayName("cancel() succeeds until committed")
+	public void testCancelBeforeCommit() {
+		var future = new CommittableFuture<Integer>();
+
+		Assertions.assertTrue(future.cancel(true));
+		Assertions.assertFalse(future.commit());
+		Assertions.assertTrue(future.isCancelled());
+	}
+
+	@Test
+	@DisplayName("cancel() fails after commit")
+	public void testCancelAfterCommit() {
+		var future = new CommittableFuture<Integer>();
+
+		Assertions.assertTrue(future.commit());
+		Assertions.assertFalse(future.cancel(true));
+		Assertions.assertFalse(future.isDone());
+	}
+
+	@Test
+	@DisplayName("completeWith(...) passes on the result")
+	public void testCompleteWith() {
+		var result = new CompletableFuture<Integer>();
+		var future = new CommittableFuture<Integer>().completeWith(result);
+
+		result.complete(42);
+
+		Assertions.assertEquals(42, future.join());
+	}
+
+}
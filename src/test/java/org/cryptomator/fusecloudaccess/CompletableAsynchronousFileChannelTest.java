@@ -18,6 +18,7 @@ import java.nio.channels.WritableByteChannel;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 public class CompletableAsynchronousFileChannelTest {
 	
@@ -291,6 +292,22 @@ public class CompletableAsynchronousFileChannelTest {
 			Assertions.assertEquals(6 * MIB, result);
 		}
 
+		@Test
+		@DisplayName("subsequent reads run on given executor")
+		public void transferFromWithExecutor() throws IOException {
+			var readExecutor = Mockito.spy(new DirectExecutor());
+			Mockito.doReturn(new byte[4 * MIB]).when(in).readNBytes(4 * MIB);
+			Mockito.doReturn(new byte[2 * MIB]).when(in).readNBytes(2 * MIB);
+			Mockito.doReturn(CompletableFuture.completedFuture(4 * MIB)).when(completableFc).writeAll(Mockito.any(), Mockito.eq(0l * MIB));
+			Mockito.doReturn(CompletableFuture.completedFuture(2 * MIB)).when(completableFc).writeAll(Mockito.any(), Mockito.eq(4l * MIB));
+
+			var futureResult = completableFc.transferFrom(in, 0l, 6l * MIB, readExecutor);
+			var result = Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> futureResult.get());
+
+			Assertions.assertEquals(6 * MIB, result);
+			Mockito.verify(readExecutor, Mockito.times(2)).execute(Mockito.any());
+		}
+
 	}
 
 	@Nested
@@ -516,4 +533,12 @@ public class CompletableAsynchronousFileChannelTest {
 		Assertions.assertFalse(buffer.hasRemaining());
 	}
 
-}
\ No newline at end of file
+	static class DirectExecutor implements Executor {
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HandleTableTest {
+
+	private HandleTable<String> table;
+
+	@BeforeEach
+	public void setup() {
+		table = new HandleTable<>();
+	}
+
+	@Test
+	@DisplayName("added values can be looked up until removed")
+	public void testAddGetRemove() {
+		long handle = table.add("foo");
+
+		Assertions.assertNotEquals(0, handle);
+		Assertions.assertEquals("foo", table.get(handle));
+		Assertions.assertEquals("foo", table.remove(handle));
+		Assertions.assertNull(table.get(handle));
+		Assertions.assertNull(table.remove(handle));
+	}
+
+	@Test
+	@DisplayName("unknown handles don't resolve")
+	public void testUnknownHandle() {
+		table.add("foo");
+
+		Assertions.assertNull(table.get(0));
+		Assertions.assertNull(table.get(-1));
+		Assertions.assertNull(table.get(Long.MAX_VALUE));
+		Assertions.assertNull(table.remove(12345));
+	}
+
+	@Test
+	@DisplayName("reused slots don't resolve stale handles")
+	public void testStaleHandle() {
+		long oldHandle = table.add("foo");
+		table.remove(oldHandle);
+
+		long newHandle = table.add("bar");
+
+		Assertions.assertNotEquals(oldHandle, newHandle);
+		Assertions.assertNull(table.get(oldHandle));
+		Assertions.assertNull(table.remove(oldHandle));
+		Assertions.assertEquals("bar", table.get(newHandle));
+	}
+
+	@Test
+	@DisplayName("table grows and reuses freed slots")
+	public void testGrowAndReuse() {
+		var handles = new ArrayList<Long>();
+		for (int i = 0; i < 1000; i++) {
+			handles.add(table.add("value" + i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			Assertions.assertEquals("value" + i, table.get(handles.get(i)));
+		}
+		int capacity = table.capacity();
+
+		for (var handle : handles) {
+			table.remove(handle);
+		}
+		for (int i = 0; i < 1000; i++) {
+			table.add("other" + i);
+		}
+
+		Assertions.assertEquals(capacity, table.capacity());
+	}
+
+	@Test
+	@DisplayName("concurrently added handles are distinct")
+	public void testConcurrentAccess() throws InterruptedException {
+		int numThreads = 8;
+		ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+		CountDownLatch done = new CountDownLatch(numThreads);
+		AtomicInteger failures = new AtomicInteger();
+		for (int t = 0; t < numThreads; t++) {
+			String value = "thread" + t;
+			threadPool.submit(() -> {
+				var handles = new ArrayList<Long>();
+				for (int i = 0; i < 1_000; i++) {
+					for (int j = 0; j < 10; j++) {
+						handles.add(table.add(value));
+					}
+					for (var handle : handles) {
+						if (table.get(handle) != value || table.remove(handle) != value) {
+							failures.incrementAndGet(); // handle has been handed out twice or resolves to a different value
+						}
+					}
+					handles.clear();
+				}
+				done.countDown();
+			});
+		}
+
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			done.await();
+		});
+		threadPool.shutdown();
+		Assertions.assertTrue(threadPool.awaitTermination(1, TimeUnit.SECONDS));
+		Assertions.assertEquals(0, failures.get());
+	}
+
+}
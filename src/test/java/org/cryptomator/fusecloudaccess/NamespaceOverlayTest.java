@@ -0,0 +1,163 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.cryptomator.fusecloudaccess.NamespaceOperation.Type.*;
+
+public class NamespaceOverlayTest {
+
+	private static final CloudPath A = CloudPath.of("/a");
+	private static final CloudPath B = CloudPath.of("/b");
+	private static final CloudPath C = CloudPath.of("/c");
+
+	private NamespaceOverlay overlay;
+	private long seq;
+
+	@BeforeEach
+	public void setup() {
+		overlay = new NamespaceOverlay();
+	}
+
+	private NamespaceOperation apply(NamespaceOperation.Type type, CloudPath path, CloudPath target) {
+		var op = NamespaceOperation.of(++seq, type, path, target);
+		overlay.apply(op);
+		return op;
+	}
+
+	private void assertRemote(CloudPath expected, CloudPath path) {
+		var resolution = overlay.resolve(path);
+		Assertions.assertTrue(resolution.isRemote(), path + " resolved to " + resolution);
+		Assertions.assertEquals(expected, resolution.remotePath);
+	}
+
+	private void assertAbsent(CloudPath path) {
+		var resolution = overlay.resolve(path);
+		Assertions.assertFalse(resolution.isRemote() || resolution.localFolder, path + " resolved to " + resolution);
+	}
+
+	@Test
+	@DisplayName("paths without entries resolve to themselves")
+	public void testEmpty() {
+		assertRemote(A.resolve("x"), A.resolve("x"));
+	}
+
+	@Test
+	@DisplayName("new folder exists locally, its children don't exist")
+	public void testMkdir() {
+		apply(MKDIR, A, null);
+
+		Assertions.assertTrue(overlay.resolve(A).localFolder);
+		assertAbsent(A.resolve("x"));
+	}
+
+	@Test
+	@DisplayName("deleted folder and its children don't exist")
+	public void testDelete() {
+		apply(DELETE_FOLDER, A, null);
+
+		assertAbsent(A);
+		assertAbsent(A.resolve("x"));
+		assertRemote(B, B);
+	}
+
+	@Test
+	@DisplayName("moved folder and its children are looked up at their old location")
+	public void testMove() {
+		apply(MOVE, A, B);
+
+		assertAbsent(A);
+		assertAbsent(A.resolve("x"));
+		assertRemote(A, B);
+		assertRemote(A.resolve("x/y"), B.resolve("x/y"));
+	}
+
+	@Test
+	@DisplayName("chained moves are rebased while being replayed")
+	public void testChainedMoves() {
+		var op1 = apply(MOVE, A, B);
+		var op2 = apply(MOVE, B, C);
+		assertRemote(A.resolve("x"), C.resolve("x"));
+
+		overlay.replayed(op1); // cloud now contains /b
+
+		assertRemote(B.resolve("x"), C.resolve("x"));
+		assertAbsent(B);
+		assertRemote(A, A); // no longer overlaid
+
+		overlay.replayed(op2); // cloud now contains /c
+
+		assertRemote(C.resolve("x"), C.resolve("x"));
+		Assertions.assertEquals(0, overlay.size());
+	}
+
+	@Test
+	@DisplayName("moving a new folder moves its overlay entries")
+	public void testMoveNewFolder() {
+		var op1 = apply(MKDIR, A, null);
+		apply(MKDIR, A.resolve("x"), null);
+		apply(MOVE, A, B);
+
+		overlay.replayed(op1); // must not remove entries owned by the move
+
+		Assertions.assertTrue(overlay.resolve(B).localFolder);
+		Assertions.assertTrue(overlay.resolve(B.resolve("x")).localFolder);
+		assertAbsent(A);
+	}
+
+	@Test
+	@DisplayName("entries of later operations survive replay of earlier ones")
+	public void testRecreate() {
+		var op1 = apply(DELETE_FOLDER, A, null);
+		var op2 = apply(MKDIR, A, null);
+
+		overlay.replayed(op1);
+		Assertions.assertTrue(overlay.resolve(A).localFolder);
+
+		overlay.replayed(op2);
+		assertRemote(A, A);
+	}
+
+	@Test
+	@DisplayName("discarding an operation reverts to the cloud's state")
+	public void testDiscard() {
+		var op = apply(DELETE_FILE, A, null);
+
+		overlay.discard(op);
+
+		assertRemote(A, A);
+	}
+
+	@Test
+	@DisplayName("listing hides deleted and adds new children")
+	public void testList() {
+		apply(DELETE_FILE, A.resolve("deleted"), null);
+		apply(MKDIR, A.resolve("new"), null);
+		apply(MOVE, B, A.resolve("moved"));
+
+		var listing = overlay.list(A);
+
+		Assertions.assertEquals(Optional.of(A), listing.remoteDir);
+		Assertions.assertEquals(Set.of("deleted", "new", "moved"), listing.hiddenChildren);
+		Assertions.assertEquals(Set.of("new", "moved"), Set.copyOf(listing.addedChildren));
+	}
+
+	@Test
+	@DisplayName("new folders are not listed remotely")
+	public void testListNewFolder() {
+		apply(MKDIR, A, null);
+
+		var listing = overlay.list(A);
+
+		Assertions.assertEquals(Optional.empty(), listing.remoteDir);
+		Assertions.assertEquals(List.of(), listing.addedChildren);
+	}
+
+}
@@ -0,0 +1,230 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudItemMetadata;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.exceptions.AlreadyExistsException;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
+import org.cryptomator.fusecloudaccess.locks.DataLock;
+import org.cryptomator.fusecloudaccess.locks.LockManager;
+import org.cryptomator.fusecloudaccess.locks.PathLock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.cryptomator.fusecloudaccess.NamespaceOperation.Type.*;
+
+public class NamespaceReplayerTest {
+
+	private static final CloudPath A = CloudPath.of("/a");
+	private static final CloudPath B = CloudPath.of("/b");
+
+	private Path cacheDir;
+	private CloudProvider provider;
+	private CloudAccessFSConfig config;
+	private NamespaceOverlay overlay;
+	private LockManager lockManager;
+	private NamespaceReplayer replayer;
+
+	@BeforeEach
+	public void setup(@TempDir Path tmpDir) {
+		this.cacheDir = tmpDir;
+		this.provider = Mockito.mock(CloudProvider.class);
+		this.config = Mockito.mock(CloudAccessFSConfig.class);
+		this.overlay = new NamespaceOverlay();
+		this.lockManager = new LockManager();
+		Mockito.when(config.getCacheDir()).thenReturn(cacheDir);
+		Mockito.when(config.isWriteBehindNamespace()).thenReturn(true);
+		this.replayer = createReplayer();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		replayer.shutdown();
+	}
+
+	private NamespaceReplayer createReplayer() {
+		var retryPolicy = new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+		return new NamespaceReplayer(provider, config, lockManager, retryPolicy, overlay);
+	}
+
+	private long recordCount() throws IOException {
+		try (var files = Files.list(cacheDir.resolve(NamespaceReplayer.QUEUE_DIR))) {
+			return files.count();
+		}
+	}
+
+	@Test
+	@DisplayName("operations are replayed in order and their records removed")
+	public void testReplayInOrder() throws IOException, InterruptedException {
+		Mockito.when(provider.createFolder(A)).thenReturn(CompletableFuture.completedFuture(A));
+		Mockito.when(provider.move(A, B, true)).thenReturn(CompletableFuture.completedFuture(B));
+
+		replayer.enqueue(MKDIR, A, null);
+		replayer.enqueue(MOVE, A, B);
+
+		Assertions.assertTrue(replayer.awaitReplayed(1, TimeUnit.SECONDS));
+		var inOrder = Mockito.inOrder(provider);
+		inOrder.verify(provider).createFolder(A);
+		inOrder.verify(provider).move(A, B, true);
+		Assertions.assertEquals(2, replayer.getReplayedOperations());
+		Assertions.assertEquals(0, replayer.getPendingOperations());
+		Assertions.assertEquals(0, overlay.size());
+		Assertions.assertEquals(0, recordCount());
+	}
+
+	@Test
+	@DisplayName("operations already reflected by the cloud count as replayed")
+	public void testAlreadyApplied() throws IOException, InterruptedException {
+		Mockito.when(provider.createFolder(A)).thenReturn(CompletableFuture.failedFuture(new AlreadyExistsException(A.toString())));
+		Mockito.when(provider.deleteFile(B)).thenReturn(CompletableFuture.failedFuture(new NotFoundException(B.toString())));
+
+		replayer.enqueue(MKDIR, A, null);
+		replayer.enqueue(DELETE_FILE, B, null);
+
+		Assertions.assertTrue(replayer.awaitReplayed(1, TimeUnit.SECONDS));
+		Assertions.assertEquals(2, replayer.getReplayedOperations());
+		Assertions.assertEquals(0, replayer.getConflicts());
+	}
+
+	@Test
+	@DisplayName("move is retried if it can't be determined whether it has already been applied")
+	public void testAlreadyAppliedUnknown() throws IOException, InterruptedException {
+		Mockito.when(provider.move(A, B, true)).thenReturn(CompletableFuture.failedFuture(new NotFoundException(A.toString())));
+		Mockito.when(provider.itemMetadata(B)).thenReturn(CompletableFuture.failedFuture(new IOException("connection reset")), CompletableFuture.completedFuture(Mockito.mock(CloudItemMetadata.class)));
+
+		replayer.enqueue(MOVE, A, B);
+
+		Assertions.assertTrue(replayer.awaitReplayed(1, TimeUnit.SECONDS));
+		Mockito.verify(provider, Mockito.times(2)).move(A, B, true);
+		Assertions.assertEquals(1, replayer.getFailedOperations());
+		Assertions.assertEquals(1, replayer.getReplayedOperations());
+		Assertions.assertEquals(0, replayer.getConflicts());
+		Assertions.assertEquals(0, recordCount());
+	}
+
+	@Test
+	@DisplayName("conflicting operation is skipped and the cloud's state takes precedence")
+	public void testConflict() throws IOException, InterruptedException {
+		Mockito.when(provider.move(A, B, true)).thenReturn(CompletableFuture.failedFuture(new NotFoundException(A.toString())));
+		Mockito.when(provider.itemMetadata(B)).thenReturn(CompletableFuture.failedFuture(new NotFoundException(B.toString())));
+
+		replayer.enqueue(MOVE, A, B);
+
+		Assertions.assertTrue(replayer.awaitReplayed(1, TimeUnit.SECONDS));
+		Assertions.assertEquals(1, replayer.getConflicts());
+		Assertions.assertEquals(0, overlay.size());
+		Assertions.assertEquals(0, recordCount());
+	}
+
+	@Test
+	@DisplayName("failed operation is retried and blocks subsequent operations")
+	public void testFailure() throws IOException, InterruptedException {
+		Mockito.when(provider.deleteFolder(A)).thenReturn(CompletableFuture.failedFuture(new IOException("connection reset")), CompletableFuture.failedFuture(new IOException("connection reset")), CompletableFuture.completedFuture(null));
+		Mockito.when(provider.createFolder(B)).thenReturn(CompletableFuture.completedFuture(B));
+
+		replayer.enqueue(DELETE_FOLDER, A, null);
+		replayer.enqueue(MKDIR, B, null);
+
+		Assertions.assertTrue(replayer.awaitReplayed(1, TimeUnit.SECONDS));
+		var inOrder = Mockito.inOrder(provider);
+		inOrder.verify(provider, Mockito.times(3)).deleteFolder(A);
+		inOrder.verify(provider).createFolder(B);
+		Assertions.assertEquals(2, replayer.getFailedOperations());
+		Assertions.assertEquals(2, replayer.getReplayedOperations());
+		Assertions.assertEquals(0, recordCount());
+	}
+
+	@Test
+	@DisplayName("failing operation remains pending")
+	public void testPendingFailure() throws IOException, InterruptedException {
+		Mockito.when(provider.deleteFolder(A)).thenReturn(CompletableFuture.failedFuture(new IOException("connection reset")));
+
+		replayer.enqueue(DELETE_FOLDER, A, null);
+
+		Assertions.assertFalse(replayer.awaitReplayed(100, TimeUnit.MILLISECONDS));
+		Assertions.assertTrue(replayer.isRetrying());
+		Assertions.assertEquals(1, replayer.getPendingOperations());
+		Assertions.assertEquals(1, overlay.size());
+		Assertions.assertEquals(1, recordCount());
+	}
+
+	@Test
+	@DisplayName("awaiting a path only waits for operations affecting the path or its ancestors")
+	public void testAwaitPath() throws IOException, InterruptedException {
+		var mkdirA = new CompletableFuture<CloudPath>();
+		Mockito.when(provider.createFolder(A)).thenReturn(mkdirA);
+
+		replayer.enqueue(MKDIR, A, null);
+
+		Assertions.assertTrue(replayer.awaitReplayed(B.resolve("file"), 0, TimeUnit.MILLISECONDS));
+		Assertions.assertFalse(replayer.awaitReplayed(A.resolve("file"), 10, TimeUnit.MILLISECONDS));
+		mkdirA.complete(A);
+		Assertions.assertTrue(replayer.awaitReplayed(A.resolve("file"), 1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	@DisplayName("replaying a move doesn't deadlock with a concurrent reverse rename")
+	public void testReplayConcurrentWithReverseRename() {
+		Mockito.when(provider.move(B, A, true)).thenReturn(CompletableFuture.completedFuture(A));
+		var paths = LockManager.inLockOrder(A.toString(), B.toString()); // as locked by CloudAccessFS.rename("/a", "/b")
+
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> { // deadlock protection
+			try (PathLock firstPathLock = lockManager.createPathLock(paths.get(0)).forWriting(); //
+				 DataLock firstDataLock = firstPathLock.lockDataForWriting()) {
+				replayer.enqueue(MOVE, B, A);
+				Thread.sleep(100); // give the replay a chance to lock whatever it can
+				try (PathLock secondPathLock = lockManager.createPathLock(paths.get(1)).forWriting(); //
+					 DataLock secondDataLock = secondPathLock.lockDataForWriting()) {
+					// rename
+				}
+			}
+			Assertions.assertTrue(replayer.awaitReplayed(1, TimeUnit.SECONDS));
+		});
+		Mockito.verify(provider).move(B, A, true);
+	}
+
+	@Test
+	@DisplayName("operations not yet replayed are resumed in order")
+	public void testResume() throws IOException {
+		Mockito.when(provider.createFolder(Mockito.any())).thenReturn(new CompletableFuture<>()); // never completes
+		replayer.enqueue(MKDIR, A, null);
+		replayer.enqueue(MOVE, A, B);
+		replayer.shutdown();
+
+		var resumed = createReplayer().load();
+
+		Assertions.assertEquals(2, resumed.size());
+		Assertions.assertEquals(MKDIR, resumed.get(0).type);
+		Assertions.assertEquals(A, resumed.get(0).path);
+		Assertions.assertEquals(MOVE, resumed.get(1).type);
+		Assertions.assertEquals(List.of(A, B), List.of(resumed.get(1).path, resumed.get(1).target));
+	}
+
+	@Test
+	@DisplayName("paths beyond ISO-8859-1 survive a restart")
+	public void testResumeNonLatin1Path() throws IOException {
+		var path = CloudPath.of("/Доку/日本.txt");
+		Mockito.when(provider.deleteFile(Mockito.any())).thenReturn(new CompletableFuture<>()); // never completes
+		replayer.enqueue(DELETE_FILE, path, null);
+		replayer.shutdown();
+
+		var resumed = createReplayer().load();
+
+		Assertions.assertEquals(1, resumed.size());
+		Assertions.assertEquals(path, resumed.get(0).path);
+	}
+
+}
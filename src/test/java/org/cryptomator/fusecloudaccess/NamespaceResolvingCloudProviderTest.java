@@ -0,0 +1,82 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.ProgressListener;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.cryptomator.fusecloudaccess.NamespaceOperation.Type.*;
+
+public class NamespaceResolvingCloudProviderTest {
+
+	private static final CloudPath A = CloudPath.of("/a");
+	private static final CloudPath B = CloudPath.of("/b");
+
+	private CloudProvider delegate;
+	private NamespaceOverlay overlay;
+	private NamespaceResolvingCloudProvider provider;
+	private long seq;
+
+	@BeforeEach
+	public void setup() {
+		delegate = Mockito.mock(CloudProvider.class);
+		overlay = new NamespaceOverlay();
+		provider = new NamespaceResolvingCloudProvider(delegate, overlay);
+	}
+
+	private NamespaceOperation apply(NamespaceOperation.Type type, CloudPath path, CloudPath target) {
+		var op = NamespaceOperation.of(++seq, type, path, target);
+		overlay.apply(op);
+		return op;
+	}
+
+	@Test
+	@DisplayName("reading a renamed file reads from its old location until the move is replayed")
+	public void testReadAfterRename() {
+		var in = InputStream.nullInputStream();
+		Mockito.when(delegate.read(Mockito.any(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any())).thenReturn(CompletableFuture.completedFuture(in));
+		var op = apply(MOVE, A, B);
+
+		provider.read(B.resolve("file"), 0, 42, ProgressListener.NO_PROGRESS_AWARE);
+		overlay.replayed(op);
+		provider.read(B.resolve("file"), 0, 42, ProgressListener.NO_PROGRESS_AWARE);
+
+		var inOrder = Mockito.inOrder(delegate);
+		inOrder.verify(delegate).read(A.resolve("file"), 0, 42, ProgressListener.NO_PROGRESS_AWARE);
+		inOrder.verify(delegate).read(B.resolve("file"), 0, 42, ProgressListener.NO_PROGRESS_AWARE);
+	}
+
+	@Test
+	@DisplayName("reading a deleted file fails without contacting the cloud")
+	public void testReadAfterDelete() {
+		apply(DELETE_FILE, A, null);
+
+		var result = provider.read(A, ProgressListener.NO_PROGRESS_AWARE).toCompletableFuture();
+
+		var thrown = Assertions.assertThrows(ExecutionException.class, result::get);
+		Assertions.assertInstanceOf(NotFoundException.class, thrown.getCause());
+		Mockito.verifyNoInteractions(delegate);
+	}
+
+	@Test
+	@DisplayName("other requests are passed through unchanged")
+	public void testWritePassedThrough() {
+		apply(MOVE, A, B);
+		var in = InputStream.nullInputStream();
+
+		provider.write(B, true, in, 0l, Optional.empty(), ProgressListener.NO_PROGRESS_AWARE);
+
+		Mockito.verify(delegate).write(B, true, in, 0l, Optional.empty(), ProgressListener.NO_PROGRESS_AWARE);
+	}
+
+}
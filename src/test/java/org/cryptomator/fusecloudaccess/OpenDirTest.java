@@ -117,4 +117,25 @@ public class OpenDirTest {
 		Mockito.verify(filler, Mockito.never()).apply(Mockito.eq(buf), Mockito.eq("m4"), Mockito.any(), Mockito.anyLong());
 	}
 
-}
\ No newline at end of file
+	@Test
+	@DisplayName("locally created children are listed after remote children")
+	public void testListLocallyCreated() {
+		dir = new OpenDir(provider, listingFilter, Optional.of(path), List.of("m2", "local"));
+		var part1 = new CloudItemList(List.of(m1, m2), Optional.empty());
+		Mockito.when(provider.list(path, Optional.empty())).thenReturn(CompletableFuture.completedFuture(part1));
+		Mockito.when(listingFilter.test(Mockito.any())).thenReturn(true);
+
+		var futureResult = dir.list(buf, filler, 0);
+		var result = Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> futureResult.toCompletableFuture().get());
+
+		Assertions.assertEquals(0, result);
+		var inOrder = Mockito.inOrder(filler);
+		inOrder.verify(filler).apply(buf, ".", null, 1);
+		inOrder.verify(filler).apply(buf, "..", null, 2);
+		inOrder.verify(filler).apply(buf, "m1", null, 3);
+		inOrder.verify(filler).apply(buf, "m2", null, 4);
+		inOrder.verify(filler).apply(buf, "local", null, 5);
+		inOrder.verifyNoMoreInteractions();
+	}
+
+}
@@ -9,34 +9,43 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.List;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class OpenFileFactoryTest {
 
+	private static final TransferLimits UNLIMITED = new TransferLimits(new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0));
 	private static final CloudPath PATH = CloudPath.of("this/is/a/path");
 	private static final Set<OpenFlags> OPEN_FLAGS = Set.of(OpenFlags.O_RDONLY);
 
-	private ConcurrentMap<CloudPath, OpenFile> activeFiles = new ConcurrentHashMap<>();
+	private PathIndexedMap<OpenFile> activeFiles = new PathIndexedMap<>();
 	private CloudProvider provider = Mockito.mock(CloudProvider.class);
 	private CloudAccessFSConfig config = Mockito.mock(CloudAccessFSConfig.class);
 	private OpenFileUploader uploader = Mockito.mock(OpenFileUploader.class);
+	private WriteBackJournal journal = Mockito.mock(WriteBackJournal.class);
+	private UploadDebouncer debouncer = Mockito.mock(UploadDebouncer.class);
 	private ScheduledExecutorService scheduler = Mockito.mock(ScheduledExecutorService.class);
 	private OpenFileFactory openFileFactory;
 	private OpenFile openFile;
+	private Path cacheDir;
 
 	@BeforeEach
 	public void setup(@TempDir Path tmpDir) {
+		cacheDir = tmpDir;
 		Mockito.when(config.getCacheDir()).thenReturn(tmpDir);
-		openFileFactory = new OpenFileFactory(activeFiles, provider, config, uploader, scheduler);
+		openFileFactory = new OpenFileFactory(activeFiles, provider, UNLIMITED, config, uploader, journal, debouncer, new CacheFilePool(tmpDir, 0, Runnable::run), scheduler, Runnable::run);
 		openFile = Mockito.mock(OpenFile.class);
 		activeFiles.put(PATH, openFile);
 		Mockito.when(openFile.getOpenFileHandleCount()).thenReturn(new AtomicInteger(0));
@@ -85,6 +94,20 @@ public class OpenFileFactoryTest {
 		Mockito.verify(uploader, Mockito.never()).scheduleUpload(Mockito.any(), Mockito.any());
 	}
 
+	@Test
+	@DisplayName("reopening an idle file cancels its eviction")
+	public void testReopenCancelsEviction() throws IOException {
+		var handle = openFileFactory.open(PATH, OPEN_FLAGS, 42l, Instant.EPOCH);
+		Mockito.when(openFile.getPath()).thenReturn(PATH);
+		Mockito.when(openFile.getState()).thenReturn(OpenFile.State.UNMODIFIED);
+		openFileFactory.close(handle);
+		Assumptions.assumeTrue(openFileFactory.getIdleFileCount() == 1);
+
+		openFileFactory.open(PATH, OPEN_FLAGS, 42l, Instant.EPOCH);
+
+		Assertions.assertEquals(0, openFileFactory.getIdleFileCount());
+	}
+
 	@Test
 	@DisplayName("closing last file handle triggers upload if modified")
 	public void testClosingLastHandleTriggersUpload() throws IOException {
@@ -98,9 +121,53 @@ public class OpenFileFactoryTest {
 
 		Assertions.assertEquals(0, openFile.getOpenFileHandleCount().get());
 		Assertions.assertTrue(activeFiles.containsKey(PATH));
+		var inOrder = Mockito.inOrder(uploader, journal);
+		inOrder.verify(uploader).scheduleUpload(Mockito.eq(openFile), Mockito.any());
+		inOrder.verify(journal).recordLater(openFile);
+	}
+
+	@Test
+	@DisplayName("closing last file handle defers upload if debouncer agrees")
+	public void testClosingLastHandleDefersUpload() throws IOException {
+		var handle = openFileFactory.open(PATH, OPEN_FLAGS, 42l, Instant.EPOCH);
+		Assumptions.assumeTrue(openFile.equals(openFileFactory.get(handle).get()));
+		Mockito.when(openFile.getState()).thenReturn(OpenFile.State.NEEDS_UPLOAD);
+		Mockito.when(openFile.getPath()).thenReturn(PATH);
+		Mockito.when(openFile.getOpenFileHandleCount()).thenReturn(new AtomicInteger(1));
+		var upload = ArgumentCaptor.forClass(Runnable.class);
+		Mockito.when(debouncer.defer(Mockito.eq(openFile), upload.capture())).thenReturn(true);
+
+		openFileFactory.close(handle);
+
+		Mockito.verify(journal).recordLater(openFile);
+		Mockito.verify(openFile, Mockito.never()).transitionToUploading();
+		Mockito.verify(uploader, Mockito.never()).scheduleUpload(Mockito.any(), Mockito.any());
+
+		Mockito.when(openFile.transitionToUploading()).thenReturn(true);
+		upload.getValue().run(); // quiet period elapsed
+
 		Mockito.verify(uploader).scheduleUpload(Mockito.eq(openFile), Mockito.any());
 	}
 
+	@Test
+	@DisplayName("deferred upload is skipped if file has been reopened")
+	public void testDeferredUploadSkippedAfterReopen() throws IOException {
+		var handle = openFileFactory.open(PATH, OPEN_FLAGS, 42l, Instant.EPOCH);
+		Mockito.when(openFile.getState()).thenReturn(OpenFile.State.NEEDS_UPLOAD);
+		Mockito.when(openFile.getPath()).thenReturn(PATH);
+		Mockito.when(openFile.getOpenFileHandleCount()).thenReturn(new AtomicInteger(1));
+		var upload = ArgumentCaptor.forClass(Runnable.class);
+		Mockito.when(debouncer.defer(Mockito.eq(openFile), upload.capture())).thenReturn(true);
+		openFileFactory.close(handle);
+
+		openFileFactory.open(PATH, OPEN_FLAGS, 42l, Instant.EPOCH);
+		upload.getValue().run();
+
+		Mockito.verify(debouncer, Mockito.times(2)).cancel(openFile); // the file is already cached when opening it for the first time
+		Mockito.verify(openFile, Mockito.never()).transitionToUploading();
+		Mockito.verify(uploader, Mockito.never()).scheduleUpload(Mockito.any(), Mockito.any());
+	}
+
 	@Test
 	@DisplayName("closing invalid handle is no-op")
 	public void testClosingNonExisting() {
@@ -120,6 +187,109 @@ public class OpenFileFactoryTest {
 	}
 
 
+	@Test
+	@DisplayName("resumePendingUploads() restores journaled files and schedules their upload")
+	public void testResumePendingUploads(@TempDir Path tmpDir) throws IOException {
+		var resumedPath = CloudPath.of("/resumed.txt");
+		var cacheFile = Files.write(tmpDir.resolve("cache.file"), new byte[42]);
+		var record = new WriteBackJournal.Record(resumedPath, "cache.file", 42l, Instant.EPOCH, List.of());
+		Mockito.when(config.getCacheDir()).thenReturn(tmpDir);
+		Mockito.when(journal.load()).thenReturn(List.of(record));
+		openFileFactory = new OpenFileFactory(activeFiles, provider, UNLIMITED, config, uploader, journal, debouncer, new CacheFilePool(tmpDir, 0, Runnable::run), scheduler, Runnable::run);
+
+		var resumed = openFileFactory.resumePendingUploads();
+
+		Assertions.assertEquals(1, resumed);
+		var restored = activeFiles.get(resumedPath);
+		Assertions.assertNotNull(restored);
+		Assertions.assertEquals(OpenFile.State.UPLOADING, restored.getState());
+		Assertions.assertEquals(cacheFile, restored.getCacheFile());
+		Assertions.assertEquals(42l, restored.getSize());
+		Mockito.verify(uploader).scheduleUpload(Mockito.eq(restored), Mockito.any());
+		restored.close();
+	}
+
+	@Test
+	@DisplayName("delete(...) removes journal record")
+	public void testDeleteRemovesJournalRecord() {
+		openFileFactory.delete(PATH);
+
+		Mockito.verify(uploader).cancelUpload(PATH);
+		Mockito.verify(debouncer).forget(openFile);
+		Mockito.verify(journal).remove(openFile);
+		Mockito.verify(openFile).close();
+		Assertions.assertFalse(activeFiles.containsKey(PATH));
+	}
+
+	@Test
+	@DisplayName("moving a file updates its journal record")
+	public void testMoveRelocatesJournalRecord() throws IOException {
+		var newPath = CloudPath.of("this/is/another/path");
+
+		openFileFactory.moveSingleFile(PATH, newPath);
+
+		Mockito.verify(openFile).setPath(newPath);
+		Mockito.verify(journal).relocate(openFile);
+		Assertions.assertSame(openFile, activeFiles.get(newPath));
+	}
+
+	@Test
+	@DisplayName("move(...) moves all files within the subtree")
+	public void testMoveSubtree() {
+		var child = Mockito.mock(OpenFile.class);
+		var sibling = Mockito.mock(OpenFile.class);
+		activeFiles.put(PATH.resolve("child"), child);
+		activeFiles.put(CloudPath.of("this/is/a/path!"), sibling);
+
+		openFileFactory.move(PATH, CloudPath.of("this/is/another/path"));
+
+		Mockito.verify(openFile).setPath(CloudPath.of("this/is/another/path"));
+		Mockito.verify(child).setPath(CloudPath.of("this/is/another/path/child"));
+		Mockito.verify(sibling, Mockito.never()).setPath(Mockito.any());
+		Assertions.assertEquals(List.of(CloudPath.of("this/is/a/path!")), activeFiles.subtree(CloudPath.of("this/is/a")));
+	}
+
+	@Test
+	@DisplayName("opening a file that isn't open yet creates a cache file")
+	public void testOpenCreatesCacheFile() throws IOException {
+		var newPath = CloudPath.of("this/is/a/new");
+
+		var handle = openFileFactory.open(newPath, OPEN_FLAGS, 42l, Instant.EPOCH);
+
+		var file = openFileFactory.get(handle).get();
+		Assertions.assertSame(file, activeFiles.get(newPath));
+		Assertions.assertEquals(42l, file.getSize());
+		Assertions.assertEquals(1, file.getOpenFileHandleCount().get());
+		try (var cacheFiles = Files.list(cacheDir)) {
+			Assertions.assertEquals(1, cacheFiles.count());
+		}
+	}
+
+	@Test
+	@DisplayName("create(...) marks new file as created locally")
+	public void testCreateLocally() throws IOException {
+		var newPath = CloudPath.of("this/is/a/new");
+
+		var handle = openFileFactory.create(newPath, OPEN_FLAGS, Instant.EPOCH);
+
+		var file = openFileFactory.get(handle).get();
+		Assertions.assertTrue(file.isCreatedLocally());
+		Assertions.assertEquals(OpenFile.State.NEEDS_UPLOAD, file.getState());
+		Assertions.assertTrue(openFileFactory.isCreatedLocally(newPath));
+		Assertions.assertEquals(List.of("new"), openFileFactory.getLocallyCreatedChildren(CloudPath.of("this/is/a")));
+		Assertions.assertEquals(List.of(), openFileFactory.getLocallyCreatedChildren(CloudPath.of("this/is")));
+	}
+
+	@Test
+	@DisplayName("create(...) of an open file reopens it")
+	public void testCreateExisting() throws IOException {
+		var handle = openFileFactory.create(PATH, OPEN_FLAGS, Instant.EPOCH);
+
+		Assertions.assertSame(openFile, openFileFactory.get(handle).get());
+		Mockito.verify(openFile, Mockito.never()).markCreatedLocally();
+		Assertions.assertFalse(openFileFactory.isCreatedLocally(PATH));
+	}
+
 	@DisplayName("getCachedMetadata()")
 	@Test
 	public void testGetCachedMetadata() {
@@ -134,4 +304,29 @@ public class OpenFileFactoryTest {
 		Assertions.assertEquals(42l, metadata.get().getSize().get());
 	}
 
+	@DisplayName("getCachedMetadata() of a file closed while reading its size")
+	@Test
+	public void testGetCachedMetadataOfEvictedFile() {
+		Mockito.when(openFile.getLastModified()).then(invocation -> {
+			activeFiles.remove(PATH); // evicted concurrently
+			return Instant.EPOCH;
+		});
+		Mockito.when(openFile.getSize()).thenThrow(new IllegalStateException("fc not open for " + PATH));
+
+		var metadata = openFileFactory.getCachedMetadata(PATH);
+
+		Assertions.assertFalse(metadata.isPresent());
+	}
+
+	@DisplayName("getCachedMetadata() of a file closed while reading its size from the channel")
+	@Test
+	public void testGetCachedMetadataOfFileClosedDuringRead() {
+		Mockito.when(openFile.getLastModified()).thenReturn(Instant.EPOCH);
+		Mockito.when(openFile.getSize()).thenThrow(new UncheckedIOException(new ClosedChannelException()));
+
+		var metadata = openFileFactory.getCachedMetadata(PATH);
+
+		Assertions.assertFalse(metadata.isPresent());
+	}
+
 }
@@ -0,0 +1,282 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.exceptions.CloudProviderException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.*;
+
+public class OpenFileSnapshotTest {
+
+	private static final TransferLimits UNLIMITED = new TransferLimits(new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0));
+	private static final int BLOCK = OpenFileSnapshot.BLOCK_SIZE;
+	private static final int SIZE = 3 * BLOCK + 100;
+	private static final CloudPath CLOUD_PATH = CloudPath.of("/path/to/file");
+
+	private Path overlayFile;
+	private CompletableAsynchronousFileChannel fc;
+	private Consumer<OpenFileSnapshot> onClose;
+	private CloudProvider provider;
+	private OpenFileSnapshot snapshot;
+
+	@BeforeEach
+	public void setup(@TempDir Path tmpDir) throws IOException {
+		Path cacheFile = tmpDir.resolve("cache.file");
+		this.overlayFile = tmpDir.resolve("overlay.file");
+		var content = new byte[SIZE];
+		Arrays.fill(content, (byte) 'a');
+		Files.write(cacheFile, content);
+		this.fc = new CompletableAsynchronousFileChannel(AsynchronousFileChannel.open(cacheFile, READ, WRITE));
+		this.onClose = Mockito.mock(Consumer.class);
+		this.provider = Mockito.mock(CloudProvider.class);
+		this.snapshot = new OpenFileSnapshot(fc, overlayFile, SIZE, Instant.EPOCH, ImmutableRangeSet.of(), provider, UNLIMITED, Runnable::run, () -> CLOUD_PATH, onClose);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		fc.close();
+	}
+
+	@Test
+	@DisplayName("modifications beyond the snapshot's size are not preserved")
+	public void testPreserveBeyondSize() throws IOException {
+		snapshot.preserve(SIZE, SIZE + 100);
+
+		Assertions.assertEquals(0, snapshot.getPreservedBlockCount());
+		Assertions.assertTrue(Files.notExists(overlayFile));
+	}
+
+	@Test
+	@DisplayName("only blocks intersecting with modified range are preserved")
+	public void testPreserveAffectedBlocks() throws IOException {
+		snapshot.preserve(BLOCK - 1, BLOCK + 1);
+		snapshot.preserve(BLOCK, BLOCK + 10); // already preserved
+
+		Assertions.assertEquals(2, snapshot.getPreservedBlockCount());
+	}
+
+	@Test
+	@DisplayName("reads preserved blocks from overlay and others from cache file")
+	public void testReadPreserved() throws IOException {
+		snapshot.preserve(BLOCK + 10, BLOCK + 20);
+		snapshot.preserve(3 * BLOCK, SIZE); // last, incomplete block
+		fc.writeAll(ByteBuffer.wrap(new byte[SIZE]), 0).join(); // overwrite everything with zeros
+		fc.truncate(BLOCK);
+
+		byte[] read;
+		try (var in = snapshot.newInputStream()) {
+			read = in.readAllBytes();
+		}
+
+		var expected = new byte[SIZE];
+		Arrays.fill(expected, BLOCK, 2 * BLOCK, (byte) 'a');
+		Arrays.fill(expected, 3 * BLOCK, SIZE, (byte) 'a');
+		Assertions.assertArrayEquals(expected, read);
+	}
+
+	@Test
+	@DisplayName("read(...) stops at block boundaries and end of snapshot")
+	public void testReadBoundaries() throws IOException {
+		var buf = ByteBuffer.allocate(2 * BLOCK);
+
+		Assertions.assertEquals(10, snapshot.readCached(buf, BLOCK - 10));
+		Assertions.assertEquals(10, buf.position());
+		buf.clear();
+		Assertions.assertEquals(100, snapshot.readCached(buf, 3 * BLOCK));
+		Assertions.assertEquals(-1, snapshot.readCached(buf, SIZE));
+	}
+
+	@Test
+	@DisplayName("close() discards overlay and notifies owner")
+	public void testClose() throws IOException {
+		snapshot.preserve(0, 1);
+		Assumptions.assumeTrue(snapshot.getPreservedBlockCount() == 1);
+
+		snapshot.close();
+		snapshot.close();
+
+		Assertions.assertTrue(Files.notExists(overlayFile));
+		Mockito.verify(onClose).accept(snapshot);
+		Assertions.assertThrows(ClosedChannelException.class, () -> snapshot.readCached(ByteBuffer.allocate(1), 0));
+		snapshot.preserve(0, 1); // no-op
+		Assertions.assertEquals(0, snapshot.getPreservedBlockCount());
+	}
+
+	@Test
+	@DisplayName("moveToMemory() detaches snapshot from cache file")
+	public void testMoveToMemory() throws IOException {
+		var pool = new SnapshotBufferPool(SIZE, 1);
+		snapshot.preserve(0, 1);
+		Assumptions.assumeTrue(snapshot.getPreservedBlockCount() == 1);
+
+		snapshot.moveToMemory(pool);
+		fc.writeAll(ByteBuffer.wrap(new byte[SIZE]), 0).join(); // overwrite everything with zeros
+		snapshot.preserve(0, SIZE); // no-op
+
+		byte[] read;
+		try (var in = snapshot.newInputStream()) {
+			read = in.readAllBytes();
+		}
+		var expected = new byte[SIZE];
+		Arrays.fill(expected, (byte) 'a');
+		Assertions.assertArrayEquals(expected, read);
+		Assertions.assertTrue(snapshot.isFullyCached());
+		Assertions.assertEquals(0, snapshot.getPreservedBlockCount());
+		Assertions.assertTrue(Files.notExists(overlayFile));
+
+		snapshot.close();
+
+		Assertions.assertEquals(1, pool.getPooledCount());
+		Assertions.assertThrows(ClosedChannelException.class, () -> snapshot.readCached(ByteBuffer.allocate(1), 0));
+	}
+
+	@Nested
+	@DisplayName("with missing ranges")
+	public class MissingRanges {
+
+		private final int missingBegin = BLOCK + 10;
+		private final int missingEnd = missingBegin + 2 * OpenFileSnapshot.FETCH_CHUNK_SIZE + 10;
+		private final int size = missingEnd + 100;
+		private byte[] remoteContent;
+
+		@BeforeEach
+		public void setup() {
+			remoteContent = new byte[size];
+			Arrays.fill(remoteContent, (byte) 'r');
+			Mockito.when(provider.read(Mockito.eq(CLOUD_PATH), Mockito.anyLong(), Mockito.anyLong(), Mockito.any())).thenAnswer(invocation -> {
+				long offset = invocation.getArgument(1);
+				long count = invocation.getArgument(2);
+				return CompletableFuture.completedFuture(new ByteArrayInputStream(remoteContent, (int) offset, (int) count));
+			});
+			fc.writeAll(ByteBuffer.wrap(new byte[size - SIZE]), SIZE).join(); // grow cache file, missing range contains zeros
+			snapshot = new OpenFileSnapshot(fc, overlayFile, size, Instant.EPOCH, ImmutableRangeSet.of(Range.closedOpen((long) missingBegin, (long) missingEnd)), provider, UNLIMITED, Runnable::run, () -> CLOUD_PATH, onClose);
+		}
+
+		@Test
+		@DisplayName("missing ranges are fetched in chunks")
+		public void testReadMissing() throws IOException {
+			byte[] read;
+			try (var in = snapshot.newInputStream()) {
+				read = in.readAllBytes();
+			}
+
+			var expected = new byte[size];
+			Arrays.fill(expected, 0, SIZE, (byte) 'a');
+			Arrays.fill(expected, missingBegin, missingEnd, (byte) 'r');
+			Assertions.assertArrayEquals(expected, read);
+			Mockito.verify(provider).read(Mockito.eq(CLOUD_PATH), Mockito.eq((long) missingBegin), Mockito.eq((long) OpenFileSnapshot.FETCH_CHUNK_SIZE), Mockito.any());
+			Mockito.verify(provider).read(Mockito.eq(CLOUD_PATH), Mockito.eq((long) missingBegin + OpenFileSnapshot.FETCH_CHUNK_SIZE), Mockito.eq((long) OpenFileSnapshot.FETCH_CHUNK_SIZE), Mockito.any());
+			Mockito.verify(provider).read(Mockito.eq(CLOUD_PATH), Mockito.eq((long) missingBegin + 2 * OpenFileSnapshot.FETCH_CHUNK_SIZE), Mockito.eq(10l), Mockito.any());
+			Mockito.verifyNoMoreInteractions(provider);
+		}
+
+		@Test
+		@DisplayName("skipped chunks are not fetched")
+		public void testSkipMissing() throws IOException {
+			try (var in = snapshot.newInputStream()) {
+				in.skipNBytes(missingEnd - 5);
+				Assertions.assertArrayEquals(new byte[]{'r', 'r', 'r', 'r', 'r', 0}, in.readNBytes(6));
+			}
+
+			Mockito.verify(provider).read(Mockito.eq(CLOUD_PATH), Mockito.eq((long) missingBegin + 2 * OpenFileSnapshot.FETCH_CHUNK_SIZE), Mockito.eq(10l), Mockito.any());
+			Mockito.verifyNoMoreInteractions(provider);
+		}
+
+		@Test
+		@DisplayName("blocks within missing ranges are not preserved")
+		public void testPreserveMissing() throws IOException {
+			snapshot.preserve(2 * BLOCK, 3 * BLOCK);
+
+			Assertions.assertEquals(0, snapshot.getPreservedBlockCount());
+		}
+
+		@Test
+		@DisplayName("transferCachedTo(...) doesn't fetch missing ranges")
+		public void testTransferCached(@TempDir Path tmpDir) throws IOException {
+			var backup = tmpDir.resolve("backup.file");
+
+			boolean complete;
+			try (var out = FileChannel.open(backup, CREATE_NEW, WRITE)) {
+				complete = snapshot.transferCachedTo(out);
+			}
+
+			var expected = new byte[size];
+			Arrays.fill(expected, 0, SIZE, (byte) 'a');
+			Arrays.fill(expected, missingBegin, missingEnd, (byte) 0);
+			Assertions.assertFalse(complete);
+			Assertions.assertArrayEquals(expected, Files.readAllBytes(backup));
+			Mockito.verifyNoInteractions(provider);
+		}
+
+		@Test
+		@DisplayName("closing the stream closes the streams of pending chunks")
+		public void testCloseCancelsFetches() throws IOException {
+			var fetched = new ArrayList<InputStream>();
+			Mockito.when(provider.read(Mockito.eq(CLOUD_PATH), Mockito.anyLong(), Mockito.anyLong(), Mockito.any())).thenAnswer(invocation -> {
+				long offset = invocation.getArgument(1);
+				long count = invocation.getArgument(2);
+				var in = Mockito.spy(new ByteArrayInputStream(remoteContent, (int) offset, (int) count));
+				fetched.add(in);
+				return CompletableFuture.completedFuture(in);
+			});
+			var reads = new AtomicInteger();
+			Executor fetchExecutor = task -> {
+				if (reads.getAndIncrement() == 0) { // only the first chunk is read, others remain queued
+					task.run();
+				}
+			};
+			snapshot = new OpenFileSnapshot(fc, overlayFile, size, Instant.EPOCH, ImmutableRangeSet.of(Range.closedOpen((long) missingBegin, (long) missingEnd)), provider, UNLIMITED, fetchExecutor, () -> CLOUD_PATH, onClose);
+
+			try (var in = snapshot.newInputStream()) {
+				in.skipNBytes(missingBegin);
+				Assertions.assertEquals('r', in.read());
+			}
+
+			Assertions.assertEquals(3, fetched.size());
+			Mockito.verify(fetched.get(1)).close();
+			Mockito.verify(fetched.get(2)).close();
+		}
+
+		@Test
+		@DisplayName("fetch failure fails reading")
+		public void testFetchFailure() throws IOException {
+			var e = new CloudProviderException("fail");
+			Mockito.when(provider.read(Mockito.eq(CLOUD_PATH), Mockito.anyLong(), Mockito.anyLong(), Mockito.any())).thenReturn(CompletableFuture.failedFuture(e));
+
+			try (var in = snapshot.newInputStream()) {
+				var thrown = Assertions.assertThrows(IOException.class, in::readAllBytes);
+				Assertions.assertSame(e, thrown.getCause());
+			}
+		}
+
+	}
+
+}
@@ -1,14 +1,12 @@
 package org.cryptomator.fusecloudaccess;
 
-import com.google.common.collect.ImmutableRangeSet;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeMap;
-import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeMap;
-import com.google.common.collect.TreeRangeSet;
 import jnr.ffi.Pointer;
 import org.cryptomator.cloudaccess.api.CloudPath;
 import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.ProgressListener;
 import org.cryptomator.cloudaccess.api.exceptions.CloudProviderException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Assumptions;
@@ -24,35 +22,41 @@ import org.mockito.Mockito;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 
 public class OpenFileTest {
 
+	private static final TransferLimits UNLIMITED = new TransferLimits(new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0));
 	private CloudPath file;
 	private CloudProvider provider;
 	private CompletableAsynchronousFileChannel fileChannel;
 	private OpenFile openFile;
-	private RangeSet<Long> populatedRanges;
+	private PopulationIndex populatedRanges;
 	private RangeMap<Long, CompletionStage<Void>> activeRequests;
 
 	public static final int DEFAULT_READAHEAD_SIZE = 1024 * 1024 * 4; // 4 MiB
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = 1024 * 1024; // 1 MiB
+	public static final long DEFAULT_DIGEST_MAX_SIZE = 1024 * 1024 * 16; // 16 MiB
 
 	@BeforeEach
 	public void setup() throws IOException {
 		this.file = Mockito.mock(CloudPath.class, "/path/to/file");
 		this.provider = Mockito.mock(CloudProvider.class);
 		this.fileChannel = Mockito.mock(CompletableAsynchronousFileChannel.class);
-		this.populatedRanges = Mockito.spy(TreeRangeSet.create());
+		this.populatedRanges = Mockito.spy(new PopulationIndex());
 		this.activeRequests = Mockito.spy(TreeRangeMap.create());
-		this.openFile = new OpenFile(file, fileChannel, provider, populatedRanges, activeRequests, Instant.EPOCH, DEFAULT_READAHEAD_SIZE);
+		this.openFile = new OpenFile(file, null, fileChannel, provider, UNLIMITED, populatedRanges, activeRequests, Instant.EPOCH, DEFAULT_READAHEAD_SIZE, 0, DEFAULT_DIGEST_MAX_SIZE, Runnable::run);
 		Mockito.when(fileChannel.size()).thenReturn(100l);
 		Mockito.when(fileChannel.isOpen()).thenReturn(true);
 	}
@@ -62,7 +66,7 @@ public class OpenFileTest {
 	@ValueSource(longs = {0l, 1l, 42l})
 	public void testCreate(long size, @TempDir Path tmpDir) throws IOException {
 		Path tmpFile = tmpDir.resolve("cache.file");
-		try (var cachedFile = OpenFile.create(file, tmpFile, provider, size, DEFAULT_READAHEAD_SIZE)) {
+		try (var cachedFile = OpenFile.create(file, tmpFile, provider, UNLIMITED, size, DEFAULT_READAHEAD_SIZE, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_DIGEST_MAX_SIZE, Runnable::run)) {
 			Assertions.assertNotNull(cachedFile);
 			Assertions.assertEquals(size, cachedFile.getSize());
 		}
@@ -70,19 +74,115 @@ public class OpenFileTest {
 	}
 
 	@Test
-	@DisplayName("test perstistTo(...)")
-	public void testPersist(@TempDir Path tmpDir) throws IOException {
+	@DisplayName("test snapshot(...) with buffered writes")
+	public void testSnapshotBuffered(@TempDir Path tmpDir) throws IOException {
 		Path tmpFile = tmpDir.resolve("cache.file");
-		Path persistentFile = tmpDir.resolve("persistent.file");
+		Path overlayFile = tmpDir.resolve("overlay.file");
+		var data = "hello world".getBytes(StandardCharsets.UTF_8);
+
+		try (var cachedFile = OpenFile.create(file, tmpFile, provider, UNLIMITED, 0, DEFAULT_READAHEAD_SIZE, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_DIGEST_MAX_SIZE, Runnable::run)) {
+			cachedFile.write(mockPointer(data, 0), 0, 5).join();
+			cachedFile.write(mockPointer(data, 5), 5, 6).join();
+			Assertions.assertEquals(11, cachedFile.getSize());
+			try (var snapshot = Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> cachedFile.snapshot(overlayFile).toCompletableFuture().get());
+				 var in = snapshot.newInputStream()) {
+				Assertions.assertEquals(11, snapshot.getSize());
+				Assertions.assertArrayEquals(data, in.readAllBytes());
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("test snapshot(...)")
+	public void testSnapshot(@TempDir Path tmpDir) throws IOException {
+		Path tmpFile = tmpDir.resolve("cache.file");
+		Path overlayFile = tmpDir.resolve("overlay.file");
 
-		try (var cachedFile = OpenFile.create(file, tmpFile, provider, 0, DEFAULT_READAHEAD_SIZE)) {
+		try (var cachedFile = OpenFile.create(file, tmpFile, provider, UNLIMITED, 0, DEFAULT_READAHEAD_SIZE, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_DIGEST_MAX_SIZE, Runnable::run)) {
 			cachedFile.truncate(100l);
-			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> cachedFile.persistTo(persistentFile).toCompletableFuture().get());
+			try (var snapshot = Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> cachedFile.snapshot(overlayFile).toCompletableFuture().get());
+				 var in = snapshot.newInputStream()) {
+				Assertions.assertEquals(100, snapshot.getSize());
+				Assertions.assertEquals(100, in.readAllBytes().length);
+			}
+		}
+
+		Assertions.assertTrue(Files.notExists(tmpFile));
+		Assertions.assertTrue(Files.notExists(overlayFile));
+	}
+
+	@Test
+	@DisplayName("snapshot(...) is unaffected by subsequent modifications")
+	public void testSnapshotCopyOnWrite(@TempDir Path tmpDir) throws IOException {
+		Path tmpFile = tmpDir.resolve("cache.file");
+		Path overlayFile = tmpDir.resolve("overlay.file");
+		var data = "hello world".getBytes(StandardCharsets.UTF_8);
+		var update = "HELLO WORLD".getBytes(StandardCharsets.UTF_8);
+
+		try (var cachedFile = OpenFile.create(file, tmpFile, provider, UNLIMITED, 0, DEFAULT_READAHEAD_SIZE, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_DIGEST_MAX_SIZE, Runnable::run)) {
+			cachedFile.write(mockPointer(data, 0), 0, 11).join();
+			try (var snapshot = cachedFile.snapshot(overlayFile).toCompletableFuture().join()) {
+				Assertions.assertThrows(IllegalStateException.class, () -> cachedFile.snapshot(overlayFile));
+				cachedFile.write(mockPointer(update, 0), 0, 5).join();
+				cachedFile.truncate(3);
+				Assertions.assertTrue(cachedFile.flush().isDone());
+
+				try (var in = snapshot.newInputStream()) {
+					Assertions.assertArrayEquals(data, in.readAllBytes());
+				}
+				Assertions.assertEquals(1, snapshot.getPreservedBlockCount());
+			}
+			Assertions.assertTrue(Files.notExists(overlayFile));
+
+			// modifications after closing the snapshot are no longer preserved, so a new snapshot can be taken:
+			try (var snapshot = cachedFile.snapshot(overlayFile).toCompletableFuture().join(); var in = snapshot.newInputStream()) {
+				Assertions.assertArrayEquals("HEL".getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("snapshot(...) of partially cached file doesn't load missing ranges")
+	public void testSnapshotPartiallyCached(@TempDir Path tmpDir) throws IOException {
+		Path tmpFile = tmpDir.resolve("cache.file");
+		Path overlayFile = tmpDir.resolve("overlay.file");
+		var remoteContent = "hello world".getBytes(StandardCharsets.UTF_8);
+		Mockito.when(provider.read(Mockito.eq(file), Mockito.anyLong(), Mockito.anyLong(), Mockito.any())).thenAnswer(invocation -> {
+			long offset = invocation.getArgument(1);
+			long count = invocation.getArgument(2);
+			return CompletableFuture.completedFuture(new ByteArrayInputStream(remoteContent, (int) offset, (int) count));
+		});
+
+		try (var cachedFile = OpenFile.create(file, tmpFile, provider, UNLIMITED, 11, DEFAULT_READAHEAD_SIZE, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_DIGEST_MAX_SIZE, Runnable::run)) {
+			cachedFile.write(mockPointer("W".getBytes(StandardCharsets.UTF_8), 0), 6, 1).join();
+			try (var snapshot = cachedFile.snapshot(overlayFile).toCompletableFuture().join(); var in = snapshot.newInputStream()) {
+				Assertions.assertArrayEquals("hello World".getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+			}
+			Mockito.verify(provider).read(file, 0l, 6l, ProgressListener.NO_PROGRESS_AWARE);
+			Mockito.verify(provider).read(file, 7l, 4l, ProgressListener.NO_PROGRESS_AWARE);
+			Mockito.verifyNoMoreInteractions(provider);
+		}
+	}
+
+	@Test
+	@DisplayName("restore(...) reuses existing cache file")
+	public void testRestore(@TempDir Path tmpDir) throws IOException {
+		Path tmpFile = tmpDir.resolve("cache.file");
+		Path overlayFile = tmpDir.resolve("overlay.file");
+		Files.write(tmpFile, "\0\0\0\0\0\0World!".getBytes(StandardCharsets.UTF_8)); // grown by one byte after upload has been scheduled
+		Mockito.when(provider.read(file, 0l, 6l, ProgressListener.NO_PROGRESS_AWARE)).thenReturn(CompletableFuture.completedFuture(new ByteArrayInputStream("hello ".getBytes(StandardCharsets.UTF_8))));
+
+		try (var cachedFile = OpenFile.restore(file, tmpFile, provider, UNLIMITED, Instant.EPOCH, 11, List.of(Range.closedOpen(0l, 6l)), DEFAULT_READAHEAD_SIZE, DEFAULT_WRITE_BUFFER_SIZE, DEFAULT_DIGEST_MAX_SIZE, Runnable::run)) {
+			Assertions.assertEquals(OpenFile.State.NEEDS_UPLOAD, cachedFile.getState());
+			Assertions.assertEquals(12, cachedFile.getSize());
+			Assertions.assertEquals(Instant.EPOCH, cachedFile.getLastModified());
+			Assertions.assertEquals(List.of(Range.closedOpen(0l, 6l)), cachedFile.getMissingRanges());
+			try (var snapshot = cachedFile.snapshot(overlayFile).toCompletableFuture().join(); var in = snapshot.newInputStream()) {
+				Assertions.assertArrayEquals("hello World!".getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+			}
 		}
 
 		Assertions.assertTrue(Files.notExists(tmpFile));
-		Assertions.assertTrue(Files.exists(persistentFile));
-		Assertions.assertEquals(100, Files.size(persistentFile));
 	}
 
 	@Nested
@@ -103,6 +203,7 @@ public class OpenFileTest {
 			});
 
 			Assertions.assertEquals(e, thrown.getCause());
+			Assertions.assertEquals(OpenFile.State.UNMODIFIED, openFile.getState());
 		}
 
 		@DisplayName("successful write")
@@ -119,8 +220,152 @@ public class OpenFileTest {
 
 			Assertions.assertEquals(n, result);
 			Assertions.assertEquals(OpenFile.State.NEEDS_UPLOAD, openFile.getState());
-			Mockito.verify(populatedRanges).add(Range.closedOpen(100l, 1000l)); // fils is grown from 100 to 1000
-			Mockito.verify(populatedRanges).add(Range.closedOpen(1000l, 1000l + n)); // content of size n gets written starting at 1000
+			Mockito.verify(populatedRanges).add(100l, 1000l); // fils is grown from 100 to 1000
+			Mockito.verify(populatedRanges).add(1000l, 1000l + n); // content of size n gets written starting at 1000
+		}
+
+	}
+
+	@Nested
+	@DisplayName("write(...) with write buffer")
+	public class BufferedWrite {
+
+		private static final int BUFFER_SIZE = 1024;
+
+		private Pointer buf = Mockito.mock(Pointer.class);
+
+		@BeforeEach
+		public void setup() {
+			openFile = new OpenFile(file, null, fileChannel, provider, UNLIMITED, populatedRanges, activeRequests, Instant.EPOCH, DEFAULT_READAHEAD_SIZE, BUFFER_SIZE, DEFAULT_DIGEST_MAX_SIZE, Runnable::run);
+			Mockito.when(fileChannel.writeAll(Mockito.any(), Mockito.anyLong())).thenAnswer(invocation -> {
+				ByteBuffer src = invocation.getArgument(0);
+				int remaining = src.remaining();
+				src.position(src.limit());
+				return CompletableFuture.completedFuture(remaining);
+			});
+		}
+
+		@Test
+		@DisplayName("sequential writes are combined")
+		public void testSequentialWritesAreBuffered() {
+			var result1 = openFile.write(buf, 100l, 100l);
+			var result2 = openFile.write(buf, 200l, 100l);
+
+			Assertions.assertEquals(100, result1.join());
+			Assertions.assertEquals(100, result2.join());
+			Assertions.assertEquals(300l, openFile.getSize());
+			Assertions.assertEquals(OpenFile.State.NEEDS_UPLOAD, openFile.getState());
+			Mockito.verify(fileChannel, Mockito.never()).writeAll(Mockito.any(), Mockito.anyLong());
+			Mockito.verify(fileChannel, Mockito.never()).writeFromPointer(Mockito.any(), Mockito.anyLong(), Mockito.anyLong());
+
+			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> openFile.flush().get());
+
+			Mockito.verify(fileChannel).writeAll(Mockito.argThat(b -> b.limit() == 200), Mockito.eq(100l));
+			Mockito.verify(populatedRanges).add(100l, 300l);
+		}
+
+		@Test
+		@DisplayName("buffer is flushed when reaching an aligned chunk boundary")
+		public void testFlushOnChunkBoundary() {
+			var result = openFile.write(buf, 1000l, 100l);
+
+			Assertions.assertEquals(100, result.join());
+			Mockito.verify(fileChannel).writeAll(Mockito.argThat(b -> b.limit() == 24), Mockito.eq(1000l));
+			Mockito.verify(populatedRanges).add(1000l, 1024l);
+			Assertions.assertEquals(1100l, openFile.getSize());
+		}
+
+		@Test
+		@DisplayName("non-sequential write flushes previously buffered data and bypasses the buffer")
+		public void testNonSequentialWriteFlushes() {
+			Mockito.when(fileChannel.writeFromPointer(buf, 50l, 10l)).thenReturn(CompletableFuture.completedFuture(10));
+			openFile.write(buf, 0l, 10l).join();
+			Mockito.verify(fileChannel, Mockito.never()).writeAll(Mockito.any(), Mockito.anyLong());
+
+			var result = openFile.write(buf, 50l, 10l);
+
+			Assertions.assertEquals(10, result.join());
+			var inOrder = Mockito.inOrder(fileChannel);
+			inOrder.verify(fileChannel).writeAll(Mockito.argThat(b -> b.limit() == 10), Mockito.eq(0l));
+			inOrder.verify(fileChannel).writeFromPointer(buf, 50l, 10l);
+			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> openFile.flush().get());
+			Mockito.verify(fileChannel, Mockito.times(1)).writeAll(Mockito.any(), Mockito.anyLong());
+		}
+
+		@Test
+		@DisplayName("buffer is sized to the buffered data")
+		public void testBufferGrowsWithData() {
+			openFile.write(buf, 0l, 10l).join();
+			openFile.write(buf, 10l, 10l).join();
+			openFile.write(buf, 20l, 100l).join();
+
+			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> openFile.flush().get());
+
+			Mockito.verify(fileChannel).writeAll(Mockito.argThat(b -> b.limit() == 120 && b.capacity() == 120), Mockito.eq(0l));
+		}
+
+		@Test
+		@DisplayName("large writes bypass the buffer")
+		public void testLargeWriteBypassesBuffer() {
+			Mockito.when(fileChannel.writeFromPointer(buf, 0l, 2048l)).thenReturn(CompletableFuture.completedFuture(2048));
+
+			var result = openFile.write(buf, 0l, 2048l);
+
+			Assertions.assertEquals(2048, result.join());
+			Mockito.verify(fileChannel).writeFromPointer(buf, 0l, 2048l);
+		}
+
+		@Test
+		@DisplayName("read flushes buffered data")
+		public void testReadFlushes() {
+			var fileSpy = Mockito.spy(openFile);
+			Mockito.doReturn(CompletableFuture.completedFuture(null)).when(fileSpy).load(Mockito.anyLong(), Mockito.anyLong());
+			Mockito.when(fileChannel.readToPointer(buf, 0l, 10l)).thenReturn(CompletableFuture.completedFuture(10));
+			fileSpy.write(buf, 0l, 10l).join();
+
+			fileSpy.read(buf, 0l, 10l).toCompletableFuture().join();
+
+			var inOrder = Mockito.inOrder(fileChannel);
+			inOrder.verify(fileChannel).writeAll(Mockito.argThat(b -> b.limit() == 10), Mockito.eq(0l));
+			inOrder.verify(fileChannel).readToPointer(buf, 0l, 10l);
+		}
+
+		@Test
+		@DisplayName("truncate flushes buffered data")
+		public void testTruncateFlushes() throws IOException {
+			openFile.write(buf, 100l, 10l).join();
+
+			openFile.truncate(50l);
+
+			var inOrder = Mockito.inOrder(fileChannel);
+			inOrder.verify(fileChannel).writeAll(Mockito.argThat(b -> b.limit() == 10), Mockito.eq(100l));
+			inOrder.verify(fileChannel).truncate(50l);
+		}
+
+		@Test
+		@DisplayName("close flushes buffered data")
+		public void testCloseFlushes() throws IOException {
+			openFile.write(buf, 100l, 10l).join();
+
+			openFile.close();
+
+			var inOrder = Mockito.inOrder(fileChannel);
+			inOrder.verify(fileChannel).writeAll(Mockito.argThat(b -> b.limit() == 10), Mockito.eq(100l));
+			inOrder.verify(fileChannel).close();
+		}
+
+		@Test
+		@DisplayName("failed flush is reported but doesn't affect subsequent flushes")
+		public void testFailedFlush() {
+			var e = new IOException("fail");
+			Mockito.doReturn(CompletableFuture.failedFuture(e)).when(fileChannel).writeAll(Mockito.any(), Mockito.eq(0l));
+			openFile.write(buf, 0l, 10l).join();
+
+			var thrown = Assertions.assertThrows(ExecutionException.class, () -> openFile.flush().get());
+			Assertions.assertEquals(e, thrown.getCause());
+
+			openFile.write(buf, 500l, 10l).join();
+			Assertions.assertDoesNotThrow(() -> openFile.flush().get());
 		}
 
 	}
@@ -184,6 +429,35 @@ public class OpenFileTest {
 			Mockito.verify(fileSpy).load(42, 1024);
 		}
 
+		@Test
+		@DisplayName("cancelled read doesn't access buffer")
+		public void testCancelledRead() {
+			var loaded = new CompletableFuture<Void>();
+			Mockito.doReturn(loaded).when(fileSpy).load(Mockito.anyLong(), Mockito.anyLong());
+
+			var futureResult = fileSpy.read(Mockito.mock(Pointer.class), 42, 1024);
+			var cancelled = futureResult.cancel(true);
+			loaded.complete(null);
+
+			Assertions.assertTrue(cancelled);
+			Assertions.assertTrue(loaded.isDone());
+			Mockito.verify(fileChannel, Mockito.never()).readToPointer(Mockito.any(), Mockito.anyLong(), Mockito.anyLong());
+		}
+
+		@Test
+		@DisplayName("read can't be cancelled once it accesses the buffer")
+		public void testReadCancelledTooLate() {
+			var readToPointer = new CompletableFuture<Integer>();
+			Mockito.when(fileChannel.readToPointer(Mockito.any(), Mockito.anyLong(), Mockito.anyLong())).thenReturn(readToPointer);
+
+			var futureResult = fileSpy.read(Mockito.mock(Pointer.class), 42, 1024);
+			var cancelled = futureResult.cancel(true);
+			readToPointer.complete(1024);
+
+			Assertions.assertFalse(cancelled);
+			Assertions.assertEquals(1024, futureResult.join());
+		}
+
 		@Test
 		@DisplayName("fail due to load() error")
 		public void testLoadFailure() {
@@ -201,6 +475,139 @@ public class OpenFileTest {
 
 	}
 
+	@Nested
+	@DisplayName("digestIfHydrated()")
+	public class DigestIfHydrated {
+
+		private final byte[] content = new byte[100];
+
+		@BeforeEach
+		public void setup() {
+			content[42] = 42;
+			Mockito.when(fileChannel.transferTo(Mockito.eq(0l), Mockito.eq(100l), Mockito.any())).thenAnswer(invocation -> {
+				WritableByteChannel dst = invocation.getArgument(2);
+				dst.write(ByteBuffer.wrap(content));
+				return CompletableFuture.completedFuture(100l);
+			});
+		}
+
+		@Test
+		@DisplayName("computes digest of fully loaded, unmodified file")
+		public void testHydrated() throws IOException {
+			populatedRanges.add(0, 100);
+
+			openFile.digestIfHydrated();
+
+			Assertions.assertEquals(ContentDigest.of(new ByteArrayInputStream(content)), openFile.getRemoteDigest());
+		}
+
+		@Test
+		@DisplayName("reads fully loaded file only once")
+		public void testHydratedTwice() {
+			populatedRanges.add(0, 100);
+
+			openFile.digestIfHydrated();
+			openFile.setRemoteDigest(null); // e.g. concurrent invocation before the first one finished
+			openFile.digestIfHydrated();
+
+			Mockito.verify(fileChannel, Mockito.times(1)).transferTo(Mockito.eq(0l), Mockito.eq(100l), Mockito.any());
+		}
+
+		@Test
+		@DisplayName("reads fully loaded file again after failing to compute its digest")
+		public void testHydratedAfterFailure() throws IOException {
+			populatedRanges.add(0, 100);
+			Mockito.when(fileChannel.transferTo(Mockito.eq(0l), Mockito.eq(100l), Mockito.any())).thenReturn(CompletableFuture.failedFuture(new IOException("fail")));
+			openFile.digestIfHydrated();
+			Assertions.assertNull(openFile.getRemoteDigest());
+
+			Mockito.doAnswer(invocation -> {
+				WritableByteChannel dst = invocation.getArgument(2);
+				dst.write(ByteBuffer.wrap(content));
+				return CompletableFuture.completedFuture(100l);
+			}).when(fileChannel).transferTo(Mockito.eq(0l), Mockito.eq(100l), Mockito.any());
+			openFile.digestIfHydrated();
+
+			Assertions.assertEquals(ContentDigest.of(new ByteArrayInputStream(content)), openFile.getRemoteDigest());
+		}
+
+		@Test
+		@DisplayName("no digest of files exceeding the size limit")
+		public void testTooLarge() {
+			openFile = new OpenFile(file, null, fileChannel, provider, UNLIMITED, populatedRanges, activeRequests, Instant.EPOCH, DEFAULT_READAHEAD_SIZE, 0, 99, Runnable::run);
+			populatedRanges.add(0, 100);
+
+			openFile.digestIfHydrated();
+
+			Assertions.assertNull(openFile.getRemoteDigest());
+			Mockito.verify(fileChannel, Mockito.never()).transferTo(Mockito.anyLong(), Mockito.anyLong(), Mockito.any());
+		}
+
+		@Test
+		@DisplayName("no digest of partially loaded file")
+		public void testPartiallyHydrated() {
+			populatedRanges.add(0, 99);
+
+			openFile.digestIfHydrated();
+
+			Assertions.assertNull(openFile.getRemoteDigest());
+			Mockito.verify(fileChannel, Mockito.never()).transferTo(Mockito.anyLong(), Mockito.anyLong(), Mockito.any());
+		}
+
+		@Test
+		@DisplayName("no digest of modified file")
+		public void testModified() throws IOException {
+			populatedRanges.add(0, 100);
+			openFile.truncate(50);
+
+			openFile.digestIfHydrated();
+
+			Assertions.assertNull(openFile.getRemoteDigest());
+		}
+
+	}
+
+	@Nested
+	@DisplayName("startWriteThrough()")
+	public class StartWriteThrough {
+
+		@BeforeEach
+		public void setup() throws IOException {
+			Mockito.when(fileChannel.size()).thenReturn(0l, 0l, 0l, 100l);
+			Mockito.when(fileChannel.write(Mockito.any(), Mockito.anyLong())).thenReturn(CompletableFuture.completedFuture(1));
+		}
+
+		@Test
+		@DisplayName("starts after empty file has been grown")
+		public void testPreallocated() throws IOException {
+			openFile.truncate(100);
+
+			var stream = openFile.startWriteThrough();
+
+			Assertions.assertTrue(stream.isPresent());
+			Assertions.assertEquals(100, stream.get().getSize());
+			Assertions.assertTrue(openFile.startWriteThrough().isEmpty(), "only one write-through at a time");
+		}
+
+		@Test
+		@DisplayName("doesn't start without preallocation")
+		public void testNotPreallocated() {
+			Assertions.assertTrue(openFile.startWriteThrough().isEmpty());
+		}
+
+		@Test
+		@DisplayName("aborted by truncation")
+		public void testAbortedByTruncation() throws IOException {
+			openFile.truncate(100);
+			var stream = openFile.startWriteThrough().get();
+
+			openFile.truncate(50);
+
+			Assertions.assertTrue(stream.isAborted());
+		}
+
+	}
+
 	@Nested
 	@DisplayName("completedRequest(...)")
 	public class CompleteRequest {
@@ -277,6 +684,23 @@ public class OpenFileTest {
 			Mockito.verify(activeRequests, Mockito.never()).put(Mockito.any(), Mockito.any());
 		}
 
+		@Test
+		@DisplayName("hydration is cancelled when the last waiting read gives up")
+		public void testCancelAbandonedHydration() throws IOException {
+			var request = new CompletableFuture<InputStream>();
+			Mockito.when(fileChannel.size()).thenReturn(100l);
+			Mockito.when(provider.read(Mockito.eq(file), Mockito.eq(0l), Mockito.anyLong(), Mockito.any())).thenReturn(request);
+
+			var waiter1 = fileSpy.load(0, 10).toCompletableFuture();
+			var waiter2 = fileSpy.load(0, 10).toCompletableFuture();
+			waiter1.cancel(true);
+			Assertions.assertFalse(request.isCancelled());
+			waiter2.cancel(true);
+
+			Assertions.assertTrue(request.isCancelled());
+			Assertions.assertTrue(activeRequests.asMapOfRanges().isEmpty());
+		}
+
 		@DisplayName("region behind at EOF (100)")
 		@ParameterizedTest(name = "region [{0}, ...]")
 		@ValueSource(longs = {100l, 101l})
@@ -299,7 +723,7 @@ public class OpenFileTest {
 			var futureResult = fileSpy.load(90l, 20l);
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> futureResult.toCompletableFuture().get());
 
-			Mockito.verify(fileSpy).mergeData(Mockito.argThat(r -> r.lowerEndpoint() == 90l && r.upperEndpoint() >= 100), Mockito.eq(inputStream));
+			Mockito.verify(fileSpy).mergeData(Mockito.argThat(r -> r.lowerEndpoint() == 90l && r.upperEndpoint() >= 100), Mockito.isA(ThrottledInputStream.class));
 			Mockito.verify(activeRequests).put(Mockito.eq(Range.closedOpen(90l, 100l)), Mockito.any());
 		}
 
@@ -312,7 +736,7 @@ public class OpenFileTest {
 			var futureResult = fileSpy.load(50l, 10l);
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> futureResult.toCompletableFuture().get());
 
-			Mockito.verify(fileSpy).mergeData(Mockito.argThat(r -> r.lowerEndpoint() == 50l && r.upperEndpoint() >= 60), Mockito.eq(inputStream));
+			Mockito.verify(fileSpy).mergeData(Mockito.argThat(r -> r.lowerEndpoint() == 50l && r.upperEndpoint() >= 60), Mockito.isA(ThrottledInputStream.class));
 			Mockito.verify(activeRequests).put(Mockito.eq(Range.closedOpen(50l, 100l)), Mockito.any());
 		}
 
@@ -370,7 +794,7 @@ public class OpenFileTest {
 
 			@BeforeEach
 			public void setup() {
-				populatedRanges.add(Range.closedOpen(50l, 60l));
+				populatedRanges.add(50l, 60l);
 			}
 
 			@Test
@@ -392,7 +816,7 @@ public class OpenFileTest {
 
 				var futureResult = fileSpy.load(50, 20);
 				Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> futureResult.toCompletableFuture().get());
-				Mockito.verify(fileSpy).mergeData(Mockito.argThat(r -> r.lowerEndpoint() == 60l && r.upperEndpoint() >= 70), Mockito.eq(inputStream));
+				Mockito.verify(fileSpy).mergeData(Mockito.argThat(r -> r.lowerEndpoint() == 60l && r.upperEndpoint() >= 70), Mockito.isA(ThrottledInputStream.class));
 				Mockito.verify(activeRequests).put(Mockito.eq(Range.closedOpen(60l, 100l)), Mockito.any());
 				Mockito.verify(activeRequests, Mockito.atLeastOnce()).remove(Range.closedOpen(60l, 100l));
 			}
@@ -453,9 +877,10 @@ public class OpenFileTest {
 
 		@BeforeEach
 		public void setup() {
-			var prePopulatedRanges = ImmutableRangeSet.of(Range.closedOpen(0l, 50l));
-			populatedRanges = Mockito.spy(TreeRangeSet.create(prePopulatedRanges));
-			openFile = new OpenFile(file, fileChannel, provider, populatedRanges, activeRequests, Instant.EPOCH, DEFAULT_READAHEAD_SIZE);
+			var prePopulatedRanges = new PopulationIndex();
+			prePopulatedRanges.add(0l, 50l);
+			populatedRanges = Mockito.spy(prePopulatedRanges);
+			openFile = new OpenFile(file, null, fileChannel, provider, UNLIMITED, populatedRanges, activeRequests, Instant.EPOCH, DEFAULT_READAHEAD_SIZE, 0, DEFAULT_DIGEST_MAX_SIZE, Runnable::run);
 			this.fileSpy = Mockito.spy(openFile);
 		}
 
@@ -463,56 +888,56 @@ public class OpenFileTest {
 		@DisplayName("not intersecting populated ranges")
 		public void testMergeFullRange() {
 			var range = Range.closedOpen(100l, 120l);
-			Assumptions.assumeFalse(populatedRanges.encloses(range));
-			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(100l), Mockito.eq(20l))).thenReturn(CompletableFuture.completedFuture(20l));
+			Assumptions.assumeFalse(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(100l), Mockito.eq(20l), Mockito.any())).thenReturn(CompletableFuture.completedFuture(20l));
 
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> fileSpy.mergeData(range, in));
 
-			Mockito.verify(populatedRanges).add(Range.closedOpen(100l, 120l));
-			Assertions.assertTrue(populatedRanges.encloses(range));
+			Mockito.verify(populatedRanges).add(100l, 120l);
+			Assertions.assertTrue(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
 		}
 
 		@Test
 		@DisplayName("partially populated (in between)")
 		public void testMergePartiallyPopulatedRange1() throws IOException {
 			var range = Range.closedOpen(100l, 150l);
-			populatedRanges.add(Range.closedOpen(110l, 120l));
-			Assumptions.assumeFalse(populatedRanges.encloses(range));
-			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(100l), Mockito.eq(10l))).thenReturn(CompletableFuture.completedFuture(10l));
+			populatedRanges.add(110l, 120l);
+			Assumptions.assumeFalse(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(100l), Mockito.eq(10l), Mockito.any())).thenReturn(CompletableFuture.completedFuture(10l));
 			Mockito.when(in.skip(10l)).thenReturn(10l);
-			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(120l), Mockito.eq(30l))).thenReturn(CompletableFuture.completedFuture(30l));
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(120l), Mockito.eq(30l), Mockito.any())).thenReturn(CompletableFuture.completedFuture(30l));
 
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> fileSpy.mergeData(range, in));
 
-			Mockito.verify(populatedRanges).add(Range.closedOpen(100l, 110l));
-			Mockito.verify(populatedRanges).add(Range.closedOpen(120l, 150l));
-			Assertions.assertTrue(populatedRanges.encloses(range));
+			Mockito.verify(populatedRanges).add(100l, 110l);
+			Mockito.verify(populatedRanges).add(120l, 150l);
+			Assertions.assertTrue(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
 		}
 
 		@Test
 		@DisplayName("partially populated (at begin)")
 		public void testMergePartiallyPopulatedRange2() throws IOException {
 			var range = Range.closedOpen(0l, 100l);
-			Assumptions.assumeFalse(populatedRanges.encloses(range));
+			Assumptions.assumeFalse(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
 			Mockito.when(in.skip(50l)).thenReturn(50l);
-			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(50l), Mockito.eq(50l))).thenReturn(CompletableFuture.completedFuture(50l));
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(50l), Mockito.eq(50l), Mockito.any())).thenReturn(CompletableFuture.completedFuture(50l));
 
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> fileSpy.mergeData(range, in));
 
-			Mockito.verify(populatedRanges).add(Range.closedOpen(50l, 100l));
-			Assertions.assertTrue(populatedRanges.encloses(range));
+			Mockito.verify(populatedRanges).add(50l, 100l);
+			Assertions.assertTrue(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
 		}
 
 		@Test
 		@DisplayName("fully populated")
 		public void testMergeFullyPopulatedRange() {
 			var range = Range.closedOpen(10l, 20l);
-			Assumptions.assumeTrue(populatedRanges.encloses(range));
+			Assumptions.assumeTrue(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
 
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> fileSpy.mergeData(range, in));
 
-			Mockito.verify(populatedRanges, Mockito.never()).add(Mockito.any());
-			Assertions.assertTrue(populatedRanges.encloses(range));
+			Mockito.verify(populatedRanges, Mockito.never()).add(Mockito.anyLong(), Mockito.anyLong());
+			Assertions.assertTrue(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
 			Mockito.verify(activeRequests, Mockito.never()).remove(Mockito.any());
 		}
 
@@ -520,14 +945,14 @@ public class OpenFileTest {
 		@DisplayName("reaching EOF")
 		public void testMergeWithEOF() {
 			var range = Range.closedOpen(100l, 120l);
-			Assumptions.assumeFalse(populatedRanges.encloses(range));
-			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(100l), Mockito.eq(20l))).thenReturn(CompletableFuture.completedFuture(10l));
+			Assumptions.assumeFalse(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(100l), Mockito.eq(20l), Mockito.any())).thenReturn(CompletableFuture.completedFuture(10l));
 
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> fileSpy.mergeData(range, in));
 
-			Mockito.verify(populatedRanges).add(Range.closedOpen(100l, 110l));
-			Assertions.assertFalse(populatedRanges.encloses(range));
-			Assertions.assertTrue(populatedRanges.intersects(range));
+			Mockito.verify(populatedRanges).add(100l, 110l);
+			Assertions.assertFalse(populatedRanges.encloses(range.lowerEndpoint(), range.upperEndpoint()));
+			Assertions.assertTrue(populatedRanges.encloses(100l, 110l));
 		}
 
 		@Test
@@ -538,16 +963,68 @@ public class OpenFileTest {
 
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> fileSpy.mergeData(Range.closedOpen(100l, 100l), in));
 
-			Mockito.verify(populatedRanges, Mockito.never()).add(Mockito.any());
+			Mockito.verify(populatedRanges, Mockito.never()).add(Mockito.anyLong(), Mockito.anyLong());
 			Mockito.verify(activeRequests, Mockito.never()).remove(Mockito.any());
 		}
 
+		@Test
+		@DisplayName("skips ranges being written locally")
+		public void testMergeSkipsPendingWrite() throws IOException {
+			var range = Range.closedOpen(50l, 100l);
+			Mockito.when(fileChannel.writeFromPointer(Mockito.any(), Mockito.eq(60l), Mockito.eq(10l))).thenReturn(new CompletableFuture<>());
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(50l), Mockito.eq(10l), Mockito.any())).thenReturn(CompletableFuture.completedFuture(10l));
+			Mockito.when(in.skip(10l)).thenReturn(10l);
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(70l), Mockito.eq(30l), Mockito.any())).thenReturn(CompletableFuture.completedFuture(30l));
+			openFile.write(Mockito.mock(Pointer.class), 60l, 10l);
+
+			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> openFile.mergeData(range, in).get());
+
+			Mockito.verify(fileChannel).transferFrom(Mockito.any(), Mockito.eq(50l), Mockito.eq(10l), Mockito.any());
+			Mockito.verify(fileChannel).transferFrom(Mockito.any(), Mockito.eq(70l), Mockito.eq(30l), Mockito.any());
+			Assertions.assertFalse(populatedRanges.encloses(60l, 70l));
+		}
+
+		@Test
+		@DisplayName("local writes wait for overlapping transfers")
+		public void testWriteWaitsForTransfer() {
+			var range = Range.closedOpen(50l, 100l);
+			var transfer = new CompletableFuture<Long>();
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(50l), Mockito.eq(50l), Mockito.any())).thenReturn(transfer);
+			Mockito.when(fileChannel.writeFromPointer(Mockito.any(), Mockito.eq(60l), Mockito.eq(10l))).thenReturn(CompletableFuture.completedFuture(10));
+			var merged = openFile.mergeData(range, in);
+
+			var written = openFile.write(Mockito.mock(Pointer.class), 60l, 10l);
+			Mockito.verify(fileChannel, Mockito.never()).writeFromPointer(Mockito.any(), Mockito.anyLong(), Mockito.anyLong());
+			transfer.complete(50l);
+
+			Assertions.assertTrue(merged.isDone());
+			Assertions.assertEquals(10, written.join());
+			Mockito.verify(fileChannel).writeFromPointer(Mockito.any(), Mockito.eq(60l), Mockito.eq(10l));
+		}
+
+		@Test
+		@DisplayName("local writes cancelled while waiting for a transfer don't access the buffer")
+		public void testCancelWriteWaitingForTransfer() {
+			var range = Range.closedOpen(50l, 100l);
+			var transfer = new CompletableFuture<Long>();
+			Mockito.when(fileChannel.transferFrom(Mockito.any(), Mockito.eq(50l), Mockito.eq(50l), Mockito.any())).thenReturn(transfer);
+			openFile.mergeData(range, in);
+
+			var written = openFile.write(Mockito.mock(Pointer.class), 60l, 10l);
+			var cancelled = written.cancel(true);
+			transfer.complete(50l);
+
+			Assertions.assertTrue(cancelled);
+			Mockito.verify(fileChannel, Mockito.never()).writeFromPointer(Mockito.any(), Mockito.anyLong(), Mockito.anyLong());
+			Assertions.assertEquals(OpenFile.State.UNMODIFIED, openFile.getState());
+		}
+
 		@Test
 		public void testMergeWithMultipleSubranges() {
-			populatedRanges.add(Range.closedOpen(105l, 106l));
+			populatedRanges.add(105l, 106l);
 			var data = "hello world".getBytes(StandardCharsets.UTF_8);
 			var in = Mockito.spy(new ByteArrayInputStream(data));
-			Mockito.when(fileChannel.transferFrom(Mockito.eq(in), Mockito.anyLong(), Mockito.anyLong())).thenAnswer(invocation -> {
+			Mockito.when(fileChannel.transferFrom(Mockito.eq(in), Mockito.anyLong(), Mockito.anyLong(), Mockito.any())).thenAnswer(invocation -> {
 				int position = invocation.<Long>getArgument(1).intValue();
 				int count = invocation.<Long>getArgument(2).intValue();
 				byte[] bytes = in.readNBytes(count);
@@ -557,10 +1034,23 @@ public class OpenFileTest {
 
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> fileSpy.mergeData(Range.closedOpen(100l, 111l), in).toCompletableFuture().get());
 
-			Mockito.verify(fileChannel).transferFrom(in, 100l, 5l); // transfer "hello"
+			Mockito.verify(fileChannel).transferFrom(Mockito.eq(in), Mockito.eq(100l), Mockito.eq(5l), Mockito.any()); // transfer "hello"
 			Mockito.verify(in).skip(1l); // already populated
-			Mockito.verify(fileChannel).transferFrom(in, 106l, 5l); // transfer "world"
+			Mockito.verify(fileChannel).transferFrom(Mockito.eq(in), Mockito.eq(106l), Mockito.eq(5l), Mockito.any()); // transfer "world"
 		}
 
 	}
-}
\ No newline at end of file
+
+	private static Pointer mockPointer(byte[] data, int dataOffset) {
+		var ptr = Mockito.mock(Pointer.class);
+		Mockito.doAnswer(invocation -> {
+			long offset = invocation.getArgument(0);
+			byte[] dst = invocation.getArgument(1);
+			int idx = invocation.getArgument(2);
+			int len = invocation.getArgument(3);
+			System.arraycopy(data, dataOffset + (int) offset, dst, idx, len);
+			return null;
+		}).when(ptr).get(Mockito.anyLong(), Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+		return ptr;
+	}
+}
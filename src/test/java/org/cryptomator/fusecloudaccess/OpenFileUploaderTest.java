@@ -1,13 +1,18 @@
 package org.cryptomator.fusecloudaccess;
 
+import com.google.common.base.Throwables;
+import org.cryptomator.cloudaccess.api.CloudItemMetadata;
 import org.cryptomator.cloudaccess.api.CloudPath;
 import org.cryptomator.cloudaccess.api.CloudProvider;
 import org.cryptomator.cloudaccess.api.exceptions.CloudProviderException;
+import org.cryptomator.cloudaccess.api.exceptions.CloudTimeoutException;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
 import org.cryptomator.fusecloudaccess.locks.LockManager;
 import org.cryptomator.fusecloudaccess.locks.PathLock;
 import org.cryptomator.fusecloudaccess.locks.PathLockBuilder;
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
@@ -15,21 +20,28 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -37,28 +49,44 @@ import java.util.function.Consumer;
 
 public class OpenFileUploaderTest {
 
+	private static final TransferLimits UNLIMITED = new TransferLimits(new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0), new BandwidthLimiter(0));
 	private CloudProvider provider;
 	private Path cacheDir;
 	private Path lostAndFoundDir;
 	private CloudPath cloudUploadDir;
 	private CloudAccessFSConfig config;
-	private ExecutorService executorService;
+	private UploadScheduler scheduler;
+	private UploadStage transferStage;
+	private UploadStage commitStage;
+	private UploadStage writeThroughStage;
 	private ConcurrentMap<CloudPath, Future<?>> tasks;
 	private LockManager lockManager;
+	private RetryPolicy retryPolicy;
+	private WriteBackJournal journal;
+	private SnapshotBufferPool snapshotBuffers;
+	private NamespaceReplayer namespaceReplayer;
 	private OpenFileUploader uploader;
 	private OpenFile file;
 
 	@BeforeEach
-	public void setup() {
+	public void setup() throws InterruptedException {
 		this.provider = Mockito.mock(CloudProvider.class);
 		this.cacheDir = Mockito.mock(Path.class);
 		this.lostAndFoundDir = Mockito.mock(Path.class);
 		this.cloudUploadDir = CloudPath.of("/upload/path/in/cloud");
 		this.config = Mockito.mock(CloudAccessFSConfig.class);
-		this.executorService = Mockito.mock(ExecutorService.class);
+		this.scheduler = Mockito.mock(UploadScheduler.class);
+		this.transferStage = new UploadStage("transfer", 1, 1);
+		this.commitStage = new UploadStage("commit", 1, 1);
+		this.writeThroughStage = new UploadStage("writeThrough", 1, 0);
 		this.tasks = Mockito.mock(ConcurrentMap.class);
 		this.lockManager = Mockito.mock(LockManager.class);
-		this.uploader = new OpenFileUploader(provider, config, executorService, tasks, lockManager);
+		this.retryPolicy = Mockito.spy(new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(1)));
+		this.journal = Mockito.mock(WriteBackJournal.class);
+		this.snapshotBuffers = new SnapshotBufferPool(0, 0);
+		this.namespaceReplayer = Mockito.mock(NamespaceReplayer.class);
+		Mockito.when(namespaceReplayer.awaitReplayed(Mockito.any(), Mockito.anyLong(), Mockito.any())).thenReturn(true);
+		this.uploader = new OpenFileUploader(provider, config, scheduler, transferStage, commitStage, writeThroughStage, tasks, lockManager, retryPolicy, UNLIMITED, journal, snapshotBuffers, namespaceReplayer);
 		this.file = Mockito.mock(OpenFile.class);
 		Mockito.when(file.getState()).thenReturn(OpenFile.State.UPLOADING);
 		Mockito.when(config.getCacheDir()).thenReturn(cacheDir);
@@ -66,20 +94,49 @@ public class OpenFileUploaderTest {
 		Mockito.when(config.getUploadDir()).thenReturn(cloudUploadDir);
 	}
 
+	@AfterEach
+	public void tearDown() {
+		transferStage.shutdown();
+		commitStage.shutdown();
+		writeThroughStage.shutdown();
+	}
+
 
 	@Test
 	@DisplayName("scheduling upload")
-	public void testUploadModified() {
+	public void testUploadModified() throws IOException {
 		var cloudPath = Mockito.mock(CloudPath.class, "/path/in/cloud");
 		var task = Mockito.mock(Future.class);
 		Mockito.when(file.getPath()).thenReturn(cloudPath);
-		Mockito.when(executorService.submit(Mockito.any(OpenFileUploader.ScheduledUpload.class))).thenReturn(task);
+		Mockito.when(scheduler.submitUpload(Mockito.eq(file), Mockito.any())).thenReturn(task);
 
 		uploader.scheduleUpload(file, ignored -> {
 		});
 
-		Mockito.verify(executorService).submit(Mockito.any(OpenFileUploader.ScheduledUpload.class));
-		Mockito.verify(tasks).put(cloudPath, task);
+		Mockito.verify(scheduler).submitUpload(Mockito.eq(file), Mockito.any());
+		Mockito.verify(tasks).put(Mockito.eq(cloudPath), Mockito.any(OpenFileUploader.ScheduledUpload.class));
+		Mockito.verify(journal, Mockito.never()).record(file); // recorded by the caller, outside of its locks
+	}
+
+	@Test
+	@DisplayName("journal record is removed after upload finished")
+	public void testJournalRecordRemovedWhenFinished() throws IOException {
+		var cloudPath = Mockito.mock(CloudPath.class, "/path/in/cloud");
+		var onFinished = Mockito.mock(Consumer.class);
+		Mockito.when(file.getPath()).thenReturn(cloudPath);
+		Mockito.when(file.transitionToUnmodified()).thenReturn(true);
+		Mockito.when(file.snapshot(Mockito.any())).thenReturn(CompletableFuture.failedFuture(new IOException("fail")));
+		Mockito.when(scheduler.submitUpload(Mockito.eq(file), Mockito.any())).thenAnswer(invocation -> {
+			Callable<Void> takeSnapshot = invocation.getArgument(1);
+			Assertions.assertThrows(IOException.class, takeSnapshot::call);
+			return Mockito.mock(Future.class);
+		});
+
+		uploader.scheduleUpload(file, onFinished);
+
+		var inOrder = Mockito.inOrder(journal, onFinished);
+		inOrder.verify(journal).remove(file);
+		inOrder.verify(onFinished).accept(file);
 	}
 
 	@Test
@@ -105,17 +162,110 @@ public class OpenFileUploaderTest {
 		Assertions.assertFalse(canceled);
 	}
 
+	@DisplayName("no write-through of small files or in direct upload mode")
+	@ParameterizedTest(name = "size={0}, mode={1}")
+	@CsvSource({"999,TEMP_AND_MOVE", "1000,DIRECT"})
+	public void testNoWriteThrough(long size, UploadMode mode) {
+		Mockito.when(config.getWriteThroughThresholdBytes()).thenReturn(1000l);
+		Mockito.when(config.getUploadMode()).thenReturn(mode);
+		Mockito.when(file.getSize()).thenReturn(size);
+
+		uploader.startWriteThrough(file);
+
+		Mockito.verify(file, Mockito.never()).startWriteThrough();
+	}
+
+	@Test
+	@DisplayName("write-through uploads to temporary location and moves to destination")
+	public void testWriteThrough() throws InterruptedException {
+		var stream = Mockito.mock(WriteThroughStream.class);
+		var cloudPath = CloudPath.of("/path/in/cloud");
+		var lock = Mockito.mock(PathLock.class);
+		var lockBuilder = Mockito.mock(PathLockBuilder.class);
+		Mockito.when(config.getWriteThroughThresholdBytes()).thenReturn(1000l);
+		Mockito.when(config.getUploadMode()).thenReturn(UploadMode.TEMP_AND_MOVE);
+		Mockito.when(file.getSize()).thenReturn(1000l);
+		Mockito.when(file.getPath()).thenReturn(cloudPath);
+		Mockito.when(file.startWriteThrough()).thenReturn(Optional.of(stream));
+		Mockito.when(stream.getSize()).thenReturn(0l);
+		Mockito.when(stream.awaitFinished()).thenReturn(true);
+		Mockito.when(lockManager.createPathLock(cloudPath.toString())).thenReturn(lockBuilder);
+		Mockito.when(lockBuilder.forWriting()).thenReturn(lock);
+		Mockito.when(provider.write(Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+		Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.anyBoolean())).thenReturn(CompletableFuture.completedFuture(cloudPath));
+
+		uploader.startWriteThrough(file);
+
+		Mockito.verify(file, Mockito.timeout(1000)).setRemoteDigest(Mockito.any());
+		var inOrder = Mockito.inOrder(provider, stream);
+		inOrder.verify(provider).write(Mockito.argThat(p -> p.startsWith(cloudUploadDir)), Mockito.eq(true), Mockito.any(), Mockito.eq(0l), Mockito.any(), Mockito.any());
+		inOrder.verify(provider).move(Mockito.argThat(p -> p.startsWith(cloudUploadDir)), Mockito.eq(cloudPath), Mockito.eq(true));
+		Mockito.verify(stream, Mockito.timeout(1000).atLeastOnce()).close();
+	}
+
+	@Test
+	@DisplayName("write-through doesn't move file to destination if aborted before writer finished")
+	public void testWriteThroughAbortedAfterUpload() throws InterruptedException {
+		var stream = Mockito.mock(WriteThroughStream.class);
+		var cloudPath = CloudPath.of("/path/in/cloud");
+		Mockito.when(config.getWriteThroughThresholdBytes()).thenReturn(1000l);
+		Mockito.when(config.getUploadMode()).thenReturn(UploadMode.TEMP_AND_MOVE);
+		Mockito.when(file.getSize()).thenReturn(1000l);
+		Mockito.when(file.getPath()).thenReturn(cloudPath);
+		Mockito.when(file.startWriteThrough()).thenReturn(Optional.of(stream));
+		Mockito.when(stream.getSize()).thenReturn(0l);
+		Mockito.when(stream.awaitFinished()).thenReturn(false);
+		Mockito.when(provider.write(Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+		Mockito.when(provider.deleteFile(Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+
+		uploader.startWriteThrough(file);
+
+		Mockito.verify(provider, Mockito.timeout(1000)).deleteFile(Mockito.argThat(p -> p.startsWith(cloudUploadDir)));
+		Mockito.verify(stream, Mockito.timeout(1000).atLeastOnce()).close();
+		Mockito.verify(provider, Mockito.never()).move(Mockito.any(), Mockito.any(), Mockito.anyBoolean());
+		Mockito.verify(file, Mockito.never()).markCreatedRemotely();
+		Mockito.verify(file, Mockito.never()).setRemoteDigest(Mockito.any());
+	}
+
+	@Test
+	@DisplayName("write-through deletes temporary file if moving it to destination fails")
+	public void testWriteThroughMoveFailed() throws InterruptedException {
+		var stream = Mockito.mock(WriteThroughStream.class);
+		var cloudPath = CloudPath.of("/path/in/cloud");
+		var lock = Mockito.mock(PathLock.class);
+		var lockBuilder = Mockito.mock(PathLockBuilder.class);
+		Mockito.when(config.getWriteThroughThresholdBytes()).thenReturn(1000l);
+		Mockito.when(config.getUploadMode()).thenReturn(UploadMode.TEMP_AND_MOVE);
+		Mockito.when(file.getSize()).thenReturn(1000l);
+		Mockito.when(file.getPath()).thenReturn(cloudPath);
+		Mockito.when(file.startWriteThrough()).thenReturn(Optional.of(stream));
+		Mockito.when(stream.getSize()).thenReturn(0l);
+		Mockito.when(stream.awaitFinished()).thenReturn(true);
+		Mockito.when(lockManager.createPathLock(cloudPath.toString())).thenReturn(lockBuilder);
+		Mockito.when(lockBuilder.forWriting()).thenReturn(lock);
+		Mockito.when(provider.write(Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+		Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.anyBoolean())).thenReturn(CompletableFuture.failedFuture(new CloudProviderException("fail.")));
+		Mockito.when(provider.deleteFile(Mockito.any())).thenReturn(CompletableFuture.failedFuture(new CloudProviderException("fail.")));
+
+		uploader.startWriteThrough(file);
+
+		Mockito.verify(provider, Mockito.timeout(1000)).deleteFile(Mockito.argThat(p -> p.startsWith(cloudUploadDir)));
+		Mockito.verify(stream, Mockito.timeout(1000).atLeastOnce()).close();
+		Mockito.verify(file, Mockito.never()).markCreatedRemotely();
+		Mockito.verify(file, Mockito.never()).setRemoteDigest(Mockito.any());
+	}
+
 	@Nested
 	@DisplayName("awaitPendingUploads(...)")
 	public class Termination {
 
-		private ExecutorService executorService;
+		private UploadScheduler executorService;
 		private OpenFileUploader uploader;
 
 		@BeforeEach
 		public void setup() {
-			this.executorService = Executors.newSingleThreadExecutor();
-			this.uploader = new OpenFileUploader(provider, config, executorService, tasks, lockManager);
+			this.executorService = new UploadScheduler(1, UploadOrder.FIFO);
+			this.uploader = new OpenFileUploader(provider, config, executorService, transferStage, commitStage, writeThroughStage, tasks, lockManager, retryPolicy, UNLIMITED, journal, snapshotBuffers, namespaceReplayer);
 		}
 
 		@Test
@@ -125,6 +275,8 @@ public class OpenFileUploaderTest {
 				uploader.awaitPendingUploads(1, TimeUnit.SECONDS);
 			});
 			Assertions.assertTrue(executorService.isTerminated());
+			Assertions.assertTrue(transferStage.isTerminated());
+			Assertions.assertTrue(commitStage.isTerminated());
 		}
 
 		@Test
@@ -138,6 +290,28 @@ public class OpenFileUploaderTest {
 			Assertions.assertTrue(executorService.isTerminated());
 		}
 
+		@Test
+		@DisplayName("1 pending upload in later stage")
+		public void testAwaitPendingUploadsInLaterStage() throws InterruptedException {
+			var committed = new CountDownLatch(1);
+			executorService.submit(() -> {
+				transferStage.submit(() -> {
+					commitStage.submit(() -> {
+						Thread.sleep(10);
+						committed.countDown();
+						return null;
+					}, () -> {});
+					return null;
+				}, () -> {});
+				return null;
+			});
+			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+				uploader.awaitPendingUploads(1, TimeUnit.SECONDS);
+			});
+			Assertions.assertEquals(0, committed.getCount());
+			Assertions.assertTrue(commitStage.isTerminated());
+		}
+
 		@Test
 		@DisplayName("timeout")
 		public void testAwaitPendingUploads1() {
@@ -163,113 +337,380 @@ public class OpenFileUploaderTest {
 
 		private Path tmpDir;
 		private OpenFile openFile;
+		private OpenFileSnapshot snapshot;
 		private Consumer<OpenFile> onFinished;
 		private OpenFileUploader.ScheduledUpload upload;
 		private PathLockBuilder pathLockBuilder;
 		private PathLock pathLock;
 
+		private void runPipeline() throws IOException {
+			upload.takeSnapshot();
+			try {
+				upload.get(1, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+				Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+				throw new AssertionError(e);
+			} catch (InterruptedException | TimeoutException e) {
+				throw new AssertionError(e);
+			}
+		}
+
 		@BeforeEach
 		public void setup(@TempDir Path tmpDir) {
 			this.tmpDir = tmpDir;
 			this.openFile = Mockito.mock(OpenFile.class);
+			this.snapshot = Mockito.mock(OpenFileSnapshot.class);
 			this.onFinished = Mockito.mock(Consumer.class);
 			this.pathLockBuilder = Mockito.mock(PathLockBuilder.class);
 			this.pathLock = Mockito.mock(PathLock.class);
 			this.upload = Mockito.spy(uploader.new ScheduledUpload(openFile, onFinished));
 			Mockito.when(lockManager.createPathLock(Mockito.any())).thenReturn(pathLockBuilder);
 			Mockito.when(pathLockBuilder.forWriting()).thenReturn(pathLock);
+			Mockito.when(pathLockBuilder.forReading()).thenReturn(pathLock);
 			Mockito.when(openFile.getState()).thenReturn(OpenFile.State.UPLOADING);
 			Mockito.when(config.getCacheDir()).thenReturn(tmpDir);
+			Mockito.when(snapshot.getSize()).thenReturn(42l);
+			Mockito.when(snapshot.getLastModified()).thenReturn(Instant.EPOCH);
+			Mockito.when(snapshot.newInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(new byte[42]));
 		}
 
 		@Test
 		@DisplayName("upload fails due to I/O error during upload preparation")
-		public void testIOErrorDuringPersistTo() throws IOException {
+		public void testIOErrorDuringSnapshot() throws IOException {
 			var e = new IOException("fail");
-			Mockito.when(openFile.persistTo(Mockito.any())).thenReturn(CompletableFuture.failedFuture(e));
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.failedFuture(e));
 
 			var thrown = Assertions.assertThrows(IOException.class, () -> {
-				upload.call();
+				runPipeline();
 			});
 
 			MatcherAssert.assertThat(thrown.getCause(), CoreMatchers.instanceOf(ExecutionException.class));
 			Assertions.assertSame(e, thrown.getCause().getCause());
 			Mockito.verify(onFinished).accept(Mockito.any());
+			Mockito.verify(upload, Mockito.never()).backupFailedUploadFile(Mockito.any());
 			Assertions.assertEquals(0l, Files.list(tmpDir).count());
 			Mockito.verifyNoMoreInteractions(lockManager);
 		}
 
 		@Test
-		@DisplayName("upload fails due to CloudProviderException during actual upload and backups the tmp file")
+		@DisplayName("upload fails due to CloudProviderException during actual upload and backups the snapshot after retrying")
 		public void testCloudProviderExceptionDuringUpload() throws IOException {
 			var e = new CloudProviderException("fail");
 			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
-			Mockito.when(openFile.persistTo(Mockito.any())).thenAnswer(invocation -> {
-				Path path = invocation.getArgument(0);
-				Files.write(path, new byte[42]);
-				return CompletableFuture.completedFuture(null);
-			});
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
 			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
-			Mockito.when(openFile.getLastModified()).thenReturn(Instant.EPOCH);
-			Mockito.when(openFile.getSize()).thenReturn(42l);
 			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any()))
 					.thenReturn(CompletableFuture.failedFuture(e));
-			Mockito.doNothing().when(upload).backupFailedUploadFile(Mockito.any(Path.class));
+			Mockito.doReturn(true).when(upload).backupFailedUploadFile(Mockito.any(OpenFileSnapshot.class));
 
 			var thrown = Assertions.assertThrows(IOException.class, () -> {
-				upload.call();
+				runPipeline();
 			});
 
 			MatcherAssert.assertThat(thrown.getCause(), CoreMatchers.instanceOf(ExecutionException.class));
 			Assertions.assertSame(e, thrown.getCause().getCause());
+			Mockito.verify(provider, Mockito.times(3)).write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any());
 			Mockito.verify(onFinished).accept(Mockito.any());
-			Mockito.verify(upload).backupFailedUploadFile(Mockito.any(Path.class));
+			Mockito.verify(upload).backupFailedUploadFile(snapshot);
+			Mockito.verify(snapshot).close();
 			Assertions.assertEquals(0l, Files.list(tmpDir).count());
 			Mockito.verifyNoMoreInteractions(lockManager);
 		}
 
+		@Test
+		@DisplayName("upload fails due to permanent error without retrying")
+		public void testPermanentErrorDuringUpload() {
+			var e = new NotFoundException("fail");
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any()))
+					.thenReturn(CompletableFuture.failedFuture(e));
+			Mockito.doReturn(true).when(upload).backupFailedUploadFile(Mockito.any(OpenFileSnapshot.class));
+
+			Assertions.assertThrows(IOException.class, () -> {
+				runPipeline();
+			});
+
+			Mockito.verify(provider, Mockito.times(1)).write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any());
+			Mockito.verify(upload).backupFailedUploadFile(snapshot);
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
+		@Test
+		@DisplayName("upload and move succeed after transient errors")
+		public void testRetryTransientErrors() throws IOException {
+			var e = new CloudProviderException("fail");
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any()))
+					.thenReturn(CompletableFuture.failedFuture(e), CompletableFuture.completedFuture(null));
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true)))
+					.thenReturn(CompletableFuture.failedFuture(e), CompletableFuture.completedFuture(cloudPath));
+
+			runPipeline();
+
+			Mockito.verify(provider, Mockito.times(2)).write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any());
+			Mockito.verify(provider, Mockito.times(2)).move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true));
+			Mockito.verify(snapshot, Mockito.times(2)).newInputStream();
+			Mockito.verify(pathLock, Mockito.times(2)).close();
+			Mockito.verify(upload, Mockito.never()).backupFailedUploadFile(Mockito.any());
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
+		@Test
+		@DisplayName("move waits for namespace changes affecting the destination and is retried if they take too long")
+		public void testMoveAwaitsNamespaceChanges() throws IOException, InterruptedException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(config.getUploadNamespaceWaitMillis()).thenReturn(42l);
+			Mockito.when(namespaceReplayer.awaitReplayed(cloudPath, 42l, TimeUnit.MILLISECONDS)).thenReturn(false, true);
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true))).thenReturn(CompletableFuture.completedFuture(cloudPath));
+
+			runPipeline();
+
+			Mockito.verify(namespaceReplayer, Mockito.times(2)).awaitReplayed(cloudPath, 42l, TimeUnit.MILLISECONDS);
+			Mockito.verify(provider, Mockito.times(1)).move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true));
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
+		@Test
+		@DisplayName("move that timed out but succeeded isn't retried")
+		public void testMoveSucceededDespiteTimeout() throws IOException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true))).thenReturn(CompletableFuture.failedFuture(new CloudTimeoutException(new SocketTimeoutException())));
+			Mockito.when(provider.itemMetadata(Mockito.argThat(p -> p != cloudPath && p.startsWith(cloudUploadDir)))).thenReturn(CompletableFuture.failedFuture(new NotFoundException()));
+			Mockito.when(provider.itemMetadata(cloudPath)).thenReturn(CompletableFuture.completedFuture(Mockito.mock(CloudItemMetadata.class)));
+
+			runPipeline();
+
+			Mockito.verify(provider, Mockito.times(1)).move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true));
+			Mockito.verify(openFile).markCreatedRemotely();
+			Mockito.verify(upload, Mockito.never()).backupFailedUploadFile(Mockito.any());
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
+		@Test
+		@DisplayName("move that timed out and failed is retried")
+		public void testMoveFailedWithTimeout() throws IOException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true)))
+					.thenReturn(CompletableFuture.failedFuture(new CloudTimeoutException(new SocketTimeoutException())), CompletableFuture.completedFuture(cloudPath));
+			Mockito.when(provider.itemMetadata(Mockito.any())).thenReturn(CompletableFuture.completedFuture(Mockito.mock(CloudItemMetadata.class)));
+
+			runPipeline();
+
+			Mockito.verify(provider, Mockito.times(2)).move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true));
+			Mockito.verify(upload, Mockito.never()).backupFailedUploadFile(Mockito.any());
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
+		@Test
+		@DisplayName("cancelling upload while transferring closes snapshot")
+		public void testCancelDuringTransfer() throws IOException, InterruptedException {
+			var transferStarted = new CountDownLatch(1);
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenAnswer(invocation -> {
+				transferStarted.countDown();
+				return new CompletableFuture<>(); // never completes
+			});
+
+			upload.takeSnapshot();
+			Assertions.assertTrue(transferStarted.await(1, TimeUnit.SECONDS));
+			Assertions.assertTrue(upload.cancel(true));
+
+			Assertions.assertTrue(upload.isCancelled());
+			Mockito.verify(snapshot, Mockito.timeout(1000).atLeastOnce()).close();
+			Mockito.verify(provider, Mockito.never()).move(Mockito.any(), Mockito.any(), Mockito.anyBoolean());
+			Mockito.verify(upload, Mockito.never()).backupFailedUploadFile(Mockito.any());
+		}
+
 		@Test
 		@DisplayName("backup operations succeeds")
 		public void testBackupOp() throws IOException {
-			Path tmpFile = tmpDir.resolve("temp.file");
-			Files.write(tmpFile, new byte[42]);
 			var cloudPath = CloudPath.of("path/to/backup.file");
 			Path backup = tmpDir.resolve("path/to/backup.file");
 			Path backupDir = tmpDir.resolve("path/to/");
 			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
 			Mockito.when(lostAndFoundDir.resolve(Mockito.anyString())).thenReturn(backupDir);
 			Mockito.when(lostAndFoundDir.toString()).thenReturn(backup.toString());
-			Mockito.doCallRealMethod().when(upload).backupFailedUploadFile(Mockito.any(Path.class));
+			Mockito.when(snapshot.transferCachedTo(Mockito.any())).thenAnswer(invocation -> {
+				FileChannel out = invocation.getArgument(0);
+				out.write(ByteBuffer.allocate(42), 0);
+				return true;
+			});
+			Mockito.doCallRealMethod().when(upload).backupFailedUploadFile(Mockito.any(OpenFileSnapshot.class));
 
-			upload.backupFailedUploadFile(tmpFile);
+			var result = upload.backupFailedUploadFile(snapshot);
 
-			Assertions.assertTrue(Files.notExists(tmpFile));
+			Assertions.assertTrue(result);
 			Assertions.assertTrue(Files.exists(backup));
+			Assertions.assertEquals(42l, Files.size(backup));
+			Mockito.verify(snapshot, Mockito.never()).newInputStream();
+		}
+
+		@Test
+		@DisplayName("file remains dirty if backup is incomplete")
+		public void testIncompleteBackup() {
+			var e = new NotFoundException("fail");
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any()))
+					.thenReturn(CompletableFuture.failedFuture(e));
+			Mockito.doReturn(false).when(upload).backupFailedUploadFile(Mockito.any(OpenFileSnapshot.class));
+
+			Assertions.assertThrows(IOException.class, () -> {
+				runPipeline();
+			});
+
+			var inOrder = Mockito.inOrder(openFile, onFinished);
+			inOrder.verify(openFile).transitionToNeedsUpload();
+			inOrder.verify(onFinished).accept(openFile);
 		}
 
 		@Test
 		@DisplayName("upload succeeds")
 		public void testSuccessfulUpload() throws IOException {
 			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
-			Mockito.when(openFile.persistTo(Mockito.any())).thenAnswer(invocation -> {
-				Path path = invocation.getArgument(0);
-				Files.write(path, new byte[42]);
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true))).thenReturn(CompletableFuture.completedFuture(cloudPath));
+
+			runPipeline();
+
+			Mockito.verify(onFinished).accept(openFile);
+			Mockito.verify(snapshot).close();
+			Mockito.verify(lockManager).createPathLock(cloudPath.toString());
+			Mockito.verify(pathLock).close();
+		}
+
+		@Test
+		@DisplayName("successful upload updates remote digest")
+		public void testSuccessfulUploadUpdatesRemoteDigest() throws IOException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenAnswer(invocation -> {
+				InputStream in = invocation.getArgument(2);
+				in.readAllBytes();
 				return CompletableFuture.completedFuture(null);
 			});
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true))).thenReturn(CompletableFuture.completedFuture(cloudPath));
+
+			runPipeline();
+
+			Mockito.verify(openFile).setRemoteDigest(ContentDigest.of(new ByteArrayInputStream(new byte[42])));
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
+		@Test
+		@DisplayName("snapshots of small files are moved to memory")
+		public void testSmallFileInMemory() throws IOException {
+			snapshotBuffers = new SnapshotBufferPool(42, 1);
+			uploader = new OpenFileUploader(provider, config, scheduler, transferStage, commitStage, writeThroughStage, tasks, lockManager, retryPolicy, UNLIMITED, journal, snapshotBuffers, namespaceReplayer);
+			upload = uploader.new ScheduledUpload(openFile, onFinished);
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
 			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
-			Mockito.when(openFile.getLastModified()).thenReturn(Instant.EPOCH);
-			Mockito.when(openFile.getSize()).thenReturn(42l);
 			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
 			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true))).thenReturn(CompletableFuture.completedFuture(cloudPath));
 
-			upload.call();
+			runPipeline();
 
+			var inOrder = Mockito.inOrder(snapshot);
+			inOrder.verify(snapshot).moveToMemory(snapshotBuffers);
+			inOrder.verify(snapshot).newInputStream();
+			inOrder.verify(snapshot).close();
+		}
+
+		@Test
+		@DisplayName("upload is skipped if contents match remote version")
+		public void testSkipUnchanged() throws IOException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(openFile.getRemoteDigest()).thenReturn(ContentDigest.of(new ByteArrayInputStream(new byte[42])));
+			Mockito.when(snapshot.isFullyCached()).thenReturn(true);
+
+			runPipeline();
+
+			Mockito.verifyNoInteractions(provider);
 			Mockito.verify(onFinished).accept(openFile);
-			Assertions.assertEquals(0l, Files.list(tmpDir).count());
+			Mockito.verify(snapshot).close();
+		}
+
+		@Test
+		@DisplayName("upload isn't skipped if contents differ from remote version")
+		public void testDontSkipChanged() throws IOException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			var remoteContents = new byte[42];
+			remoteContents[0] = 1;
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(openFile.getRemoteDigest()).thenReturn(ContentDigest.of(new ByteArrayInputStream(remoteContents)));
+			Mockito.when(snapshot.isFullyCached()).thenReturn(true);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true))).thenReturn(CompletableFuture.completedFuture(cloudPath));
+
+			runPipeline();
+
+			Mockito.verify(provider).write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any());
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
+		@Test
+		@DisplayName("upload succeeds in direct mode without moving")
+		public void testSuccessfulDirectUpload() throws IOException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(config.getUploadMode()).thenReturn(UploadMode.DIRECT);
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(snapshot.isFullyCached()).thenReturn(true);
+			Mockito.when(provider.write(Mockito.eq(cloudPath), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+
+			runPipeline();
+
+			Mockito.verify(provider).write(Mockito.eq(cloudPath), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any());
+			Mockito.verify(provider, Mockito.never()).move(Mockito.any(), Mockito.any(), Mockito.anyBoolean());
+			Mockito.verify(onFinished).accept(openFile);
+			Mockito.verify(snapshot).close();
 			Mockito.verify(lockManager).createPathLock(cloudPath.toString());
+			Mockito.verify(pathLockBuilder).forReading();
+			Mockito.verify(pathLockBuilder, Mockito.never()).forWriting();
 			Mockito.verify(pathLock).close();
 		}
 
+		@Test
+		@DisplayName("upload falls back to temporary file in direct mode if snapshot isn't fully cached")
+		public void testDirectUploadOfPartiallyCachedFile() throws IOException {
+			var cloudPath = Mockito.mock(CloudPath.class, "/path/to/file");
+			Mockito.when(config.getUploadMode()).thenReturn(UploadMode.DIRECT);
+			Mockito.when(openFile.snapshot(Mockito.any())).thenReturn(CompletableFuture.completedFuture(snapshot));
+			Mockito.when(openFile.getPath()).thenReturn(cloudPath);
+			Mockito.when(snapshot.isFullyCached()).thenReturn(false);
+			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any())).thenReturn(CompletableFuture.completedFuture(null));
+			Mockito.when(provider.move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true))).thenReturn(CompletableFuture.completedFuture(cloudPath));
+
+			runPipeline();
+
+			Mockito.verify(provider, Mockito.never()).write(Mockito.eq(cloudPath), Mockito.anyBoolean(), Mockito.any(), Mockito.anyLong(), Mockito.any(), Mockito.any());
+			Mockito.verify(provider).move(Mockito.any(), Mockito.eq(cloudPath), Mockito.eq(true));
+			Mockito.verify(onFinished).accept(openFile);
+		}
+
 		@Test
 		@DisplayName("upload succeeds despite concurrent move")
 		public void testSuccessfulUploadWithMove() throws IOException, BrokenBarrierException, InterruptedException {
@@ -277,14 +718,10 @@ public class OpenFileUploaderTest {
 			var cloudPath2 = Mockito.mock(CloudPath.class, "/path/to/other/file");
 			var persistedBarrier = new CyclicBarrier(2);
 			var uploadedBarrier = new CyclicBarrier(2);
-			Mockito.when(openFile.persistTo(Mockito.any())).thenAnswer(invocation -> {
-				Path path = invocation.getArgument(0);
-				Files.write(path, new byte[42]);
+			Mockito.when(openFile.snapshot(Mockito.any())).thenAnswer(invocation -> {
 				persistedBarrier.await();
-				return CompletableFuture.completedFuture(null);
+				return CompletableFuture.completedFuture(snapshot);
 			});
-			Mockito.when(openFile.getLastModified()).thenReturn(Instant.EPOCH);
-			Mockito.when(openFile.getSize()).thenReturn(42l);
 			Mockito.when(provider.write(Mockito.any(), Mockito.eq(true), Mockito.any(), Mockito.eq(42l), Mockito.eq(Optional.of(Instant.EPOCH)), Mockito.any()))
 					.thenAnswer(invocation -> {
 						uploadedBarrier.await();
@@ -297,7 +734,7 @@ public class OpenFileUploaderTest {
 			Future<Void> pendingUpload = CompletableFuture.runAsync(() -> {
 				try {
 					assert openFile.getPath() == cloudPath1;
-					upload.call();
+					runPipeline();
 					assert openFile.getPath() == cloudPath2;
 				} catch (IOException e) {
 					e.printStackTrace();
@@ -309,7 +746,7 @@ public class OpenFileUploaderTest {
 			Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> pendingUpload.get());
 
 			Mockito.verify(onFinished).accept(openFile);
-			Assertions.assertEquals(0l, Files.list(tmpDir).count());
+			Mockito.verify(snapshot).close();
 			Mockito.verify(provider).move(Mockito.any(), Mockito.eq(cloudPath2), Mockito.eq(true));
 			Mockito.verify(lockManager, Mockito.never()).createPathLock(cloudPath1.toString());
 			Mockito.verify(lockManager).createPathLock(cloudPath2.toString());
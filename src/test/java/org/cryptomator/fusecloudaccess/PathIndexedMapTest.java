@@ -0,0 +1,85 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class PathIndexedMapTest {
+
+	private PathIndexedMap<String> map;
+
+	@BeforeEach
+	public void setup() {
+		map = new PathIndexedMap<>();
+		for (var path : List.of("/a", "/a!", "/a/x", "/a/x/y", "/a/z", "/ab", "/b")) {
+			map.put(CloudPath.of(path), path);
+		}
+	}
+
+	private static List<CloudPath> paths(String... paths) {
+		return List.of(paths).stream().map(CloudPath::of).collect(Collectors.toList());
+	}
+
+	@ParameterizedTest(name = "{0} {2} {1}")
+	@CsvSource({"/a, /a/z, <", "/a/z, /a!, <", "/a/x/y, /a/z, <", "/a!, /ab, <", "/a, /a, =", "/b, /a/x, >", "a, /a, >"})
+	@DisplayName("PATH_ORDER sorts descendants directly after their ancestor")
+	public void testPathOrder(String p1, String p2, String expected) {
+		int result = Integer.signum(PathIndexedMap.PATH_ORDER.compare(CloudPath.of(p1), CloudPath.of(p2)));
+
+		Assertions.assertEquals("<=>".indexOf(expected) - 1, result);
+	}
+
+	@Test
+	@DisplayName("subtree(...) contains the path itself and all its descendants")
+	public void testSubtree() {
+		Assertions.assertEquals(paths("/a", "/a/x", "/a/x/y", "/a/z"), map.subtree(CloudPath.of("/a")));
+		Assertions.assertEquals(paths("/a/x", "/a/x/y"), map.subtree(CloudPath.of("/a/x")));
+		Assertions.assertEquals(paths(), map.subtree(CloudPath.of("/c")));
+	}
+
+	@Test
+	@DisplayName("children(...) contains direct children only")
+	public void testChildren() {
+		Assertions.assertEquals(paths("/a/x", "/a/z"), map.children(CloudPath.of("/a")));
+	}
+
+	@Test
+	@DisplayName("removing mappings removes them from the index")
+	public void testRemove() {
+		map.remove(CloudPath.of("/a/x"));
+		map.computeIfPresent(CloudPath.of("/a/z"), (p, v) -> null);
+		map.compute(CloudPath.of("/a/x/y"), (p, v) -> null);
+
+		Assertions.assertEquals(paths("/a"), map.subtree(CloudPath.of("/a")));
+	}
+
+	@Test
+	@DisplayName("adding mappings adds them to the index")
+	public void testAdd() {
+		map.clear();
+		map.compute(CloudPath.of("/a/1"), (p, v) -> "1");
+		map.computeIfAbsent(CloudPath.of("/a/2"), p -> "2");
+		map.putIfAbsent(CloudPath.of("/a/3"), "3");
+		map.merge(CloudPath.of("/a/4"), "4", (v1, v2) -> v2);
+
+		Assertions.assertEquals(paths("/a/1", "/a/2", "/a/3", "/a/4"), map.subtree(CloudPath.of("/a")));
+		Assertions.assertEquals(4, map.size());
+	}
+
+	@Test
+	@DisplayName("keySet() can not be used to modify the map")
+	public void testKeySetIsUnmodifiable() {
+		var keys = map.keySet();
+
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> keys.remove(CloudPath.of("/a")));
+		Assertions.assertTrue(map.containsKey(CloudPath.of("/a")));
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.collect.Range;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class PopulationIndexTest {
+
+	private static final long BLOCK = PopulationIndex.BLOCK_SIZE;
+	private static final long SEGMENT = 4096 * BLOCK;
+
+	private PopulationIndex index;
+
+	@BeforeEach
+	public void setup() {
+		index = new PopulationIndex();
+	}
+
+	@Test
+	@DisplayName("empty index encloses nothing but empty ranges")
+	public void testEmpty() {
+		Assertions.assertTrue(index.encloses(42l, 42l));
+		Assertions.assertFalse(index.encloses(0l, 1l));
+		Assertions.assertEquals(List.of(Range.closedOpen(0l, 100l)), index.missingRanges(0l, 100l));
+	}
+
+	@Test
+	@DisplayName("byte-precise ranges within a single block")
+	public void testPartialBlock() {
+		index.add(10l, 20l);
+		index.add(30l, 40l);
+
+		Assertions.assertTrue(index.encloses(10l, 20l));
+		Assertions.assertTrue(index.encloses(12l, 18l));
+		Assertions.assertFalse(index.encloses(10l, 21l));
+		Assertions.assertFalse(index.encloses(15l, 35l));
+		Assertions.assertEquals(List.of(Range.closedOpen(0l, 10l), Range.closedOpen(20l, 30l), Range.closedOpen(40l, 50l)), index.missingRanges(0l, 50l));
+	}
+
+	@Test
+	@DisplayName("adjacent and overlapping ranges are merged")
+	public void testMerge() {
+		index.add(10l, 20l);
+		index.add(20l, 30l);
+		index.add(25l, 35l);
+
+		Assertions.assertTrue(index.encloses(10l, 35l));
+		Assertions.assertEquals(List.of(Range.closedOpen(35l, 40l)), index.missingRanges(10l, 40l));
+	}
+
+	@Test
+	@DisplayName("ranges crossing block boundaries")
+	public void testBlockBoundaries() {
+		index.add(BLOCK - 10, 3 * BLOCK + 10);
+
+		Assertions.assertTrue(index.encloses(BLOCK - 10, 3 * BLOCK + 10));
+		Assertions.assertTrue(index.encloses(BLOCK, 2 * BLOCK));
+		Assertions.assertFalse(index.encloses(BLOCK - 11, BLOCK));
+		Assertions.assertFalse(index.encloses(3 * BLOCK, 3 * BLOCK + 11));
+		Assertions.assertEquals(List.of(Range.closedOpen(0l, BLOCK - 10), Range.closedOpen(3 * BLOCK + 10, 4 * BLOCK)), index.missingRanges(0l, 4 * BLOCK));
+	}
+
+	@Test
+	@DisplayName("partially populated blocks become full blocks once completed")
+	public void testCompletePartialBlock() {
+		index.add(0l, 100l);
+		index.add(200l, BLOCK);
+		index.add(100l, 200l);
+
+		Assertions.assertTrue(index.encloses(0l, BLOCK));
+		Assertions.assertEquals(List.of(), index.missingRanges(0l, BLOCK));
+	}
+
+	@Test
+	@DisplayName("ranges spanning whole segments")
+	public void testFullSegments() {
+		index.add(0l, 2 * SEGMENT + 5);
+
+		Assertions.assertTrue(index.encloses(0l, 2 * SEGMENT + 5));
+		Assertions.assertTrue(index.encloses(SEGMENT - 1, SEGMENT + 1));
+		Assertions.assertFalse(index.encloses(0l, 2 * SEGMENT + 6));
+		Assertions.assertEquals(List.of(Range.closedOpen(2 * SEGMENT + 5, 3 * SEGMENT)), index.missingRanges(SEGMENT, 3 * SEGMENT));
+	}
+
+	@Test
+	@DisplayName("gaps are reported in order across populated and unpopulated blocks")
+	public void testMissingRangesAcrossBlocks() {
+		index.add(BLOCK, 2 * BLOCK);
+		index.add(3 * BLOCK + 100, 5 * BLOCK);
+
+		var missing = index.missingRanges(50l, 6 * BLOCK - 1);
+
+		Assertions.assertEquals(List.of(Range.closedOpen(50l, BLOCK), Range.closedOpen(2 * BLOCK, 3 * BLOCK + 100), Range.closedOpen(5 * BLOCK, 6 * BLOCK - 1)), missing);
+	}
+
+	@Test
+	@DisplayName("concurrent adds of disjoint ranges are all visible")
+	public void testConcurrentAdd() throws InterruptedException {
+		int threads = 8;
+		int chunk = 1000; // deliberately not block-aligned
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				executor.submit(() -> {
+					start.await();
+					for (long pos = (long) thread * chunk; pos < 100 * BLOCK; pos += (long) threads * chunk) {
+						index.add(pos, pos + chunk);
+					}
+					return null;
+				});
+			}
+			start.countDown();
+		} finally {
+			executor.shutdown();
+			Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+
+		Assertions.assertTrue(index.encloses(0l, 100 * BLOCK));
+	}
+
+}
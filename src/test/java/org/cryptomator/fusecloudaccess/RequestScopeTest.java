@@ -0,0 +1,137 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudItemMetadata;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.cryptomator.cloudaccess.api.CloudProvider;
+import org.cryptomator.cloudaccess.api.ProgressListener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+public class RequestScopeTest {
+
+	@Test
+	@DisplayName("cancel() cancels pending requests of the scope only")
+	public void testCancel() {
+		var pending = new CompletableFuture<Void>();
+		var completed = CompletableFuture.completedFuture(null);
+		var untracked = new CompletableFuture<Void>();
+
+		try (var scope = RequestScope.open()) {
+			RequestScope.track(pending);
+			RequestScope.track(completed);
+
+			Assertions.assertEquals(1, scope.cancel());
+		}
+		RequestScope.track(untracked);
+
+		Assertions.assertTrue(pending.isCancelled());
+		Assertions.assertFalse(completed.isCancelled());
+		Assertions.assertFalse(untracked.isCancelled());
+	}
+
+	@Test
+	@DisplayName("requests started after cancellation are cancelled immediately")
+	public void testTrackAfterCancel() {
+		var request = new CompletableFuture<Void>();
+
+		try (var scope = RequestScope.open()) {
+			scope.cancel();
+			RequestScope.track(request);
+		}
+
+		Assertions.assertTrue(request.isCancelled());
+	}
+
+	@Test
+	@DisplayName("closing a nested scope restores the outer scope")
+	public void testNestedScopes() {
+		var outerRequest = new CompletableFuture<Void>();
+		var innerRequest = new CompletableFuture<Void>();
+
+		try (var outer = RequestScope.open()) {
+			try (var inner = RequestScope.open()) {
+				RequestScope.track(innerRequest);
+			}
+			RequestScope.track(outerRequest);
+			outer.cancel();
+		}
+
+		Assertions.assertTrue(outerRequest.isCancelled());
+		Assertions.assertFalse(innerRequest.isCancelled());
+	}
+
+	@Test
+	@DisplayName("CancellableCloudProvider tracks requests")
+	public void testCancellableCloudProvider() {
+		var delegate = Mockito.mock(CloudProvider.class);
+		var request = new CompletableFuture<CloudItemMetadata>();
+		Mockito.when(delegate.itemMetadata(CloudPath.of("/foo"))).thenReturn(request);
+		var provider = new CancellableCloudProvider(delegate);
+
+		try (var scope = RequestScope.open()) {
+			Assertions.assertSame(request, provider.itemMetadata(CloudPath.of("/foo")));
+			scope.cancel();
+		}
+
+		Assertions.assertTrue(request.isCancelled());
+	}
+
+
+	@Test
+	@DisplayName("untracked requests are not cancelled with the scope")
+	public void testUntracked() {
+		var tracked = new CompletableFuture<Void>();
+		var untracked = new CompletableFuture<Void>();
+
+		try (var scope = RequestScope.open()) {
+			RequestScope.untracked(() -> RequestScope.track(untracked));
+			RequestScope.track(tracked);
+			scope.cancel();
+		}
+
+		Assertions.assertTrue(tracked.isCancelled());
+		Assertions.assertFalse(untracked.isCancelled());
+	}
+
+	@Test
+	@DisplayName("CancellableCloudProvider closes streams of cancelled reads")
+	public void testCancelRead() throws IOException {
+		var delegate = Mockito.mock(CloudProvider.class);
+		var request = new CompletableFuture<InputStream>();
+		var in = Mockito.mock(InputStream.class);
+		Mockito.when(delegate.read(CloudPath.of("/foo"), 0, 42, ProgressListener.NO_PROGRESS_AWARE)).thenReturn(request);
+		var provider = new CancellableCloudProvider(delegate);
+
+		CompletionStage<InputStream> read;
+		try (var scope = RequestScope.open()) {
+			read = provider.read(CloudPath.of("/foo"), 0, 42, ProgressListener.NO_PROGRESS_AWARE);
+			scope.cancel();
+		}
+		request.complete(in);
+
+		Assertions.assertTrue(read.toCompletableFuture().isCancelled());
+		Mockito.verify(in).close();
+	}
+
+	@Test
+	@DisplayName("CancellableCloudProvider passes on streams of reads that haven't been cancelled")
+	public void testRead() throws IOException {
+		var delegate = Mockito.mock(CloudProvider.class);
+		var in = Mockito.mock(InputStream.class);
+		Mockito.when(delegate.read(CloudPath.of("/foo"), 0, 42, ProgressListener.NO_PROGRESS_AWARE)).thenReturn(CompletableFuture.completedFuture(in));
+		var provider = new CancellableCloudProvider(delegate);
+
+		var read = provider.read(CloudPath.of("/foo"), 0, 42, ProgressListener.NO_PROGRESS_AWARE);
+
+		Assertions.assertSame(in, read.toCompletableFuture().getNow(null));
+		Mockito.verify(in, Mockito.never()).close();
+	}
+
+}
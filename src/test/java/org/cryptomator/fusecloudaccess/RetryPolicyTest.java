@@ -0,0 +1,118 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.exceptions.CloudProviderException;
+import org.cryptomator.cloudaccess.api.exceptions.CloudTimeoutException;
+import org.cryptomator.cloudaccess.api.exceptions.NotFoundException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+public class RetryPolicyTest {
+
+	private RetryPolicy retryPolicy;
+	private Callable<String> operation;
+
+	@BeforeEach
+	public void setup() throws InterruptedException {
+		this.retryPolicy = Mockito.spy(new RetryPolicy(3, Duration.ofMillis(100), Duration.ofMillis(250)));
+		this.operation = Mockito.mock(Callable.class);
+		Mockito.doNothing().when(retryPolicy).sleep(Mockito.any());
+	}
+
+	@Test
+	@DisplayName("classify failures")
+	public void testClassify() {
+		Assertions.assertEquals(RetryPolicy.Failure.TIMEOUT, RetryPolicy.classify(new CloudTimeoutException(new IOException())));
+		Assertions.assertEquals(RetryPolicy.Failure.TIMEOUT, RetryPolicy.classify(new UncheckedIOException(new SocketTimeoutException())));
+		Assertions.assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(new NotFoundException()));
+		Assertions.assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(new CloudProviderException("503")));
+		Assertions.assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(new IOException("connection reset")));
+	}
+
+	@DisplayName("backoff is capped")
+	@ParameterizedTest(name = "attempt {0}")
+	@ValueSource(ints = {1, 2, 3, 10, 100})
+	public void testBackoff(int attempt) {
+		long cap = Math.min(250, 100l << (attempt - 1));
+		for (int i = 0; i < 100; i++) {
+			var backoff = retryPolicy.backoff(attempt).toMillis();
+			Assertions.assertTrue(backoff >= 0 && backoff <= cap, "backoff " + backoff + " exceeds " + cap);
+		}
+	}
+
+	@Test
+	@DisplayName("succeeds without retrying")
+	public void testSuccess() throws Exception {
+		Mockito.when(operation.call()).thenReturn("foo");
+
+		var result = retryPolicy.execute("test", operation);
+
+		Assertions.assertEquals("foo", result);
+		Mockito.verify(operation).call();
+		Mockito.verify(retryPolicy, Mockito.never()).sleep(Mockito.any());
+	}
+
+	@Test
+	@DisplayName("succeeds after transient failure")
+	public void testRetrySuccess() throws Exception {
+		Mockito.when(operation.call()).thenThrow(new ExecutionException(new CloudProviderException("503"))).thenReturn("foo");
+
+		var result = retryPolicy.execute("test", operation);
+
+		Assertions.assertEquals("foo", result);
+		Mockito.verify(operation, Mockito.times(2)).call();
+		Mockito.verify(retryPolicy).sleep(Mockito.any());
+	}
+
+	@Test
+	@DisplayName("gives up after max attempts")
+	public void testMaxAttempts() throws Exception {
+		var e = new ExecutionException(new CloudTimeoutException(new SocketTimeoutException()));
+		Mockito.when(operation.call()).thenThrow(e);
+
+		var thrown = Assertions.assertThrows(ExecutionException.class, () -> retryPolicy.execute("test", operation));
+
+		Assertions.assertSame(e, thrown);
+		Mockito.verify(operation, Mockito.times(3)).call();
+		Mockito.verify(retryPolicy, Mockito.times(2)).sleep(Mockito.any());
+	}
+
+	@Test
+	@DisplayName("doesn't retry permanent failures")
+	public void testPermanentFailure() throws Exception {
+		var e = new ExecutionException(new NotFoundException());
+		Mockito.when(operation.call()).thenThrow(e);
+
+		var thrown = Assertions.assertThrows(ExecutionException.class, () -> retryPolicy.execute("test", operation));
+
+		Assertions.assertSame(e, thrown);
+		Mockito.verify(operation).call();
+		Mockito.verify(retryPolicy, Mockito.never()).sleep(Mockito.any());
+	}
+
+	@Test
+	@DisplayName("stops retrying when budget is exhausted")
+	public void testBudgetExhausted() throws Exception {
+		Mockito.when(operation.call()).thenThrow(new ExecutionException(new CloudProviderException("503")));
+
+		for (int i = 0; i < 10; i++) {
+			Assertions.assertThrows(ExecutionException.class, () -> retryPolicy.execute("test", operation));
+		}
+
+		// initial balance plus deposits of 10 operations allow for 12 retries:
+		Mockito.verify(retryPolicy, Mockito.times(12)).sleep(Mockito.any());
+		Mockito.verify(operation, Mockito.times(22)).call();
+	}
+
+}
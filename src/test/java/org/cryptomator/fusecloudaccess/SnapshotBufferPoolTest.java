@@ -0,0 +1,64 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class SnapshotBufferPoolTest {
+
+	@Test
+	@DisplayName("pool of size 0 is disabled")
+	public void testDisabled() {
+		var pool = new SnapshotBufferPool(0, 10);
+
+		Assertions.assertFalse(pool.fits(0));
+		Assertions.assertThrows(IllegalStateException.class, pool::acquire);
+	}
+
+	@Test
+	@DisplayName("fits(...) compares with buffer size")
+	public void testFits() {
+		var pool = new SnapshotBufferPool(100, 10);
+
+		Assertions.assertTrue(pool.fits(0));
+		Assertions.assertTrue(pool.fits(100));
+		Assertions.assertFalse(pool.fits(101));
+	}
+
+	@Test
+	@DisplayName("released buffers are reused")
+	public void testReuse() {
+		var pool = new SnapshotBufferPool(100, 10);
+		var buffer = pool.acquire();
+
+		pool.release(buffer);
+
+		Assertions.assertEquals(1, pool.getPooledCount());
+		Assertions.assertSame(buffer, pool.acquire());
+		Assertions.assertEquals(0, pool.getPooledCount());
+	}
+
+	@Test
+	@DisplayName("number of pooled buffers is limited")
+	public void testLimit() {
+		var pool = new SnapshotBufferPool(100, 1);
+		var buffer1 = pool.acquire();
+		var buffer2 = pool.acquire();
+
+		pool.release(buffer1);
+		pool.release(buffer2);
+
+		Assertions.assertEquals(1, pool.getPooledCount());
+		Assertions.assertSame(buffer1, pool.acquire());
+		Assertions.assertNotSame(buffer2, pool.acquire());
+	}
+
+	@Test
+	@DisplayName("foreign buffers are rejected")
+	public void testForeignBuffer() {
+		var pool = new SnapshotBufferPool(100, 1);
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> pool.release(new byte[99]));
+	}
+
+}
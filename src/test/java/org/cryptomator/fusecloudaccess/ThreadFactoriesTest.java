@@ -0,0 +1,76 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ThreadFactoriesTest {
+
+	private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+		return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+	}
+
+	@Test
+	@DisplayName("platform threads are named")
+	public void testPlatformThreads() {
+		var thread = ThreadFactories.create("test", false).newThread(() -> {});
+
+		Assertions.assertEquals("test-0", thread.getName());
+	}
+
+	@Test
+	@DisplayName("falls back to platform threads before Java 21")
+	public void testFallback() {
+		Assumptions.assumeTrue(Runtime.version().feature() < 21);
+
+		var thread = ThreadFactories.create("test", true).newThread(() -> {});
+
+		Assertions.assertTrue(ThreadFactories.virtualThreadFactory("test-").isEmpty());
+		Assertions.assertEquals("test-0", thread.getName());
+	}
+
+	@Test
+	@DisplayName("creates virtual threads on Java 21+")
+	public void testVirtualThreads() throws ReflectiveOperationException {
+		Assumptions.assumeTrue(Runtime.version().feature() >= 21);
+
+		var thread = ThreadFactories.create("test", true).newThread(() -> {});
+
+		Assertions.assertTrue(isVirtual(thread));
+		Assertions.assertEquals("test-0", thread.getName());
+	}
+
+	@Test
+	@DisplayName("blocking executor runs tasks on named threads")
+	public void testBlockingExecutor() throws ExecutionException, InterruptedException, TimeoutException {
+		var executor = ThreadFactories.newBlockingExecutor("test", true, 1);
+
+		var threadName = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), executor).get(1, TimeUnit.SECONDS);
+
+		Assertions.assertTrue(threadName.startsWith("test-"), threadName);
+	}
+
+	@Test
+	@DisplayName("blocking executor limits platform threads")
+	public void testBlockingExecutorLimitsPlatformThreads() throws ExecutionException, InterruptedException, TimeoutException {
+		var executor = ThreadFactories.newBlockingExecutor("test", false, 1);
+		var blocker = new CountDownLatch(1);
+
+		var first = CompletableFuture.runAsync(() -> Uninterruptibles.awaitUninterruptibly(blocker), executor);
+		var second = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), executor);
+
+		Assertions.assertThrows(TimeoutException.class, () -> second.get(50, TimeUnit.MILLISECONDS));
+		blocker.countDown();
+		first.get(1, TimeUnit.SECONDS);
+		Assertions.assertEquals("test-0", second.get(1, TimeUnit.SECONDS));
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+public class ThrottledInputStreamTest {
+
+	private final BandwidthLimiter limiter1 = Mockito.mock(BandwidthLimiter.class);
+	private final BandwidthLimiter limiter2 = Mockito.mock(BandwidthLimiter.class);
+
+	@Test
+	@DisplayName("waits for each limiter")
+	public void testAcquire() throws IOException {
+		var in = new ThrottledInputStream(new ByteArrayInputStream(new byte[100_000]), List.of(limiter1, limiter2), true);
+
+		Assertions.assertEquals(64 * 1024, in.read(new byte[100_000]));
+		Assertions.assertEquals(100_000 - 64 * 1024, in.read(new byte[100_000]));
+
+		Mockito.verify(limiter1).acquire(64 * 1024);
+		Mockito.verify(limiter1).acquire(100_000 - 64 * 1024);
+		Mockito.verify(limiter2).acquire(64 * 1024);
+		Mockito.verify(limiter2).acquire(100_000 - 64 * 1024);
+		Mockito.verify(limiter1, Mockito.never()).consume(Mockito.anyInt());
+	}
+
+	@Test
+	@DisplayName("consumes without waiting")
+	public void testConsume() throws IOException {
+		var in = new ThrottledInputStream(new ByteArrayInputStream(new byte[10]), List.of(limiter1), false);
+
+		Assertions.assertEquals(0, in.read());
+		Assertions.assertEquals(9, in.read(new byte[20]));
+		Assertions.assertEquals(-1, in.read());
+
+		Mockito.verify(limiter1).consume(1);
+		Mockito.verify(limiter1).consume(9);
+		Mockito.verify(limiter1, Mockito.never()).acquire(Mockito.anyInt());
+	}
+
+}
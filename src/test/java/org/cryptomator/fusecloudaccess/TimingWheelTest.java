@@ -0,0 +1,149 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TimingWheelTest {
+
+	private final AtomicLong nanos = new AtomicLong(42);
+	private final Ticker ticker = new Ticker() {
+		@Override
+		public long read() {
+			return nanos.get();
+		}
+	};
+	private final List<String> expired = new ArrayList<>();
+	private TimingWheel<String> wheel;
+
+	@BeforeEach
+	public void setup() {
+		wheel = new TimingWheel<>(8, 10, TimeUnit.MILLISECONDS, ticker, expired::add);
+	}
+
+	private void advanceMillis(long millis) {
+		nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	@Test
+	@DisplayName("start(...) advances the wheel once per tick")
+	public void testStart() {
+		var scheduler = Mockito.mock(ScheduledExecutorService.class);
+
+		wheel.start(scheduler);
+
+		var tickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+		Mockito.verify(scheduler).scheduleWithFixedDelay(Mockito.any(), Mockito.eq(tickNanos), Mockito.eq(tickNanos), Mockito.eq(TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	@DisplayName("keys expire after their delay, but not before")
+	public void testExpiry() {
+		wheel.schedule("a", 25, TimeUnit.MILLISECONDS);
+		wheel.schedule("b", 10, TimeUnit.MILLISECONDS);
+
+		advanceMillis(24);
+		Assertions.assertEquals(1, wheel.advance());
+		Assertions.assertEquals(List.of("b"), expired);
+
+		advanceMillis(6);
+		Assertions.assertEquals(1, wheel.advance());
+		Assertions.assertEquals(List.of("b", "a"), expired);
+		Assertions.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	@DisplayName("expired keys are handed over in one batch")
+	public void testBatch() {
+		wheel.schedule("a", 10, TimeUnit.MILLISECONDS);
+		wheel.schedule("b", 20, TimeUnit.MILLISECONDS);
+		wheel.schedule("c", 30, TimeUnit.MILLISECONDS);
+
+		advanceMillis(30);
+
+		Assertions.assertEquals(3, wheel.advance());
+		Assertions.assertEquals(List.of("a", "b", "c"), expired);
+	}
+
+	@Test
+	@DisplayName("rescheduling replaces the previous deadline")
+	public void testReschedule() {
+		wheel.schedule("a", 10, TimeUnit.MILLISECONDS);
+		wheel.schedule("a", 50, TimeUnit.MILLISECONDS);
+
+		advanceMillis(40);
+		Assertions.assertEquals(0, wheel.advance());
+		Assertions.assertEquals(1, wheel.size());
+
+		advanceMillis(10);
+		Assertions.assertEquals(1, wheel.advance());
+		Assertions.assertEquals(List.of("a"), expired);
+	}
+
+	@Test
+	@DisplayName("cancelled keys don't expire")
+	public void testCancel() {
+		wheel.schedule("a", 10, TimeUnit.MILLISECONDS);
+
+		Assertions.assertTrue(wheel.cancel("a"));
+		Assertions.assertFalse(wheel.cancel("a"));
+
+		advanceMillis(10);
+		Assertions.assertEquals(0, wheel.advance());
+		Assertions.assertEquals(0, wheel.size());
+	}
+
+	@Test
+	@DisplayName("deadlines beyond one revolution expire in a later revolution")
+	public void testMultipleRevolutions() {
+		wheel.schedule("a", 200, TimeUnit.MILLISECONDS); // 20 ticks, wheel has 8 buckets
+
+		for (int i = 0; i < 19; i++) {
+			advanceMillis(10);
+			Assertions.assertEquals(0, wheel.advance());
+		}
+		advanceMillis(10);
+
+		Assertions.assertEquals(1, wheel.advance());
+	}
+
+	@Test
+	@DisplayName("skipping several revolutions expires all due keys")
+	public void testLateAdvance() {
+		wheel.schedule("a", 10, TimeUnit.MILLISECONDS);
+		wheel.schedule("b", 70, TimeUnit.MILLISECONDS);
+		wheel.schedule("c", 500, TimeUnit.MILLISECONDS);
+
+		advanceMillis(300);
+
+		Assertions.assertEquals(2, wheel.advance());
+		Assertions.assertEquals(List.of("a", "b"), expired);
+		Assertions.assertEquals(1, wheel.size());
+	}
+
+	@Test
+	@DisplayName("failing expiry handler doesn't affect other keys")
+	public void testFailingHandler() {
+		wheel = new TimingWheel<>(8, 10, TimeUnit.MILLISECONDS, ticker, key -> {
+			expired.add(key);
+			throw new IllegalStateException("fail");
+		});
+		wheel.schedule("a", 10, TimeUnit.MILLISECONDS);
+		wheel.schedule("b", 10, TimeUnit.MILLISECONDS);
+
+		advanceMillis(10);
+
+		Assertions.assertEquals(2, wheel.advance());
+		Assertions.assertEquals(List.of("a", "b"), expired);
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UploadDebouncerTest {
+
+	private final AtomicLong nanos = new AtomicLong(1);
+	private final Ticker ticker = new Ticker() {
+		@Override
+		public long read() {
+			return nanos.get();
+		}
+	};
+	private ScheduledExecutorService scheduler = Mockito.mock(ScheduledExecutorService.class);
+	private ScheduledFuture future = Mockito.mock(ScheduledFuture.class);
+	private OpenFile file = Mockito.mock(OpenFile.class);
+	private Runnable upload = Mockito.mock(Runnable.class);
+
+	@BeforeEach
+	public void setup() {
+		Mockito.when(scheduler.schedule(Mockito.any(Runnable.class), Mockito.anyLong(), Mockito.any())).thenReturn(future);
+		Mockito.when(future.cancel(Mockito.anyBoolean())).thenReturn(true);
+	}
+
+	private void advanceMillis(long millis) {
+		nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	private Runnable verifyScheduled(long delayMillis) {
+		var task = ArgumentCaptor.forClass(Runnable.class);
+		Mockito.verify(scheduler).schedule(task.capture(), Mockito.eq(delayMillis), Mockito.eq(TimeUnit.MILLISECONDS));
+		Mockito.clearInvocations(scheduler);
+		return task.getValue();
+	}
+
+	@Test
+	@DisplayName("quiet period of 0 disables debouncing")
+	public void testDisabled() {
+		var debouncer = new UploadDebouncer(scheduler, 0, 1000, false, ticker);
+
+		Assertions.assertFalse(debouncer.defer(file, upload));
+		Mockito.verifyNoInteractions(scheduler);
+	}
+
+	@Test
+	@DisplayName("upload starts after quiet period")
+	public void testUploadAfterQuietPeriod() {
+		var debouncer = new UploadDebouncer(scheduler, 100, 1000, false, ticker);
+
+		Assertions.assertTrue(debouncer.defer(file, upload));
+		verifyScheduled(100).run();
+
+		Mockito.verify(upload).run();
+		Assertions.assertEquals(1, debouncer.getDeferredUploads());
+		Assertions.assertEquals(0, debouncer.getAvoidedUploads());
+	}
+
+	@Test
+	@DisplayName("reopening during quiet period avoids upload")
+	public void testCancel() {
+		var debouncer = new UploadDebouncer(scheduler, 100, 1000, false, ticker);
+		debouncer.defer(file, upload);
+
+		debouncer.cancel(file);
+		debouncer.cancel(file); // no-op
+
+		Mockito.verify(future).cancel(false);
+		Assertions.assertEquals(1, debouncer.getAvoidedUploads());
+	}
+
+	@Test
+	@DisplayName("uploads aren't deferred beyond max delay")
+	public void testMaxDelay() {
+		var debouncer = new UploadDebouncer(scheduler, 400, 1000, false, ticker);
+
+		Assertions.assertTrue(debouncer.defer(file, upload));
+		verifyScheduled(400);
+		debouncer.cancel(file);
+		advanceMillis(700);
+		Assertions.assertTrue(debouncer.defer(file, upload));
+		verifyScheduled(300); // only 300 ms left
+		debouncer.cancel(file);
+		advanceMillis(300);
+
+		Assertions.assertFalse(debouncer.defer(file, upload));
+		Assertions.assertTrue(debouncer.defer(file, upload)); // max delay starts again
+		verifyScheduled(400);
+	}
+
+	@Test
+	@DisplayName("adaptive quiet period grows when reopened and shrinks when elapsed")
+	public void testAdaptive() {
+		var debouncer = new UploadDebouncer(scheduler, 100, 1000, true, ticker);
+
+		debouncer.defer(file, upload);
+		verifyScheduled(100);
+		debouncer.cancel(file);
+		debouncer.defer(file, upload);
+		verifyScheduled(200);
+		debouncer.cancel(file);
+		debouncer.defer(file, upload);
+		var task = verifyScheduled(400);
+		task.run();
+		debouncer.defer(file, upload);
+		verifyScheduled(200);
+	}
+
+	@Test
+	@DisplayName("flush() starts deferred uploads immediately")
+	public void testFlush() {
+		var debouncer = new UploadDebouncer(scheduler, 100, 1000, false, ticker);
+		debouncer.defer(file, upload);
+
+		debouncer.flush();
+
+		Mockito.verify(future).cancel(false);
+		Mockito.verify(upload).run();
+		Assertions.assertEquals(0, debouncer.getAvoidedUploads());
+	}
+
+	@Test
+	@DisplayName("forget() cancels deferred upload")
+	public void testForget() {
+		var debouncer = new UploadDebouncer(scheduler, 100, 1000, false, ticker);
+		debouncer.defer(file, upload);
+
+		debouncer.forget(file);
+		debouncer.flush();
+
+		Mockito.verify(future).cancel(false);
+		Mockito.verify(upload, Mockito.never()).run();
+	}
+
+}
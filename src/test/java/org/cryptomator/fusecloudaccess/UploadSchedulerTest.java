@@ -0,0 +1,146 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class UploadSchedulerTest {
+
+	private static final CloudPath FOO_A = CloudPath.of("/foo/a");
+	private static final CloudPath FOO_B = CloudPath.of("/foo/b");
+	private static final CloudPath FOO_C = CloudPath.of("/foo/c");
+	private static final CloudPath BAR_A = CloudPath.of("/bar/a");
+
+	private final CountDownLatch blocker = new CountDownLatch(1);
+	private final List<CloudPath> uploaded = Collections.synchronizedList(new ArrayList<>());
+	private UploadScheduler scheduler;
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		blocker.countDown();
+		scheduler.shutdown();
+		Assertions.assertTrue(scheduler.awaitTermination(1, TimeUnit.SECONDS));
+	}
+
+	private void startBlockedScheduler(UploadOrder order) {
+		scheduler = new UploadScheduler(1, order);
+		scheduler.submit(() -> { // occupies the only thread, so subsequent uploads get queued
+			blocker.await();
+			return null;
+		});
+	}
+
+	private Future<Void> submit(CloudPath path, long size, Instant lastModified) {
+		var file = Mockito.mock(OpenFile.class);
+		Mockito.when(file.getPath()).thenReturn(path);
+		Mockito.when(file.getSize()).thenReturn(size);
+		Mockito.when(file.getLastModified()).thenReturn(lastModified);
+		return scheduler.submitUpload(file, () -> {
+			uploaded.add(path);
+			return null;
+		});
+	}
+
+	@Test
+	@DisplayName("FIFO starts uploads in order of submission")
+	public void testFifo() {
+		startBlockedScheduler(UploadOrder.FIFO);
+		submit(FOO_A, 300, Instant.ofEpochSecond(3));
+		submit(FOO_B, 100, Instant.ofEpochSecond(1));
+		submit(BAR_A, 200, Instant.ofEpochSecond(2));
+
+		Assertions.assertEquals(List.of(FOO_A, FOO_B, BAR_A), scheduler.getQueuedUploads());
+	}
+
+	@Test
+	@DisplayName("SMALL_FILES_FIRST starts smallest uploads first")
+	public void testSmallFilesFirst() {
+		startBlockedScheduler(UploadOrder.SMALL_FILES_FIRST);
+		submit(FOO_A, 300, Instant.ofEpochSecond(3));
+		submit(FOO_B, 100, Instant.ofEpochSecond(1));
+		submit(BAR_A, 200, Instant.ofEpochSecond(2));
+
+		Assertions.assertEquals(List.of(FOO_B, BAR_A, FOO_A), scheduler.getQueuedUploads());
+	}
+
+	@Test
+	@DisplayName("OLDEST_MODIFIED_FIRST starts uploads with oldest modification date first")
+	public void testOldestModifiedFirst() {
+		startBlockedScheduler(UploadOrder.OLDEST_MODIFIED_FIRST);
+		submit(FOO_A, 300, Instant.ofEpochSecond(3));
+		submit(FOO_B, 100, Instant.ofEpochSecond(1));
+		submit(BAR_A, 200, Instant.ofEpochSecond(2));
+
+		Assertions.assertEquals(List.of(FOO_B, BAR_A, FOO_A), scheduler.getQueuedUploads());
+	}
+
+	@Test
+	@DisplayName("DIRECTORY_FAIR interleaves uploads from different directories")
+	public void testDirectoryFair() {
+		startBlockedScheduler(UploadOrder.DIRECTORY_FAIR);
+		submit(FOO_A, 0, Instant.EPOCH);
+		submit(FOO_B, 0, Instant.EPOCH);
+		submit(FOO_C, 0, Instant.EPOCH);
+		submit(BAR_A, 0, Instant.EPOCH);
+
+		Assertions.assertEquals(List.of(FOO_A, BAR_A, FOO_B, FOO_C), scheduler.getQueuedUploads());
+	}
+
+	@Test
+	@DisplayName("prioritized uploads are started first")
+	public void testPrioritize() {
+		startBlockedScheduler(UploadOrder.FIFO);
+		submit(FOO_A, 0, Instant.EPOCH);
+		submit(FOO_B, 0, Instant.EPOCH);
+		var last = submit(BAR_A, 0, Instant.EPOCH);
+
+		Assertions.assertTrue(scheduler.prioritize(BAR_A));
+		Assertions.assertFalse(scheduler.prioritize(FOO_C));
+		Assertions.assertEquals(List.of(BAR_A, FOO_A, FOO_B), scheduler.getQueuedUploads());
+
+		blocker.countDown();
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> last.get());
+		Assertions.assertEquals(BAR_A, uploaded.get(0));
+	}
+
+	@Test
+	@DisplayName("cancelled uploads are not listed")
+	public void testCancel() {
+		startBlockedScheduler(UploadOrder.FIFO);
+		submit(FOO_A, 0, Instant.EPOCH).cancel(true);
+		submit(FOO_B, 0, Instant.EPOCH);
+
+		Assertions.assertEquals(List.of(FOO_B), scheduler.getQueuedUploads());
+	}
+
+	@Test
+	@DisplayName("concurrency is limited")
+	public void testConcurrencyLimit() throws InterruptedException {
+		scheduler = new UploadScheduler(2, UploadOrder.FIFO);
+		var started = new CountDownLatch(2);
+		for (int i = 0; i < 3; i++) {
+			scheduler.submit(() -> {
+				started.countDown();
+				blocker.await();
+				return null;
+			});
+		}
+
+		Assertions.assertTrue(started.await(1, TimeUnit.SECONDS));
+		Assertions.assertEquals(2, scheduler.getActiveCount());
+		Assertions.assertEquals(1, scheduler.getQueue().size());
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UploadStageTest {
+
+	private final CountDownLatch blocker = new CountDownLatch(1);
+	private final AtomicInteger cancelled = new AtomicInteger();
+	private UploadStage stage;
+
+	@BeforeEach
+	public void setup() {
+		stage = new UploadStage("test", 1, 1);
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		blocker.countDown();
+		stage.shutdown();
+		Assertions.assertTrue(stage.awaitTermination(1, TimeUnit.SECONDS));
+	}
+
+	private void submitBlocked() throws InterruptedException {
+		stage.submit(() -> {
+			blocker.await();
+			return null;
+		}, cancelled::incrementAndGet);
+	}
+
+	@Test
+	@DisplayName("submit(...) blocks while stage is busy and queue is full")
+	public void testBackpressure() throws InterruptedException {
+		submitBlocked(); // running
+		submitBlocked(); // queued
+
+		var third = CompletableFuture.runAsync(() -> {
+			try {
+				submitBlocked();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		Assertions.assertThrows(Exception.class, () -> third.get(50, TimeUnit.MILLISECONDS));
+		blocker.countDown();
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> third.get());
+	}
+
+	@Test
+	@DisplayName("trySubmit(...) fails instead of blocking while stage is busy and queue is full")
+	public void testTrySubmit() throws InterruptedException {
+		submitBlocked(); // running
+		submitBlocked(); // queued
+
+		var result = stage.trySubmit(() -> null, cancelled::incrementAndGet);
+
+		Assertions.assertTrue(result.isEmpty());
+	}
+
+	@Test
+	@DisplayName("cancelling a queued task invokes callback")
+	public void testCancelQueued() throws InterruptedException {
+		submitBlocked();
+		var queued = stage.submit(() -> {
+			Assertions.fail("must not run");
+			return null;
+		}, cancelled::incrementAndGet);
+
+		Assertions.assertTrue(queued.cancel(true));
+
+		Assertions.assertEquals(1, cancelled.get());
+	}
+
+	@Test
+	@DisplayName("submitting after shutdown is rejected")
+	public void testRejectAfterShutdown() {
+		stage.shutdown();
+
+		Assertions.assertThrows(RejectedExecutionException.class, () -> submitBlocked());
+	}
+
+}
@@ -0,0 +1,206 @@
+package org.cryptomator.fusecloudaccess;
+
+import com.google.common.collect.Range;
+import org.cryptomator.cloudaccess.api.CloudPath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+public class WriteBackJournalTest {
+
+	private static final CloudPath PATH = CloudPath.of("/foo/bär.txt");
+
+	private Path cacheDir;
+	private Path cacheFile;
+	private WriteBackJournal journal;
+	private OpenFile file;
+
+	@BeforeEach
+	public void setup(@TempDir Path tmpDir) throws IOException {
+		var config = Mockito.mock(CloudAccessFSConfig.class);
+		Mockito.when(config.getCacheDir()).thenReturn(tmpDir);
+		this.cacheDir = tmpDir;
+		this.cacheFile = Files.createFile(tmpDir.resolve(UUID.randomUUID().toString()));
+		this.journal = new WriteBackJournal(config);
+		this.file = Mockito.mock(OpenFile.class);
+		Mockito.when(file.getPath()).thenReturn(PATH);
+		Mockito.when(file.getCacheFile()).thenReturn(cacheFile);
+		Mockito.when(file.getSize()).thenReturn(100l);
+		Mockito.when(file.getLastModified()).thenReturn(Instant.ofEpochSecond(42));
+		Mockito.when(file.getMissingRanges()).thenReturn(List.of(Range.closedOpen(0l, 10l), Range.closedOpen(20l, 30l)));
+		Mockito.when(file.isOpen()).thenReturn(true);
+		Mockito.when(file.getState()).thenReturn(OpenFile.State.NEEDS_UPLOAD);
+	}
+
+	@Test
+	@DisplayName("recorded files are loaded")
+	public void testRecordAndLoad() throws IOException {
+		journal.record(file);
+
+		var records = journal.load();
+
+		Mockito.verify(file).force();
+		Assertions.assertEquals(1, records.size());
+		var record = records.get(0);
+		Assertions.assertEquals(PATH, record.path);
+		Assertions.assertEquals(cacheFile.getFileName().toString(), record.cacheFile);
+		Assertions.assertEquals(100l, record.size);
+		Assertions.assertEquals(Instant.ofEpochSecond(42), record.lastModified);
+		Assertions.assertEquals(List.of(Range.closedOpen(0l, 10l), Range.closedOpen(20l, 30l)), record.missingRanges);
+	}
+
+	@Test
+	@DisplayName("paths beyond ISO-8859-1 are loaded unchanged")
+	public void testRecordAndLoadNonLatin1Path() throws IOException {
+		var path = CloudPath.of("/Доку/日本.txt");
+		Mockito.when(file.getPath()).thenReturn(path);
+		journal.record(file);
+
+		var records = journal.load();
+
+		Assertions.assertEquals(1, records.size());
+		Assertions.assertEquals(path, records.get(0).path);
+	}
+
+	@Test
+	@DisplayName("removed files are not loaded")
+	public void testRemove() throws IOException {
+		journal.record(file);
+		journal.remove(file);
+
+		var records = journal.load();
+
+		Assertions.assertTrue(records.isEmpty());
+	}
+
+	@Test
+	@DisplayName("relocate(...) updates path of recorded file")
+	public void testRelocate() throws IOException {
+		var newPath = CloudPath.of("/bar/baz.txt");
+		journal.record(file);
+		Mockito.when(file.getPath()).thenReturn(newPath);
+
+		journal.relocate(file);
+
+		var records = journal.load();
+		Assertions.assertEquals(1, records.size());
+		Assertions.assertEquals(newPath, records.get(0).path);
+		Assertions.assertEquals(100l, records.get(0).size);
+	}
+
+	@Test
+	@DisplayName("relocate(...) ignores files that aren't recorded")
+	public void testRelocateUnrecorded() throws IOException {
+		journal.relocate(file);
+
+		Assertions.assertTrue(journal.load().isEmpty());
+	}
+
+	@Test
+	@DisplayName("load() discards records of missing cache files")
+	public void testLoadMissingCacheFile() throws IOException {
+		journal.record(file);
+		Files.delete(cacheFile);
+
+		var records = journal.load();
+
+		Assertions.assertTrue(records.isEmpty());
+		try (var remaining = Files.list(cacheDir.resolve(WriteBackJournal.JOURNAL_DIR))) {
+			Assertions.assertEquals(0, remaining.count());
+		}
+	}
+
+	@Test
+	@DisplayName("load() deletes unreferenced cache files")
+	public void testLoadDeletesStaleCacheFiles() throws IOException {
+		var staleFile = Files.createFile(cacheDir.resolve(UUID.randomUUID().toString()));
+		var unrelatedFile = Files.createFile(cacheDir.resolve("unrelated.txt"));
+		journal.record(file);
+
+		journal.load();
+
+		Assertions.assertTrue(Files.exists(cacheFile));
+		Assertions.assertTrue(Files.notExists(staleFile));
+		Assertions.assertTrue(Files.exists(unrelatedFile));
+	}
+
+	@Test
+	@DisplayName("load() deletes leftover snapshot overlays")
+	public void testLoadDeletesStaleOverlays() throws IOException {
+		var staleOverlay = Files.createFile(cacheDir.resolve(UUID.randomUUID() + ".tmp"));
+		var unrelatedFile = Files.createFile(cacheDir.resolve("unrelated.tmp"));
+
+		journal.load();
+
+		Assertions.assertTrue(Files.notExists(staleOverlay));
+		Assertions.assertTrue(Files.exists(unrelatedFile));
+	}
+
+	@Test
+	@DisplayName("record(...) ignores files without pending upload")
+	public void testRecordIgnoresUnmodifiedFiles() throws IOException {
+		Mockito.when(file.getState()).thenReturn(OpenFile.State.UNMODIFIED);
+
+		journal.record(file);
+
+		Mockito.verify(file, Mockito.never()).force();
+		Assertions.assertTrue(journal.load().isEmpty());
+	}
+
+	@Test
+	@DisplayName("record(...) ignores closed files")
+	public void testRecordIgnoresClosedFiles() throws IOException {
+		Mockito.when(file.isOpen()).thenReturn(false);
+
+		journal.record(file);
+
+		Assertions.assertTrue(journal.load().isEmpty());
+	}
+
+	@Test
+	@DisplayName("recordLater(...) records files in the background")
+	public void testRecordLater() throws IOException, InterruptedException {
+		journal.recordLater(file);
+		journal.flush();
+
+		var records = journal.load();
+
+		Mockito.verify(file).force();
+		Assertions.assertEquals(1, records.size());
+		Assertions.assertEquals(PATH, records.get(0).path);
+	}
+
+	@Test
+	@DisplayName("recordLater(...) records synchronously after flushing")
+	public void testRecordLaterAfterFlush() throws IOException, InterruptedException {
+		journal.flush();
+
+		journal.recordLater(file);
+
+		Assertions.assertEquals(1, journal.load().size());
+	}
+
+	@Test
+	@DisplayName("load() skips invalid records")
+	public void testLoadInvalidRecord() throws IOException {
+		var journalDir = Files.createDirectories(cacheDir.resolve(WriteBackJournal.JOURNAL_DIR));
+		Files.writeString(journalDir.resolve("invalid.pending"), "path=/foo\nsize=NaN\n");
+		Files.writeString(journalDir.resolve("incomplete.tmp"), "path=/f");
+
+		var records = journal.load();
+
+		Assertions.assertTrue(records.isEmpty());
+		Assertions.assertTrue(Files.notExists(journalDir.resolve("incomplete.tmp")));
+	}
+
+}
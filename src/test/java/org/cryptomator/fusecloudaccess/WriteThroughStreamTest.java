@@ -0,0 +1,126 @@
+package org.cryptomator.fusecloudaccess;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.*;
+
+public class WriteThroughStreamTest {
+
+	private CompletableAsynchronousFileChannel fc;
+	private WriteThroughStream stream;
+
+	@BeforeEach
+	public void setup(@TempDir Path tmpDir) throws IOException {
+		this.fc = new CompletableAsynchronousFileChannel(AsynchronousFileChannel.open(tmpDir.resolve("cache.file"), CREATE_NEW, READ, WRITE));
+		this.stream = new WriteThroughStream(fc, 10);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		stream.close();
+		fc.close();
+	}
+
+	private void write(long offset, byte... data) throws ExecutionException, InterruptedException {
+		Assertions.assertTrue(stream.announce(offset, data.length));
+		fc.writeAll(ByteBuffer.wrap(data), offset).get();
+		stream.written(offset, data.length);
+	}
+
+	@Test
+	@DisplayName("reads follow sequential writes")
+	public void testSequentialWrites() throws ExecutionException, InterruptedException {
+		var reader = CompletableFuture.supplyAsync(() -> {
+			try {
+				return stream.readAllBytes();
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+		write(0, (byte) 0, (byte) 1, (byte) 2, (byte) 3);
+		Assertions.assertThrows(Exception.class, () -> reader.get(50, TimeUnit.MILLISECONDS));
+		write(4, (byte) 4, (byte) 5, (byte) 6, (byte) 7, (byte) 8, (byte) 9);
+		stream.finish();
+
+		var content = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> reader.get());
+
+		Assertions.assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, content);
+		Assertions.assertFalse(stream.isAborted());
+	}
+
+	@Test
+	@DisplayName("non-sequential write aborts pending reads")
+	public void testNonSequentialWrite() throws ExecutionException, InterruptedException, IOException {
+		write(0, (byte) 0, (byte) 1);
+		var buf = new byte[2];
+		Assertions.assertEquals(2, stream.read(buf));
+
+		Assertions.assertFalse(stream.announce(0, 2));
+
+		Assertions.assertTrue(stream.isAborted());
+		var thrown = Assertions.assertThrows(IOException.class, () -> stream.read(buf));
+		Assertions.assertTrue(thrown.getMessage().contains("non-sequential write"));
+	}
+
+	@Test
+	@DisplayName("write beyond announced size aborts")
+	public void testWriteBeyondSize() {
+		Assertions.assertFalse(stream.announce(0, 11));
+
+		Assertions.assertTrue(stream.isAborted());
+	}
+
+	@Test
+	@DisplayName("finish() aborts incomplete write")
+	public void testFinishIncomplete() throws ExecutionException, InterruptedException {
+		write(0, (byte) 0, (byte) 1);
+
+		stream.finish();
+
+		Assertions.assertTrue(stream.isAborted());
+	}
+
+	@Test
+	@DisplayName("awaitFinished() waits for the writer to finish")
+	public void testAwaitFinished() throws ExecutionException, InterruptedException {
+		var finished = CompletableFuture.supplyAsync(() -> {
+			try {
+				return stream.awaitFinished();
+			} catch (InterruptedException e) {
+				throw new CompletionException(e);
+			}
+		});
+		write(0, (byte) 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5, (byte) 6, (byte) 7, (byte) 8, (byte) 9);
+		Assertions.assertThrows(Exception.class, () -> finished.get(50, TimeUnit.MILLISECONDS));
+
+		stream.finish();
+
+		Assertions.assertTrue(Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> finished.get()));
+	}
+
+	@Test
+	@DisplayName("awaitFinished() fails if aborted")
+	public void testAwaitFinishedAborted() throws ExecutionException, InterruptedException {
+		write(0, (byte) 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5, (byte) 6, (byte) 7, (byte) 8, (byte) 9);
+
+		stream.abort("test");
+
+		Assertions.assertFalse(stream.awaitFinished());
+	}
+
+}
@@ -46,4 +46,13 @@ public class FilePathsTest {
 
 	}
 
+	@Test
+	public void testHierarchicalOrder() {
+		Assertions.assertTrue(FilePaths.HIERARCHICAL_ORDER.compare("/foo", "/foo/bar") < 0);
+		Assertions.assertTrue(FilePaths.HIERARCHICAL_ORDER.compare("/foo/bar", "/foo!") < 0);
+		Assertions.assertTrue(FilePaths.HIERARCHICAL_ORDER.compare("/foo/bar", "/foo") > 0);
+		Assertions.assertTrue(FilePaths.HIERARCHICAL_ORDER.compare("/bar", "/foo") < 0);
+		Assertions.assertEquals(0, FilePaths.HIERARCHICAL_ORDER.compare("/foo//bar/", "/foo/bar"));
+	}
+
 }
@@ -61,6 +61,37 @@ public class LockManagerTest {
 			Assertions.assertFalse(lockManager.isPathLocked("/foo/bar/baz"));
 		}
 
+		@Test
+		@DisplayName("lock nodes are shared and removed once released")
+		public void testNodesRemovedAfterRelease() {
+			LockManager lockManager = new LockManager();
+			try (PathLock lock = lockManager.createPathLock("foo//bar/qux").forWriting()) {
+				PathLock pathLock = lockManager.createPathLock("/foo/bar/baz").forReading();
+				Assertions.assertEquals(4, lockManager.countNodes());
+				try (DataLock dataLock = pathLock.lockDataForWriting()) {
+					pathLock.close(); // closing path lock before data lock must not drop the data lock
+					Assertions.assertEquals(4, lockManager.countNodes());
+					Assertions.assertTrue(lockManager.isDataLocked("/foo/bar/baz"));
+				}
+				Assertions.assertEquals(3, lockManager.countNodes());
+			}
+			Assertions.assertEquals(0, lockManager.countNodes());
+		}
+
+		@Test
+		@DisplayName("write lock on root excludes locks on descendants")
+		public void testRootLock() throws InterruptedException {
+			LockManager lockManager = new LockManager();
+			PathLock rootLock = lockManager.createPathLock("/").forWriting();
+			Thread thread = new Thread(() -> lockManager.createPathLock("/foo").forReading().close());
+			thread.start();
+			thread.join(100);
+			Assertions.assertTrue(thread.isAlive());
+			rootLock.close();
+			thread.join(1000);
+			Assertions.assertFalse(thread.isAlive());
+		}
+
 		@Test
 		@DisplayName("read locks are shared")
 		public void testMultipleReadLocks() {
@@ -129,6 +160,81 @@ public class LockManagerTest {
 
 	}
 
+	@Nested
+	@DisplayName("Optimistic reads")
+	class OptimisticReadTests {
+
+		@Test
+		@DisplayName("optimistic read is valid if no write lock has been acquired")
+		public void testValid() {
+			LockManager lockManager = new LockManager();
+			long stamp = lockManager.tryOptimisticRead("/foo/bar");
+			try (PathLock pathLock = lockManager.createPathLock("/foo/bar").forReading(); //
+				 DataLock dataLock = pathLock.lockDataForReading()) {
+				// readers don't interfere
+			}
+			Assertions.assertNotEquals(0, stamp);
+			Assertions.assertTrue(lockManager.validate("/foo/bar", stamp));
+		}
+
+		@Test
+		@DisplayName("optimistic read fails while write lock is held on the path or an ancestor")
+		public void testWriteLockHeld() {
+			LockManager lockManager = new LockManager();
+			try (PathLock pathLock = lockManager.createPathLock("/foo").forWriting()) {
+				Assertions.assertEquals(0, lockManager.tryOptimisticRead("/foo"));
+				Assertions.assertEquals(0, lockManager.tryOptimisticRead("/foo/bar"));
+				Assertions.assertFalse(lockManager.validate("/foo", 0));
+			}
+			Assertions.assertNotEquals(0, lockManager.tryOptimisticRead("/foo"));
+			Assertions.assertNotEquals(0, lockManager.tryOptimisticRead("/foo/bar"));
+		}
+
+		@Test
+		@DisplayName("optimistic read is invalidated by path write lock")
+		public void testInvalidatedByPathLock() {
+			LockManager lockManager = new LockManager();
+			long stamp = lockManager.tryOptimisticRead("/baz");
+			lockManager.createPathLock("/baz").forWriting().close();
+			Assertions.assertFalse(lockManager.validate("/baz", stamp));
+		}
+
+		@Test
+		@DisplayName("optimistic read is invalidated by path write lock on an ancestor")
+		public void testInvalidatedByAncestorPathLock() {
+			LockManager lockManager = new LockManager();
+			long stamp = lockManager.tryOptimisticRead("/foo/bar/baz");
+			lockManager.createPathLock("/foo").forWriting().close();
+			Assertions.assertFalse(lockManager.validate("/foo/bar/baz", stamp));
+		}
+
+		@Test
+		@DisplayName("optimistic read is invalidated by data write lock")
+		public void testInvalidatedByDataLock() {
+			LockManager lockManager = new LockManager();
+			long stamp = lockManager.tryOptimisticRead("/foo/bar");
+			try (PathLock pathLock = lockManager.createPathLock("/foo/bar").forReading(); //
+				 DataLock dataLock = pathLock.lockDataForWriting(0, 1)) {
+				Assertions.assertFalse(lockManager.validate("/foo/bar", stamp));
+			}
+			Assertions.assertFalse(lockManager.validate("/foo/bar", stamp));
+		}
+
+		@Test
+		@DisplayName("optimistic read is not affected by write locks on unrelated paths")
+		public void testUnrelatedWriteLock() {
+			LockManager lockManager = new LockManager();
+			long stamp = lockManager.tryOptimisticRead("/foo/bar");
+			try (PathLock pathLock = lockManager.createPathLock("/foo/baz").forWriting(); //
+				 DataLock dataLock = pathLock.lockDataForWriting()) {
+				Assertions.assertNotEquals(0, lockManager.tryOptimisticRead("/foo/bar"));
+				Assertions.assertTrue(lockManager.validate("/foo/bar", stamp));
+			}
+			Assertions.assertTrue(lockManager.validate("/foo/bar", stamp));
+		}
+
+	}
+
 	@Nested
 	@DisplayName("DataLocks")
 	class DataLockTests {
@@ -203,4 +309,126 @@ public class LockManagerTest {
 
 	}
 
+	@Nested
+	@DisplayName("DataLocks on byte ranges")
+	class RangeDataLockTests {
+
+		@Test
+		@DisplayName("write locks on disjoint ranges are shared")
+		public void testDisjointWriteLocks() {
+			LockManager lockManager = new LockManager();
+			int numThreads = 8;
+			ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+			CountDownLatch done = new CountDownLatch(numThreads);
+			AtomicInteger counter = new AtomicInteger();
+			AtomicInteger maxCounter = new AtomicInteger();
+
+			for (int i = 0; i < numThreads; i++) {
+				int threadnum = i;
+				threadPool.submit(() -> {
+					try (PathLock pathLock = lockManager.createPathLock("/foo/bar/baz").forReading(); //
+						 DataLock dataLock = pathLock.lockDataForWriting(threadnum * 100, 100)) {
+						counter.incrementAndGet();
+						Thread.sleep(50);
+						maxCounter.set(Math.max(counter.get(), maxCounter.get()));
+						counter.decrementAndGet();
+					} catch (InterruptedException e) {
+						LOG.error("thread interrupted", e);
+					}
+					done.countDown();
+				});
+			}
+
+			Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> { // deadlock protection
+				done.await();
+			});
+			Assertions.assertEquals(numThreads, maxCounter.get());
+		}
+
+		@Test
+		@DisplayName("write locks on overlapping ranges are exclusive")
+		public void testOverlappingWriteLocks() {
+			LockManager lockManager = new LockManager();
+			int numThreads = 8;
+			ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+			CountDownLatch done = new CountDownLatch(numThreads);
+			AtomicInteger counter = new AtomicInteger();
+			AtomicInteger maxCounter = new AtomicInteger();
+
+			for (int i = 0; i < numThreads; i++) {
+				int threadnum = i;
+				threadPool.submit(() -> {
+					try (PathLock pathLock = lockManager.createPathLock("/foo/bar/baz").forReading(); //
+						 DataLock dataLock = pathLock.lockDataForWriting(threadnum * 100, 101)) { // overlapping by one byte
+						counter.incrementAndGet();
+						Thread.sleep(10);
+						maxCounter.set(Math.max(counter.get(), maxCounter.get()));
+						counter.decrementAndGet();
+					} catch (InterruptedException e) {
+						LOG.error("thread interrupted", e);
+					}
+					done.countDown();
+				});
+			}
+
+			Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> { // deadlock protection
+				done.await();
+			});
+			Assertions.assertTrue(maxCounter.get() < numThreads);
+		}
+
+		@Test
+		@DisplayName("write lock on whole file waits for range locks")
+		public void testWholeFileLockWaitsForRangeLock() throws InterruptedException {
+			LockManager lockManager = new LockManager();
+			CountDownLatch rangeLocked = new CountDownLatch(1);
+			CountDownLatch releaseRangeLock = new CountDownLatch(1);
+			AtomicInteger order = new AtomicInteger();
+			AtomicInteger wholeFileLockedAt = new AtomicInteger();
+			AtomicInteger rangeReleasedAt = new AtomicInteger();
+
+			Thread t = new Thread(() -> {
+				try (PathLock pathLock = lockManager.createPathLock("/foo").forReading(); //
+					 DataLock dataLock = pathLock.lockDataForReading(1000, 10)) {
+					rangeLocked.countDown();
+					releaseRangeLock.await();
+					rangeReleasedAt.set(order.incrementAndGet());
+				} catch (InterruptedException e) {
+					LOG.error("thread interrupted", e);
+				}
+			});
+			t.start();
+			rangeLocked.await();
+			Assertions.assertTrue(lockManager.isDataLocked("/foo"));
+
+			Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> { // deadlock protection
+				releaseRangeLock.countDown();
+				try (PathLock pathLock = lockManager.createPathLock("/foo").forReading(); //
+					 DataLock dataLock = pathLock.lockDataForWriting()) {
+					wholeFileLockedAt.set(order.incrementAndGet());
+				}
+				t.join();
+			});
+			Assertions.assertTrue(rangeReleasedAt.get() < wholeFileLockedAt.get());
+			Assertions.assertFalse(lockManager.isDataLocked("/foo"));
+		}
+
+		@Test
+		@DisplayName("data locks are reentrant")
+		public void testReentrantLocks() {
+			LockManager lockManager = new LockManager();
+
+			Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> { // deadlock protection
+				try (PathLock pathLock = lockManager.createPathLock("/foo").forReading(); //
+					 DataLock dataLock1 = pathLock.lockDataForWriting(); //
+					 DataLock dataLock2 = pathLock.lockDataForWriting(0, 100); //
+					 DataLock dataLock3 = pathLock.lockDataForReading(50, 100)) {
+					Assertions.assertTrue(lockManager.isDataLocked("/foo"));
+				}
+			});
+			Assertions.assertFalse(lockManager.isDataLocked("/foo"));
+		}
+
+	}
+
 }